@@ -0,0 +1,61 @@
+package com.datastax.field.examples.geo.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.datastax.field.examples.geo.util.CQLUtil;
+
+/**
+ * The input cleansing run on every name query (a single pass over the input).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CQLUtilBenchmark {
+
+	/**
+	 * a plain type-ahead term, one that needs every kind of escaping, and a long pasted one.
+	 */
+	@Param({ "pizz", " Joe's \"Pizza\";  (2nd)* <b> ", "the quick brown fox jumps over the lazy dog; the quick brown fox jumps over the lazy dog" })
+	public String input;
+
+	private final StringBuilder sb = new StringBuilder(256);
+
+	@Benchmark
+	public String cleanseInput() {
+		return CQLUtil.cleanseInput(input);
+	}
+
+	@Benchmark
+	public String cleanseQueryStr() {
+		return CQLUtil.cleanseQueryStr(input);
+	}
+
+	@Benchmark
+	public String cleanseSolrTerm() {
+		return CQLUtil.cleanseSolrTerm(input);
+	}
+
+	/**
+	 * into a reused builder, as the solr_query is built.
+	 */
+	@Benchmark
+	public int appendSolrTerm() {
+		sb.setLength(0);
+		return CQLUtil.appendSolrTerm(sb, input).length();
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.datastax.field.examples.geo.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.datastax.field.examples.geo.controller.LocationFinderController;
+import com.datastax.field.examples.geo.service.LocationFinderService;
+import com.datastax.field.examples.geo.service.QueryResult;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * The request validation and response assembly of the controller. The service is replaced by one that returns
+ * canned results, so only the controller's own work is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControllerValidationBenchmark {
+
+	private final LocationFinderService service = new CannedLocationFinderService();
+
+	@Benchmark
+	public JsonObject validSuggest() {
+		return LocationFinderController.geoNameSuggestWithPointAndRadius(service, "pizz", "44.9778", "-93.2650", "5.0", false);
+	}
+
+	@Benchmark
+	public JsonObject invalidSuggest() {
+		return LocationFinderController.geoNameSuggestWithPointAndRadius(service, "", "91.0", "east", null, false);
+	}
+
+	@Benchmark
+	public String validPivot() {
+		return LocationFinderController.geoFilterPivotOnCateogory(service, "44.9", "-93.3", "45.0", "-93.2");
+	}
+
+	@Benchmark
+	public String invalidPivot() {
+		return LocationFinderController.geoFilterPivotOnCateogory(service, "44.9", "-193.3", "north", null);
+	}
+
+
+	static class CannedLocationFinderService extends LocationFinderService {
+
+		private static final JsonArray NAMES = new JsonArray();
+		static {
+			NAMES.add("Pizza Hut");
+			NAMES.add("Pizza Luce");
+		}
+
+		@Override
+		public QueryResult<JsonArray> nameSuggestWithPointAndRadius( String name, double lat, double lng, double radiusInKm ) {
+			return new QueryResult<>("SELECT name, geo FROM simplegeo.locations WHERE solr_query = ? LIMIT ?", new Object[]{ name, 50 }, NAMES, 0L);
+		}
+
+		@Override
+		public QueryResult<String> geoFilterPivotOnCateogory( double lllat, double lllng, double urlat, double urlng ) {
+			return new QueryResult<>("SELECT * FROM simplegeo.locations WHERE solr_query = ?", new Object[]{ "" },
+					"{\"category\":[{\"field\":\"category\",\"value\":\"Food & Dining\",\"count\":42}]}", 0L);
+		}
+	}
+
+}
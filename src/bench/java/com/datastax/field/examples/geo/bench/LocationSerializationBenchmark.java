@@ -0,0 +1,101 @@
+package com.datastax.field.examples.geo.bench;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.datastax.driver.core.Row;
+import com.datastax.driver.dse.geometry.Point;
+import com.datastax.field.examples.geo.service.LocationJsonWriter;
+import com.google.common.io.ByteStreams;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Mapping location rows to the JSON response: streamed with LocationJsonWriter (what the service does), and
+ * as a Gson tree that is serialized afterwards (how it was done before, kept as the baseline).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class LocationSerializationBenchmark {
+
+	@Param({ "1", "100", "1000" })
+	public int rows;
+
+	private List<Row> locations;
+
+	@Setup
+	public void setup() {
+		locations = SyntheticRows.locations(rows);
+	}
+
+	@Benchmark
+	public JsonWriter streamed() throws IOException {
+		JsonWriter out = new JsonWriter(new OutputStreamWriter(ByteStreams.nullOutputStream(), StandardCharsets.UTF_8));
+		LocationJsonWriter.writeLocations(out, SyntheticRows.resultSet(locations));
+		out.flush();
+		return out;
+	}
+
+	@Benchmark
+	public String cachedFragments() {
+		String last = null;
+		for( Row row : locations ){
+			last = LocationJsonWriter.toJson(row);
+		}
+		return last;
+	}
+
+	@Benchmark
+	public String gsonTree() {
+		JsonArray array = new JsonArray();
+		for( Row row : locations ){
+			array.add(locationRowToJsonObject(row));
+		}
+		return array.toString();
+	}
+
+
+	private static JsonObject locationRowToJsonObject( Row row ) {
+
+		JsonObject obj = new JsonObject();
+		obj.addProperty("id", row.getString("id"));
+		obj.addProperty("name", row.getString("name"));
+		obj.addProperty("address", row.getString("address"));
+		obj.addProperty("city", row.getString("city"));
+		obj.addProperty("province", row.getString("province"));
+		obj.addProperty("phone", row.getString("phone"));
+		obj.addProperty("post_code", row.getString("post_code"));
+		obj.addProperty("category", row.getString("category"));
+		obj.addProperty("subcategory", row.getString("subcategory"));
+		obj.addProperty("website", row.getString("website"));
+		obj.addProperty("menulink", row.getString("menulink"));
+
+		Point geo = (Point) row.getObject("geo");
+		JsonObject geoObj = new JsonObject();
+		geoObj.addProperty("lng", geo.X());
+		geoObj.addProperty("lat", geo.Y());
+		obj.add("geo", geoObj);
+		return obj;
+	}
+
+}
@@ -0,0 +1,59 @@
+package com.datastax.field.examples.geo.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.datastax.field.examples.geo.service.LocationStatements;
+
+/**
+ * Building the solr_query JSON bound into the prepared statements, and rendering a statement for the debug output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBuilderBenchmark {
+
+	public double lat = 44.9778;
+	public double lng = -93.2650;
+
+	private String nameQuery;
+
+	@Setup
+	public void setup() {
+		nameQuery = LocationStatements.nameWithinRadiusJson("Joe's Pizza", lat, lng, 0.045);
+	}
+
+	@Benchmark
+	public String nameWithinRadiusJson() {
+		return LocationStatements.nameWithinRadiusJson("Joe's Pizza", lat, lng, 0.045);
+	}
+
+	@Benchmark
+	public String locationsOnCategoryJson() {
+		return LocationStatements.locationsOnCategoryJson("Food & Dining", "Pizza", lat, lng, lat + 0.1, lng + 0.1);
+	}
+
+	@Benchmark
+	public String pivotOnCategoryAndSubcategoryJson() {
+		return LocationStatements.pivotOnCategoryAndSubcategoryJson(lat, lng, lat + 0.1, lng + 0.1);
+	}
+
+	@Benchmark
+	public String describe() {
+		return LocationStatements.describe("SELECT name, geo FROM simplegeo.locations WHERE solr_query = ? LIMIT ?", nameQuery, 50);
+	}
+
+}
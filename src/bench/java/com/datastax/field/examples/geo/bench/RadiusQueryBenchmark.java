@@ -0,0 +1,121 @@
+package com.datastax.field.examples.geo.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.datastax.field.examples.geo.index.LocationTable;
+import com.datastax.field.examples.geo.index.SpatialGridIndex;
+import com.datastax.field.examples.geo.util.GeoCircle;
+import com.datastax.field.examples.geo.util.GeoUtil;
+
+/**
+ * A point and radius query on the grid of the local index: the bounding box pre-filter, then the distance
+ * post-filter. "circle" is what the name queries do (GeoCircle), "baseline" how it was done before: the radius
+ * converted with the latitude taken as radians, a box radius / cos(lat) wide and the full haversine per row.
+ *
+ * The counters are per query: candidates are the rows in the box (what the post-filter tests), matches the rows
+ * within the radius (what a BUFFER of that radius returns from DSE Search).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class RadiusQueryBenchmark {
+
+	@Param({ "0", "45", "80" })
+	public double lat;
+
+	@Param({ "5", "50" })
+	public double radiusInKm;
+
+	public double lng = 179.9;
+
+	private SpatialGridIndex grid;
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Counters {
+
+		public long candidates;
+		public long matches;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			candidates = 0;
+			matches = 0;
+		}
+	}
+
+	@Setup
+	public void setup() {
+		Random random = new Random(1);
+		LocationTable.Builder builder = new LocationTable.Builder();
+		for( int i = 0; i < 200000; i++ ){
+			double pointLng = lng - 10.0 + random.nextDouble() * 20.0;
+			builder.add("id", "name", null, null, null, null, null, null, null, null, null, null,
+					lat - 2.0 + random.nextDouble() * 4.0, pointLng > 180.0 ? pointLng - 360.0 : pointLng);
+		}
+		grid = new SpatialGridIndex(builder.build());
+	}
+
+	@Benchmark
+	public long circle( Counters counters ) {
+
+		GeoCircle circle = GeoCircle.ofKilometers(lat, lng, radiusInKm);
+		double[] box = circle.boundingBox();
+		LocationTable table = grid.table();
+		long[] found = {0, 0};
+
+		grid.search(box[0], box[1], box[2], box[3], null, row -> {
+			found[0]++;
+			if( circle.contains(table.lat(row), table.lng(row)) ){
+				found[1]++;
+			}
+			return true;
+		});
+		return count(counters, found);
+	}
+
+	@Benchmark
+	public long baseline( Counters counters ) {
+
+		double radiusInDegrees = radiusInKm / (111.13295 - 0.55982 * Math.cos(2 * lat) + 0.00117 * Math.cos(4 * lat));
+		double dLng = Math.min(180.0d, radiusInDegrees / Math.cos(Math.toRadians(lat)));
+		double lllng = lng - dLng < -180.0d ? lng - dLng + 360.0d : lng - dLng;
+		double urlng = lng + dLng > 180.0d ? lng + dLng - 360.0d : lng + dLng;
+		LocationTable table = grid.table();
+		long[] found = {0, 0};
+
+		grid.search(Math.max(-90.0d, lat - radiusInDegrees), lllng, Math.min(90.0d, lat + radiusInDegrees), urlng, null, row -> {
+			found[0]++;
+			if( GeoUtil.distanceInDegrees(lat, lng, table.lat(row), table.lng(row)) <= radiusInDegrees ){
+				found[1]++;
+			}
+			return true;
+		});
+		return count(counters, found);
+	}
+
+	private static long count( Counters counters, long[] found ) {
+		counters.candidates += found[0];
+		counters.matches += found[1];
+		return found[1];
+	}
+
+}
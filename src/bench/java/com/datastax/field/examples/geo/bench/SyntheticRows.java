@@ -0,0 +1,116 @@
+package com.datastax.field.examples.geo.bench;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.dse.geometry.Point;
+
+/**
+ * Stand-ins for the driver's Row and ResultSet, so the row mapping can be benchmarked without DSE.
+ *
+ * Only the methods the service and the JSON writer call are implemented (get by column name, iteration),
+ * anything else throws UnsupportedOperationException.
+ */
+public class SyntheticRows {
+
+	private static final String[] CATEGORIES = { "Food & Dining", "Shopping", "Services", "Health & Medicine" };
+	private static final String[] SUBCATEGORIES = { "Restaurant", "Pizza", "Bakery", "Dentist", "Auto Repair" };
+
+	/**
+	 * @return a simplegeo.locations row with every column set, values vary with i
+	 */
+	public static Row location( int i ){
+		Map<String, Object> columns = new HashMap<>();
+		columns.put("id", "SG_" + Integer.toHexString(0x5f3759df * (i + 1)) + "_44.977800_-93.265000");
+		columns.put("name", "Joe's \"Famous\" Pizza #" + i);
+		columns.put("name_lowercase", "joe's \"famous\" pizza #" + i);
+		columns.put("address", (100 + i) + " Hennepin Ave");
+		columns.put("city", "Minneapolis");
+		columns.put("province", "MN");
+		columns.put("phone", "+1 612 555 " + (1000 + i % 9000));
+		columns.put("post_code", "55401");
+		columns.put("category", CATEGORIES[i % CATEGORIES.length]);
+		columns.put("subcategory", SUBCATEGORIES[i % SUBCATEGORIES.length]);
+		columns.put("website", i % 3 == 0 ? null : "http://www.joespizza" + i + ".com");
+		columns.put("menulink", null);
+		columns.put("geo", new Point(-93.265 + (i % 100) * 0.001, 44.9778 + (i / 100) * 0.001));
+		return row(columns);
+	}
+
+	public static List<Row> locations( int count ){
+		List<Row> rows = new ArrayList<>(count);
+		for( int i = 0; i < count; i++ ){
+			rows.add(location(i));
+		}
+		return rows;
+	}
+
+	public static Row row( Map<String, Object> columns ){
+		return (Row) Proxy.newProxyInstance(Row.class.getClassLoader(), new Class<?>[]{ Row.class }, (proxy, method, args) -> {
+			switch( method.getName() ){
+			case "getString":
+			case "getObject":
+				if( args[0] instanceof String ){
+					return columns.get(args[0]);
+				}
+				break;
+			case "isNull":
+				if( args[0] instanceof String ){
+					return columns.get(args[0]) == null;
+				}
+				break;
+			case "toString":
+				return "Row" + columns;
+			}
+			throw new UnsupportedOperationException("Row." + method.getName());
+		});
+	}
+
+	/**
+	 * @return a fully fetched result set over the rows, it can be iterated once
+	 */
+	public static ResultSet resultSet( List<Row> rows ){
+		Iterator<Row> iterator = rows.iterator();
+		int[] consumed = {0};
+		return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ ResultSet.class }, (proxy, method, args) -> {
+			switch( method.getName() ){
+			case "iterator":
+				return new Iterator<Row>() {
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+					@Override
+					public Row next() {
+						consumed[0]++;
+						return iterator.next();
+					}
+				};
+			case "one":
+				consumed[0]++;
+				return iterator.hasNext() ? iterator.next() : null;
+			case "all":
+				List<Row> remaining = new ArrayList<>();
+				iterator.forEachRemaining(remaining::add);
+				consumed[0] = rows.size();
+				return remaining;
+			case "getAvailableWithoutFetching":
+				return rows.size() - consumed[0];
+			case "isFullyFetched":
+				return true;
+			case "isExhausted":
+				return !iterator.hasNext();
+			case "toString":
+				return "ResultSet" + rows.size();
+			}
+			throw new UnsupportedOperationException("ResultSet." + method.getName());
+		});
+	}
+
+}
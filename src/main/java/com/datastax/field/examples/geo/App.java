@@ -2,6 +2,8 @@ package com.datastax.field.examples.geo;
 
 
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.EnumSet;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -15,8 +17,12 @@ import org.springframework.context.annotation.AnnotationConfigApplicationContext
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 
+import com.datastax.field.examples.geo.config.DseConfig;
 import com.datastax.field.examples.geo.config.WebConfig;
+import com.datastax.field.examples.geo.ingest.LocationLoader;
+import com.datastax.field.examples.geo.metrics.ApiMetrics;
 import com.datastax.field.examples.geo.service.LocationFinderService;
+import com.datastax.field.examples.geo.service.QueryType;
 import com.google.common.base.Strings;
 
 @Configuration
@@ -27,6 +33,34 @@ public class App
 	public static String CASSANDRA_USER;
 	public static String CASSANDRA_PASS;
 	public static boolean USE_SSL = false;
+	public static boolean ASYNC = false;
+	public static int MAX_IN_FLIGHT = 1024;
+	public static long ASYNC_TIMEOUT_MS = 30000;
+	public static long QUEUE_TIMEOUT_MS = 1000;
+	public static boolean VIRTUAL_THREADS = false;
+	public static boolean DEBUG = false;
+	public static EnumSet<QueryType> LOCAL_INDEX = EnumSet.noneOf(QueryType.class);
+	public static long LOCAL_INDEX_REFRESH_MINUTES = 60;
+	public static EnumSet<QueryType> SHADOW = EnumSet.noneOf(QueryType.class);
+	public static double SHADOW_SAMPLE = 1.0d;
+	public static int SHADOW_MAX_IN_FLIGHT = 64;
+	public static long CACHE_SIZE = 0;
+	public static long CACHE_TTL_SECONDS = 60;
+	public static long COALESCE_WAIT_MS = 1000;
+	public static double QUERY_LOG_SAMPLE = 0.01d;
+	public static int CONNECTIONS_PER_HOST = 0;
+	public static int MAX_REQUESTS_PER_CONNECTION = 0;
+	public static String LOCAL_DC;
+	public static boolean LATENCY_AWARE = false;
+	public static int READ_TIMEOUT_MS = 0;
+	public static long SPECULATIVE_DELAY_MS = 0;
+	public static int SPECULATIVE_MAX = 2;
+	public static int MAX_PAGE_SIZE = 1000;
+	public static int GZIP_MIN_BYTES = 1024;
+	public static int BATCH_MAX_QUERIES = 50;
+	public static int BATCH_CONCURRENCY = 4;
+	public static String INGEST_FILE;
+	public static int INGEST_CONCURRENCY = 128;
 	
 	final static Logger logger = LoggerFactory.getLogger(App.class);
 	
@@ -53,17 +87,135 @@ public class App
         if ( cmd.hasOption("ssl"))
         	USE_SSL = true;
         
+        if ( cmd.hasOption("async"))
+        	ASYNC = true;
+        
+        String maxInFlight = cmd.getOptionValue("max-inflight");
+        if( maxInFlight != null )
+        	MAX_IN_FLIGHT = Integer.parseInt(maxInFlight);
+        
+        String asyncTimeout = cmd.getOptionValue("async-timeout");
+        if( asyncTimeout != null )
+        	ASYNC_TIMEOUT_MS = Long.parseLong(asyncTimeout);
+        
+        String queueTimeout = cmd.getOptionValue("queue-timeout");
+        if( queueTimeout != null )
+        	QUEUE_TIMEOUT_MS = Long.parseLong(queueTimeout);
+        
+        if ( cmd.hasOption("virtual-threads"))
+        	VIRTUAL_THREADS = true;
+        
+        if ( cmd.hasOption("debug"))
+        	DEBUG = true;
+        
+        String localIndex = cmd.getOptionValue("local-index");
+        if( localIndex != null )
+        	LOCAL_INDEX = QueryType.parse(localIndex);
+        
+        String localIndexRefresh = cmd.getOptionValue("local-index-refresh");
+        if( localIndexRefresh != null )
+        	LOCAL_INDEX_REFRESH_MINUTES = Long.parseLong(localIndexRefresh);
+        
+        String shadow = cmd.getOptionValue("shadow");
+        if( shadow != null )
+        	SHADOW = QueryType.parse(shadow);
+        
+        String shadowSample = cmd.getOptionValue("shadow-sample");
+        if( shadowSample != null )
+        	SHADOW_SAMPLE = Double.parseDouble(shadowSample);
+        
+        String shadowMaxInFlight = cmd.getOptionValue("shadow-max-inflight");
+        if( shadowMaxInFlight != null )
+        	SHADOW_MAX_IN_FLIGHT = Integer.parseInt(shadowMaxInFlight);
+        
+        String cacheSize = cmd.getOptionValue("cache");
+        if( cacheSize != null )
+        	CACHE_SIZE = Long.parseLong(cacheSize);
+        
+        String cacheTtl = cmd.getOptionValue("cache-ttl");
+        if( cacheTtl != null )
+        	CACHE_TTL_SECONDS = Long.parseLong(cacheTtl);
+        
+        String coalesceWait = cmd.getOptionValue("coalesce-wait");
+        if( coalesceWait != null )
+        	COALESCE_WAIT_MS = Long.parseLong(coalesceWait);
+        
+        String logSample = cmd.getOptionValue("log-sample");
+        if( logSample != null )
+        	QUERY_LOG_SAMPLE = Double.parseDouble(logSample);
+        
+        String connectionsPerHost = cmd.getOptionValue("connections-per-host");
+        if( connectionsPerHost != null )
+        	CONNECTIONS_PER_HOST = Integer.parseInt(connectionsPerHost);
+        
+        String maxRequestsPerConnection = cmd.getOptionValue("max-requests-per-connection");
+        if( maxRequestsPerConnection != null )
+        	MAX_REQUESTS_PER_CONNECTION = Integer.parseInt(maxRequestsPerConnection);
+        
+        String localDc = cmd.getOptionValue("local-dc");
+        if( localDc != null )
+        	LOCAL_DC = localDc;
+        
+        if ( cmd.hasOption("latency-aware"))
+        	LATENCY_AWARE = true;
+        
+        String readTimeout = cmd.getOptionValue("read-timeout");
+        if( readTimeout != null )
+        	READ_TIMEOUT_MS = Integer.parseInt(readTimeout);
+        
+        String speculativeDelay = cmd.getOptionValue("speculative-delay");
+        if( speculativeDelay != null )
+        	SPECULATIVE_DELAY_MS = Long.parseLong(speculativeDelay);
+        
+        String speculativeMax = cmd.getOptionValue("speculative-max");
+        if( speculativeMax != null )
+        	SPECULATIVE_MAX = Integer.parseInt(speculativeMax);
+        
+        String maxPageSize = cmd.getOptionValue("max-page-size");
+        if( maxPageSize != null )
+        	MAX_PAGE_SIZE = Integer.parseInt(maxPageSize);
+        
+        String gzipMinSize = cmd.getOptionValue("gzip-min-size");
+        if( gzipMinSize != null )
+        	GZIP_MIN_BYTES = Integer.parseInt(gzipMinSize);
+        
+        String batchMaxQueries = cmd.getOptionValue("batch-max-queries");
+        if( batchMaxQueries != null )
+        	BATCH_MAX_QUERIES = Integer.parseInt(batchMaxQueries);
+        
+        String batchConcurrency = cmd.getOptionValue("batch-concurrency");
+        if( batchConcurrency != null )
+        	BATCH_CONCURRENCY = Integer.parseInt(batchConcurrency);
+        
+        String ingest = cmd.getOptionValue("ingest");
+        if( ingest != null )
+        	INGEST_FILE = ingest;
+        
+        String ingestConcurrency = cmd.getOptionValue("ingest-concurrency");
+        if( ingestConcurrency != null )
+        	INGEST_CONCURRENCY = Integer.parseInt(ingestConcurrency);
+        
         // if the HOST is null or empty, just print the usage. 
         if( Strings.isNullOrEmpty(HOST) ){
         	
         	HelpFormatter formatter = new HelpFormatter();
         	formatter.printHelp( "java -jar geofinder-api.jar", options );
         	
+        } else if( INGEST_FILE != null ){
+        	logger.info( "Loading " + INGEST_FILE + " into simplegeo.locations on: " + host );
+        	// only the session and the loader, not the services and the web server
+        	boolean loaded;
+        	try (AnnotationConfigApplicationContext ctx = new AnnotationConfigApplicationContext(DseConfig.class, LocationLoader.class)) {
+        		loaded = ctx.getBean(LocationLoader.class).load(Paths.get(INGEST_FILE));
+        	}
+        	if( !loaded )
+        		System.exit(1);
+        	
         } else {
         	logger.info( "Starting up and connecting to: " + host );
             AnnotationConfigApplicationContext ctx = new AnnotationConfigApplicationContext(App.class);
             
-            new WebConfig(ctx.getBean(LocationFinderService.class));
+            new WebConfig(ctx.getBean(LocationFinderService.class), ctx.getBean(ApiMetrics.class));
             ctx.registerShutdownHook();
         }
     }
@@ -76,6 +228,34 @@ public class App
     	o.addOption("u", "user", true, "Cassandra username");
     	o.addOption("p", "password", true, "Cassandra user password");
     	o.addOption("s", "ssl" , false, "Use SSL, expects a truststore.jks file to be in current directory" );
+    	o.addOption("a", "async", false, "Serve the /api routes asynchronously (executeAsync, no thread held per request)");
+    	o.addOption("mi", "max-inflight", true, "Max concurrent in-flight /api requests (default 1024)");
+    	o.addOption("at", "async-timeout", true, "Async request timeout in milliseconds (default 30000)");
+    	o.addOption("qt", "queue-timeout", true, "How long a blocking request waits for an in-flight slot in milliseconds (default 1000)");
+    	o.addOption("vt", "virtual-threads", false, "Handle requests on virtual threads (requires Java 21+, see the loom profile)");
+    	o.addOption("d", "debug", false, "Echo the executed query in every /api response (per request: debug=true)");
+    	o.addOption("li", "local-index", true, "Query types answered from an in-memory copy of simplegeo.locations instead of DSE Search, comma separated: filter,pivot,suggest,search,cluster (clusters are only served from it)");
+    	o.addOption("lr", "local-index-refresh", true, "Reload the local index every n minutes, 0 disables (default 60)");
+    	o.addOption("sh", "shadow", true, "Query types also run on the other engine (DSE Search or local index) in the background, logging result and latency differences, comma separated: filter,pivot,suggest,search");
+    	o.addOption("ss", "shadow-sample", true, "Fraction of the shadowed queries that are run on the other engine, 0 disables (default 1)");
+    	o.addOption("si", "shadow-max-inflight", true, "Max shadow queries in flight, the others are not run but counted as dropped (default 64)");
+    	o.addOption("c", "cache", true, "Cache up to n DSE Search results per map area, 0 disables (default 0)");
+    	o.addOption("ct", "cache-ttl", true, "How long a cached result is used in seconds (default 60)");
+    	o.addOption("cw", "coalesce-wait", true, "How long a pivot or name suggest query waits for an identical query in flight before it is sent on its own, in milliseconds, 0 disables coalescing (default 1000)");
+    	o.addOption("ls", "log-sample", true, "Fraction of the queries written to geofinder.log (off the request thread), 0 disables (default 0.01)");
+    	o.addOption("cph", "connections-per-host", true, "Connections to each local host, 0 keeps the driver default of 1 (default 0)");
+    	o.addOption("mrc", "max-requests-per-connection", true, "Concurrent requests per connection, 0 keeps the driver default of 1024 (default 0)");
+    	o.addOption("dc", "local-dc", true, "Only send queries to the hosts of this datacenter");
+    	o.addOption("la", "latency-aware", false, "Route queries away from hosts that are much slower than the fastest one");
+    	o.addOption("rt", "read-timeout", true, "Read timeout of the search queries in milliseconds, 0 keeps the driver default of 12000 (default 0)");
+    	o.addOption("sd", "speculative-delay", true, "Also send a search query to the next host if it did not answer after n milliseconds, 0 disables (default 0)");
+    	o.addOption("sm", "speculative-max", true, "Max speculative executions per search query (default 2)");
+    	o.addOption("mp", "max-page-size", true, "Max num_results of a bbox location listing (default 1000)");
+    	o.addOption("gz", "gzip-min-size", true, "Gzip the /api responses of at least n bytes for clients that accept it, -1 disables (default 1024)");
+    	o.addOption("bm", "batch-max-queries", true, "Max queries in a POST /api/batch request (default 50)");
+    	o.addOption("bc", "batch-concurrency", true, "How many queries of a batch run at the same time (default 4)");
+    	o.addOption("in", "ingest", true, "Load a .csv or JSON lines file into simplegeo.locations and exit, instead of serving the API (resumes after a failed run)");
+    	o.addOption("ic", "ingest-concurrency", true, "Max writes in flight while loading a file (default 128)");
     	return o;
     }
 }
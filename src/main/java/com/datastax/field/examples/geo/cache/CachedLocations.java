@@ -0,0 +1,48 @@
+package com.datastax.field.examples.geo.cache;
+
+import java.util.List;
+
+/**
+ * The rows of a query over a snapped (larger) area, kept so the rows of any request within that area can be cut out
+ * of it: the coordinates of every row and the value kept of the row (e.g. a JSON object or a name).
+ *
+ * Rows are in the order DSE Search returned them.
+ */
+public class CachedLocations<T> {
+
+	private final double[] lat;
+	private final double[] lng;
+	private final List<T> values;
+	private final boolean truncated;
+
+	/**
+	 * @param truncated true if the query hit its LIMIT, so there may be more rows in the area than were fetched
+	 */
+	public CachedLocations( double[] lat, double[] lng, List<T> values, boolean truncated ) {
+		this.lat = lat;
+		this.lng = lng;
+		this.values = values;
+		this.truncated = truncated;
+	}
+
+	public int size() {
+		return values.size();
+	}
+
+	public double lat( int i ) {
+		return lat[i];
+	}
+
+	public double lng( int i ) {
+		return lng[i];
+	}
+
+	public T value( int i ) {
+		return values.get(i);
+	}
+
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+}
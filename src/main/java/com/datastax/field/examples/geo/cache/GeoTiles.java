@@ -0,0 +1,76 @@
+package com.datastax.field.examples.geo.cache;
+
+/**
+ * Snaps bounding boxes and points to a grid of square tiles (in degrees), so requests for nearly the same map view
+ * share a cache key.
+ *
+ * Tile sizes are powers of two fractions of 360 degrees (zoom z: 360 / 2^z), picked from the size of the request so a
+ * view spans about TILES_PER_SPAN tiles. Snapped coordinates are exact multiples of the tile size, so they can be
+ * compared with equals.
+ */
+public class GeoTiles {
+
+	public static final int TILES_PER_SPAN = 4;
+	public static final int PIXELS_PER_TILE = 256;
+
+	private static final int MAX_ZOOM = 30;
+
+
+	/**
+	 * @return the zoom whose tiles fit TILES_PER_SPAN times in the span
+	 */
+	public static int zoomFor( double span ){
+		if( !(span > 0.0d) ){
+			return MAX_ZOOM;
+		}
+		int zoom = (int) Math.ceil(Math.log(360.0d * TILES_PER_SPAN / span) / Math.log(2));
+		return Math.max(0, Math.min(MAX_ZOOM, zoom));
+	}
+
+	public static double tileSize( int zoom ){
+		return 360.0d / (1L << zoom);
+	}
+
+	/**
+	 * Grows the box to the tile grid of its zoom.
+	 * 
+	 * @return { lllat, lllng, urlat, urlng } of the snapped box, never smaller than the given box
+	 */
+	public static double[] snapOutward( double lllat, double lllng, double urlat, double urlng ){
+		double tile = tileSize(zoomFor(Math.max(urlat - lllat, urlng - lllng)));
+		return new double[]{
+				Math.max(-90.0d, Math.floor(lllat / tile) * tile),
+				Math.max(-180.0d, Math.floor(lllng / tile) * tile),
+				Math.min(90.0d, Math.ceil(urlat / tile) * tile),
+				Math.min(180.0d, Math.ceil(urlng / tile) * tile) };
+	}
+
+	/**
+	 * Moves every edge of the box to the closest pixel (a tile has PIXELS_PER_TILE pixels) of its zoom.
+	 * 
+	 * @return { lllat, lllng, urlat, urlng } of the snapped box
+	 */
+	public static double[] snapToPixel( double lllat, double lllng, double urlat, double urlng ){
+		double pixel = tileSize(zoomFor(Math.max(urlat - lllat, urlng - lllng))) / PIXELS_PER_TILE;
+		return new double[]{
+				Math.max(-90.0d, Math.rint(lllat / pixel) * pixel),
+				Math.max(-180.0d, Math.rint(lllng / pixel) * pixel),
+				Math.min(90.0d, Math.rint(urlat / pixel) * pixel),
+				Math.min(180.0d, Math.rint(urlng / pixel) * pixel) };
+	}
+
+	/**
+	 * Moves a point to the center of its tile, for a circle of the given radius.
+	 * 
+	 * @return { lat, lng, tile size } of the snapped point. The snapped point is at most tile * sqrt(2) / 2 degrees
+	 * away from the given point.
+	 */
+	public static double[] snapPoint( double lat, double lng, double radiusInDegrees ){
+		double tile = tileSize(zoomFor(2 * radiusInDegrees));
+		return new double[]{
+				Math.max(-90.0d, Math.min(90.0d, (Math.floor(lat / tile) + 0.5d) * tile)),
+				Math.max(-180.0d, Math.min(180.0d, (Math.floor(lng / tile) + 0.5d) * tile)),
+				tile };
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.datastax.field.examples.geo.cache;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.datastax.field.examples.geo.App;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.gson.JsonObject;
+
+/**
+ * Caches query results per snapped area (see GeoTiles), evicted by size (App.CACHE_SIZE entries) and
+ * age (App.CACHE_TTL_SECONDS).
+ *
+ * The cache holds the future of a result, not the result: concurrent requests for a key that is being
+ * loaded share the one query in flight. A failed load is removed, so the next request tries again.
+ */
+@Component
+public class LocationResultCache {
+
+	final static Logger logger = LoggerFactory.getLogger(LocationResultCache.class);
+
+	private Cache<List<Object>, CompletableFuture<?>> cache;
+
+
+	@PostConstruct
+	public void init() {
+		if( App.CACHE_SIZE > 0 ){
+			logger.info("LocationResultCache : caching up to " + App.CACHE_SIZE + " results for " + App.CACHE_TTL_SECONDS + " s");
+			this.cache = CacheBuilder.newBuilder()
+					.maximumSize(App.CACHE_SIZE)
+					.expireAfterWrite(App.CACHE_TTL_SECONDS, TimeUnit.SECONDS)
+					.recordStats()
+					.build();
+		}
+	}
+
+	public boolean isEnabled() {
+		return cache != null;
+	}
+
+	/**
+	 * @param key the parts of the key, e.g. the query type and the snapped coordinates
+	 * @return the cached (possibly still running) result, or the future returned by the loader
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> CompletableFuture<T> get( Supplier<CompletableFuture<T>> loader, Object... key ) {
+
+		List<Object> cacheKey = Arrays.asList(key);
+		CompletableFuture<T> future;
+		try {
+			future = (CompletableFuture<T>) cache.get(cacheKey, loader::get);
+		} catch (ExecutionException e) {
+			CompletableFuture<T> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e.getCause());
+			return failed;
+		}
+
+		future.whenComplete((result, t) -> {
+			if( t != null ){
+				cache.asMap().remove(cacheKey, future);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * @return hit / miss counts, the number of cached results and how many were evicted
+	 */
+	public JsonObject stats() {
+
+		JsonObject json = new JsonObject();
+		json.addProperty("enabled", isEnabled());
+		if( isEnabled() ){
+			CacheStats stats = cache.stats();
+			json.addProperty("size", cache.size());
+			json.addProperty("hits", stats.hitCount());
+			json.addProperty("misses", stats.missCount());
+			json.addProperty("hit_rate", stats.hitRate());
+			json.addProperty("load_failures", stats.loadExceptionCount());
+			json.addProperty("evictions", stats.evictionCount());
+		}
+		return json;
+	}
+
+}
@@ -0,0 +1,238 @@
+package com.datastax.field.examples.geo.cache;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.datastax.field.examples.geo.App;
+import com.datastax.field.examples.geo.util.FutureUtil;
+import com.google.common.base.Throwables;
+import com.google.gson.JsonObject;
+
+/**
+ * Coalesces identical concurrent queries: while a query is in flight, the same query (same key, e.g. the statement
+ * and its solr_query) waits for its result instead of being sent again. Unlike the result cache nothing is kept
+ * once the query completed, so a result is never older than the request that gets it.
+ *
+ * A waiting query gives up after App.COALESCE_WAIT_MS and runs on its own, a slow query does not hold up the
+ * others longer than that. If the shared query fails, the waiting queries retry once (coalesced again), the
+ * query that failed reports its failure.
+ *
+ * The result is shared by every waiting query, so only results that can be read more than once (a String, a
+ * JsonArray) may be coalesced, not a result set that is streamed.
+ */
+@Component
+public class QueryCoalescer {
+
+	final static Logger logger = LoggerFactory.getLogger(QueryCoalescer.class);
+
+	/**
+	 * the waiting queries are completed on this executor, not one after the other on the thread that completed the query.
+	 */
+	@Autowired
+	private ExecutorService dseCallbackExecutor;
+
+	private final ConcurrentMap<List<Object>, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+
+	private final LongAdder queries = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+
+	private long waitMillis;
+	private ScheduledExecutorService timer;
+
+
+	public QueryCoalescer() {
+	}
+
+	QueryCoalescer( long waitMillis, ExecutorService executor ) {
+		this.dseCallbackExecutor = executor;
+		start(waitMillis);
+	}
+
+	@PostConstruct
+	public void init() {
+		start(App.COALESCE_WAIT_MS);
+	}
+
+	private void start( long waitMillis ) {
+		this.waitMillis = waitMillis;
+		if( waitMillis > 0 ){
+			logger.info("QueryCoalescer : identical queries wait up to " + waitMillis + " ms for the one in flight");
+			timer = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "query-coalescer-timer");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	@PreDestroy
+	public void stop() {
+		if( timer != null ){
+			timer.shutdownNow();
+		}
+	}
+
+	public boolean isEnabled() {
+		return waitMillis > 0;
+	}
+
+	/**
+	 * @param query sends the query (without blocking), if no identical query is in flight
+	 * @param key the parts of the key, e.g. the CQL and the solr_query
+	 * @return the result of the query in flight, or of the query
+	 */
+	public <T> CompletableFuture<T> get( Supplier<CompletableFuture<T>> query, Object... key ) {
+		return get(query, Arrays.asList(key), true);
+	}
+
+	/**
+	 * The blocking variant of get: the query runs on the calling thread, if it runs.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T join( Supplier<T> query, Object... key ) {
+
+		List<Object> flightKey = Arrays.asList(key);
+		for( boolean retry = true; ; retry = false ){
+
+			CompletableFuture<T> flight = new CompletableFuture<>();
+			CompletableFuture<T> shared = (CompletableFuture<T>) inFlight.putIfAbsent(flightKey, flight);
+
+			if( shared == null ){
+				queries.increment();
+				try {
+					T result = query.get();
+					inFlight.remove(flightKey, flight);
+					flight.complete(result);
+					return result;
+				} catch (RuntimeException e) {
+					inFlight.remove(flightKey, flight);
+					flight.completeExceptionally(e);
+					throw e;
+				}
+			}
+
+			coalesced.increment();
+			try {
+				return shared.get(waitMillis, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				timeouts.increment();
+				return query.get();
+			} catch (ExecutionException e) {
+				if( !retry ){
+					Throwable cause = FutureUtil.unwrap(e);
+					Throwables.throwIfUnchecked(cause);
+					throw new IllegalStateException(cause);
+				}
+				retries.increment();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted while waiting for a coalesced query", e);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> CompletableFuture<T> get( Supplier<CompletableFuture<T>> query, List<Object> key, boolean retry ) {
+
+		CompletableFuture<T> flight = new CompletableFuture<>();
+		CompletableFuture<T> shared = (CompletableFuture<T>) inFlight.putIfAbsent(key, flight);
+
+		if( shared == null ){
+			queries.increment();
+			run(query).whenComplete((result, t) -> {
+				inFlight.remove(key, flight);
+				if( t != null ){
+					flight.completeExceptionally(t);
+				} else {
+					flight.complete(result);
+				}
+			});
+			return flight;
+		}
+
+		coalesced.increment();
+		CompletableFuture<T> waiting = new CompletableFuture<>();
+
+		ScheduledFuture<?> timeout = timer.schedule(() -> {
+			if( !waiting.isDone() ){
+				timeouts.increment();
+				complete(waiting, run(query));
+			}
+		}, waitMillis, TimeUnit.MILLISECONDS);
+
+		shared.whenCompleteAsync((result, t) -> {
+			timeout.cancel(false);
+			if( t == null ){
+				waiting.complete(result);
+			} else if( retry && !waiting.isDone() ){
+				retries.increment();
+				complete(waiting, get(query, key, false));
+			} else {
+				waiting.completeExceptionally(t);
+			}
+		}, dseCallbackExecutor);
+
+		return waiting;
+	}
+
+	/**
+	 * @return how many queries were sent, how many waited for an identical one, and how many of those ran on their
+	 * own after all (timeouts) or retried after a failure
+	 */
+	public JsonObject stats() {
+
+		JsonObject json = new JsonObject();
+		json.addProperty("enabled", isEnabled());
+		if( isEnabled() ){
+			json.addProperty("in_flight", inFlight.size());
+			json.addProperty("queries", queries.sum());
+			json.addProperty("coalesced", coalesced.sum());
+			json.addProperty("timeouts", timeouts.sum());
+			json.addProperty("retries", retries.sum());
+		}
+		return json;
+	}
+
+	private static <T> CompletableFuture<T> run( Supplier<CompletableFuture<T>> query ) {
+		try {
+			return query.get();
+		} catch (RuntimeException e) {
+			CompletableFuture<T> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+	}
+
+	private static <T> void complete( CompletableFuture<T> target, CompletableFuture<T> source ) {
+		source.whenComplete((result, t) -> {
+			if( t != null ){
+				target.completeExceptionally(t);
+			} else {
+				target.complete(result);
+			}
+		});
+	}
+
+}
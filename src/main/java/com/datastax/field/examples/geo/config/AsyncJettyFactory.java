@@ -0,0 +1,87 @@
+package com.datastax.field.examples.geo.config;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import spark.embeddedserver.EmbeddedServer;
+import spark.embeddedserver.EmbeddedServerFactory;
+import spark.embeddedserver.jetty.EmbeddedJettyServer;
+import spark.embeddedserver.jetty.JettyHandler;
+import spark.embeddedserver.jetty.JettyServerFactory;
+import spark.http.matching.MatcherFilter;
+import spark.route.Routes;
+import spark.staticfiles.StaticFilesConfiguration;
+
+/**
+ * Spark's embedded Jetty server, except that Spark sees the response of a request that went async as committed.
+ *
+ * Spark writes the return value of a route and closes the response unless it is committed. The response of an
+ * async request (see AsyncResponder) is thus left alone once the route returns, and its status, headers and body
+ * are only set when the body exists.
+ */
+public class AsyncJettyFactory implements EmbeddedServerFactory {
+
+	private final ThreadPool threadPool;
+
+	/**
+	 * @param threadPool of the server, null for the default one
+	 */
+	public AsyncJettyFactory( ThreadPool threadPool ) {
+		this.threadPool = threadPool;
+	}
+
+	@Override
+	public EmbeddedServer create( Routes routes, StaticFilesConfiguration staticFilesConfiguration, boolean hasMultipleHandler ) {
+		MatcherFilter matcherFilter = new MatcherFilter(routes, staticFilesConfiguration, false, hasMultipleHandler);
+		matcherFilter.init(null);
+		return new EmbeddedJettyServer(new ServerFactory(), new AsyncJettyHandler(matcherFilter)).withThreadPool(threadPool);
+	}
+
+
+	private static class AsyncJettyHandler extends JettyHandler {
+
+		AsyncJettyHandler( MatcherFilter filter ) {
+			super(filter);
+		}
+
+		@Override
+		public void doHandle( String target, org.eclipse.jetty.server.Request baseRequest, HttpServletRequest request,
+				HttpServletResponse response ) throws IOException, ServletException {
+
+			super.doHandle(target, baseRequest, request, new HttpServletResponseWrapper(response) {
+				@Override
+				public boolean isCommitted() {
+					return super.isCommitted() || request.isAsyncStarted();
+				}
+			});
+		}
+	}
+
+	/**
+	 * the servers Spark creates by default
+	 */
+	private static class ServerFactory implements JettyServerFactory {
+
+		@Override
+		public Server create( int maxThreads, int minThreads, int threadTimeoutMillis ) {
+			if( maxThreads <= 0 ){
+				return new Server();
+			}
+			return new Server(new QueuedThreadPool(maxThreads, minThreads > 0 ? minThreads : 8, threadTimeoutMillis > 0 ? threadTimeoutMillis : 60000));
+		}
+
+		@Override
+		public Server create( ThreadPool threadPool ) {
+			return threadPool == null ? new Server() : new Server(threadPool);
+		}
+	}
+
+}
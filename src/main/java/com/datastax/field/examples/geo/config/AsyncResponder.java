@@ -0,0 +1,189 @@
+package com.datastax.field.examples.geo.config;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datastax.field.examples.geo.metrics.RequestTimer;
+import com.datastax.field.examples.geo.util.FutureUtil;
+import com.datastax.field.examples.geo.util.JsonWritable;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import spark.Request;
+import spark.Response;
+
+/**
+ * Completes Spark responses from a CompletableFuture without holding the Jetty worker thread.
+ *
+ * The servlet request is put in async mode, which makes Spark leave the response alone once the route
+ * returns (see AsyncJettyFactory). When the future completes, the status and body are written on a writer
+ * thread, not on the thread that completed the future (a DSE callback thread): a slow client only holds a
+ * writer. The async context is then completed. A failed request is answered with a 500, a timed out one with
+ * a 504, an error response has no ETag (see EntityTags).
+ *
+ * The number of in-flight requests is bounded by the InFlightLimiter, requests over the limit get a 503. A
+ * request holds its permit until its future completes, also when it was answered with a 504 first: the query
+ * is still running in DSE.
+ */
+public class AsyncResponder {
+
+	final static Logger logger = LoggerFactory.getLogger(AsyncResponder.class);
+
+	private final InFlightLimiter inFlight;
+	private final long timeoutMillis;
+	/**
+	 * writes the bodies, there are at most as many writers as requests in flight.
+	 */
+	private final ExecutorService writer = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "async-response-writer");
+		t.setDaemon(true);
+		return t;
+	});
+
+	public AsyncResponder( InFlightLimiter inFlight, long timeoutMillis ) {
+		this.inFlight = inFlight;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+
+	public Object respond( Request req, Response res, Supplier<? extends CompletableFuture<?>> work ) throws IOException {
+		return respond(req, res, "application/json", work);
+	}
+
+	/**
+	 * @param contentType of a 200 response: errors (no permit, a timeout, a failed query) are written as a JSON
+	 * message, with the application/json type
+	 */
+	public Object respond( Request req, Response res, String contentType, Supplier<? extends CompletableFuture<?>> work ) throws IOException {
+
+		res.type(contentType);
+
+		if( !inFlight.tryAcquire() ){
+			res.status(503);
+			res.type("application/json");
+			EntityTags.remove(res.raw());
+			return error("Too many requests in flight (max " + inFlight.getMaxInFlight() + "), try again later");
+		}
+
+		AsyncContext asyncContext = req.raw().startAsync();
+		asyncContext.setTimeout(timeoutMillis);
+
+		AtomicBoolean done = new AtomicBoolean(false);
+
+		asyncContext.addListener(new AsyncListener() {
+			@Override
+			public void onTimeout(AsyncEvent event) throws IOException {
+				// the container expects the request to be completed before this returns
+				if( done.compareAndSet(false, true) ){
+					write(asyncContext, 504, error("Request timed out after " + timeoutMillis + " ms"));
+				}
+			}
+			@Override
+			public void onError(AsyncEvent event) throws IOException {
+				if( done.compareAndSet(false, true) ){
+					write(asyncContext, 500, null);
+				}
+			}
+			@Override
+			public void onComplete(AsyncEvent event) throws IOException {
+			}
+			@Override
+			public void onStartAsync(AsyncEvent event) throws IOException {
+			}
+		});
+
+		CompletableFuture<?> future;
+		try {
+			future = work.get();
+		} catch (RuntimeException e) {
+			CompletableFuture<Object> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			future = failed;
+		}
+
+		future.whenComplete( (body, t) -> {
+			inFlight.release();
+			if( t != null ){
+				Throwable cause = FutureUtil.unwrap(t);
+				logger.error("async request failed: " + req.uri(), cause);
+				finish(asyncContext, done, 500, error(String.valueOf(cause.getMessage())));
+			} else {
+				finish(asyncContext, done, 200, body);
+			}
+		});
+
+		// the request is async, Spark will not serialize this (see AsyncJettyFactory).
+		return "";
+	}
+
+
+	/**
+	 * Writes the response on a writer thread, unless it was already written (or is being written).
+	 */
+	private void finish( AsyncContext asyncContext, AtomicBoolean done, int status, Object body ){
+		if( done.compareAndSet(false, true) ){
+			writer.execute(() -> write(asyncContext, status, body));
+		}
+	}
+
+	/**
+	 * @param body a JsonWritable is streamed, a byte[] written as is, anything else is written as its toString(),
+	 * gzipped as the blocking responses are (see ResponseCompression)
+	 */
+	private void write( AsyncContext asyncContext, int status, Object body ){
+
+		RequestTimer timer = RequestTimer.of(asyncContext.getRequest());
+		HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+		try {
+			response.setStatus(status);
+			if( status != 200 ){
+				response.setContentType("application/json");
+				EntityTags.remove(response);
+			}
+			ResponseCompression.BodyOutputStream out = ResponseCompression.open((HttpServletRequest) asyncContext.getRequest(), response);
+			if( body instanceof JsonWritable ){
+				WebConfig.writeJson(timer, out, (JsonWritable) body);
+			} else if( body != null ){
+				long start = System.nanoTime();
+				byte[] bytes = body instanceof byte[] ? (byte[]) body : body.toString().getBytes(StandardCharsets.UTF_8);
+				out.write(bytes);
+				if( timer != null ){
+					timer.serialized(System.nanoTime() - start, bytes.length);
+				}
+			}
+			out.finish();
+		} catch (IOException | RuntimeException e) {
+			logger.warn("could not write async response: " + e.getMessage());
+		} finally {
+			if( timer != null ){
+				timer.finish(response.getStatus());
+			}
+			asyncContext.complete();
+		}
+	}
+
+	static String error( String message ){
+		JsonArray messages = new JsonArray();
+		messages.add(message);
+
+		JsonObject response = new JsonObject();
+		response.addProperty("success", false);
+		response.add("messages", messages);
+		return response.toString();
+	}
+
+}
@@ -1,9 +1,17 @@
 package com.datastax.field.examples.geo.config;
 
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.PoolingOptions;
+import com.datastax.driver.core.policies.ConstantSpeculativeExecutionPolicy;
+import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
+import com.datastax.driver.core.policies.LatencyAwarePolicy;
+import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
 import com.datastax.driver.dse.DseCluster;
 import com.datastax.driver.dse.DseSession;
 import com.datastax.driver.dse.auth.DsePlainTextAuthProvider;
 import com.datastax.field.examples.geo.App;
+import com.google.common.base.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Bean;
@@ -11,18 +19,27 @@ import org.springframework.context.annotation.Configuration;
 
 import javax.annotation.PreDestroy;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
 @Configuration
 public class DseConfig {
 	
 	private DseCluster dseCluster;
 	
 	private DseSession dseSession;
+	
+	private ExecutorService dseCallbackExecutor;
 	final Logger logger = LoggerFactory.getLogger(DseConfig.class);
 
 
 	/**
 	 * reference:  https://docs.datastax.com/en/developer/java-driver/3.6/manual/ssl/
 	 *
+	 * The pooling, load balancing and speculative execution options are only set when given on the
+	 * command line (see App.cliOptions), otherwise the driver defaults apply.
+	 *
 	 * @return DseCluster
 	 */
 	@Bean 
@@ -32,33 +49,83 @@ public class DseConfig {
 
 		logger.info("DseConfig : connecting to cluster");
 
-		DseCluster.Builder builder = DseCluster.builder();
-
-		if( App.HOST == null || App.HOST.equals("") ){
+		DseCluster.Builder builder = DseCluster.builder()
+				.addContactPoint(Strings.isNullOrEmpty(App.HOST) ? "localhost" : App.HOST)
+				.withPoolingOptions(poolingOptions());
 
-			this.dseCluster = builder.addContactPoint("localhost").build();
-
-		} else {
+		LoadBalancingPolicy loadBalancingPolicy = loadBalancingPolicy();
+		if( loadBalancingPolicy != null ){
+			builder.withLoadBalancingPolicy(loadBalancingPolicy);
+		}
 
-			builder.addContactPoint(App.HOST);
-			
-			if( App.CASSANDRA_USER != null && App.CASSANDRA_PASS != null ){
+		if( App.SPECULATIVE_DELAY_MS > 0 ){
+			// only statements marked idempotent (the search reads, see LocationStatements) are speculatively executed.
+			builder.withSpeculativeExecutionPolicy(new ConstantSpeculativeExecutionPolicy(App.SPECULATIVE_DELAY_MS, App.SPECULATIVE_MAX));
+			logger.info("DseConfig : speculative executions after " + App.SPECULATIVE_DELAY_MS + " ms, at most " + App.SPECULATIVE_MAX);
+		}
 
-				builder.addContactPoint(App.HOST)
-						.withAuthProvider(new DsePlainTextAuthProvider(App.CASSANDRA_USER, App.CASSANDRA_PASS));
+		if( App.CASSANDRA_USER != null && App.CASSANDRA_PASS != null ){
 
-				if( App.USE_SSL ){
-					builder.withSSL();
-				 }
+			builder.withAuthProvider(new DsePlainTextAuthProvider(App.CASSANDRA_USER, App.CASSANDRA_PASS));
 
-			}
+			if( App.USE_SSL ){
+				builder.withSSL();
+			 }
 
-			this.dseCluster = builder.build();
 		}
 
+		this.dseCluster = builder.build();
 		return this.dseCluster;
 	}
 	
+	/**
+	 * With protocol v3+ the driver opens one connection per local host, which carries up to 1024 requests.
+	 */
+	private static PoolingOptions poolingOptions() {
+		
+		PoolingOptions pooling = new PoolingOptions();
+		if( App.CONNECTIONS_PER_HOST > 0 ){
+			pooling.setConnectionsPerHost(HostDistance.LOCAL, App.CONNECTIONS_PER_HOST, App.CONNECTIONS_PER_HOST);
+		}
+		if( App.MAX_REQUESTS_PER_CONNECTION > 0 ){
+			pooling.setMaxRequestsPerConnection(HostDistance.LOCAL, App.MAX_REQUESTS_PER_CONNECTION);
+		}
+		return pooling;
+	}
+	
+	/**
+	 * Token aware over DC aware round robin (the driver's default policy), restricted to App.LOCAL_DC if given.
+	 * Latency aware routing excludes hosts that are much slower than the fastest host from the query plan for
+	 * a while, so one busy search node does not set the tail latency.
+	 *
+	 * @return null to keep the driver default
+	 */
+	private LoadBalancingPolicy loadBalancingPolicy() {
+		
+		if( Strings.isNullOrEmpty(App.LOCAL_DC) && !App.LATENCY_AWARE ){
+			return null;
+		}
+		
+		DCAwareRoundRobinPolicy.Builder dcAware = DCAwareRoundRobinPolicy.builder();
+		if( !Strings.isNullOrEmpty(App.LOCAL_DC) ){
+			dcAware.withLocalDc(App.LOCAL_DC);
+			logger.info("DseConfig : routing queries to datacenter " + App.LOCAL_DC);
+		}
+		
+		LoadBalancingPolicy policy = dcAware.build();
+		if( App.LATENCY_AWARE ){
+			policy = LatencyAwarePolicy.builder(policy)
+					.withExclusionThreshold(2.0d)
+					.withScale(100, TimeUnit.MILLISECONDS)
+					.withRetryPeriod(10, TimeUnit.SECONDS)
+					.withUpdateRate(100, TimeUnit.MILLISECONDS)
+					.withMininumMeasurements(50)
+					.build();
+			logger.info("DseConfig : latency aware load balancing");
+		}
+		return new TokenAwarePolicy(policy);
+	}
+	
 	
 	@Bean 
 	public DseSession dseSession() {
@@ -69,9 +136,23 @@ public class DseConfig {
 	
 	
 	
+	/**
+	 * Executor for the work that depends on an async query result (mapping rows, writing the response),
+	 * so nothing blocks the driver's I/O threads.
+	 *
+	 * @return ExecutorService
+	 */
+	@Bean
+	public ExecutorService dseCallbackExecutor() {
+		this.dseCallbackExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2);
+		return this.dseCallbackExecutor;
+	}
+	
+	
 	@PreDestroy
 	public void cleanUp() {
 		logger.info("Shutting down dseSession and dseCluster");
+		dseCallbackExecutor.shutdown();
 		dseSession.close();
 		dseCluster.close();
 	}
@@ -0,0 +1,106 @@
+package com.datastax.field.examples.geo.config;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.datastax.field.examples.geo.util.DoubleParser;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Strong ETags of the GET /api responses.
+ *
+ * The tag is computed before the query runs, from what determines the response: the data version of the engine
+ * that answers it (see LocationFinderService.dataVersion), the path, the normalized query parameters and the
+ * representation the client negotiated (Accept, and whether it accepts gzip). A request whose If-None-Match still
+ * matches is answered with a 304 without running the query.
+ *
+ * The tag is set before the query runs, an error response (a timeout, a failed query, no permit) removes it again
+ * (see remove), so a client never revalidates an error.
+ */
+public class EntityTags {
+
+	/**
+	 * parsed as the controller parses them (see DoubleParser), so "45.10" and "45.1" are the same query.
+	 */
+	private static final Set<String> NUMERIC_PARAMS = new HashSet<>(Arrays.asList("lat", "lng", "r", "lllat", "lllng", "urlat", "urlng"));
+
+
+	/**
+	 * @param dataVersion see LocationFinderService.dataVersion
+	 * @param params the query parameters
+	 * @param accept the Accept header, may be null
+	 * @param gzip true if the body may be gzipped
+	 * @return the quoted tag
+	 */
+	public String of( String dataVersion, String path, Map<String, String[]> params, String accept, boolean gzip ){
+
+		Hasher hasher = Hashing.murmur3_128().newHasher()
+				.putString(dataVersion, StandardCharsets.UTF_8)
+				.putString(path, StandardCharsets.UTF_8)
+				.putByte((byte) 0);
+
+		for( Map.Entry<String, String[]> param : new TreeMap<>(params).entrySet() ){
+			hasher.putString(param.getKey(), StandardCharsets.UTF_8).putByte((byte) '=');
+			for( String value : param.getValue() ){
+				hasher.putString(normalize(param.getKey(), value), StandardCharsets.UTF_8).putByte((byte) 0);
+			}
+		}
+
+		hasher.putString(Strings.nullToEmpty(accept), StandardCharsets.UTF_8).putBoolean(gzip);
+		return '"' + hasher.hash().toString() + '"';
+	}
+
+	/**
+	 * Removes the tag of a response that is not committed yet, e.g. because it is an error.
+	 */
+	public static void remove( HttpServletResponse response ){
+		response.setHeader("ETag", null);
+	}
+
+	/**
+	 * @param ifNoneMatch the If-None-Match header, a list of (possibly weak) tags or *, may be null
+	 * @return true if the tag is in the list
+	 */
+	public static boolean matches( String ifNoneMatch, String etag ){
+
+		if( ifNoneMatch == null ){
+			return false;
+		}
+
+		for( String tag : ifNoneMatch.split(",") ){
+			tag = tag.trim();
+			if( tag.equals("*") ){
+				return true;
+			}
+			// If-None-Match uses the weak comparison
+			if( tag.startsWith("W/") ){
+				tag = tag.substring(2);
+			}
+			if( tag.equals(etag) ){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String normalize( String param, String value ){
+		String trimmed = value.trim();
+		if( NUMERIC_PARAMS.contains(param) ){
+			double number = DoubleParser.parse(trimmed);
+			// if invalid, the response is an error message that depends on the value as sent
+			if( !Double.isNaN(number) ){
+				return String.valueOf(number);
+			}
+		}
+		return value;
+	}
+
+}
@@ -0,0 +1,48 @@
+package com.datastax.field.examples.geo.config;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the number of /api requests in flight on this node, so the load put on the DSE coordinators
+ * does not depend on how many threads (or virtual threads) the web server happens to have.
+ */
+public class InFlightLimiter {
+
+	private final Semaphore permits;
+	private final int maxInFlight;
+
+	public InFlightLimiter( int maxInFlight ) {
+		this.permits = new Semaphore(maxInFlight);
+		this.maxInFlight = maxInFlight;
+	}
+
+	public boolean tryAcquire(){
+		return permits.tryAcquire();
+	}
+
+	/**
+	 * Waits up to timeoutMillis for a permit, only meant for blocking (thread per request) callers.
+	 */
+	public boolean tryAcquire( long timeoutMillis ){
+		try {
+			return permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	public void release(){
+		permits.release();
+	}
+
+	public int getMaxInFlight(){
+		return maxInFlight;
+	}
+
+	public int getInFlight(){
+		return maxInFlight - permits.availablePermits();
+	}
+
+}
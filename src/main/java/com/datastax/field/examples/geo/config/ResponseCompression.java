@@ -0,0 +1,158 @@
+package com.datastax.field.examples.geo.config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.datastax.field.examples.geo.App;
+
+/**
+ * Gzip content negotiation for the /api responses.
+ *
+ * A body is gzipped if the client accepts gzip (Accept-Encoding) and it has at least App.GZIP_MIN_BYTES, smaller
+ * bodies are sent as is. The first App.GZIP_MIN_BYTES of a body are buffered to decide, the headers are only
+ * committed then.
+ */
+public class ResponseCompression {
+
+	public static final String GZIP = "gzip";
+
+	private static final int GZIP_BUFFER_SIZE = 8192;
+
+
+	/**
+	 * @return true if compression is enabled and the client accepts a gzip encoded body
+	 */
+	public static boolean accepted( HttpServletRequest req ){
+		return App.GZIP_MIN_BYTES >= 0 && acceptsGzip(req.getHeader("Accept-Encoding"));
+	}
+
+	/**
+	 * @param acceptEncoding the Accept-Encoding header, e.g. "gzip, deflate, br" or "gzip;q=0, *", may be null
+	 */
+	static boolean acceptsGzip( String acceptEncoding ){
+
+		if( acceptEncoding == null ){
+			return false;
+		}
+
+		double gzip = -1.0d;
+		double any = -1.0d;
+		for( String coding : acceptEncoding.split(",") ){
+			String[] parts = coding.split(";");
+			String name = parts[0].trim().toLowerCase();
+			double q = 1.0d;
+			for( int i = 1; i < parts.length; i++ ){
+				String param = parts[i].trim();
+				if( param.startsWith("q=") ){
+					try {
+						q = Double.parseDouble(param.substring(2));
+					} catch (NumberFormatException e) {
+						q = 0.0d;
+					}
+				}
+			}
+			if( GZIP.equals(name) || "x-gzip".equals(name) ){
+				gzip = q;
+			} else if( "*".equals(name) ){
+				any = q;
+			}
+		}
+		return gzip >= 0.0d ? gzip > 0.0d : any > 0.0d;
+	}
+
+	/**
+	 * The stream to write a (not yet committed) response body to, finish() it when the body is written.
+	 */
+	static BodyOutputStream open( HttpServletRequest req, HttpServletResponse res ) throws IOException {
+		OutputStream out = res.getOutputStream();
+		if( !accepted(req) ){
+			return new BodyOutputStream(out, Integer.MAX_VALUE, null);
+		}
+		return new BodyOutputStream(out, App.GZIP_MIN_BYTES, () -> res.setHeader("Content-Encoding", GZIP));
+	}
+
+
+	/**
+	 * Buffers the body until it has minBytes, then switches to gzip. A shorter body is written as is by finish().
+	 */
+	static class BodyOutputStream extends OutputStream {
+
+		private final OutputStream out;
+		private final int minBytes;
+		private final Runnable beforeGzip;
+
+		private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private OutputStream body;
+
+		/**
+		 * @param beforeGzip sets the Content-Encoding header, null if the body is never gzipped
+		 */
+		BodyOutputStream( OutputStream out, int minBytes, Runnable beforeGzip ) {
+			this.out = out;
+			this.minBytes = minBytes;
+			this.beforeGzip = beforeGzip;
+		}
+
+		@Override
+		public void write( int b ) throws IOException {
+			write(new byte[]{ (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write( byte[] b, int off, int len ) throws IOException {
+			if( buffer != null ){
+				if( beforeGzip == null ){
+					buffer = null;
+					body = out;
+				} else if( buffer.size() + len < minBytes ){
+					buffer.write(b, off, len);
+					return;
+				} else {
+					beforeGzip.run();
+					body = new GZIPOutputStream(out, GZIP_BUFFER_SIZE);
+					buffer.writeTo(body);
+					buffer = null;
+				}
+			}
+			body.write(b, off, len);
+		}
+
+		/**
+		 * does not flush while the body is buffered, the headers could not be changed any more.
+		 */
+		@Override
+		public void flush() throws IOException {
+			if( body != null ){
+				body.flush();
+			}
+		}
+
+		/**
+		 * Writes what is left of the body and flushes it, which commits the response.
+		 */
+		public void finish() throws IOException {
+			if( buffer != null ){
+				buffer.writeTo(out);
+				buffer = null;
+				body = out;
+			} else if( body instanceof GZIPOutputStream ){
+				((GZIPOutputStream) body).finish();
+			}
+			out.flush();
+		}
+
+		/**
+		 * finishes the body, the servlet output stream stays open.
+		 */
+		@Override
+		public void close() throws IOException {
+			finish();
+		}
+	}
+
+}
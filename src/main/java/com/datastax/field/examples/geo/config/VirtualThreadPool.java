@@ -0,0 +1,56 @@
+package com.datastax.field.examples.geo.config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * A Jetty ThreadPool that runs every task on its own virtual thread, so request handling that blocks
+ * on dseSession.execute parks a cheap virtual thread instead of pinning a platform thread.
+ *
+ * Requires a Java 21+ runtime. The executor is looked up reflectively so the rest of the
+ * application still builds and runs on Java 8 (see the loom profile in the pom.xml).
+ */
+public class VirtualThreadPool implements ThreadPool {
+
+	private final ExecutorService executor;
+
+	public VirtualThreadPool() {
+		try {
+			this.executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Virtual threads require a Java 21+ runtime, running on: " + System.getProperty("java.version"), e);
+		}
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		executor.execute(command);
+	}
+
+	@Override
+	public void join() throws InterruptedException {
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * virtual threads are created per task, there is no pool to size.
+	 */
+	@Override
+	public int getThreads() {
+		return 0;
+	}
+
+	@Override
+	public int getIdleThreads() {
+		return 0;
+	}
+
+	@Override
+	public boolean isLowOnThreads() {
+		return false;
+	}
+
+}
@@ -1,22 +1,80 @@
 package com.datastax.field.examples.geo.config;
 
+import static spark.Spark.afterAfter;
+import static spark.Spark.before;
 import static spark.Spark.exception;
 import static spark.Spark.get;
+import static spark.Spark.halt;
 import static spark.Spark.path;
+import static spark.Spark.post;
 import static spark.Spark.staticFiles;
 import static spark.Spark.port;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datastax.field.examples.geo.App;
+import com.datastax.field.examples.geo.controller.BatchController;
+import com.datastax.field.examples.geo.controller.BoundingBox;
 import com.datastax.field.examples.geo.controller.LocationFinderController;
+import com.datastax.field.examples.geo.metrics.ApiMetrics;
+import com.datastax.field.examples.geo.metrics.RequestTimer;
 import com.datastax.field.examples.geo.service.LocationFinderService;
+import com.datastax.field.examples.geo.service.QueryType;
+import com.datastax.field.examples.geo.tile.LocationFeatureWriter;
+import com.datastax.field.examples.geo.tile.VectorTileEncoder;
+import com.datastax.field.examples.geo.tile.WebMercator;
+import com.datastax.field.examples.geo.util.FutureUtil;
+import com.datastax.field.examples.geo.util.JsonWritable;
 import com.google.common.base.Strings;
+import com.google.common.io.CountingOutputStream;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
+import spark.Request;
+import spark.Response;
+import spark.embeddedserver.EmbeddedServers;
+import spark.utils.StringUtils;
 
 public class WebConfig {
 
+	final static Logger logger = LoggerFactory.getLogger(WebConfig.class);
+	
+	private static final String IN_FLIGHT_PERMIT = "geofinder.inFlightPermit";
+	
+	private static final String TILES_PATH = "/api/tiles/";
+	private static final String TILES_ROUTE = "/api/tiles/:z/:x/:y";
+
 	private LocationFinderService locationFinderService;
 	
+	private InFlightLimiter inFlightLimiter;
+	
+	private AsyncResponder asyncResponder;
+	
+	private ApiMetrics metrics;
+	
+	private EntityTags entityTags;
+	
 
-	public WebConfig(LocationFinderService lfService) {
+	public WebConfig(LocationFinderService lfService, ApiMetrics metrics) {
 		this.locationFinderService = lfService;
+		this.metrics = metrics;
+		this.inFlightLimiter = new InFlightLimiter(App.MAX_IN_FLIGHT);
+		this.entityTags = new EntityTags();
+		this.asyncResponder = new AsyncResponder(inFlightLimiter, App.ASYNC_TIMEOUT_MS);
+		
+		if( App.VIRTUAL_THREADS ){
+			logger.info("Handling requests on virtual threads");
+		}
+		// must be registered before the server is ignited by the first route.
+		EmbeddedServers.add(EmbeddedServers.Identifiers.JETTY, new AsyncJettyFactory(App.VIRTUAL_THREADS ? new VirtualThreadPool() : null));
+		
 		port(9000);
 		setupRoutes();
 	}
@@ -24,6 +82,14 @@ public class WebConfig {
 	private void setupRoutes() {
 		
 		staticFiles.location("/public");
+		
+		measureRequests();
+		
+		conditionalGet();
+		
+		if( !App.ASYNC ){
+			limitBlockingRequests();
+		}
 
 		path("/api", () -> {
 			
@@ -34,10 +100,14 @@ public class WebConfig {
 				String lng = req.queryParams("lng");
 				String radius = req.queryParamOrDefault("r", "5.0");
 				
-				JsonObject responseObj = LocationFinderController.geoNameSuggestWithPointAndRadius(locationFinderService, name, lat, lng, radius);
+				if( App.ASYNC ){
+					return asyncResponder.respond(req, res, () -> LocationFinderController.geoNameSuggestWithPointAndRadiusAsync(locationFinderService, name, lat, lng, radius, isDebug(req)));
+				}
+				
+				JsonObject responseObj = LocationFinderController.geoNameSuggestWithPointAndRadius(locationFinderService, name, lat, lng, radius, isDebug(req));
 				res.status(200);
 				res.type("application/json");
-				return responseObj;
+				return body(req, res, responseObj);
 			});
 			
 			get("/geo-name-search", (req,res) -> {
@@ -47,10 +117,13 @@ public class WebConfig {
 				String lng = req.queryParams("lng");
 				String radius = req.queryParamOrDefault("r", "5.0");
 				
-				JsonObject responseObj = LocationFinderController.geoNameSearchWithPointAndRadius(locationFinderService, name, lat, lng, radius);
+				if( App.ASYNC ){
+					return asyncResponder.respond(req, res, () -> LocationFinderController.geoNameSearchWithPointAndRadiusAsync(locationFinderService, name, lat, lng, radius, isDebug(req)));
+				}
+				
 				res.status(200);
 				res.type("application/json");
-				return responseObj;
+				return stream(req, res, LocationFinderController.geoNameSearchWithPointAndRadius(locationFinderService, name, lat, lng, radius, isDebug(req)));
 				
 			});
 			
@@ -61,11 +134,15 @@ public class WebConfig {
 				String urlat = req.queryParams("urlat");
 				String urlng = req.queryParams("urlng");
 				
+				if( App.ASYNC ){
+					return asyncResponder.respond(req, res, () -> LocationFinderController.geoFilterPivotOnCateogoryAsync(locationFinderService, lllat, lllng, urlat, urlng));
+				}
+				
 				String response = LocationFinderController.geoFilterPivotOnCateogory( locationFinderService, lllat, lllng, urlat, urlng );
 				
 				res.status(200);
 				res.type("application/json");
-				return response;
+				return body(req, res, response);
 			});
 			
 			get("/geo-bbox-pivot-on-category-and-subcategory", (req,res) -> {
@@ -75,11 +152,15 @@ public class WebConfig {
 				String urlat = req.queryParams("urlat");
 				String urlng = req.queryParams("urlng");
 				
+				if( App.ASYNC ){
+					return asyncResponder.respond(req, res, () -> LocationFinderController.geoFilterPivotOnCateogoryAndSubcategoryAsync(locationFinderService, lllat, lllng, urlat, urlng));
+				}
+				
 				String response = LocationFinderController.geoFilterPivotOnCateogoryAndSubcategory(locationFinderService, lllat, lllng, urlat, urlng);
 				
 				res.status(200);
 				res.type("application/json");
-				return response;
+				return body(req, res, response);
 			});
 			
 			
@@ -87,7 +168,10 @@ public class WebConfig {
 			 * url parameters: 
 			 * 		category (String)
 			 * 		subcategory (String)
-			 * 		num_results: int (optional, default 100)
+			 * 		num_results: int (optional, default 100, at most App.MAX_PAGE_SIZE)
+			 * 		paged: boolean (optional, returns the first num_results and a cursor to the next page)
+			 * 		cursor: String (optional, the cursor of the previous page)
+			 * 		format: json or mvt (optional, else from the Accept header, a vector tile is not paged)
 			 */
 			get("/geo-bbox-filter-on-category", (req,res) -> {
 				
@@ -105,18 +189,347 @@ public class WebConfig {
 					numResults = Integer.parseInt(numResultsStr);
 				} catch (NumberFormatException e) {}
 				
+				numResults = Math.max(1, Math.min(numResults, App.MAX_PAGE_SIZE));
+				
+				if( isVectorTile(req, false) ){
+					return vectorTile(req, res, category, subcategory, numResults, lllat, lllng, urlat, urlng);
+				}
+				
+				String cursor = req.queryParams("cursor");
+				if( cursor != null || Boolean.parseBoolean(req.queryParams("paged")) ){
+					
+					final int pageSize = numResults;
+					if( App.ASYNC ){
+						return asyncResponder.respond(req, res, () -> LocationFinderController.geoFilterLocationsPageOnCateogoryAndSubcategoryAsync(locationFinderService, category, subcategory, pageSize, cursor, lllat, lllng, urlat, urlng, isDebug(req)));
+					}
+					
+					res.status(200);
+					res.type("application/json");
+					return stream(req, res, LocationFinderController.geoFilterLocationsPageOnCateogoryAndSubcategory(locationFinderService, category, subcategory, pageSize, cursor, lllat, lllng, urlat, urlng, isDebug(req)));
+				}
+				
+				if( App.ASYNC ){
+					final int limit = numResults;
+					return asyncResponder.respond(req, res, () -> LocationFinderController.geoFilterLocationsOnCateogoryAndSubcategoryAsync(locationFinderService, category, subcategory, limit, lllat, lllng, urlat, urlng, isDebug(req)));
+				}
+				
+				res.status(200);
+				res.type("application/json");
+				return stream(req, res, LocationFinderController.geoFilterLocationsOnCateogoryAndSubcategory(locationFinderService, category, subcategory, numResults, lllat, lllng, urlat, urlng, isDebug(req)));
+			});
+			
+			
+			/**
+			 * The locations of a Web Mercator z/x/y tile, as a Mapbox Vector Tile unless JSON is asked for (format=json,
+			 * the Accept header or a .json suffix on y). The URL of a tile is stable, so it may be cached for App.CACHE_TTL_SECONDS
+			 * (see conditionalGet).
+			 * 
+			 * url parameters: 
+			 * 		category (String)
+			 * 		subcategory (String)
+			 * 		num_results: int (optional, default and max App.MAX_PAGE_SIZE)
+			 * 		properties: all (optional, by default the features only have id, name, category and subcategory)
+			 */
+			get("/tiles/:z/:x/:y", (req,res) -> {
+				
+				String y = req.params(":y");
+				boolean vectorTile = y.endsWith(".mvt") || y.endsWith(".pbf") || (!y.endsWith(".json") && isVectorTile(req, true));
+				y = y.contains(".") ? y.substring(0, y.indexOf('.')) : y;
+				
+				JsonObject validation = LocationFinderController.validateTile(req.params(":z"), req.params(":x"), y);
+				if( !validation.get("success").getAsBoolean() ){
+					res.type("application/json");
+					return body(req, res, validation);
+				}
+				
+				double[] box = WebMercator.tileBounds(Integer.parseInt(req.params(":z")), Integer.parseInt(req.params(":x")), Integer.parseInt(y));
+				String lllat = String.valueOf(box[0]);
+				String lllng = String.valueOf(box[1]);
+				String urlat = String.valueOf(box[2]);
+				String urlng = String.valueOf(box[3]);
+				String category = req.queryParams("category");
+				String subcategory = req.queryParams("subcategory");
+				
+				int numResults = App.MAX_PAGE_SIZE;
+				try {
+					numResults = Math.max(1, Math.min(Integer.parseInt(req.queryParamOrDefault("num_results", String.valueOf(App.MAX_PAGE_SIZE))), App.MAX_PAGE_SIZE));
+				} catch (NumberFormatException e) {}
+				
+				if( vectorTile ){
+					return vectorTile(req, res, category, subcategory, numResults, lllat, lllng, urlat, urlng);
+				}
+				
+				if( App.ASYNC ){
+					final int limit = numResults;
+					return asyncResponder.respond(req, res, () -> LocationFinderController.geoFilterLocationsOnCateogoryAndSubcategoryAsync(locationFinderService, category, subcategory, limit, lllat, lllng, urlat, urlng, isDebug(req)));
+				}
+				
+				res.status(200);
+				res.type("application/json");
+				return stream(req, res, LocationFinderController.geoFilterLocationsOnCateogoryAndSubcategory(locationFinderService, category, subcategory, numResults, lllat, lllng, urlat, urlng, isDebug(req)));
+			});
+			
+			
+			/**
+			 * url parameters: 
+			 * 		category (String, optional)
+			 * 		subcategory (String, optional)
+			 * 
+			 * Answered from memory in both modes, nothing blocks.
+			 */
+			get("/geo-bbox-clusters", (req,res) -> {
+				
+				String lllat = req.queryParams("lllat");
+				String lllng = req.queryParams("lllng");
+				String urlat = req.queryParams("urlat");
+				String urlng = req.queryParams("urlng");
+				String category = req.queryParams("category");
+				String subcategory = req.queryParams("subcategory");
+				
+				res.status(200);
+				res.type("application/json");
+				return stream(req, res, LocationFinderController.geoClustersOnCategoryAndSubcategory(locationFinderService, category, subcategory, lllat, lllng, urlat, urlng, isDebug(req)));
+			});
+			
+			
+			/**
+			 * body: {"queries":[{"route":"geo-bbox-filter-on-category", "category":..., "lllat":..., ...}, ...]}, see
+			 * BatchController. The queries run concurrently, in both modes.
+			 */
+			post("/batch", (req,res) -> {
+				
+				String body = req.body();
+				
+				if( App.ASYNC ){
+					return asyncResponder.respond(req, res, () -> BatchController.batchAsync(locationFinderService, body, isDebug(req)));
+				}
+				
+				res.status(200);
+				res.type("application/json");
+				return stream(req, res, FutureUtil.join(BatchController.batchAsync(locationFinderService, body, isDebug(req))));
+			});
+			
+			
+			get("/cache-stats", (req,res) -> {
 				res.status(200);
 				res.type("application/json");
-				return LocationFinderController.geoFilterLocationsOnCateogoryAndSubcategory(locationFinderService, category, subcategory, numResults, lllat, lllng, urlat, urlng);
+				return locationFinderService.getCacheStats();
 			});
 			
 			
 			exception(Exception.class, (exception,req,res) -> {
+				// the ETag was set before the route failed
+				res.status(500);
+				res.type("application/json");
+				EntityTags.remove(res.raw());
+				// without a body Spark answers 404
+				res.body(AsyncResponder.error(String.valueOf(exception.getMessage())));
 				exception.printStackTrace();
 			});
 			
 		});
+		
+		/*
+		 * Request, backend and driver metrics in the Prometheus text format.
+		 */
+		get("/metrics", (req,res) -> {
+			res.status(200);
+			res.type(metrics.prometheusContentType());
+			return metrics.prometheus();
+		});
 
 	}
+	
+	/**
+	 * The locations of the box as a vector tile that covers the box.
+	 */
+	private Object vectorTile( Request req, Response res, String category, String subcategory, int numResults, 
+			String lllat, String lllng, String urlat, String urlng ) throws IOException {
+		
+		BoundingBox box = BoundingBox.parse(lllat, lllng, urlat, urlng);
+		if( box == null || StringUtils.isEmpty(category) ){
+			res.type("application/json");
+			return body(req, res, LocationFinderController.invalidCategoryAndBoundingBox(category, lllat, lllng, urlat, urlng));
+		}
+		
+		Set<String> properties = "all".equals(req.queryParams("properties")) ? null : LocationFeatureWriter.DEFAULT_PROPERTIES;
+		
+		if( App.ASYNC ){
+			return asyncResponder.respond(req, res, VectorTileEncoder.CONTENT_TYPE, () -> LocationFinderController.geoFilterLocationsVectorTileAsync(locationFinderService, 
+					category, subcategory, numResults, box.lllat(), box.lllng(), box.urlat(), box.urlng(), properties));
+		}
+		
+		byte[] tile = LocationFinderController.geoFilterLocationsVectorTile(locationFinderService, 
+				category, subcategory, numResults, box.lllat(), box.lllng(), box.urlat(), box.urlng(), properties);
+		res.status(200);
+		res.type(VectorTileEncoder.CONTENT_TYPE);
+		return body(req, res, tile);
+	}
+	
+	/**
+	 * format=mvt or format=json, else a vector tile if the Accept header asks for one (and not for JSON).
+	 * 
+	 * @param byDefault the format when neither the parameter nor the Accept header decides
+	 */
+	private static boolean isVectorTile( Request req, boolean byDefault ){
+		String format = req.queryParams("format");
+		if( format != null ){
+			return "mvt".equalsIgnoreCase(format);
+		}
+		String accept = Strings.nullToEmpty(req.headers("Accept"));
+		if( accept.contains(VectorTileEncoder.CONTENT_TYPE) ){
+			return true;
+		}
+		return accept.contains("application/json") ? false : byDefault;
+	}
+	
+	/**
+	 * Streams the body straight to the servlet output stream (gzipped, see ResponseCompression). Finishing the body 
+	 * commits the response, so Spark does not serialize the (empty) return value of the route.
+	 */
+	private static Object stream( Request req, Response res, JsonWritable body ) throws IOException {
+		ResponseCompression.BodyOutputStream out = ResponseCompression.open(req.raw(), res.raw());
+		writeJson(RequestTimer.of(req.raw()), out, body);
+		out.finish();
+		return "";
+	}
+	
+	/**
+	 * @param timer records the serialization time and size of the body, may be null
+	 */
+	static void writeJson( RequestTimer timer, OutputStream outputStream, JsonWritable body ) throws IOException {
+		long start = System.nanoTime();
+		CountingOutputStream counted = new CountingOutputStream(outputStream);
+		JsonWriter out = new JsonWriter(new OutputStreamWriter(counted, StandardCharsets.UTF_8));
+		body.writeTo(out);
+		out.flush();
+		if( timer != null ){
+			timer.serialized(System.nanoTime() - start, counted.getCount());
+		}
+	}
+	
+	/**
+	 * Writes a response that is not streamed the same way (see stream), so its serialization time and size are 
+	 * recorded as well.
+	 */
+	private static Object body( Request req, Response res, Object body ) throws IOException {
+		long start = System.nanoTime();
+		byte[] bytes = body instanceof byte[] ? (byte[]) body : body.toString().getBytes(StandardCharsets.UTF_8);
+		ResponseCompression.BodyOutputStream out = ResponseCompression.open(req.raw(), res.raw());
+		out.write(bytes);
+		out.finish();
+		RequestTimer timer = RequestTimer.of(req.raw());
+		if( timer != null ){
+			timer.serialized(System.nanoTime() - start, bytes.length);
+		}
+		return "";
+	}
+	
+	/**
+	 * debug=true (or starting the app with --debug) echoes the executed query in the response.
+	 */
+	private static boolean isDebug( Request req ){
+		String debug = req.queryParams("debug");
+		return debug == null ? App.DEBUG : Boolean.parseBoolean(debug);
+	}
+	
+	/**
+	 * Times every /api request (see ApiMetrics). Async requests are recorded by the AsyncResponder once their
+	 * response was written.
+	 */
+	private void measureRequests() {
+		
+		before("/api/*", (req,res) -> {
+			// every tile has its own path, they are all counted as one route
+			String route = req.pathInfo().startsWith(TILES_PATH) ? TILES_ROUTE : req.pathInfo();
+			RequestTimer.start(metrics, req.raw(), route);
+		});
+		
+		afterAfter("/api/*", (req,res) -> {
+			RequestTimer timer = RequestTimer.of(req.raw());
+			if( timer != null && !req.raw().isAsyncStarted() ){
+				timer.finish(res.raw().getStatus());
+			}
+		});
+	}
+	
+	/**
+	 * Sets the ETag (see EntityTags) of the routes that run a query on versioned data (see 
+	 * LocationFinderService.dataVersion), and answers a request whose If-None-Match still matches it with a 304. This 
+	 * runs before a blocking request waits for an in-flight permit: a 304 costs neither a permit nor a query. Debug 
+	 * responses echo the query timing, they have no ETag.
+	 */
+	private void conditionalGet() {
+		
+		before("/api/*", (req,res) -> {
+			
+			String path = req.pathInfo();
+			QueryType type = queryType(path);
+			if( type == null || isDebug(req) ){
+				return;
+			}
+			
+			res.header("Vary", "Accept, Accept-Encoding");
+			if( path.startsWith(TILES_PATH) ){
+				res.header("Cache-Control", "public, max-age=" + App.CACHE_TTL_SECONDS);
+			}
+			
+			boolean paged = req.queryParams("cursor") != null || Boolean.parseBoolean(req.queryParams("paged"));
+			String dataVersion = locationFinderService.dataVersion(type == QueryType.FILTER && paged ? null : type);
+			if( dataVersion == null ){
+				return;
+			}
+			
+			String etag = entityTags.of(dataVersion, path, req.raw().getParameterMap(), req.headers("Accept"), ResponseCompression.accepted(req.raw()));
+			res.header("ETag", etag);
+			if( EntityTags.matches(req.headers("If-None-Match"), etag) ){
+				halt(304);
+			}
+		});
+	}
+	
+	/**
+	 * @return the type of query the route runs, null if it does not run one
+	 */
+	private static QueryType queryType( String path ){
+		switch( path ){
+			case "/api/geo-name-suggest":
+				return QueryType.SUGGEST;
+			case "/api/geo-name-search":
+				return QueryType.SEARCH;
+			case "/api/geo-bbox-pivot-on-category":
+			case "/api/geo-bbox-pivot-on-category-and-subcategory":
+				return QueryType.PIVOT;
+			case "/api/geo-bbox-filter-on-category":
+				return QueryType.FILTER;
+			case "/api/geo-bbox-clusters":
+				return QueryType.CLUSTER;
+			default:
+				return path.startsWith(TILES_PATH) ? QueryType.FILTER : null;
+		}
+	}
+	
+	/**
+	 * In the blocking (thread per request) modes a request waits up to App.QUEUE_TIMEOUT_MS for an in-flight permit.
+	 * Without this, virtual threads would let every connected client hit the DSE coordinators at once.
+	 */
+	private void limitBlockingRequests() {
+		
+		before("/api/*", (req,res) -> {
+			if( !inFlightLimiter.tryAcquire(App.QUEUE_TIMEOUT_MS) ){
+				res.type("application/json");
+				EntityTags.remove(res.raw());
+				halt(503, AsyncResponder.error("Too many requests in flight (max " + inFlightLimiter.getMaxInFlight() + "), try again later"));
+			}
+			req.attribute(IN_FLIGHT_PERMIT, Boolean.TRUE);
+		});
+		
+		afterAfter("/api/*", (req,res) -> {
+			if( req.attribute(IN_FLIGHT_PERMIT) != null ){
+				req.raw().removeAttribute(IN_FLIGHT_PERMIT);
+				inFlightLimiter.release();
+			}
+		});
+	}
 
 }
@@ -0,0 +1,331 @@
+package com.datastax.field.examples.geo.controller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datastax.field.examples.geo.App;
+import com.datastax.field.examples.geo.service.LocationFinderService;
+import com.datastax.field.examples.geo.util.FutureUtil;
+import com.datastax.field.examples.geo.util.JsonWritable;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import spark.utils.StringUtils;
+
+/**
+ * Answers the queries of a POST /api/batch request with one response, e.g. the listings of every category shown
+ * on a screen and its pivot counts in one round trip.
+ *
+ * The body is {"queries":[{"route":"geo-bbox-filter-on-category", "category":"Food", "lllat":..., ...}, ...]}, each
+ * query has the route and the url parameters of a GET /api route. The results array of the response has the
+ * response of each query, in order. A query that is invalid or fails has its error message as its result, the
+ * other queries are still answered.
+ *
+ * The queries run at the same time, at most App.BATCH_CONCURRENCY of them. The listings of different categories
+ * in the same box (same num_results, no subcategory, not paged) are answered with one query, if the service
+ * can merge them (see LocationFinderService.mergesCategories).
+ */
+public class BatchController {
+
+	final static Logger logger = LoggerFactory.getLogger(BatchController.class);
+
+	public static final String NAME_SUGGEST_ROUTE = "geo-name-suggest";
+	public static final String NAME_SEARCH_ROUTE = "geo-name-search";
+	public static final String PIVOT_ROUTE = "geo-bbox-pivot-on-category";
+	public static final String PIVOT_SUBCATEGORY_ROUTE = "geo-bbox-pivot-on-category-and-subcategory";
+	public static final String FILTER_ROUTE = "geo-bbox-filter-on-category";
+	public static final String CLUSTERS_ROUTE = "geo-bbox-clusters";
+
+	private static final List<String> ROUTES = Arrays.asList(NAME_SUGGEST_ROUTE, NAME_SEARCH_ROUTE, PIVOT_ROUTE,
+			PIVOT_SUBCATEGORY_ROUTE, FILTER_ROUTE, CLUSTERS_ROUTE);
+
+	private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+
+	/**
+	 * @param body the request body, see the class comment
+	 */
+	public static CompletableFuture<JsonWritable> batchAsync( LocationFinderService service, String body, boolean debug ){
+
+		JsonArray queries = null;
+		try {
+			JsonElement json = new JsonParser().parse(body);
+			if( json.isJsonObject() && json.getAsJsonObject().get("queries") instanceof JsonArray ){
+				queries = json.getAsJsonObject().getAsJsonArray("queries");
+			}
+		} catch (JsonParseException e) {
+			// not JSON, see below
+		}
+
+		if( queries == null ){
+			return invalid("The body must be a JSON object with a queries array");
+		}
+		if( queries.size() == 0 || queries.size() > App.BATCH_MAX_QUERIES ){
+			return invalid("queries: must have 1 TO " + App.BATCH_MAX_QUERIES + " queries, provided: " + queries.size());
+		}
+
+		JsonWritable[] results = new JsonWritable[queries.size()];
+		List<Supplier<CompletableFuture<Void>>> work = new ArrayList<>();
+		Map<List<Object>, List<Integer>> sameBox = new LinkedHashMap<>();
+
+		for( int i = 0; i < queries.size(); i++ ){
+
+			if( !queries.get(i).isJsonObject() ){
+				results[i] = json(LocationFinderController.invalidRequest("query " + i + " is not a JSON object"));
+				continue;
+			}
+
+			JsonObject query = queries.get(i).getAsJsonObject();
+			BoundingBox box = isMergeable(query) ? box(query) : null;
+			if( box != null ){
+				sameBox.computeIfAbsent(Arrays.asList(box.lllat(), box.lllng(), box.urlat(), box.urlng(), numResults(query)), key -> new ArrayList<>()).add(i);
+			} else {
+				work.add(task(results, Collections.singletonList(i), () -> query(service, query, debug).thenApply(Collections::singletonList)));
+			}
+		}
+
+		for( List<Integer> listings : sameBox.values() ){
+
+			// a category is only merged once, its rows may be streamed from a result set that can only be written once
+			List<String> categories = new ArrayList<>();
+			List<Integer> merged = new ArrayList<>();
+			for( int i : listings ){
+				String category = param(queries.get(i).getAsJsonObject(), "category").trim();
+				if( categories.contains(category) ){
+					JsonObject query = queries.get(i).getAsJsonObject();
+					work.add(task(results, Collections.singletonList(i), () -> query(service, query, debug).thenApply(Collections::singletonList)));
+				} else {
+					categories.add(category);
+					merged.add(i);
+				}
+			}
+
+			JsonObject first = queries.get(merged.get(0)).getAsJsonObject();
+			int numResults = numResults(first);
+			if( service.mergesCategories(categories.size(), numResults) ){
+				BoundingBox box = box(first);
+				work.add(task(results, merged, () -> service.geoFilterLocationsOnCategoriesAsync(categories, numResults, box.lllat(), box.lllng(), box.urlat(), box.urlng())
+						.thenApply(result -> {
+							List<JsonWritable> responses = new ArrayList<>();
+							for( JsonWritable locations : result.getResult() ){
+								JsonObject response = LocationFinderController.okResponse();
+								LocationFinderController.addDebug(response, result, debug);
+								responses.add(LocationFinderController.streamResponse(response, "locations", locations));
+							}
+							return responses;
+						})));
+			} else {
+				for( int i : merged ){
+					JsonObject query = queries.get(i).getAsJsonObject();
+					work.add(task(results, Collections.singletonList(i), () -> query(service, query, debug).thenApply(Collections::singletonList)));
+				}
+			}
+		}
+
+		return runAll(work, App.BATCH_CONCURRENCY).thenApply(done -> {
+			JsonObject response = new JsonObject();
+			JsonArray messages = new JsonArray();
+			messages.add("OK");
+			response.addProperty("success", true);
+			response.add("messages", messages);
+			return LocationFinderController.streamResponse(response, "results", out -> {
+				out.beginArray();
+				for( JsonWritable result : results ){
+					result.writeTo(out);
+				}
+				out.endArray();
+			});
+		});
+	}
+
+	/**
+	 * Runs one query of the batch like its GET route, in the async variant.
+	 */
+	private static CompletableFuture<JsonWritable> query( LocationFinderService service, JsonObject query, boolean debug ){
+
+		String route = param(query, "route");
+		String lllat = param(query, "lllat");
+		String lllng = param(query, "lllng");
+		String urlat = param(query, "urlat");
+		String urlng = param(query, "urlng");
+
+		if( NAME_SUGGEST_ROUTE.equals(route) ){
+			return LocationFinderController.geoNameSuggestWithPointAndRadiusAsync(service, param(query, "name"), param(query, "lat"), param(query, "lng"),
+					paramOrDefault(query, "r", "5.0"), debug).thenApply(BatchController::json);
+		}
+		if( NAME_SEARCH_ROUTE.equals(route) ){
+			return LocationFinderController.geoNameSearchWithPointAndRadiusAsync(service, param(query, "name"), param(query, "lat"), param(query, "lng"),
+					paramOrDefault(query, "r", "5.0"), debug);
+		}
+		if( PIVOT_ROUTE.equals(route) ){
+			return LocationFinderController.geoFilterPivotOnCateogoryAsync(service, lllat, lllng, urlat, urlng).thenApply(BatchController::json);
+		}
+		if( PIVOT_SUBCATEGORY_ROUTE.equals(route) ){
+			return LocationFinderController.geoFilterPivotOnCateogoryAndSubcategoryAsync(service, lllat, lllng, urlat, urlng).thenApply(BatchController::json);
+		}
+		if( FILTER_ROUTE.equals(route) ){
+			String cursor = param(query, "cursor");
+			if( cursor != null || Boolean.parseBoolean(param(query, "paged")) ){
+				return LocationFinderController.geoFilterLocationsPageOnCateogoryAndSubcategoryAsync(service, param(query, "category"), param(query, "subcategory"),
+						numResults(query), cursor, lllat, lllng, urlat, urlng, debug);
+			}
+			return LocationFinderController.geoFilterLocationsOnCateogoryAndSubcategoryAsync(service, param(query, "category"), param(query, "subcategory"),
+					numResults(query), lllat, lllng, urlat, urlng, debug);
+		}
+		if( CLUSTERS_ROUTE.equals(route) ){
+			// answered from memory
+			return CompletableFuture.completedFuture(LocationFinderController.geoClustersOnCategoryAndSubcategory(service, param(query, "category"), param(query, "subcategory"),
+					lllat, lllng, urlat, urlng, debug));
+		}
+		return CompletableFuture.completedFuture(json(LocationFinderController.invalidRequest("route: must be one of " + ROUTES + ", provided: " + route)));
+	}
+
+	/**
+	 * A listing of a category (without subcategory, not paged) can be merged with the listings of other categories,
+	 * if its box is valid (see box).
+	 */
+	private static boolean isMergeable( JsonObject query ){
+		return FILTER_ROUTE.equals(param(query, "route"))
+				&& !StringUtils.isEmpty(param(query, "category"))
+				&& StringUtils.isEmpty(param(query, "subcategory"))
+				&& param(query, "cursor") == null && !Boolean.parseBoolean(param(query, "paged"));
+	}
+
+	/**
+	 * @return the box of the query, null if it is not valid
+	 */
+	private static BoundingBox box( JsonObject query ){
+		return BoundingBox.parse(param(query, "lllat"), param(query, "lllng"), param(query, "urlat"), param(query, "urlng"));
+	}
+
+	/**
+	 * num_results as the GET route reads it.
+	 */
+	private static int numResults( JsonObject query ){
+
+		int numResults = 20;
+
+		try {
+			numResults = Integer.parseInt(paramOrDefault(query, "num_results", "100"));
+		} catch (NumberFormatException e) {}
+
+		return Math.max(1, Math.min(numResults, App.MAX_PAGE_SIZE));
+	}
+
+	/**
+	 * @return the parameter as a string (numbers may be sent as JSON numbers), null if it is missing or null
+	 */
+	private static String param( JsonObject query, String name ){
+		JsonElement value = query.get(name);
+		if( value == null || value.isJsonNull() ){
+			return null;
+		}
+		return value.isJsonPrimitive() ? value.getAsString() : value.toString();
+	}
+
+	private static String paramOrDefault( JsonObject query, String name, String defaultValue ){
+		String value = param(query, name);
+		return value == null ? defaultValue : value;
+	}
+
+	/**
+	 * The work of one or more queries of the batch: their results, or the error message of each of them if it
+	 * fails. The returned future never fails.
+	 *
+	 * @param indexes the queries (in the batch) the results are of, in order
+	 */
+	private static Supplier<CompletableFuture<Void>> task( JsonWritable[] results, List<Integer> indexes, Supplier<CompletableFuture<List<JsonWritable>>> query ){
+		return () -> {
+			CompletableFuture<List<JsonWritable>> future;
+			try {
+				future = query.get();
+			} catch (RuntimeException e) {
+				future = new CompletableFuture<>();
+				future.completeExceptionally(e);
+			}
+			return future.handle((responses, t) -> {
+				if( t != null ){
+					Throwable cause = FutureUtil.unwrap(t);
+					logger.error("batch query failed", cause);
+					JsonWritable error = json(LocationFinderController.invalidRequest(String.valueOf(cause.getMessage())));
+					indexes.forEach(i -> results[i] = error);
+				} else {
+					for( int i = 0; i < indexes.size(); i++ ){
+						results[indexes.get(i)] = responses.get(i);
+					}
+				}
+				return null;
+			});
+		};
+	}
+
+	/**
+	 * Starts at most concurrency of the work at a time, the next one when one completes.
+	 *
+	 * @param work futures that never fail
+	 * @return completed when all the work is
+	 */
+	static CompletableFuture<Void> runAll( List<Supplier<CompletableFuture<Void>>> work, int concurrency ){
+
+		CompletableFuture<Void> done = new CompletableFuture<>();
+		AtomicInteger next = new AtomicInteger();
+		AtomicInteger remaining = new AtomicInteger(work.size());
+
+		if( work.isEmpty() ){
+			done.complete(null);
+			return done;
+		}
+
+		Runnable startNext = new Runnable() {
+			@Override
+			public void run() {
+				int i = next.getAndIncrement();
+				if( i < work.size() ){
+					work.get(i).get().whenComplete((result, t) -> {
+						if( remaining.decrementAndGet() == 0 ){
+							done.complete(null);
+						} else {
+							run();
+						}
+					});
+				}
+			}
+		};
+
+		for( int i = 0; i < Math.min(Math.max(1, concurrency), work.size()); i++ ){
+			startNext.run();
+		}
+		return done;
+	}
+
+	private static CompletableFuture<JsonWritable> invalid( String message ){
+		return CompletableFuture.completedFuture(json(LocationFinderController.invalidRequest(message)));
+	}
+
+	private static JsonWritable json( JsonObject response ){
+		return out -> GSON.toJson(response, out);
+	}
+
+	/**
+	 * @param response a JSON string, e.g. the raw pivot response
+	 */
+	private static JsonWritable json( String response ){
+		return out -> out.jsonValue(response);
+	}
+
+}
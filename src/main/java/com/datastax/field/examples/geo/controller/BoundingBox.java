@@ -0,0 +1,117 @@
+package com.datastax.field.examples.geo.controller;
+
+import static com.datastax.field.examples.geo.controller.LocationFinderController.MAX_LAT;
+import static com.datastax.field.examples.geo.controller.LocationFinderController.MAX_LNG;
+import static com.datastax.field.examples.geo.controller.LocationFinderController.MIN_LAT;
+import static com.datastax.field.examples.geo.controller.LocationFinderController.MIN_LNG;
+
+import com.datastax.field.examples.geo.util.DoubleParser;
+import com.google.gson.JsonArray;
+
+/**
+ * The validated lllat, lllng, urlat and urlng parameters of a bounding box query, parsed once.
+ *
+ * parse does not collect why a box is invalid, the messages are only built (by errors) for a request that failed.
+ */
+public final class BoundingBox {
+
+	private final double lllat;
+	private final double lllng;
+	private final double urlat;
+	private final double urlng;
+
+	private BoundingBox( double lllat, double lllng, double urlat, double urlng ) {
+		this.lllat = lllat;
+		this.lllng = lllng;
+		this.urlat = urlat;
+		this.urlng = urlng;
+	}
+
+	/**
+	 * @return the box, or null if a parameter is missing, not a number or out of range (see errors)
+	 */
+	public static BoundingBox parse( String lllat, String lllng, String urlat, String urlng ){
+
+		double lllatDouble = DoubleParser.parse(lllat);
+		double lllngDouble = DoubleParser.parse(lllng);
+		double urlatDouble = DoubleParser.parse(urlat);
+		double urlngDouble = DoubleParser.parse(urlng);
+
+		if( isLat(lllatDouble) && isLng(lllngDouble) && isLat(urlatDouble) && isLng(urlngDouble) ){
+			return new BoundingBox(lllatDouble, lllngDouble, urlatDouble, urlngDouble);
+		}
+		return null;
+	}
+
+	/**
+	 * @param messages the messages why the parameters are not a valid box are added to it
+	 */
+	public static void errors( String lllat, String lllng, String urlat, String urlng, JsonArray messages ){
+
+		// make sure the lllat (Lower Left Latitude) is a double and within bounds.
+		if( lllat == null ){
+			messages.add("lllat parameter was null");
+		} else if( Double.isNaN(DoubleParser.parse(lllat)) ){
+			messages.add("lllat does not contain a parsable double: " + lllat);
+		} else if( !isLat(DoubleParser.parse(lllat)) ){
+			messages.add("lllat: (lower left latitude) was out of range (" +  MIN_LAT + " TO " + MAX_LAT + ") : " + lllat );
+		}
+
+		// make sure the lllng (Lower Left Longitude) is a double and within bounds.
+		if( lllng == null ){
+			messages.add("lllng parameter was null");
+		} else if( Double.isNaN(DoubleParser.parse(lllng)) ){
+			messages.add("lllng does not contain a parsable double: " + lllng);
+		} else if( !isLng(DoubleParser.parse(lllng)) ){
+			messages.add("lllng: (lower left longitude) was out of range (" +  MIN_LNG + " TO " + MAX_LNG + "), provided: " + lllng );
+		}
+
+		// make sure the urlat (Upper Right Latitude) is a double and within bounds.
+		if( urlat == null ){
+			messages.add("urlat parameter was null");
+		} else if( Double.isNaN(DoubleParser.parse(urlat)) ){
+			messages.add("urlat does not contain a parsable double: " + urlat);
+		} else if( !isLat(DoubleParser.parse(urlat)) ){
+			messages.add("urlat: (upper-right latitude) was out of range (" +  MIN_LAT + " TO " + MAX_LAT + "), provided: " + urlat );
+		}
+
+		// make sure the urlng (Upper Right Longitude) is a double and within bounds.
+		if( urlng == null ){
+			messages.add("urlng parameter was null");
+		} else if( Double.isNaN(DoubleParser.parse(urlng)) ){
+			messages.add("urlng does not contain a parsable double: " + urlng);
+		} else if( !isLng(DoubleParser.parse(urlng)) ){
+			messages.add("urlng: (upper-right longitude) was out of range (" +  MIN_LNG + " TO " + MAX_LNG + "), provided: " + urlng );
+		}
+	}
+
+	static boolean isLat( double lat ){
+		return lat >= MIN_LAT && lat <= MAX_LAT;
+	}
+
+	static boolean isLng( double lng ){
+		return lng >= MIN_LNG && lng <= MAX_LNG;
+	}
+
+	public double lllat() {
+		return lllat;
+	}
+
+	public double lllng() {
+		return lllng;
+	}
+
+	public double urlat() {
+		return urlat;
+	}
+
+	public double urlng() {
+		return urlng;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + lllat + "," + lllng + " TO " + urlat + "," + urlng + "]";
+	}
+
+}
@@ -1,7 +1,23 @@
 package com.datastax.field.examples.geo.controller;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import com.datastax.field.examples.geo.index.ClusterPyramid;
 import com.datastax.field.examples.geo.service.LocationFinderService;
+import com.datastax.field.examples.geo.service.LocationPage;
+import com.datastax.field.examples.geo.service.QueryResult;
+import com.datastax.field.examples.geo.tile.LocationFeatureWriter;
+import com.datastax.field.examples.geo.tile.VectorTileEncoder;
+import com.datastax.field.examples.geo.tile.WebMercator;
+import com.datastax.field.examples.geo.util.JsonWritable;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
 import spark.utils.StringUtils;
@@ -15,297 +31,359 @@ public class LocationFinderController {
 	public static final double MIN_LNG    = -180.0d;
 	public static final double MAX_LNG    = 180.0d;
 	
+	private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+	
 	
-	public static JsonObject geoNameSuggestWithPointAndRadius( LocationFinderService service, String name, String lat, String lng, String radius  ){
+	/**
+	 * @param debug when true the executed CQL statement (and its timing) is echoed in the response
+	 */
+	public static JsonObject geoNameSuggestWithPointAndRadius( LocationFinderService service, String name, String lat, String lng, String radius, boolean debug  ){
 		
-		boolean isValidRequest = true;
+		PointRadius point = PointRadius.parse(lat, lng, radius);
 		
-		JsonObject response = new JsonObject();
-		JsonArray messages = new JsonArray();
+		if( point == null || StringUtils.isEmpty(name) ){
+			return invalidPointAndRadius(name, lat, lng, radius);
+		}
 		
-		double latDouble = 0.0d;
-		double lngDouble = 0.0d;
-		double radiusDouble = 0.0d;
+		JsonObject response = okResponse();
+		QueryResult<JsonArray> result = service.nameSuggestWithPointAndRadius(name, point.lat(), point.lng(), point.radius());
+		response.add("names", result.getResult());
+		addDebug(response, result, debug);
+		return response;
+	}
+	
+	public static CompletableFuture<JsonObject> geoNameSuggestWithPointAndRadiusAsync( LocationFinderService service, String name, String lat, String lng, String radius, boolean debug  ){
 		
-		if( StringUtils.isEmpty(name) ) {
-			messages.add("Name field was null or empty");
-			isValidRequest = false;
-		}
-		// validate the lat (latitude)
-		try {
-			latDouble = Double.parseDouble(lat);
-			if( latDouble < -90.0d  || latDouble > 90.0d  ){
-				isValidRequest = false;
-				messages.add("lat: (Latitude) was outside the -90.0 to 90.0 range: " + lat );
-			}
-		} catch (NumberFormatException nfe) {
-			isValidRequest = false;
-			messages.add("lat does not contain a parsable double: " + lat);
-		} catch ( NullPointerException npe ) {
-			isValidRequest = false;
-			messages.add("lat parameter was null");
-		}
+		PointRadius point = PointRadius.parse(lat, lng, radius);
 		
-		// validate the parameter lng (longitude)
-		try {
-			lngDouble = Double.parseDouble(lng);
-			if( lngDouble < -180.0d  || lngDouble > 180.0d  ){
-				isValidRequest = false;
-				messages.add("lng (Longitude) was outside the -180.0 to 180.0 range: " + lng );
-			}
-		} catch (NumberFormatException nfe) {
-			isValidRequest = false;
-			messages.add("lng does not contain a parsable double: " + lat);
-		} catch ( NullPointerException npe ) {
-			isValidRequest = false;
-			messages.add("lng parameter was null");
+		if( point == null || StringUtils.isEmpty(name) ){
+			return CompletableFuture.completedFuture(invalidPointAndRadius(name, lat, lng, radius));
 		}
 		
-		// make sure the radius is within bounds. 
-		try {
-			radiusDouble = Double.parseDouble(radius);
-			if( radiusDouble < MIN_RADIUS  || radiusDouble > MAX_RADIUS ){
-				isValidRequest = false;
-				messages.add("r: (radius) was out of range (" +  MIN_RADIUS + " TO " + MAX_RADIUS + ") : " + radius );
-			}
-		} catch (NumberFormatException nfe) {
-			isValidRequest = false;
-			messages.add("r does not contain a parsable double: " + radius);
-		} catch ( NullPointerException npe ) {
-			isValidRequest = false;
-			messages.add("r parameter was null");
+		return service.nameSuggestWithPointAndRadiusAsync(name, point.lat(), point.lng(), point.radius()).thenApply( result -> {
+			JsonObject response = okResponse();
+			response.add("names", result.getResult());
+			addDebug(response, result, debug);
+			return response;
+		});
+	}
+	
+	public static JsonWritable geoNameSearchWithPointAndRadius( LocationFinderService service, String name, String lat, String lng, String radius, boolean debug  ){
+
+		PointRadius point = PointRadius.parse(lat, lng, radius);
+		
+		if( point == null || StringUtils.isEmpty(name) ){
+			JsonObject invalid = invalidPointAndRadius(name, lat, lng, radius);
+			return out -> GSON.toJson(invalid, out);
 		}
-		if( messages.size() == 0){
-			messages.add("OK");
+		
+		JsonObject response = okResponse();
+		QueryResult<JsonWritable> result = service.nameSearchWithPointAndRadius(name, point.lat(), point.lng(), point.radius());
+		addDebug(response, result, debug);
+		return streamResponse(response, "locations", result.getResult());
+	}
+	
+	public static CompletableFuture<JsonWritable> geoNameSearchWithPointAndRadiusAsync( LocationFinderService service, String name, String lat, String lng, String radius, boolean debug  ){
+		
+		PointRadius point = PointRadius.parse(lat, lng, radius);
+		
+		if( point == null || StringUtils.isEmpty(name) ){
+			JsonObject invalid = invalidPointAndRadius(name, lat, lng, radius);
+			return CompletableFuture.completedFuture(out -> GSON.toJson(invalid, out));
 		}
 		
+		return service.nameSearchWithPointAndRadiusAsync(name, point.lat(), point.lng(), point.radius()).thenApply( result -> {
+			JsonObject response = okResponse();
+			addDebug(response, result, debug);
+			return streamResponse(response, "locations", result.getResult());
+		});
+	}
+	
+	public static String geoFilterPivotOnCateogory( LocationFinderService service, String lllat, String lllng, String urlat, String urlng  ){
 		
-		response.addProperty("success", isValidRequest);
-		response.add("messages", messages);
+		BoundingBox box = BoundingBox.parse(lllat, lllng, urlat, urlng);
 		
-		if( isValidRequest ){
-			JsonArray names = service.nameSuggestWithPointAndRadius(name, latDouble, lngDouble, radiusDouble);
-			String query  = service.nameSuggestWithPointAndRadiusQuery(name, latDouble, lngDouble, radiusDouble);
-			response.add("names", names);
-			response.addProperty("query", query);
+		if ( box == null ){
+			return invalidBoundingBox(lllat, lllng, urlat, urlng).toString();
 		}
 		
-		return response;
+		return service.geoFilterPivotOnCateogory(box.lllat(), box.lllng(), box.urlat(), box.urlng()).getResult();
+		
 	}
 	
-	public static JsonObject geoNameSearchWithPointAndRadius( LocationFinderService service, String name, String lat, String lng, String radius  ){
+	
+	public static String geoFilterPivotOnCateogoryAndSubcategory( LocationFinderService service, String lllat, String lllng, String urlat, String urlng  ){
 
-		boolean isValidRequest = true;
+		BoundingBox box = BoundingBox.parse(lllat, lllng, urlat, urlng);
 		
-		JsonObject response = new JsonObject();
-		JsonArray messages = new JsonArray();
+		if ( box == null ){
+			return invalidBoundingBox(lllat, lllng, urlat, urlng).toString();
+		}
 		
-		double latDouble = 0.0d;
-		double lngDouble = 0.0d;
-		double radiusDouble = 0.0d;
+		return service.geoFilterPivotOnCateogoryAndSubCategory(box.lllat(), box.lllng(), box.urlat(), box.urlng()).getResult();
 		
-		if( StringUtils.isEmpty(name) ) {
-			messages.add("Name field was null or empty");
-			isValidRequest = false;
-		}
-		// validate the lat (latitude)
-		try {
-			latDouble = Double.parseDouble(lat);
-			if( latDouble < -90.0d  || latDouble > 90.0d  ){
-				isValidRequest = false;
-				messages.add("lat: (Latitude) was outside the -90.0 to 90.0 range: " + lat );
-			}
-		} catch (NumberFormatException nfe) {
-			isValidRequest = false;
-			messages.add("lat does not contain a parsable double: " + lat);
-		} catch ( NullPointerException npe ) {
-			isValidRequest = false;
-			messages.add("lat parameter was null");
-		}
+	}
+	
+	public static JsonWritable geoFilterLocationsOnCateogoryAndSubcategory( LocationFinderService service, String category, String subcategory, int numResults, String lllat, String lllng, String urlat, String urlng, boolean debug  ){
 		
-		// validate the parameter lat (latitude)
-		try {
-			lngDouble = Double.parseDouble(lng);
-			if( lngDouble < -180.0d  || lngDouble > 180.0d  ){
-				isValidRequest = false;
-				messages.add("lng (Longitude) was outside the -180.0 to 180.0 range: " + lng );
-			}
-		} catch (NumberFormatException nfe) {
-			isValidRequest = false;
-			messages.add("lng does not contain a parsable double: " + lat);
-		} catch ( NullPointerException npe ) {
-			isValidRequest = false;
-			messages.add("lng parameter was null");
-		}
+		BoundingBox box = BoundingBox.parse(lllat, lllng, urlat, urlng);
 		
-		// make sure the radius is within bounds. 
-		try {
-			radiusDouble = Double.parseDouble(radius);
-			if( radiusDouble < MIN_RADIUS  || radiusDouble > MAX_RADIUS ){
-				isValidRequest = false;
-				messages.add("r: (radius) was out of range (" +  MIN_RADIUS + " TO " + MAX_RADIUS + ") : " + radius );
-			}
-		} catch (NumberFormatException nfe) {
-			isValidRequest = false;
-			messages.add("r does not contain a parsable double: " + radius);
-		} catch ( NullPointerException npe ) {
-			isValidRequest = false;
-			messages.add("r parameter was null");
+		if ( box == null || StringUtils.isEmpty(category) ){
+			JsonObject invalid = invalidCategoryAndBoundingBox(category, lllat, lllng, urlat, urlng);
+			return out -> GSON.toJson(invalid, out);
 		}
-		if( messages.size() == 0){
-			messages.add("OK");
+		
+		JsonObject response = okResponse();
+		QueryResult<JsonWritable> result = service.geoFilterLocationsOnCateogoryAndOrSubcategory(category, subcategory, numResults, box.lllat(), box.lllng(), box.urlat(), box.urlng());
+		addDebug(response, result, debug);
+		return streamResponse(response, "locations", result.getResult());
+	}
+	
+	public static CompletableFuture<String> geoFilterPivotOnCateogoryAsync( LocationFinderService service, String lllat, String lllng, String urlat, String urlng  ){
+		
+		BoundingBox box = BoundingBox.parse(lllat, lllng, urlat, urlng);
+		
+		if ( box == null ){
+			return CompletableFuture.completedFuture(invalidBoundingBox(lllat, lllng, urlat, urlng).toString());
 		}
 		
-		response.addProperty("success", isValidRequest);
-		response.add("messages", messages);
+		return service.geoFilterPivotOnCateogoryAsync(box.lllat(), box.lllng(), box.urlat(), box.urlng())
+				.thenApply(QueryResult::getResult);
+	}
+	
+	public static CompletableFuture<String> geoFilterPivotOnCateogoryAndSubcategoryAsync( LocationFinderService service, String lllat, String lllng, String urlat, String urlng  ){
 		
-		if( isValidRequest ){
-			JsonArray names = service.nameSearchWithPointAndRadius(name, latDouble, lngDouble, radiusDouble);
-			String query  = service.nameSearchWithPointAndRadiusQuery(name, latDouble, lngDouble, radiusDouble);
-			response.add("locations", names);
-			response.addProperty("query", query);
+		BoundingBox box = BoundingBox.parse(lllat, lllng, urlat, urlng);
+		
+		if ( box == null ){
+			return CompletableFuture.completedFuture(invalidBoundingBox(lllat, lllng, urlat, urlng).toString());
 		}
 		
-		return response;
+		return service.geoFilterPivotOnCateogoryAndSubCategoryAsync(box.lllat(), box.lllng(), box.urlat(), box.urlng())
+				.thenApply(QueryResult::getResult);
 	}
 	
-	public static String geoFilterPivotOnCateogory( LocationFinderService service, String lllat, String lllng, String urlat, String urlng  ){
+	public static CompletableFuture<JsonWritable> geoFilterLocationsOnCateogoryAndSubcategoryAsync( LocationFinderService service, String category, String subcategory, int numResults, String lllat, String lllng, String urlat, String urlng, boolean debug  ){
 		
-		JsonObject response = validateBoundingBox(lllat, lllng, urlat, urlng);
-		
-		if ( response.get("success").getAsBoolean() ){
-			
-			double lllatDouble = Double.parseDouble(lllat);
-			double lllngDouble = Double.parseDouble(lllng);
-			double urlatDouble = Double.parseDouble(urlat);
-			double urlngDouble = Double.parseDouble(urlng);
-			
-			return service.geoFilterPivotOnCateogory(lllatDouble, lllngDouble, urlatDouble, urlngDouble);
-			
-		} else {
-			
-			return response.toString();
+		BoundingBox box = BoundingBox.parse(lllat, lllng, urlat, urlng);
+		
+		if ( box == null || StringUtils.isEmpty(category) ){
+			JsonObject invalid = invalidCategoryAndBoundingBox(category, lllat, lllng, urlat, urlng);
+			return CompletableFuture.completedFuture(out -> GSON.toJson(invalid, out));
 		}
 		
+		return service.geoFilterLocationsOnCateogoryAndOrSubcategoryAsync(category, subcategory, numResults, 
+				box.lllat(), box.lllng(), box.urlat(), box.urlng()).thenApply( result -> {
+			JsonObject response = okResponse();
+			addDebug(response, result, debug);
+			return streamResponse(response, "locations", result.getResult());
+		});
 	}
 	
 	
-	public static String geoFilterPivotOnCateogoryAndSubcategory( LocationFinderService service, String lllat, String lllng, String urlat, String urlng  ){
-
-		JsonObject response = validateBoundingBox(lllat, lllng, urlat, urlng);
-		
-		if ( response.get("success").getAsBoolean() ){
-			
-			double lllatDouble = Double.parseDouble(lllat);
-			double lllngDouble = Double.parseDouble(lllng);
-			double urlatDouble = Double.parseDouble(urlat);
-			double urlngDouble = Double.parseDouble(urlng);
-			
-			return service.geoFilterPivotOnCateogoryAndSubCategory(lllatDouble, lllngDouble, urlatDouble, urlngDouble);
-			
-		} else {
-			return response.toString();
+	/**
+	 * The locations of the box as a Mapbox Vector Tile that covers the box, see VectorTileEncoder. The category
+	 * and box must have been validated (see BoundingBox.parse).
+	 * 
+	 * @param properties the location fields added to the features, null for all of them
+	 */
+	public static byte[] geoFilterLocationsVectorTile( LocationFinderService service, String category, String subcategory, int numResults, 
+			double lllat, double lllng, double urlat, double urlng, Set<String> properties ){
+		
+		QueryResult<JsonWritable> result = service.geoFilterLocationsOnCateogoryAndOrSubcategory(category, subcategory, numResults, lllat, lllng, urlat, urlng);
+		return vectorTile(result.getResult(), lllat, lllng, urlat, urlng, properties);
+	}
+	
+	/**
+	 * Reading the locations may fetch result pages, the tile is encoded on the thread that completes the query.
+	 */
+	public static CompletableFuture<byte[]> geoFilterLocationsVectorTileAsync( LocationFinderService service, String category, String subcategory, int numResults, 
+			double lllat, double lllng, double urlat, double urlng, Set<String> properties ){
+		
+		return service.geoFilterLocationsOnCateogoryAndOrSubcategoryAsync(category, subcategory, numResults, lllat, lllng, urlat, urlng)
+				.thenApply( result -> vectorTile(result.getResult(), lllat, lllng, urlat, urlng, properties) );
+	}
+	
+	private static byte[] vectorTile( JsonWritable locations, double lllat, double lllng, double urlat, double urlng, Set<String> properties ){
+		VectorTileEncoder encoder = new VectorTileEncoder("locations", lllat, lllng, urlat, urlng);
+		try {
+			locations.writeTo(new LocationFeatureWriter(encoder, properties));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
-		
+		return encoder.encode();
 	}
 	
-	public static String geoFilterLocationsOnCateogoryAndSubcategory( LocationFinderService service, String category, String subcategory, int numResults, String lllat, String lllng, String urlat, String urlng  ){
-		
-		JsonObject response = validateBoundingBox(lllat, lllng, urlat, urlng);
-		
-		if ( response.get("success").getAsBoolean() ){
-			
-			double lllatDouble = Double.parseDouble(lllat);
-			double lllngDouble = Double.parseDouble(lllng);
-			double urlatDouble = Double.parseDouble(urlat);
-			double urlngDouble = Double.parseDouble(urlng);
-			
-			
-			String query = service.geoFilterLocationsOnCateogoryAndOrSubcategoryQuery(category, subcategory, numResults, lllatDouble, lllngDouble, urlatDouble, urlngDouble);
-			JsonArray locations = service.geoFilterLocationsOnCateogoryAndOrSubcategory(category, subcategory, numResults, lllatDouble, lllngDouble, urlatDouble, urlngDouble);
-			response.addProperty("query", query);
-			response.add("locations", locations);
-			
+	
+	/**
+	 * The clusters of a map view, the response has the zoom and tile_size (in degrees) the view was clustered at.
+	 */
+	public static JsonWritable geoClustersOnCategoryAndSubcategory( LocationFinderService service, String category, String subcategory, String lllat, String lllng, String urlat, String urlng, boolean debug  ){
+		
+		BoundingBox box = BoundingBox.parse(lllat, lllng, urlat, urlng);
+		
+		if ( box == null ){
+			JsonObject invalid = invalidBoundingBox(lllat, lllng, urlat, urlng);
+			return out -> GSON.toJson(invalid, out);
 		}
 		
-		return response.toString();
+		if( !service.hasClusters() ){
+			JsonObject unavailable = invalidRequest("Clusters are served from the local index: start the app with --local-index cluster and wait until the index is loaded");
+			return out -> GSON.toJson(unavailable, out);
+		}
+		
+		QueryResult<ClusterPyramid.Clusters> result = service.geoClusters(category, subcategory, box.lllat(), box.lllng(), box.urlat(), box.urlng());
+		
+		JsonObject response = okResponse();
+		response.addProperty("zoom", result.getResult().zoom());
+		response.addProperty("tile_size", result.getResult().tileSize());
+		addDebug(response, result, debug);
+		return streamResponse(response, "clusters", result.getResult());
 	}
 	
 	
-	private static JsonObject validateBoundingBox( String lllat, String lllng, String urlat, String urlng ){
+	/**
+	 * One page of a paged listing. The response has a cursor field while there are more pages, pass it as the
+	 * cursor parameter (with the same query parameters) to get the next page.
+	 */
+	public static JsonWritable geoFilterLocationsPageOnCateogoryAndSubcategory( LocationFinderService service, String category, String subcategory, int pageSize, String cursor, String lllat, String lllng, String urlat, String urlng, boolean debug  ){
 		
-		double lllatDouble = 0.0d;
-		double lllngDouble = 0.0d;
-		double urlatDouble = 0.0d;
-		double urlngDouble = 0.0d;
-		
-		boolean isValidRequest = true;
+		BoundingBox box = BoundingBox.parse(lllat, lllng, urlat, urlng);
 		
-		JsonArray messages = new JsonArray();
+		if ( box == null || StringUtils.isEmpty(category) ){
+			JsonObject invalid = invalidCategoryAndBoundingBox(category, lllat, lllng, urlat, urlng);
+			return out -> GSON.toJson(invalid, out);
+		}
 		
-		// make sure the lllat (Lower Left Latitude) is a double and within bounds. 
+		QueryResult<LocationPage> result;
 		try {
-			lllatDouble = Double.parseDouble(lllat);
-			if( lllatDouble < MIN_LAT  || lllatDouble > MAX_LAT ){
-				isValidRequest = false;
-				messages.add("lllat: (lower left latitude) was out of range (" +  MIN_LAT + " TO " + MAX_LAT + ") : " + lllat );
-			}
-		} catch (NumberFormatException nfe) {
-			isValidRequest = false;
-			messages.add("lllat does not contain a parsable double: " + lllat);
-		} catch ( NullPointerException npe ) {
-			isValidRequest = false;
-			messages.add("lllat parameter was null");
+			result = service.geoFilterLocationsPageOnCateogoryAndOrSubcategory(category, subcategory, pageSize, cursor, 
+					box.lllat(), box.lllng(), box.urlat(), box.urlng());
+		} catch (IllegalArgumentException e) {
+			JsonObject invalid = invalidRequest(e.getMessage());
+			return out -> GSON.toJson(invalid, out);
 		}
+		return pageResponse(result, debug);
+	}
+	
+	public static CompletableFuture<JsonWritable> geoFilterLocationsPageOnCateogoryAndSubcategoryAsync( LocationFinderService service, String category, String subcategory, int pageSize, String cursor, String lllat, String lllng, String urlat, String urlng, boolean debug  ){
 		
+		BoundingBox box = BoundingBox.parse(lllat, lllng, urlat, urlng);
+		
+		if ( box == null || StringUtils.isEmpty(category) ){
+			JsonObject invalid = invalidCategoryAndBoundingBox(category, lllat, lllng, urlat, urlng);
+			return CompletableFuture.completedFuture(out -> GSON.toJson(invalid, out));
+		}
 		
-		// make sure the lllng (Lower Left Longitude) is a double and within bounds. 
+		CompletableFuture<QueryResult<LocationPage>> result;
 		try {
-			lllngDouble = Double.parseDouble(lllng);
-			if( lllngDouble < MIN_LNG  || lllngDouble > MAX_LNG ){
-				isValidRequest = false;
-				messages.add("lllng: (lower left longitude) was out of range (" +  MIN_LNG + " TO " + MAX_LNG + "), provided: " + lllng );
+			result = service.geoFilterLocationsPageOnCateogoryAndOrSubcategoryAsync(category, subcategory, pageSize, cursor, 
+					box.lllat(), box.lllng(), box.urlat(), box.urlng());
+		} catch (IllegalArgumentException e) {
+			JsonObject invalid = invalidRequest(e.getMessage());
+			return CompletableFuture.completedFuture(out -> GSON.toJson(invalid, out));
+		}
+		return result.thenApply( page -> pageResponse(page, debug) );
+	}
+	
+	private static JsonWritable pageResponse( QueryResult<LocationPage> result, boolean debug ){
+		JsonObject response = okResponse();
+		if( result.getResult().getCursor() != null ){
+			response.addProperty("cursor", result.getResult().getCursor());
+		}
+		addDebug(response, result, debug);
+		return streamResponse(response, "locations", result.getResult().getLocations());
+	}
+	
+	static JsonObject invalidRequest( String message ){
+		JsonArray messages = new JsonArray();
+		messages.add(message);
+		return response(false, messages);
+	}
+	
+	/**
+	 * The success and messages fields every response starts with, for a valid request.
+	 */
+	static JsonObject okResponse(){
+		JsonArray messages = new JsonArray();
+		messages.add("OK");
+		return response(true, messages);
+	}
+	
+	private static JsonObject response( boolean success, JsonArray messages ){
+		JsonObject response = new JsonObject();
+		response.addProperty("success", success);
+		response.add("messages", messages);
+		return response;
+	}
+	
+	
+	/**
+	 * Writes the (small) response object and then streams the rows into its arrayField, the rows are never held in a tree.
+	 */
+	static JsonWritable streamResponse( JsonObject response, String arrayField, JsonWritable rows ){
+		return out -> {
+			out.beginObject();
+			for( Map.Entry<String, JsonElement> entry : response.entrySet() ){
+				out.name(entry.getKey());
+				GSON.toJson(entry.getValue(), out);
 			}
-		} catch (NumberFormatException nfe) {
-			isValidRequest = false;
-			messages.add("lllng does not contain a parsable double: " + lllng);
-		} catch ( NullPointerException npe ) {
-			isValidRequest = false;
-			messages.add("lllng parameter was null");
+			out.name(arrayField);
+			rows.writeTo(out);
+			out.endObject();
+		};
+	}
+	
+	/**
+	 * The echoed query is as large as the rest of the response on the hot endpoints, so it is only added on request.
+	 */
+	static void addDebug( JsonObject response, QueryResult<?> result, boolean debug ){
+		if( debug ){
+			response.addProperty("query", result.getQuery());
+			response.addProperty("elapsed_ms", result.getElapsedMillis());
 		}
+	}
+	
+	
+	/**
+	 * z/x/y of a Web Mercator tile, see WebMercator.
+	 */
+	public static JsonObject validateTile( String z, String x, String y ){
 		
+		boolean isValidRequest = true;
 		
-		// make sure the urlat (Upper Right Latitude) is a double and within bounds. 
+		JsonArray messages = new JsonArray();
+		
+		int zoom = 0;
 		try {
-			urlatDouble = Double.parseDouble(urlat);
-			if( urlatDouble < MIN_LAT  || urlatDouble > MAX_LAT ){
+			zoom = Integer.parseInt(z);
+			if( zoom < 0 || zoom > WebMercator.MAX_ZOOM ){
 				isValidRequest = false;
-				messages.add("urlat: (upper-right latitude) was out of range (" +  MIN_LAT + " TO " + MAX_LAT + "), provided: " + urlat );
+				messages.add("z: (zoom) was out of range (0 TO " + WebMercator.MAX_ZOOM + "), provided: " + z );
 			}
 		} catch (NumberFormatException nfe) {
 			isValidRequest = false;
-			messages.add("urlat does not contain a parsable double: " + urlat);
-		} catch ( NullPointerException npe ) {
-			isValidRequest = false;
-			messages.add("urlat parameter was null");
+			messages.add("z does not contain a parsable int: " + z);
 		}
 		
-		// make sure the urlng (Upper Right Longitude) is a double and within bounds. 
-		try {
-			urlngDouble = Double.parseDouble(urlng);
-			if( urlngDouble < MIN_LNG  || urlngDouble > MAX_LNG ){
-				isValidRequest = false;
-				messages.add("urlng: (upper-right longitude) was out of range (" +  MIN_LNG + " TO " + MAX_LNG + "), provided: " + urlng );
+		if( isValidRequest ){
+			long tiles = 1L << zoom;
+			String[] names = { "x", "y" };
+			String[] values = { x, y };
+			for( int i = 0; i < names.length; i++ ){
+				try {
+					long value = Long.parseLong(values[i]);
+					if( value < 0 || value >= tiles ){
+						isValidRequest = false;
+						messages.add(names[i] + ": was out of range at zoom " + zoom + " (0 TO " + (tiles - 1) + "), provided: " + values[i] );
+					}
+				} catch (NumberFormatException nfe) {
+					isValidRequest = false;
+					messages.add(names[i] + " does not contain a parsable int: " + values[i]);
+				}
 			}
-		} catch (NumberFormatException nfe) {
-			isValidRequest = false;
-			messages.add("urlng does not contain a parsable double: " + urlng);
-		} catch ( NullPointerException npe ) {
-			isValidRequest = false;
-			messages.add("urlng parameter was null");
 		}
 		
-		
 		if( messages.size() == 0){
 			messages.add("OK");
 		}
@@ -316,4 +394,41 @@ public class LocationFinderController {
 		return response;
 	}
 	
+	/**
+	 * The response to a name query whose parameters are not valid, see PointRadius.
+	 */
+	private static JsonObject invalidPointAndRadius( String name, String lat, String lng, String radius ){
+		
+		JsonArray messages = new JsonArray();
+		
+		if( StringUtils.isEmpty(name) ) {
+			messages.add("Name field was null or empty");
+		}
+		PointRadius.errors(lat, lng, radius, messages);
+		return response(false, messages);
+	}
+	
+	/**
+	 * The response to a request whose box is not valid (BoundingBox.parse returned null).
+	 */
+	public static JsonObject invalidBoundingBox( String lllat, String lllng, String urlat, String urlng ){
+		
+		JsonArray messages = new JsonArray();
+		BoundingBox.errors(lllat, lllng, urlat, urlng, messages);
+		return response(false, messages);
+	}
+	
+	/**
+	 * The location listings are filtered on a category, it is required.
+	 */
+	public static JsonObject invalidCategoryAndBoundingBox( String category, String lllat, String lllng, String urlat, String urlng ){
+		
+		JsonArray messages = new JsonArray();
+		BoundingBox.errors(lllat, lllng, urlat, urlng, messages);
+		if( StringUtils.isEmpty(category) ){
+			messages.add("category parameter was null or empty");
+		}
+		return response(false, messages);
+	}
+	
 }
@@ -0,0 +1,91 @@
+package com.datastax.field.examples.geo.controller;
+
+import static com.datastax.field.examples.geo.controller.LocationFinderController.MAX_RADIUS;
+import static com.datastax.field.examples.geo.controller.LocationFinderController.MIN_RADIUS;
+
+import com.datastax.field.examples.geo.util.DoubleParser;
+import com.google.gson.JsonArray;
+
+/**
+ * The validated lat, lng and r (in kilometers) parameters of a name query, parsed once. See BoundingBox.
+ */
+public final class PointRadius {
+
+	private final double lat;
+	private final double lng;
+	private final double radius;
+
+	private PointRadius( double lat, double lng, double radius ) {
+		this.lat = lat;
+		this.lng = lng;
+		this.radius = radius;
+	}
+
+	/**
+	 * @return the point and radius, or null if a parameter is missing, not a number or out of range (see errors)
+	 */
+	public static PointRadius parse( String lat, String lng, String radius ){
+
+		double latDouble = DoubleParser.parse(lat);
+		double lngDouble = DoubleParser.parse(lng);
+		double radiusDouble = DoubleParser.parse(radius);
+
+		if( BoundingBox.isLat(latDouble) && BoundingBox.isLng(lngDouble) && isRadius(radiusDouble) ){
+			return new PointRadius(latDouble, lngDouble, radiusDouble);
+		}
+		return null;
+	}
+
+	/**
+	 * @param messages the messages why the parameters are not valid are added to it
+	 */
+	public static void errors( String lat, String lng, String radius, JsonArray messages ){
+
+		// validate the lat (latitude)
+		if( lat == null ){
+			messages.add("lat parameter was null");
+		} else if( Double.isNaN(DoubleParser.parse(lat)) ){
+			messages.add("lat does not contain a parsable double: " + lat);
+		} else if( !BoundingBox.isLat(DoubleParser.parse(lat)) ){
+			messages.add("lat: (Latitude) was outside the -90.0 to 90.0 range: " + lat );
+		}
+
+		// validate the parameter lng (longitude)
+		if( lng == null ){
+			messages.add("lng parameter was null");
+		} else if( Double.isNaN(DoubleParser.parse(lng)) ){
+			messages.add("lng does not contain a parsable double: " + lng);
+		} else if( !BoundingBox.isLng(DoubleParser.parse(lng)) ){
+			messages.add("lng (Longitude) was outside the -180.0 to 180.0 range: " + lng );
+		}
+
+		// make sure the radius is within bounds.
+		if( radius == null ){
+			messages.add("r parameter was null");
+		} else if( Double.isNaN(DoubleParser.parse(radius)) ){
+			messages.add("r does not contain a parsable double: " + radius);
+		} else if( !isRadius(DoubleParser.parse(radius)) ){
+			messages.add("r: (radius) was out of range (" +  MIN_RADIUS + " TO " + MAX_RADIUS + ") : " + radius );
+		}
+	}
+
+	private static boolean isRadius( double radius ){
+		return radius >= MIN_RADIUS && radius <= MAX_RADIUS;
+	}
+
+	public double lat() {
+		return lat;
+	}
+
+	public double lng() {
+		return lng;
+	}
+
+	/**
+	 * @return the radius in kilometers
+	 */
+	public double radius() {
+		return radius;
+	}
+
+}
@@ -0,0 +1,405 @@
+package com.datastax.field.examples.geo.index;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.datastax.field.examples.geo.util.JsonWritable;
+import com.google.common.base.Strings;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Location counts per tile of a tile pyramid, so a zoomed out map view is answered with a bounded number of
+ * clusters (count, centroid and category breakdown) instead of its points.
+ *
+ * The tiles are square degree tiles: at zoom z a tile is 360 / 2^z degrees, as in GeoTiles. The zoom of a view is
+ * picked so the view spans about CLUSTERS_PER_SPAN tiles, a response has at most (CLUSTERS_PER_SPAN + 1)^2 clusters
+ * whatever the number of locations.
+ *
+ * For the zooms up to MAX_ZOOM the count and coordinate sums of every (tile, category / subcategory pair) are
+ * computed when the index is loaded, sorted by tile, so a view only reads the entries of the tiles it overlaps.
+ * Views that need a finer zoom are small, their clusters are computed from the points in the SpatialGridIndex.
+ *
+ * A cluster always covers its whole tile: the clusters at the edge of a view may count locations just outside of it.
+ */
+public class ClusterPyramid {
+
+	public static final int CLUSTERS_PER_SPAN = 16;
+
+	/**
+	 * the finest precomputed zoom, a tile is about 10 km wide.
+	 */
+	public static final int MAX_ZOOM = 12;
+
+	private static final int MAX_CLUSTER_ZOOM = 24;
+
+	private final SpatialGridIndex grid;
+	private final LocationTable table;
+
+	/**
+	 * pair code -> category / subcategory code (either may be NULL_CODE), and row -> pair code
+	 */
+	private final int[] pairCategory;
+	private final int[] pairSubcategory;
+	private final int[] rowPair;
+
+	/**
+	 * per zoom: the sorted (tile << 32 | pair) keys of the entries, and the location count and coordinate sums of each
+	 */
+	private final long[][] keys;
+	private final int[][] counts;
+	private final double[][] sumLat;
+	private final double[][] sumLng;
+
+
+	public ClusterPyramid( SpatialGridIndex grid ) {
+
+		this.grid = grid;
+		this.table = grid.table();
+
+		int subcategoryCount = table.subcategories().length + 1;
+		Map<Long, Integer> pairs = new HashMap<>();
+		List<int[]> pairList = new ArrayList<>();
+		this.rowPair = new int[table.size()];
+		for( int row = 0; row < table.size(); row++ ){
+			long key = (long) (table.categoryCode(row) + 1) * subcategoryCount + (table.subcategoryCode(row) + 1);
+			Integer code = pairs.get(key);
+			if( code == null ){
+				code = pairList.size();
+				pairList.add(new int[]{ table.categoryCode(row), table.subcategoryCode(row) });
+				pairs.put(key, code);
+			}
+			rowPair[row] = code;
+		}
+		this.pairCategory = new int[pairList.size()];
+		this.pairSubcategory = new int[pairList.size()];
+		for( int code = 0; code < pairList.size(); code++ ){
+			pairCategory[code] = pairList.get(code)[0];
+			pairSubcategory[code] = pairList.get(code)[1];
+		}
+
+		this.keys = new long[MAX_ZOOM + 1][];
+		this.counts = new int[MAX_ZOOM + 1][];
+		this.sumLat = new double[MAX_ZOOM + 1][];
+		this.sumLng = new double[MAX_ZOOM + 1][];
+
+		// the finest zoom from the rows, every coarser zoom from the entries of the next finer one
+		long[] rowKeys = new long[table.size()];
+		for( int row = 0; row < table.size(); row++ ){
+			rowKeys[row] = tile(MAX_ZOOM, table.lat(row), table.lng(row)) << 32 | rowPair[row];
+		}
+		build(MAX_ZOOM, rowKeys, null, table::lat, table::lng);
+
+		for( int zoom = MAX_ZOOM - 1; zoom >= 0; zoom-- ){
+			long[] finer = keys[zoom + 1];
+			long[] parentKeys = new long[finer.length];
+			for( int i = 0; i < finer.length; i++ ){
+				parentKeys[i] = parent(zoom + 1, finer[i] >>> 32) << 32 | (finer[i] & 0xffffffffL);
+			}
+			double[] lat = sumLat[zoom + 1];
+			double[] lng = sumLng[zoom + 1];
+			build(zoom, parentKeys, counts[zoom + 1], i -> lat[i], i -> lng[i]);
+		}
+	}
+
+
+	/**
+	 * @param category optional, only the locations of this category are clustered and the breakdown is by subcategory
+	 * @param subcategory optional, only the locations of this subcategory are clustered
+	 * @return the clusters of the tiles that overlap the box, in tile order
+	 */
+	public Clusters clusters( double lllat, double lllng, double urlat, double urlng, String category, String subcategory ) {
+
+		int zoom = zoomFor(lllat, lllng, urlat, urlng);
+
+		boolean byCategory = !Strings.isNullOrEmpty(category);
+		boolean bySubcategory = !Strings.isNullOrEmpty(subcategory);
+		int categoryCode = byCategory ? table.categoryCodeOf(category.trim()) : LocationTable.NULL_CODE;
+		int subcategoryCode = bySubcategory ? table.subcategoryCodeOf(subcategory.trim()) : LocationTable.NULL_CODE;
+
+		String[] breakdown = byCategory ? table.subcategories() : table.categories();
+		Clusters clusters = new Clusters(zoom, byCategory ? "subcategories" : "categories", breakdown);
+
+		if( (byCategory && categoryCode == LocationTable.NULL_CODE) || (bySubcategory && subcategoryCode == LocationTable.NULL_CODE) ){
+			return clusters;
+		}
+
+		PairFilter filter = pair -> (!byCategory || pairCategory[pair] == categoryCode)
+				&& (!bySubcategory || pairSubcategory[pair] == subcategoryCode);
+
+		if( zoom <= MAX_ZOOM ){
+			fromPyramid(clusters, byCategory, filter, lllat, lllng, urlat, urlng);
+		} else {
+			fromPoints(clusters, byCategory, filter, lllat, lllng, urlat, urlng);
+		}
+		return clusters;
+	}
+
+	/**
+	 * @return the zoom at which the box spans about CLUSTERS_PER_SPAN tiles
+	 */
+	public static int zoomFor( double lllat, double lllng, double urlat, double urlng ) {
+		double span = Math.max(urlat - lllat, lllng <= urlng ? urlng - lllng : urlng - lllng + 360.0d);
+		if( !(span > 0.0d) ){
+			return MAX_CLUSTER_ZOOM;
+		}
+		int zoom = (int) Math.ceil(Math.log(360.0d * CLUSTERS_PER_SPAN / span) / Math.log(2));
+		return Math.max(0, Math.min(MAX_CLUSTER_ZOOM, zoom));
+	}
+
+	public static double tileSize( int zoom ) {
+		return 360.0d / (1L << zoom);
+	}
+
+
+	private void fromPyramid( Clusters clusters, boolean byCategory, PairFilter filter, double lllat, double lllng, double urlat, double urlng ) {
+
+		long[] keys = this.keys[clusters.zoom];
+		int[] counts = this.counts[clusters.zoom];
+		double[] sumLat = this.sumLat[clusters.zoom];
+		double[] sumLng = this.sumLng[clusters.zoom];
+		int zoom = clusters.zoom;
+
+		long columns = 1L << zoom;
+		long lat0 = latIndex(zoom, lllat), lat1 = latIndex(zoom, urlat);
+		long lng0 = lngIndex(zoom, lllng), lng1 = lngIndex(zoom, urlng);
+
+		for( long latIndex = lat0; latIndex <= lat1; latIndex++ ){
+			// the lng range of a row of tiles is a contiguous range of keys, two of them across the antimeridian
+			long[][] ranges = lllng > urlng ? new long[][]{ { lng0, columns - 1 }, { 0, lng1 } } : new long[][]{ { lng0, lng1 } };
+			for( long[] range : ranges ){
+				long to = (latIndex * columns + range[1] + 1) << 32;
+				Cluster cluster = null;
+				for( int i = lowerBound(keys, (latIndex * columns + range[0]) << 32); i < keys.length && keys[i] < to; i++ ){
+					int pair = (int) (keys[i] & 0xffffffffL);
+					if( !filter.accept(pair) ){
+						continue;
+					}
+					long tile = keys[i] >>> 32;
+					if( cluster == null || cluster.tile != tile ){
+						cluster = new Cluster(tile, clusters.breakdownNames.length);
+						clusters.list.add(cluster);
+					}
+					cluster.add(counts[i], sumLat[i], sumLng[i], byCategory ? pairSubcategory[pair] : pairCategory[pair]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The box is grown to whole tiles first, so a cluster counts the same locations as a precomputed one.
+	 */
+	private void fromPoints( Clusters clusters, boolean byCategory, PairFilter filter, double lllat, double lllng, double urlat, double urlng ) {
+
+		int zoom = clusters.zoom;
+		double tile = tileSize(zoom);
+		Map<Long, Cluster> byTile = new TreeMap<>();
+
+		grid.search(Math.max(-90.0d, Math.floor((lllat + 90.0d) / tile) * tile - 90.0d),
+				Math.max(-180.0d, Math.floor((lllng + 180.0d) / tile) * tile - 180.0d),
+				Math.min(90.0d, Math.ceil((urlat + 90.0d) / tile) * tile - 90.0d),
+				Math.min(180.0d, Math.ceil((urlng + 180.0d) / tile) * tile - 180.0d),
+				row -> filter.accept(rowPair[row]),
+				row -> {
+					int pair = rowPair[row];
+					long key = tile(zoom, table.lat(row), table.lng(row));
+					byTile.computeIfAbsent(key, k -> new Cluster(k, clusters.breakdownNames.length))
+							.add(1, table.lat(row), table.lng(row), byCategory ? pairSubcategory[pair] : pairCategory[pair]);
+					return true;
+				});
+
+		clusters.list.addAll(byTile.values());
+	}
+
+	/**
+	 * Sorts the keys, merges equal keys into one entry and adds up their counts and sums.
+	 *
+	 * @param weights the count of every key, null if every key counts once
+	 */
+	private void build( int zoom, long[] unsorted, int[] weights, IndexedDouble lat, IndexedDouble lng ) {
+
+		long[] sorted = unsorted.clone();
+		Arrays.sort(sorted);
+		int size = 0;
+		for( int i = 0; i < sorted.length; i++ ){
+			if( i == 0 || sorted[i] != sorted[i - 1] ){
+				sorted[size++] = sorted[i];
+			}
+		}
+		long[] keys = Arrays.copyOf(sorted, size);
+		int[] counts = new int[size];
+		double[] sumLat = new double[size];
+		double[] sumLng = new double[size];
+
+		for( int i = 0; i < unsorted.length; i++ ){
+			int entry = Arrays.binarySearch(keys, unsorted[i]);
+			counts[entry] += weights == null ? 1 : weights[i];
+			sumLat[entry] += lat.get(i);
+			sumLng[entry] += lng.get(i);
+		}
+
+		this.keys[zoom] = keys;
+		this.counts[zoom] = counts;
+		this.sumLat[zoom] = sumLat;
+		this.sumLng[zoom] = sumLng;
+	}
+
+	/**
+	 * @return the tile number at the zoom: lat index * 2^zoom + lng index
+	 */
+	static long tile( int zoom, double lat, double lng ) {
+		return latIndex(zoom, lat) * (1L << zoom) + lngIndex(zoom, lng);
+	}
+
+	private static long parent( int zoom, long tile ) {
+		long columns = 1L << zoom;
+		return (tile / columns >> 1) * (columns >> 1) + (tile % columns >> 1);
+	}
+
+	private static long latIndex( int zoom, double lat ) {
+		long rows = Math.max(1L, 1L << zoom >> 1);
+		return clamp((long) Math.floor((lat + 90.0d) / tileSize(zoom)), rows);
+	}
+
+	private static long lngIndex( int zoom, double lng ) {
+		return clamp((long) Math.floor((lng + 180.0d) / tileSize(zoom)), 1L << zoom);
+	}
+
+	private static long clamp( long value, long size ) {
+		return value < 0 ? 0 : (value >= size ? size - 1 : value);
+	}
+
+	private static int lowerBound( long[] keys, long key ) {
+		int low = 0, high = keys.length;
+		while( low < high ){
+			int mid = (low + high) >>> 1;
+			if( keys[mid] < key ){
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+
+	@FunctionalInterface
+	private interface PairFilter {
+		boolean accept( int pair );
+	}
+
+	@FunctionalInterface
+	private interface IndexedDouble {
+		double get( int index );
+	}
+
+
+	/**
+	 * The clusters of a view, written as a JSON array of { count, lat, lng, categories (or subcategories) } objects.
+	 * The breakdown is sorted by count, locations without a category (or subcategory) are counted but not broken down.
+	 */
+	public static class Clusters implements JsonWritable {
+
+		private final int zoom;
+		private final String breakdownField;
+		private final String[] breakdownNames;
+		private final List<Cluster> list = new ArrayList<>();
+
+		private Clusters( int zoom, String breakdownField, String[] breakdownNames ) {
+			this.zoom = zoom;
+			this.breakdownField = breakdownField;
+			this.breakdownNames = breakdownNames;
+		}
+
+		public int zoom() {
+			return zoom;
+		}
+
+		public double tileSize() {
+			return ClusterPyramid.tileSize(zoom);
+		}
+
+		public List<Cluster> list() {
+			return list;
+		}
+
+		@Override
+		public void writeTo( JsonWriter out ) throws IOException {
+			out.beginArray();
+			for( Cluster cluster : list ){
+				out.beginObject();
+				out.name("count").value(cluster.count);
+				out.name("lat").value(cluster.lat());
+				out.name("lng").value(cluster.lng());
+				out.name(breakdownField).beginObject();
+				for( int code : cluster.breakdownByCount() ){
+					out.name(breakdownNames[code]).value(cluster.breakdown[code]);
+				}
+				out.endObject();
+				out.endObject();
+			}
+			out.endArray();
+		}
+	}
+
+	public static class Cluster {
+
+		private final long tile;
+		private final int[] breakdown;
+		private int count;
+		private double sumLat;
+		private double sumLng;
+
+		private Cluster( long tile, int breakdownSize ) {
+			this.tile = tile;
+			this.breakdown = new int[breakdownSize];
+		}
+
+		private void add( int count, double sumLat, double sumLng, int breakdownCode ) {
+			this.count += count;
+			this.sumLat += sumLat;
+			this.sumLng += sumLng;
+			if( breakdownCode != LocationTable.NULL_CODE ){
+				breakdown[breakdownCode] += count;
+			}
+		}
+
+		public int count() {
+			return count;
+		}
+
+		/**
+		 * the centroid of the clustered locations
+		 */
+		public double lat() {
+			return sumLat / count;
+		}
+
+		public double lng() {
+			return sumLng / count;
+		}
+
+		/**
+		 * @param code a category (or subcategory) code of the LocationTable
+		 */
+		public int count( int code ) {
+			return breakdown[code];
+		}
+
+		private Integer[] breakdownByCount() {
+			List<Integer> codes = new ArrayList<>();
+			for( int code = 0; code < breakdown.length; code++ ){
+				if( breakdown[code] > 0 ){
+					codes.add(code);
+				}
+			}
+			codes.sort((a, b) -> Integer.compare(breakdown[b], breakdown[a]));
+			return codes.toArray(new Integer[0]);
+		}
+	}
+
+}
@@ -0,0 +1,201 @@
+package com.datastax.field.examples.geo.index;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.dse.DseSession;
+import com.datastax.driver.dse.geometry.Point;
+import com.datastax.field.examples.geo.App;
+import com.datastax.field.examples.geo.service.QueryType;
+
+/**
+ * Holds an in-memory copy of simplegeo.locations and its spatial index (the "local index").
+ *
+ * When any query type is served locally (App.LOCAL_INDEX) or shadowed (App.SHADOW), the table is loaded in the
+ * background at startup (until then isReady() is false) and then reloaded every App.LOCAL_INDEX_REFRESH_MINUTES. A
+ * reload builds a new Snapshot on the side and swaps it in with a single write, queries never see a half built index
+ * nor the indexes of two loads. If a reload fails, the previous snapshot is kept.
+ *
+ * The pivot, name and cluster indexes are only built for the query types that use them, see install.
+ */
+@Component
+public class LocalLocationIndex {
+
+	final static Logger logger = LoggerFactory.getLogger(LocalLocationIndex.class);
+
+	static final String SCAN_CQL = "SELECT id, name, name_lowercase, address, city, province, phone, post_code, category, subcategory, website, menulink, geo FROM simplegeo.locations";
+
+	private static final int SCAN_FETCH_SIZE = 5000;
+
+	@Autowired
+	private DseSession dseSession;
+
+	private volatile Snapshot snapshot;
+
+	private ScheduledExecutorService refresher;
+
+
+	@PostConstruct
+	public void start() {
+
+		if( App.LOCAL_INDEX.isEmpty() && App.SHADOW.isEmpty() ){
+			return;
+		}
+
+		refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "local-index-refresh");
+			t.setDaemon(true);
+			return t;
+		});
+		// the first load is a full scan, the server starts meanwhile and DSE Search answers (see isReady)
+		if( App.LOCAL_INDEX_REFRESH_MINUTES > 0 ){
+			refresher.scheduleWithFixedDelay(this::refresh, 0, App.LOCAL_INDEX_REFRESH_MINUTES, TimeUnit.MINUTES);
+		} else {
+			refresher.execute(this::refresh);
+		}
+	}
+
+	@PreDestroy
+	public void stop() {
+		if( refresher != null ){
+			refresher.shutdownNow();
+		}
+	}
+
+
+	/**
+	 * @return true once a snapshot has been loaded
+	 */
+	public boolean isReady() {
+		return snapshot != null;
+	}
+
+	/**
+	 * @return the current snapshot, null until the first load completed. A query reads it once and uses that
+	 * snapshot throughout.
+	 */
+	public Snapshot snapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Replaces the current snapshot with the given table. The pivot facets are built if pivot is served locally or
+	 * shadowed, the names if suggest or search is, the cluster pyramid if cluster is served locally.
+	 */
+	public synchronized void install( LocationTable table ) {
+		SpatialGridIndex index = new SpatialGridIndex(table);
+		Snapshot previous = snapshot;
+		long version = Math.max(previous == null ? 1 : previous.version + 1, System.currentTimeMillis());
+		this.snapshot = new Snapshot(index, 
+				isQueried(QueryType.PIVOT) ? new PivotFacetIndex(index) : null, 
+				isQueried(QueryType.SUGGEST) || isQueried(QueryType.SEARCH) ? new NameSuggestIndex(index) : null,
+				App.LOCAL_INDEX.contains(QueryType.CLUSTER) ? new ClusterPyramid(index) : null, version);
+	}
+
+	public void refresh() {
+		try {
+			long start = System.currentTimeMillis();
+			LocationTable table = load();
+			install(table);
+			logger.info("local index loaded " + table.size() + " locations in " + (System.currentTimeMillis() - start) + " ms");
+		} catch (RuntimeException e) {
+			logger.error("local index refresh failed, keeping the previous snapshot", e);
+		}
+	}
+
+
+	/**
+	 * @return true if the local index answers the query type, or runs it as the shadow of DSE Search
+	 */
+	private static boolean isQueried( QueryType type ) {
+		return App.LOCAL_INDEX.contains(type) || App.SHADOW.contains(type);
+	}
+
+	private LocationTable load() {
+
+		LocationTable.Builder builder = new LocationTable.Builder();
+
+		Statement scan = new SimpleStatement(SCAN_CQL).setFetchSize(SCAN_FETCH_SIZE);
+		for( Row row : dseSession.execute(scan) ){
+
+			Point geo = (Point) row.getObject("geo");
+			if( geo == null ){
+				continue;
+			}
+
+			builder.add(row.getString("id"), row.getString("name"), row.getString("name_lowercase"),
+					row.getString("address"), row.getString("city"), row.getString("province"),
+					row.getString("phone"), row.getString("post_code"),
+					row.getString("category"), row.getString("subcategory"),
+					row.getString("website"), row.getString("menulink"),
+					geo.Y(), geo.X());
+		}
+		return builder.build();
+	}
+
+
+	/**
+	 * A loaded table and the indexes built on it.
+	 */
+	public static final class Snapshot {
+
+		private final SpatialGridIndex index;
+		private final PivotFacetIndex facets;
+		private final NameSuggestIndex names;
+		private final ClusterPyramid clusters;
+		private final long version;
+
+		private Snapshot( SpatialGridIndex index, PivotFacetIndex facets, NameSuggestIndex names, ClusterPyramid clusters, long version ) {
+			this.index = index;
+			this.facets = facets;
+			this.names = names;
+			this.clusters = clusters;
+			this.version = version;
+		}
+
+		public SpatialGridIndex index() {
+			return index;
+		}
+
+		/**
+		 * @return the pivot facets, null if pivot is neither served locally nor shadowed
+		 */
+		public PivotFacetIndex facets() {
+			return facets;
+		}
+
+		/**
+		 * @return the names, null if neither suggest nor search is served locally or shadowed
+		 */
+		public NameSuggestIndex names() {
+			return names;
+		}
+
+		/**
+		 * @return the cluster pyramid, null if the clusters are not served (App.LOCAL_INDEX does not contain cluster)
+		 */
+		public ClusterPyramid clusters() {
+			return clusters;
+		}
+
+		/**
+		 * @return identifies the snapshot (its install time in milliseconds, increasing)
+		 */
+		public long version() {
+			return version;
+		}
+	}
+
+}
@@ -0,0 +1,213 @@
+package com.datastax.field.examples.geo.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, column oriented copy of simplegeo.locations.
+ *
+ * Coordinates are kept in primitive double[] columns and category / subcategory are dictionary encoded
+ * (an int code per row, -1 when the value is null), everything else is kept as the plain String columns
+ * needed to write a location back out.
+ *
+ * Rows are addressed by their position (0 .. size()-1). Use the Builder to create one.
+ */
+public class LocationTable {
+
+	public static final int NULL_CODE = -1;
+
+	private final int size;
+
+	private final String[] id;
+	private final String[] name;
+	private final String[] nameLowercase;
+	private final String[] address;
+	private final String[] city;
+	private final String[] province;
+	private final String[] phone;
+	private final String[] postCode;
+	private final String[] website;
+	private final String[] menulink;
+
+	private final double[] lat;
+	private final double[] lng;
+
+	private final int[] category;
+	private final int[] subcategory;
+	private final String[] categories;
+	private final String[] subcategories;
+	private final Map<String, Integer> categoryCodes;
+	private final Map<String, Integer> subcategoryCodes;
+
+	private LocationTable( Builder b ) {
+		this.size = b.size;
+		this.id = Arrays.copyOf(b.id, size);
+		this.name = Arrays.copyOf(b.name, size);
+		this.nameLowercase = Arrays.copyOf(b.nameLowercase, size);
+		this.address = Arrays.copyOf(b.address, size);
+		this.city = Arrays.copyOf(b.city, size);
+		this.province = Arrays.copyOf(b.province, size);
+		this.phone = Arrays.copyOf(b.phone, size);
+		this.postCode = Arrays.copyOf(b.postCode, size);
+		this.website = Arrays.copyOf(b.website, size);
+		this.menulink = Arrays.copyOf(b.menulink, size);
+		this.lat = Arrays.copyOf(b.lat, size);
+		this.lng = Arrays.copyOf(b.lng, size);
+		this.category = Arrays.copyOf(b.category, size);
+		this.subcategory = Arrays.copyOf(b.subcategory, size);
+		this.categories = b.categories.toArray(new String[0]);
+		this.subcategories = b.subcategories.toArray(new String[0]);
+		this.categoryCodes = new HashMap<>(b.categoryCodes);
+		this.subcategoryCodes = new HashMap<>(b.subcategoryCodes);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public String id( int row ) { return id[row]; }
+	public String name( int row ) { return name[row]; }
+	public String nameLowercase( int row ) { return nameLowercase[row]; }
+	public String address( int row ) { return address[row]; }
+	public String city( int row ) { return city[row]; }
+	public String province( int row ) { return province[row]; }
+	public String phone( int row ) { return phone[row]; }
+	public String postCode( int row ) { return postCode[row]; }
+	public String website( int row ) { return website[row]; }
+	public String menulink( int row ) { return menulink[row]; }
+	public double lat( int row ) { return lat[row]; }
+	public double lng( int row ) { return lng[row]; }
+
+	public String category( int row ) {
+		return category[row] == NULL_CODE ? null : categories[category[row]];
+	}
+
+	public String subcategory( int row ) {
+		return subcategory[row] == NULL_CODE ? null : subcategories[subcategory[row]];
+	}
+
+	public int categoryCode( int row ) { return category[row]; }
+	public int subcategoryCode( int row ) { return subcategory[row]; }
+
+	/**
+	 * @return the dictionary code of the category, or NULL_CODE if no row has that category
+	 */
+	public int categoryCodeOf( String value ) {
+		Integer code = categoryCodes.get(value);
+		return code == null ? NULL_CODE : code;
+	}
+
+	public int subcategoryCodeOf( String value ) {
+		Integer code = subcategoryCodes.get(value);
+		return code == null ? NULL_CODE : code;
+	}
+
+	/**
+	 * @return the category dictionary, indexed by code
+	 */
+	public String[] categories() {
+		return categories;
+	}
+
+	public String[] subcategories() {
+		return subcategories;
+	}
+
+
+	public static class Builder {
+
+		private int size;
+
+		private String[] id = new String[1024];
+		private String[] name = new String[1024];
+		private String[] nameLowercase = new String[1024];
+		private String[] address = new String[1024];
+		private String[] city = new String[1024];
+		private String[] province = new String[1024];
+		private String[] phone = new String[1024];
+		private String[] postCode = new String[1024];
+		private String[] website = new String[1024];
+		private String[] menulink = new String[1024];
+		private double[] lat = new double[1024];
+		private double[] lng = new double[1024];
+		private int[] category = new int[1024];
+		private int[] subcategory = new int[1024];
+
+		private final List<String> categories = new ArrayList<>();
+		private final List<String> subcategories = new ArrayList<>();
+		private final Map<String, Integer> categoryCodes = new HashMap<>();
+		private final Map<String, Integer> subcategoryCodes = new HashMap<>();
+
+		/**
+		 * @return the row number of the added location
+		 */
+		public int add( String id, String name, String nameLowercase, String address, String city, String province,
+				String phone, String postCode, String category, String subcategory, String website, String menulink,
+				double lat, double lng ){
+
+			if( size == this.id.length ){
+				grow();
+			}
+			int row = size++;
+
+			this.id[row] = id;
+			this.name[row] = name;
+			this.nameLowercase[row] = nameLowercase != null ? nameLowercase : (name != null ? name.toLowerCase() : null);
+			this.address[row] = address;
+			this.city[row] = city;
+			this.province[row] = province;
+			this.phone[row] = phone;
+			this.postCode[row] = postCode;
+			this.website[row] = website;
+			this.menulink[row] = menulink;
+			this.lat[row] = lat;
+			this.lng[row] = lng;
+			this.category[row] = encode(category, categories, categoryCodes);
+			this.subcategory[row] = encode(subcategory, subcategories, subcategoryCodes);
+			return row;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public LocationTable build() {
+			return new LocationTable(this);
+		}
+
+		private static int encode( String value, List<String> dictionary, Map<String, Integer> codes ){
+			if( value == null ){
+				return NULL_CODE;
+			}
+			Integer code = codes.get(value);
+			if( code == null ){
+				code = dictionary.size();
+				dictionary.add(value);
+				codes.put(value, code);
+			}
+			return code;
+		}
+
+		private void grow() {
+			int capacity = id.length * 2;
+			id = Arrays.copyOf(id, capacity);
+			name = Arrays.copyOf(name, capacity);
+			nameLowercase = Arrays.copyOf(nameLowercase, capacity);
+			address = Arrays.copyOf(address, capacity);
+			city = Arrays.copyOf(city, capacity);
+			province = Arrays.copyOf(province, capacity);
+			phone = Arrays.copyOf(phone, capacity);
+			postCode = Arrays.copyOf(postCode, capacity);
+			website = Arrays.copyOf(website, capacity);
+			menulink = Arrays.copyOf(menulink, capacity);
+			lat = Arrays.copyOf(lat, capacity);
+			lng = Arrays.copyOf(lng, capacity);
+			category = Arrays.copyOf(category, capacity);
+			subcategory = Arrays.copyOf(subcategory, capacity);
+		}
+	}
+
+}
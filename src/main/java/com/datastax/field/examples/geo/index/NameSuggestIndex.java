@@ -0,0 +1,312 @@
+package com.datastax.field.examples.geo.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.datastax.field.examples.geo.util.GeoCircle;
+
+/**
+ * Answers "name_lowercase contains X within a radius of a point" from the local index, the query the type-ahead
+ * runs on every keystroke (name_lowercase:*x* on DSE Search).
+ *
+ * The distinct name_lowercase values are indexed by their trigrams (3 character substrings), a term of 3 or more
+ * characters only needs to check the names listed under its rarest trigram. Short terms, or terms whose rarest
+ * trigram is more common than the locations around the point, are answered by scanning the grid around the point.
+ *
+ * The type-ahead ranks prefix matches first, then by distance to the point, the name search (nearest) by distance only.
+ */
+public class NameSuggestIndex {
+
+	private static final int[] NO_NAMES = new int[0];
+
+	private final SpatialGridIndex grid;
+	private final LocationTable table;
+
+	/**
+	 * the distinct name_lowercase values, and the rows of each of them: nameRows[nameStart[name] .. nameStart[name + 1])
+	 */
+	private final String[] names;
+	private final int[] nameStart;
+	private final int[] nameRows;
+
+	private final Map<Long, int[]> trigrams;
+
+
+	public NameSuggestIndex( SpatialGridIndex grid ) {
+
+		this.grid = grid;
+		this.table = grid.table();
+
+		Map<String, List<Integer>> rowsByName = new LinkedHashMap<>();
+		for( int row = 0; row < table.size(); row++ ){
+			String name = table.nameLowercase(row);
+			if( name != null ){
+				rowsByName.computeIfAbsent(name, n -> new ArrayList<>(1)).add(row);
+			}
+		}
+
+		this.names = rowsByName.keySet().toArray(new String[0]);
+		this.nameStart = new int[names.length + 1];
+		this.nameRows = new int[table.size()];
+		int i = 0, n = 0;
+		for( List<Integer> rows : rowsByName.values() ){
+			for( int row : rows ){
+				nameRows[i++] = row;
+			}
+			nameStart[++n] = i;
+		}
+
+		Map<Long, List<Integer>> postings = new HashMap<>();
+		Set<Long> seen = new HashSet<>();
+		for( int name = 0; name < names.length; name++ ){
+			seen.clear();
+			String value = names[name];
+			for( int c = 0; c + 3 <= value.length(); c++ ){
+				long trigram = trigram(value, c);
+				if( seen.add(trigram) ){
+					postings.computeIfAbsent(trigram, t -> new ArrayList<>()).add(name);
+				}
+			}
+		}
+		this.trigrams = new HashMap<>(postings.size() * 2);
+		for( Map.Entry<Long, List<Integer>> posting : postings.entrySet() ){
+			int[] list = new int[posting.getValue().size()];
+			for( int p = 0; p < list.length; p++ ){
+				list[p] = posting.getValue().get(p);
+			}
+			trigrams.put(posting.getKey(), list);
+		}
+	}
+
+
+	public SpatialGridIndex grid() {
+		return grid;
+	}
+
+	/**
+	 * @param term the (cleansed, lowercase) text the name must contain, everything matches if empty
+	 * @param radiusInDegrees the radius as an angle, see GeoUtil.distanceInDegrees (and GeoCircle)
+	 * @param limit the max number of rows returned
+	 * @param distinctNames if true, only the best ranked row of every name is returned
+	 * @return the matching rows, best ranked first
+	 */
+	public int[] search( String term, double lat, double lng, double radiusInDegrees, int limit, boolean distinctNames ) {
+
+		// a bounded top limit per rank class: the matches that start with the term, and the others
+		NearestNames prefixed = new NearestNames(table, limit, distinctNames);
+		NearestNames others = new NearestNames(table, limit, distinctNames);
+		visitMatches(term, new GeoCircle(lat, lng, radiusInDegrees), (row, haversine) -> {
+			if( table.nameLowercase(row).startsWith(term) ){
+				prefixed.visit(row, haversine);
+			} else if( prefixed.size() < limit ){
+				others.visit(row, haversine);
+			}
+		});
+
+		int[] first = prefixed.toSortedArray();
+		if( first.length == limit ){
+			return first;
+		}
+		int[] then = others.toSortedArray();
+		int[] rows = Arrays.copyOf(first, Math.min(limit, first.length + then.length));
+		System.arraycopy(then, 0, rows, first.length, rows.length - first.length);
+		return rows;
+	}
+
+
+	/**
+	 * The name search: the rows whose name contains the term, by distance only.
+	 *
+	 * @return the limit matching rows nearest to the point, nearest first
+	 */
+	public int[] nearest( String term, double lat, double lng, double radiusInDegrees, int limit ) {
+		NearestRows nearest = new NearestRows(limit);
+		visitMatches(term, new GeoCircle(lat, lng, radiusInDegrees), nearest::visit);
+		return nearest.toSortedArray();
+	}
+
+	/**
+	 * Visits the rows whose name contains the term within the circle, in no particular order.
+	 */
+	private void visitMatches( String term, GeoCircle circle, MatchVisitor visitor ) {
+
+		int[] candidates = rarestPosting(term);
+		if( candidates == NO_NAMES ){
+			return;
+		}
+
+		double[] box = circle.boundingBox();
+
+		if( candidates != null && candidates.length < pointsAround(box, candidates.length) ){
+			for( int name : candidates ){
+				if( names[name].contains(term) ){
+					for( int i = nameStart[name]; i < nameStart[name + 1]; i++ ){
+						visitIfWithin(visitor, nameRows[i], circle);
+					}
+				}
+			}
+		} else {
+			grid.search(box[0], box[1], box[2], box[3],
+					row -> table.nameLowercase(row) != null && table.nameLowercase(row).contains(term),
+					row -> {
+						visitIfWithin(visitor, row, circle);
+						return true;
+					});
+		}
+	}
+
+	/**
+	 * @return the names of the rarest trigram of the term, null if the term is too short to have one,
+	 * NO_NAMES if one of its trigrams is not indexed (so nothing can match)
+	 */
+	private int[] rarestPosting( String term ) {
+		int[] rarest = null;
+		for( int c = 0; c + 3 <= term.length(); c++ ){
+			int[] posting = trigrams.get(trigram(term, c));
+			if( posting == null ){
+				return NO_NAMES;
+			}
+			if( rarest == null || posting.length < rarest.length ){
+				rarest = posting;
+			}
+		}
+		return rarest;
+	}
+
+	/**
+	 * @return the number of locations in the grid cells of the box, counting stops once it exceeds max
+	 */
+	private int pointsAround( double[] box, int max ) {
+		int[] points = {0};
+		grid.visitCells(box[0], box[1], box[2], box[3], (cell, inside) -> {
+			points[0] += grid.cellEnd(cell) - grid.cellStart(cell);
+			return points[0] <= max;
+		});
+		return points[0];
+	}
+
+	private void visitIfWithin( MatchVisitor visitor, int row, GeoCircle circle ) {
+		double haversine = circle.haversine(table.lat(row), table.lng(row));
+		if( haversine <= circle.maxHaversine() ){
+			visitor.visit(row, haversine);
+		}
+	}
+
+	private static long trigram( String value, int offset ) {
+		return ((long) value.charAt(offset) << 32) | ((long) value.charAt(offset + 1) << 16) | value.charAt(offset + 2);
+	}
+
+
+	private interface MatchVisitor {
+		void visit( int row, double haversine );
+	}
+
+	/**
+	 * Keeps the limit rows with the smallest distance of the rows it visits, as NearestRows does. With distinct
+	 * names, only the nearest row of every name is kept, so the limit is a number of names.
+	 */
+	private static class NearestNames {
+
+		private final LocationTable table;
+		private final int limit;
+		private int[] rows;
+		private double[] distances;
+		private int size;
+		/**
+		 * the heap position of the row kept for every name, null if names need not be distinct
+		 */
+		private final Map<String, Integer> positions;
+
+		NearestNames( LocationTable table, int limit, boolean distinctNames ) {
+			this.table = table;
+			this.limit = Math.max(0, limit);
+			this.rows = new int[Math.min(this.limit, 64)];
+			this.distances = new double[rows.length];
+			this.positions = distinctNames ? new HashMap<>() : null;
+		}
+
+		int size() {
+			return size;
+		}
+
+		void visit( int row, double distance ) {
+
+			if( positions != null ){
+				Integer kept = positions.get(table.name(row));
+				if( kept != null ){
+					if( distance < distances[kept] ){
+						siftDown(kept, row, distance, size);
+					}
+					return;
+				}
+			}
+
+			if( size < limit ){
+				if( size == rows.length ){
+					rows = Arrays.copyOf(rows, (int) Math.min(limit, rows.length * 2L));
+					distances = Arrays.copyOf(distances, rows.length);
+				}
+				siftUp(size++, row, distance);
+
+			} else if( size > 0 && distance < distances[0] ){
+				if( positions != null ){
+					positions.remove(table.name(rows[0]));
+				}
+				siftDown(0, row, distance, size);
+			}
+		}
+
+		/**
+		 * @return the rows kept, nearest first
+		 */
+		int[] toSortedArray() {
+			int[] sorted = new int[size];
+			for( int n = size; n > 0; n-- ){
+				sorted[n - 1] = rows[0];
+				siftDown(0, rows[n - 1], distances[n - 1], n - 1);
+			}
+			size = 0;
+			return sorted;
+		}
+
+		private void siftUp( int i, int row, double distance ) {
+			while( i > 0 && distances[(i - 1) / 2] < distance ){
+				set(i, rows[(i - 1) / 2], distances[(i - 1) / 2]);
+				i = (i - 1) / 2;
+			}
+			set(i, row, distance);
+		}
+
+		/**
+		 * puts the row at position i, which holds a row at least as far, and restores the heap of the first size entries
+		 */
+		private void siftDown( int i, int row, double distance, int size ) {
+			for( int child = 2 * i + 1; child < size; child = 2 * i + 1 ){
+				if( child + 1 < size && distances[child + 1] > distances[child] ){
+					child++;
+				}
+				if( distances[child] <= distance ){
+					break;
+				}
+				set(i, rows[child], distances[child]);
+				i = child;
+			}
+			set(i, row, distance);
+		}
+
+		private void set( int i, int row, double distance ) {
+			rows[i] = row;
+			distances[i] = distance;
+			if( positions != null ){
+				positions.put(table.name(row), i);
+			}
+		}
+	}
+
+}
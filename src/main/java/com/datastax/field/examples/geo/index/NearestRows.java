@@ -0,0 +1,93 @@
+package com.datastax.field.examples.geo.index;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the limit rows with the smallest distance of the rows it visits (a bounded max-heap), without boxing.
+ *
+ * The distance is any value that grows with the distance, e.g. GeoCircle.haversine.
+ */
+public class NearestRows {
+
+	private final int limit;
+	private int[] rows;
+	private double[] distances;
+	private int size;
+
+	public NearestRows( int limit ) {
+		this.limit = Math.max(0, limit);
+		this.rows = new int[Math.min(this.limit, 64)];
+		this.distances = new double[rows.length];
+	}
+
+	public void visit( int row, double distance ) {
+
+		if( size < limit ){
+			if( size == rows.length ){
+				rows = Arrays.copyOf(rows, Math.min(limit, rows.length * 2));
+				distances = Arrays.copyOf(distances, rows.length);
+			}
+			// sift up
+			int i = size++;
+			while( i > 0 && distances[(i - 1) / 2] < distance ){
+				rows[i] = rows[(i - 1) / 2];
+				distances[i] = distances[(i - 1) / 2];
+				i = (i - 1) / 2;
+			}
+			rows[i] = row;
+			distances[i] = distance;
+
+		} else if( size > 0 && distance < distances[0] ){
+			siftDown(row, distance, size);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isFull() {
+		return size == limit;
+	}
+
+	/**
+	 * @return the largest distance kept, NaN if no row was kept
+	 */
+	public double maxDistance() {
+		return size == 0 ? Double.NaN : distances[0];
+	}
+
+	/**
+	 * @return the rows kept, nearest first. The collector is empty afterwards.
+	 */
+	public int[] toSortedArray() {
+		int[] sorted = new int[size];
+		for( int n = size; n > 0; n-- ){
+			sorted[n - 1] = rows[0];
+			siftDown(rows[n - 1], distances[n - 1], n - 1);
+		}
+		size = 0;
+		return sorted;
+	}
+
+	/**
+	 * replaces the root by the row and restores the heap of the first size entries
+	 */
+	private void siftDown( int row, double distance, int size ) {
+		int i = 0;
+		for( int child = 1; child < size; child = 2 * i + 1 ){
+			if( child + 1 < size && distances[child + 1] > distances[child] ){
+				child++;
+			}
+			if( distances[child] <= distance ){
+				break;
+			}
+			rows[i] = rows[child];
+			distances[i] = distances[child];
+			i = child;
+		}
+		rows[i] = row;
+		distances[i] = distance;
+	}
+
+}
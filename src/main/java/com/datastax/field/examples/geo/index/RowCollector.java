@@ -0,0 +1,43 @@
+package com.datastax.field.examples.geo.index;
+
+import java.util.Arrays;
+
+/**
+ * Collects LocationTable row numbers, up to a limit, without boxing.
+ */
+public class RowCollector implements SpatialGridIndex.RowVisitor {
+
+	private final int limit;
+	private int[] rows;
+	private int size;
+
+	public RowCollector( int limit ) {
+		this.limit = Math.max(0, limit);
+		this.rows = new int[Math.min(this.limit, 64)];
+	}
+
+	@Override
+	public boolean visit( int row ) {
+		if( size == limit ){
+			return false;
+		}
+		if( size == rows.length ){
+			rows = Arrays.copyOf(rows, Math.min(limit, rows.length * 2));
+		}
+		rows[size++] = row;
+		return size < limit;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int get( int i ) {
+		return rows[i];
+	}
+
+	public boolean isFull() {
+		return size == limit;
+	}
+
+}
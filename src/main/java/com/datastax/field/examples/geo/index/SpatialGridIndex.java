@@ -0,0 +1,384 @@
+package com.datastax.field.examples.geo.index;
+
+/**
+ * A packed uniform grid over the coordinates of a LocationTable.
+ *
+ * The points are sorted by cell into flat arrays (a cell is a contiguous [cellStart, cellEnd) range), so a
+ * bounding box query only touches the cells it overlaps: cells that are fully inside the box are taken as a
+ * whole, the boundary cells are checked point by point.
+ *
+ * Bounding boxes with lllng > urlng are taken to cross the antimeridian, as Solr does for geo:[... TO ...].
+ */
+public class SpatialGridIndex {
+
+	/**
+	 * on average, how many points a cell should hold.
+	 */
+	public static final int DEFAULT_POINTS_PER_CELL = 16;
+
+	private static final int MAX_CELLS = 1 << 22;
+	private static final double MIN_CELL_SIZE = 0.0001d;
+
+	/**
+	 * cells closer than this to a bbox edge are treated as boundary cells, so floating point rounding never
+	 * lets a point just outside of the box be counted.
+	 */
+	private static final double EDGE_EPSILON = 1e-9;
+
+	@FunctionalInterface
+	public interface CellVisitor {
+		/**
+		 * @param inside true if the whole cell lies within the queried box
+		 * @return false to stop visiting
+		 */
+		boolean visit( int cell, boolean inside );
+	}
+
+	@FunctionalInterface
+	public interface RowVisitor {
+		/**
+		 * @return false to stop visiting
+		 */
+		boolean visit( int row );
+	}
+
+	@FunctionalInterface
+	public interface RowFilter {
+		boolean accept( int row );
+	}
+
+
+	private final LocationTable table;
+
+	private final double minLat;
+	private final double minLng;
+	private final double cellSize;
+	private final int rows;
+	private final int cols;
+
+	private final int[] cellStart;
+	private final int[] cellRows;
+	private final double[] cellLat;
+	private final double[] cellLng;
+
+
+	public SpatialGridIndex( LocationTable table ) {
+		this(table, DEFAULT_POINTS_PER_CELL);
+	}
+
+	public SpatialGridIndex( LocationTable table, int pointsPerCell ) {
+
+		this.table = table;
+		int n = table.size();
+
+		double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+		double minLng = Double.MAX_VALUE, maxLng = -Double.MAX_VALUE;
+		for( int row = 0; row < n; row++ ){
+			minLat = Math.min(minLat, table.lat(row));
+			maxLat = Math.max(maxLat, table.lat(row));
+			minLng = Math.min(minLng, table.lng(row));
+			maxLng = Math.max(maxLng, table.lng(row));
+		}
+		if( n == 0 ){
+			minLat = maxLat = minLng = maxLng = 0.0d;
+		}
+
+		double latSpan = Math.max(maxLat - minLat, MIN_CELL_SIZE);
+		double lngSpan = Math.max(maxLng - minLng, MIN_CELL_SIZE);
+
+		double cellSize = Math.max(Math.sqrt(latSpan * lngSpan * pointsPerCell / Math.max(n, 1)), MIN_CELL_SIZE);
+		while( cellsFor(latSpan, cellSize) * cellsFor(lngSpan, cellSize) > MAX_CELLS ){
+			cellSize *= 1.5;
+		}
+
+		this.minLat = minLat;
+		this.minLng = minLng;
+		this.cellSize = cellSize;
+		this.rows = (int) cellsFor(latSpan, cellSize);
+		this.cols = (int) cellsFor(lngSpan, cellSize);
+
+		// counting sort of the points by cell
+		int cellCount = rows * cols;
+		int[] cellOf = new int[n];
+		this.cellStart = new int[cellCount + 1];
+		for( int row = 0; row < n; row++ ){
+			cellOf[row] = cellOf(table.lat(row), table.lng(row));
+			cellStart[cellOf[row] + 1]++;
+		}
+		for( int c = 0; c < cellCount; c++ ){
+			cellStart[c + 1] += cellStart[c];
+		}
+
+		this.cellRows = new int[n];
+		this.cellLat = new double[n];
+		this.cellLng = new double[n];
+		int[] next = new int[cellCount];
+		for( int row = 0; row < n; row++ ){
+			int c = cellOf[row];
+			int i = cellStart[c] + next[c]++;
+			cellRows[i] = row;
+			cellLat[i] = table.lat(row);
+			cellLng[i] = table.lng(row);
+		}
+	}
+
+
+	public LocationTable table() {
+		return table;
+	}
+
+	public int cellCount() {
+		return rows * cols;
+	}
+
+	/**
+	 * the points of a cell are the positions cellStart(cell) (inclusive) to cellEnd(cell) (exclusive)
+	 */
+	public int cellStart( int cell ) {
+		return cellStart[cell];
+	}
+
+	public int cellEnd( int cell ) {
+		return cellStart[cell + 1];
+	}
+
+	/**
+	 * @param position a position between cellStart and cellEnd of a cell
+	 * @return the LocationTable row of the point at that position
+	 */
+	public int rowAt( int position ) {
+		return cellRows[position];
+	}
+
+	public double latAt( int position ) {
+		return cellLat[position];
+	}
+
+	public double lngAt( int position ) {
+		return cellLng[position];
+	}
+
+	public int cellOf( double lat, double lng ) {
+		int r = clamp((int) ((lat - minLat) / cellSize), rows);
+		int c = clamp((int) ((lng - minLng) / cellSize), cols);
+		return r * cols + c;
+	}
+
+
+	/**
+	 * Visits every cell that overlaps the bounding box.
+	 *
+	 * @return false if the visitor stopped early
+	 */
+	public boolean visitCells( double lllat, double lllng, double urlat, double urlng, CellVisitor visitor ) {
+
+		if( lllat > urlat ){
+			return true;
+		}
+		if( lllng > urlng ){
+			return visitCellRange(lllat, lllng, urlat, 180.0d, visitor)
+					&& visitCellRange(lllat, -180.0d, urlat, urlng, visitor);
+		}
+		return visitCellRange(lllat, lllng, urlat, urlng, visitor);
+	}
+
+	/**
+	 * Visits the rows that lie within the bounding box (edges included) and pass the filter.
+	 *
+	 * @param filter may be null
+	 */
+	public void search( double lllat, double lllng, double urlat, double urlng, RowFilter filter, RowVisitor visitor ) {
+
+		boolean crossesAntimeridian = lllng > urlng;
+
+		visitCells(lllat, lllng, urlat, urlng, (cell, inside) -> {
+			for( int i = cellStart[cell], end = cellStart[cell + 1]; i < end; i++ ){
+				if( !inside && !contains(lllat, lllng, urlat, urlng, crossesAntimeridian, cellLat[i], cellLng[i]) ){
+					continue;
+				}
+				int row = cellRows[i];
+				if( filter != null && !filter.accept(row) ){
+					continue;
+				}
+				if( !visitor.visit(row) ){
+					return false;
+				}
+			}
+			return true;
+		});
+	}
+
+	/**
+	 * Visits at most limit of the rows that lie within the bounding box and pass the filter, spread over the box:
+	 * search visits the cells from the southern edge of the box up, so its first rows all lie along that edge.
+	 *
+	 * The cells are visited coarse to fine (see visitCellsSpread), taking the first limit / cells rows of each. If that
+	 * does not make limit rows, the cells are visited again, in the same order, for the rows that were left out.
+	 */
+	public void searchSpread( double lllat, double lllng, double urlat, double urlng, int limit, RowFilter filter, RowVisitor visitor ) {
+
+		long cells = cellsOverlapping(lllat, lllng, urlat, urlng);
+		if( limit <= 0 || cells == 0 ){
+			return;
+		}
+		boolean crossesAntimeridian = lllng > urlng;
+		int perCell = (int) Math.max(1L, (limit + cells - 1) / cells);
+		int[] visited = { 0 };
+
+		for( int pass = 0; pass < 2; pass++ ){
+
+			int skip = pass == 0 ? 0 : perCell;
+			int take = pass == 0 ? perCell : Integer.MAX_VALUE;
+			boolean completed = visitCellsSpread(lllat, lllng, urlat, urlng, (cell, inside) -> {
+				int matched = 0;
+				for( int i = cellStart[cell], end = cellStart[cell + 1]; i < end && matched - skip < take; i++ ){
+					if( !inside && !contains(lllat, lllng, urlat, urlng, crossesAntimeridian, cellLat[i], cellLng[i]) ){
+						continue;
+					}
+					int row = cellRows[i];
+					if( filter != null && !filter.accept(row) ){
+						continue;
+					}
+					if( matched++ < skip ){
+						continue;
+					}
+					if( !visitor.visit(row) || ++visited[0] == limit ){
+						return false;
+					}
+				}
+				return true;
+			});
+			if( !completed ){
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Visits every cell that overlaps the bounding box, coarse to fine: the cells of a lattice over the box, then those
+	 * of a lattice twice as fine that were not visited yet, and so on. The first cells visited are thus spread over the
+	 * whole box.
+	 *
+	 * @return false if the visitor stopped early
+	 */
+	public boolean visitCellsSpread( double lllat, double lllng, double urlat, double urlng, CellVisitor visitor ) {
+
+		if( lllat > urlat || table.size() == 0 ){
+			return true;
+		}
+
+		// the columns of the box: east of lllng, then (if the box crosses the antimeridian) west of urlng
+		boolean crossesAntimeridian = lllng > urlng;
+		double eastLng = crossesAntimeridian ? 180.0d : urlng;
+		int r0 = rowOf(lllat), height = rowOf(urlat) - r0 + 1;
+		int c0 = colOf(lllng), eastCols = colOf(eastLng) - c0 + 1;
+		int width = eastCols + (crossesAntimeridian ? colOf(urlng) - colOf(-180.0d) + 1 : 0);
+
+		int coarsest = 1;
+		while( coarsest < Math.max(width, height) ){
+			coarsest <<= 1;
+		}
+		for( int step = coarsest; step > 0; step >>= 1 ){
+			for( int i = 0; i < height; i += step ){
+
+				// on the rows of the coarser lattice, its columns were visited already
+				boolean coarserRow = step < coarsest && i % (step << 1) == 0;
+				for( int j = coarserRow ? step : 0; j < width; j += coarserRow ? step << 1 : step ){
+
+					int r = r0 + i;
+					boolean east = j < eastCols;
+					int c = east ? c0 + j : colOf(-180.0d) + j - eastCols;
+					int cell = r * cols + c;
+					if( cellStart[cell] == cellStart[cell + 1] ){
+						continue;
+					}
+					boolean inside = east ? inside(r, c, lllat, lllng, urlat, eastLng) : inside(r, c, lllat, -180.0d, urlat, urlng);
+					if( !visitor.visit(cell, inside) ){
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	public static boolean contains( double lllat, double lllng, double urlat, double urlng, double lat, double lng ) {
+		return contains(lllat, lllng, urlat, urlng, lllng > urlng, lat, lng);
+	}
+
+
+	private static boolean contains( double lllat, double lllng, double urlat, double urlng, boolean crossesAntimeridian, double lat, double lng ) {
+		if( lat < lllat || lat > urlat ){
+			return false;
+		}
+		return crossesAntimeridian ? (lng >= lllng || lng <= urlng) : (lng >= lllng && lng <= urlng);
+	}
+
+	private boolean visitCellRange( double lllat, double lllng, double urlat, double urlng, CellVisitor visitor ) {
+
+		if( table.size() == 0 ){
+			return true;
+		}
+
+		int r0 = rowOf(lllat);
+		int r1 = rowOf(urlat);
+		int c0 = colOf(lllng);
+		int c1 = colOf(urlng);
+
+		for( int r = r0; r <= r1; r++ ){
+			for( int c = c0; c <= c1; c++ ){
+
+				int cell = r * cols + c;
+				if( cellStart[cell] == cellStart[cell + 1] ){
+					continue;
+				}
+				if( !visitor.visit(cell, inside(r, c, lllat, lllng, urlat, urlng)) ){
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the whole cell lies within the box (which does not cross the antimeridian)
+	 */
+	private boolean inside( int r, int c, double lllat, double lllng, double urlat, double urlng ) {
+
+		double cellMinLat = minLat + r * cellSize;
+		double cellMinLng = minLng + c * cellSize;
+		return cellMinLat >= lllat + EDGE_EPSILON && cellMinLat + cellSize <= urlat - EDGE_EPSILON && r < rows - 1
+				&& cellMinLng >= lllng + EDGE_EPSILON && cellMinLng + cellSize <= urlng - EDGE_EPSILON && c < cols - 1;
+	}
+
+	/**
+	 * @return the number of cells that overlap the bounding box, empty ones included
+	 */
+	private long cellsOverlapping( double lllat, double lllng, double urlat, double urlng ) {
+
+		if( lllat > urlat || table.size() == 0 ){
+			return 0;
+		}
+		long width = lllng > urlng 
+				? (colOf(180.0d) - colOf(lllng) + 1) + (colOf(urlng) - colOf(-180.0d) + 1) 
+				: colOf(urlng) - colOf(lllng) + 1;
+		return (rowOf(urlat) - rowOf(lllat) + 1) * width;
+	}
+
+	private int rowOf( double lat ) {
+		return clamp((int) Math.floor((lat - minLat) / cellSize), rows);
+	}
+
+	private int colOf( double lng ) {
+		return clamp((int) Math.floor((lng - minLng) / cellSize), cols);
+	}
+
+	private static long cellsFor( double span, double cellSize ) {
+		return Math.max(1L, (long) Math.ceil(span / cellSize));
+	}
+
+	private static int clamp( int value, int size ) {
+		return value < 0 ? 0 : (value >= size ? size - 1 : value);
+	}
+
+}
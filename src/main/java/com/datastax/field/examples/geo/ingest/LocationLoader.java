@@ -0,0 +1,273 @@
+package com.datastax.field.examples.geo.ingest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.dse.DseSession;
+import com.datastax.field.examples.geo.App;
+import com.datastax.field.examples.geo.util.FutureUtil;
+import com.google.common.base.Joiner;
+
+/**
+ * Loads a locations file (see LocationParser) into simplegeo.locations: the file is read and parsed on the calling
+ * thread and every location is written with a prepared INSERT (executeAsync).
+ *
+ * At most App.INGEST_CONCURRENCY writes are in flight, reading waits for a write to complete (back-pressure). The
+ * primary key is the id, every location is its own partition, so it is written on its own (a batch would span
+ * partitions); the token aware routing of the driver sends it to a replica.
+ *
+ * Progress is logged every PROGRESS_INTERVAL_SECONDS, with the line of the file up to which every location has been
+ * written. That line is kept in a checkpoint file next to the input: a run that failed (a write failed MAX_ATTEMPTS
+ * times) or was stopped resumes after it. The INSERTs are upserts, so a location written twice is harmless. The
+ * checkpoint is removed once the whole file is loaded.
+ */
+@Component
+public class LocationLoader {
+
+	final static Logger logger = LoggerFactory.getLogger(LocationLoader.class);
+
+	private static final long PROGRESS_INTERVAL_SECONDS = 10;
+	private static final int MAX_ATTEMPTS = 3;
+
+	/**
+	 * the first invalid lines are logged, the others are only counted.
+	 */
+	private static final int MAX_LOGGED_REJECTS = 20;
+
+	static final String INSERT_CQL = "INSERT INTO simplegeo.locations (" + Joiner.on(", ").join(LocationParser.COLUMNS)
+			+ ") VALUES (" + Joiner.on(", ").join(Collections.nCopies(LocationParser.COLUMNS.size(), "?")) + ")";
+
+	@Autowired
+	private DseSession dseSession;
+
+
+	/**
+	 * @return true if the whole file was loaded, false if a write failed (the run can be resumed)
+	 */
+	public boolean load( Path file ) throws IOException {
+		PreparedStatement insert = dseSession.prepare(INSERT_CQL).setIdempotent(true);
+		Progress progress = new Progress(file);
+		return load(file, progress, values -> write(insert.bind(values), 1, progress));
+	}
+
+	/**
+	 * @param writer writes the values of a location (see LocationParser.parse), at most App.INGEST_CONCURRENCY at a time
+	 */
+	boolean load( Path file, Progress progress, Function<Object[], CompletableFuture<Void>> writer ) throws IOException {
+
+		long resumeAfter = progress.resumeAfter();
+		if( resumeAfter > 0 ){
+			logger.info("LocationLoader : resuming " + file + " after line " + resumeAfter);
+		}
+
+		LocationParser parser = LocationParser.forFile(file.getFileName().toString());
+		Semaphore permits = new Semaphore(App.INGEST_CONCURRENCY);
+
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "location-loader-progress");
+			t.setDaemon(true);
+			return t;
+		});
+		reporter.scheduleAtFixedRate(progress::report, PROGRESS_INTERVAL_SECONDS, PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+
+			long lineNumber = 0;
+			for( String line = reader.readLine(); line != null && progress.failure() == null; line = reader.readLine() ){
+
+				lineNumber++;
+				if( parser.needsHeader() ){
+					parser.header(line);
+				} else if( lineNumber > resumeAfter ){
+
+					Object[] values = null;
+					try {
+						values = parser.parse(line);
+					} catch (IllegalArgumentException e) {
+						if( progress.rejected.sum() < MAX_LOGGED_REJECTS ){
+							logger.warn("LocationLoader : line " + lineNumber + " skipped, " + e.getMessage());
+						}
+						progress.rejected.increment();
+					}
+
+					if( values != null ){
+						permits.acquireUninterruptibly();
+						long pending = lineNumber;
+						progress.writing(pending);
+						writer.apply(values).whenComplete((result, t) -> {
+							if( t == null ){
+								progress.written(pending);
+							} else {
+								progress.failed(t);
+							}
+							permits.release();
+						});
+					}
+				}
+				progress.read(lineNumber);
+			}
+
+			// wait for the writes in flight
+			permits.acquireUninterruptibly(App.INGEST_CONCURRENCY);
+
+		} finally {
+			// a report still running could save its checkpoint after the one below, or after it was removed
+			reporter.shutdown();
+			try {
+				reporter.awaitTermination(PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		progress.report();
+		if( progress.failure() != null ){
+			logger.error("LocationLoader : a write failed " + MAX_ATTEMPTS + " times, run again to resume after line " + progress.checkpoint(), progress.failure());
+			return false;
+		}
+		Files.deleteIfExists(progress.checkpointFile);
+		logger.info("LocationLoader : loaded " + file);
+		return true;
+	}
+
+	/**
+	 * @return completed once the statement was written, after at most MAX_ATTEMPTS attempts
+	 */
+	private CompletableFuture<Void> write( Statement statement, int attempt, Progress progress ) {
+
+		CompletableFuture<Void> done = new CompletableFuture<>();
+		FutureUtil.toCompletableFuture(dseSession.executeAsync(statement)).whenComplete((rs, t) -> {
+			if( t == null ){
+				done.complete(null);
+			} else if( attempt >= MAX_ATTEMPTS ){
+				done.completeExceptionally(t);
+			} else {
+				progress.retries.increment();
+				write(statement, attempt + 1, progress).whenComplete((result, retryFailure) -> {
+					if( retryFailure == null ){
+						done.complete(null);
+					} else {
+						done.completeExceptionally(retryFailure);
+					}
+				});
+			}
+		});
+		return done;
+	}
+
+
+	/**
+	 * The progress of a load and its checkpoint, the line of the file up to which every location has been written
+	 * (or skipped), kept in the file's .checkpoint file.
+	 */
+	static class Progress {
+
+		final Path checkpointFile;
+		private final long start = System.nanoTime();
+
+		final LongAdder written = new LongAdder();
+		final LongAdder rejected = new LongAdder();
+		final LongAdder retries = new LongAdder();
+
+		/**
+		 * the lines that are being written, the lines before the first one have all been written (see checkpoint)
+		 */
+		private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+		private volatile long lastLine;
+
+		private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		Progress( Path file ) {
+			this.checkpointFile = Paths.get(file + ".checkpoint");
+		}
+
+		/**
+		 * @return the checkpoint of the previous run, 0 if there is none
+		 */
+		long resumeAfter() throws IOException {
+			if( !Files.exists(checkpointFile) ){
+				return 0;
+			}
+			return Long.parseLong(new String(Files.readAllBytes(checkpointFile), StandardCharsets.UTF_8).trim());
+		}
+
+		/**
+		 * @param line read, after its location (if any) was added to the writes in flight
+		 */
+		void read( long line ) {
+			lastLine = line;
+		}
+
+		void writing( long line ) {
+			inFlight.add(line);
+		}
+
+		void written( long line ) {
+			written.increment();
+			inFlight.remove(line);
+		}
+
+		/**
+		 * the line stays in flight, so the checkpoint stays before it
+		 */
+		void failed( Throwable t ) {
+			failure.compareAndSet(null, t);
+		}
+
+		/**
+		 * @return the first write that failed, null if none did
+		 */
+		Throwable failure() {
+			return failure.get();
+		}
+
+		long checkpoint() {
+			// read before the first line in flight: a line is added to inFlight before lastLine moves past it
+			long last = lastLine;
+			Long first = inFlight.isEmpty() ? null : inFlight.first();
+			return first == null ? last : Math.min(last, first - 1);
+		}
+
+		/**
+		 * Logs the progress and saves the checkpoint.
+		 */
+		void report() {
+
+			long checkpoint = checkpoint();
+			double seconds = (System.nanoTime() - start) / 1e9d;
+			logger.info(String.format("LocationLoader : %d written (%.0f/s), %d rejected, %d retried, %d in flight, checkpoint at line %d",
+					written.sum(), written.sum() / Math.max(seconds, 1e-3d), rejected.sum(), retries.sum(), inFlight.size(), checkpoint));
+
+			try {
+				Path tmp = Paths.get(checkpointFile + ".tmp");
+				Files.write(tmp, Long.toString(checkpoint).getBytes(StandardCharsets.UTF_8));
+				Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				logger.warn("LocationLoader : could not save the checkpoint " + checkpointFile, e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,195 @@
+package com.datastax.field.examples.geo.ingest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import com.datastax.driver.dse.geometry.Point;
+import com.datastax.field.examples.geo.util.DoubleParser;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Parses the lines of a locations file into the values of an INSERT into simplegeo.locations, in COLUMNS order.
+ *
+ * A .csv file has a header line naming the columns, a record per line (quoted fields may contain commas, not line
+ * breaks) and its tags separated by |. Any other file is JSON lines: an object per line, with the fields of the
+ * /api location JSON (geo as {"lat","lng"}) or lat and lng fields, tags as an array.
+ *
+ * Values are normalized: text is trimmed (empty is null), name_lowercase is computed from the name, lat and lng
+ * become the geo point. A location needs an id and valid coordinates.
+ */
+public class LocationParser {
+
+	public static final List<String> COLUMNS = Collections.unmodifiableList(Arrays.asList("id", "name", "name_lowercase",
+			"address", "city", "province", "post_code", "phone", "category", "subcategory", "website", "menulink",
+			"tags", "type", "source", "geo"));
+
+	private static final List<String> TEXT_COLUMNS = Arrays.asList("id", "name", "address", "city", "province",
+			"post_code", "phone", "category", "subcategory", "website", "menulink", "type", "source");
+
+	private final boolean csv;
+	private List<String> header;
+
+
+	private LocationParser( boolean csv ) {
+		this.csv = csv;
+	}
+
+	public static LocationParser forFile( String fileName ) {
+		return new LocationParser(fileName.toLowerCase(Locale.ROOT).endsWith(".csv"));
+	}
+
+	/**
+	 * @return true if the next line is the header of a CSV file (see header)
+	 */
+	public boolean needsHeader() {
+		return csv && header == null;
+	}
+
+	public void header( String line ) {
+		List<String> names = new ArrayList<>();
+		for( String name : splitCsv(line) ){
+			names.add(name.trim().toLowerCase(Locale.ROOT));
+		}
+		this.header = names;
+	}
+
+	/**
+	 * @return the values in COLUMNS order, null if the line is blank
+	 * @throws IllegalArgumentException if the line is not a valid location, with the reason
+	 */
+	public Object[] parse( String line ) {
+
+		if( line.trim().isEmpty() ){
+			return null;
+		}
+
+		Object[] values = new Object[COLUMNS.size()];
+		String lat;
+		String lng;
+
+		if( csv ){
+			List<String> fields = splitCsv(line);
+			if( fields.size() != header.size() ){
+				throw new IllegalArgumentException(fields.size() + " fields, the header has " + header.size());
+			}
+			for( String column : TEXT_COLUMNS ){
+				int i = header.indexOf(column);
+				set(values, column, i < 0 ? null : fields.get(i));
+			}
+			int tags = header.indexOf("tags");
+			values[COLUMNS.indexOf("tags")] = tags < 0 ? null : tags(Arrays.asList(fields.get(tags).split("\\|")));
+			lat = header.indexOf("lat") < 0 ? null : fields.get(header.indexOf("lat"));
+			lng = header.indexOf("lng") < 0 ? null : fields.get(header.indexOf("lng"));
+
+		} else {
+			JsonObject location;
+			try {
+				location = new JsonParser().parse(line).getAsJsonObject();
+			} catch (JsonParseException | IllegalStateException e) {
+				throw new IllegalArgumentException("not a JSON object: " + e.getMessage());
+			}
+			for( String column : TEXT_COLUMNS ){
+				set(values, column, string(location.get(column)));
+			}
+			JsonElement tags = location.get("tags");
+			if( tags != null && tags.isJsonArray() ){
+				List<String> list = new ArrayList<>();
+				for( JsonElement tag : tags.getAsJsonArray() ){
+					list.add(string(tag));
+				}
+				values[COLUMNS.indexOf("tags")] = tags(list);
+			} else {
+				String tag = string(tags);
+				values[COLUMNS.indexOf("tags")] = tag == null ? null : tags(Arrays.asList(tag.split(",")));
+			}
+			JsonElement geo = location.get("geo");
+			JsonObject point = geo != null && geo.isJsonObject() ? geo.getAsJsonObject() : location;
+			lat = string(point.get("lat"));
+			lng = string(point.get("lng"));
+		}
+
+		if( values[0] == null ){
+			throw new IllegalArgumentException("id was null or empty");
+		}
+
+		String name = (String) values[COLUMNS.indexOf("name")];
+		values[COLUMNS.indexOf("name_lowercase")] = name == null ? null : name.toLowerCase(Locale.ROOT);
+
+		double latDouble = DoubleParser.parse(lat);
+		double lngDouble = DoubleParser.parse(lng);
+		if( !(latDouble >= -90.0d && latDouble <= 90.0d && lngDouble >= -180.0d && lngDouble <= 180.0d) ){
+			throw new IllegalArgumentException("lat, lng is not a valid point: " + lat + ", " + lng);
+		}
+		values[COLUMNS.indexOf("geo")] = new Point(lngDouble, latDouble);
+
+		return values;
+	}
+
+	/**
+	 * Splits a CSV record: fields are separated by commas, a quoted field may contain commas and "" for a quote.
+	 */
+	static List<String> splitCsv( String line ) {
+
+		List<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+
+		for( int i = 0; i < line.length(); i++ ){
+			char c = line.charAt(i);
+			if( quoted ){
+				if( c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"' ){
+					field.append('"');
+					i++;
+				} else if( c == '"' ){
+					quoted = false;
+				} else {
+					field.append(c);
+				}
+			} else if( c == '"' ){
+				quoted = true;
+			} else if( c == ',' ){
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		if( quoted ){
+			throw new IllegalArgumentException("unterminated quoted field");
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	private static void set( Object[] values, String column, String value ) {
+		String trimmed = value == null ? null : value.trim();
+		values[COLUMNS.indexOf(column)] = trimmed == null || trimmed.isEmpty() ? null : trimmed;
+	}
+
+	/**
+	 * @return the trimmed, non empty tags, null if there are none
+	 */
+	private static List<String> tags( List<String> values ) {
+		List<String> tags = new ArrayList<>();
+		for( String value : values ){
+			if( value != null && !value.trim().isEmpty() ){
+				tags.add(value.trim());
+			}
+		}
+		return tags.isEmpty() ? null : tags;
+	}
+
+	private static String string( JsonElement value ) {
+		if( value == null || value.isJsonNull() ){
+			return null;
+		}
+		return value.isJsonPrimitive() ? value.getAsString() : value.toString();
+	}
+
+}
@@ -0,0 +1,316 @@
+package com.datastax.field.examples.geo.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.LatencyTracker;
+import com.datastax.driver.core.Metrics;
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.dse.DseCluster;
+import com.datastax.field.examples.geo.service.LocationStatements;
+import com.datastax.field.examples.geo.service.QueryType;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Request counters and latency histograms of the hot path, exposed on /metrics in the Prometheus text format:
+ *
+ * - per route: requests by status, latency, serialization time and response size (see RequestTimer)
+ * - per query type and engine: latency and errors of the LocationRepository call
+ * - per DSE statement: the time until the result set arrived, split into the coordinator time (reported by
+ *   the driver's LatencyTracker, this includes the Solr query) and the time spent in the client before and 
+ *   after that (queueing for a connection, decoding), plus retried requests and server warnings
+ * - the driver's own connection, queue and error metrics
+ *
+ * Latencies are recorded in microseconds in LogLinearHistograms, and exposed in seconds.
+ */
+@Component
+public class ApiMetrics {
+
+	/** microseconds */
+	private static final long[] LATENCY_BUCKETS = { 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000, 
+			1000000, 2500000, 5000000, 10000000 };
+
+	/** bytes */
+	private static final long[] SIZE_BUCKETS = { 256, 1024, 4096, 16384, 65536, 262144, 1048576, 4194304 };
+
+	private static final double MICROS = 1e-6;
+
+	/**
+	 * requests for paths that do not exist are all counted under this route, so random paths can not create
+	 * any number of series.
+	 */
+	static final String UNMATCHED_ROUTE = "unmatched";
+
+	@Autowired
+	private DseCluster dseCluster;
+
+	@Autowired
+	private QueryLog queryLog;
+
+	private final ConcurrentMap<String, RouteMetrics> routes = new ConcurrentSkipListMap<>();
+	private final ConcurrentMap<String, BackendMetrics> backends = new ConcurrentSkipListMap<>();
+	private final ConcurrentMap<String, StatementMetrics> statements = new ConcurrentSkipListMap<>();
+
+	/**
+	 * the coordinator latency of a statement, from the LatencyTracker until the result set is handed back.
+	 * Weak (identity) keys, so statements whose result never gets recorded do not leak.
+	 */
+	private final Cache<Statement, Long> coordinatorNanos = CacheBuilder.newBuilder().weakKeys().build();
+
+
+	@PostConstruct
+	public void registerLatencyTracker() {
+		dseCluster.register(new LatencyTracker() {
+			@Override
+			public void update( Host host, Statement statement, Exception exception, long newLatencyNanos ) {
+				statement(statement).coordinator.record(toMicros(newLatencyNanos));
+				if( exception == null ){
+					coordinatorNanos.put(statement, newLatencyNanos);
+				}
+			}
+			@Override
+			public void onRegister( Cluster cluster ) {
+			}
+			@Override
+			public void onUnregister( Cluster cluster ) {
+			}
+		});
+	}
+
+
+	/**
+	 * @param route the request path, e.g. /api/geo-name-suggest
+	 */
+	public RouteMetrics route( String route ) {
+		return routes.computeIfAbsent(route, RouteMetrics::new);
+	}
+
+	public BackendMetrics backend( QueryType type, String engine ) {
+		String query = type.name().toLowerCase();
+		return backends.computeIfAbsent(query + " " + engine, key -> new BackendMetrics(query, engine));
+	}
+
+	/**
+	 * Records a DSE request, once its result set (or error) arrived.
+	 *
+	 * @param info null if the request failed
+	 */
+	public void dseRequest( Statement statement, long elapsedNanos, ExecutionInfo info ) {
+
+		StatementMetrics metrics = statement(statement);
+		metrics.request.record(toMicros(elapsedNanos));
+
+		Long coordinator = coordinatorNanos.getIfPresent(statement);
+		if( coordinator != null ){
+			coordinatorNanos.invalidate(statement);
+			metrics.client.record(toMicros(elapsedNanos - coordinator));
+		}
+
+		if( info == null ){
+			metrics.errors.increment();
+			return;
+		}
+		if( info.getTriedHosts().size() > 1 ){
+			metrics.retried.increment();
+		}
+		if( info.getWarnings() != null && !info.getWarnings().isEmpty() ){
+			metrics.warnings.increment();
+		}
+	}
+
+
+	/**
+	 * @return every metric in the Prometheus text format
+	 */
+	public String prometheus() {
+
+		PrometheusWriter out = new PrometheusWriter();
+
+		out.family("geofinder_http_requests_total", "counter", "Requests by route and status class.");
+		for( RouteMetrics route : routes.values() ){
+			for( Map.Entry<String, LongAdder> status : route.statuses.entrySet() ){
+				out.sample("geofinder_http_requests_total", PrometheusWriter.labels("route", route.route, "status", status.getKey()), status.getValue().sum());
+			}
+		}
+		out.family("geofinder_http_request_duration_seconds", "histogram", "Time from the request reaching the route until the response was written.");
+		for( RouteMetrics route : routes.values() ){
+			out.histogram("geofinder_http_request_duration_seconds", PrometheusWriter.labels("route", route.route), route.latency, LATENCY_BUCKETS, MICROS);
+		}
+		out.family("geofinder_http_serialization_duration_seconds", "histogram", "Time spent writing the response body (streamed results include reading the remaining pages).");
+		for( RouteMetrics route : routes.values() ){
+			out.histogram("geofinder_http_serialization_duration_seconds", PrometheusWriter.labels("route", route.route), route.serialization, LATENCY_BUCKETS, MICROS);
+		}
+		out.family("geofinder_http_response_bytes", "histogram", "Size of the response body.");
+		for( RouteMetrics route : routes.values() ){
+			out.histogram("geofinder_http_response_bytes", PrometheusWriter.labels("route", route.route), route.bytes, SIZE_BUCKETS, 1.0d);
+		}
+
+		out.family("geofinder_backend_call_duration_seconds", "histogram", "Time until a LocationRepository returned its result, by query type and engine.");
+		for( BackendMetrics backend : backends.values() ){
+			out.histogram("geofinder_backend_call_duration_seconds", PrometheusWriter.labels("query", backend.query, "engine", backend.engine), backend.latency, LATENCY_BUCKETS, MICROS);
+		}
+		out.family("geofinder_backend_call_errors_total", "counter", "LocationRepository calls that failed, by query type and engine.");
+		for( BackendMetrics backend : backends.values() ){
+			out.sample("geofinder_backend_call_errors_total", PrometheusWriter.labels("query", backend.query, "engine", backend.engine), backend.errors.sum());
+		}
+
+		out.family("geofinder_dse_request_duration_seconds", "histogram", "Time from executing a statement until its result set arrived.");
+		for( StatementMetrics statement : statements.values() ){
+			out.histogram("geofinder_dse_request_duration_seconds", PrometheusWriter.labels("statement", statement.name), statement.request, LATENCY_BUCKETS, MICROS);
+		}
+		out.family("geofinder_dse_coordinator_duration_seconds", "histogram", "Round trip to the coordinator as seen by the driver, including the Solr query.");
+		for( StatementMetrics statement : statements.values() ){
+			out.histogram("geofinder_dse_coordinator_duration_seconds", PrometheusWriter.labels("statement", statement.name), statement.coordinator, LATENCY_BUCKETS, MICROS);
+		}
+		out.family("geofinder_dse_client_duration_seconds", "histogram", "Request time spent in the client, outside of the coordinator round trip (queueing, decoding).");
+		for( StatementMetrics statement : statements.values() ){
+			out.histogram("geofinder_dse_client_duration_seconds", PrometheusWriter.labels("statement", statement.name), statement.client, LATENCY_BUCKETS, MICROS);
+		}
+		counters(out, "geofinder_dse_request_errors_total", "Statements that failed.", s -> s.errors.sum());
+		counters(out, "geofinder_dse_retried_requests_total", "Statements that were tried on more than one host.", s -> s.retried.sum());
+		counters(out, "geofinder_dse_warnings_total", "Statements that returned server warnings.", s -> s.warnings.sum());
+
+		out.family("geofinder_query_log_dropped_total", "counter", "Sampled query log entries dropped because the log writer fell behind.");
+		out.sample("geofinder_query_log_dropped_total", "", queryLog.dropped());
+
+		driverMetrics(out);
+
+		return out.toString();
+	}
+
+	public String prometheusContentType() {
+		return PrometheusWriter.CONTENT_TYPE;
+	}
+
+
+	private void counters( PrometheusWriter out, String name, String help, ToLongFunction<StatementMetrics> value ) {
+		out.family(name, "counter", help);
+		for( StatementMetrics statement : statements.values() ){
+			out.sample(name, PrometheusWriter.labels("statement", statement.name), value.applyAsLong(statement));
+		}
+	}
+
+	/**
+	 * the driver only has metrics once it connected.
+	 */
+	private void driverMetrics( PrometheusWriter out ) {
+
+		Metrics driver = dseCluster.isClosed() ? null : dseCluster.getMetrics();
+		if( driver == null ){
+			return;
+		}
+
+		gauge(out, "geofinder_driver_connected_hosts", "Hosts the driver is connected to.", driver.getConnectedToHosts().getValue());
+		gauge(out, "geofinder_driver_open_connections", "Open connections to the cluster.", driver.getOpenConnections().getValue());
+		gauge(out, "geofinder_driver_executor_queue_depth", "Tasks queued on the driver's executor.", driver.getExecutorQueueDepth().getValue());
+		gauge(out, "geofinder_driver_blocking_executor_queue_depth", "Tasks queued on the driver's blocking executor.", driver.getBlockingExecutorQueueDepth().getValue());
+
+		out.family("geofinder_driver_requests_total", "counter", "Requests sent by the driver.");
+		out.sample("geofinder_driver_requests_total", "", driver.getRequestsTimer().getCount());
+
+		Metrics.Errors errors = driver.getErrorMetrics();
+		out.family("geofinder_driver_errors_total", "counter", "Request errors seen by the driver, by type.");
+		out.sample("geofinder_driver_errors_total", PrometheusWriter.labels("type", "connection"), errors.getConnectionErrors().getCount());
+		out.sample("geofinder_driver_errors_total", PrometheusWriter.labels("type", "read_timeout"), errors.getReadTimeouts().getCount());
+		out.sample("geofinder_driver_errors_total", PrometheusWriter.labels("type", "write_timeout"), errors.getWriteTimeouts().getCount());
+		out.sample("geofinder_driver_errors_total", PrometheusWriter.labels("type", "unavailable"), errors.getUnavailables().getCount());
+		out.sample("geofinder_driver_errors_total", PrometheusWriter.labels("type", "client_timeout"), errors.getClientTimeouts().getCount());
+		out.sample("geofinder_driver_errors_total", PrometheusWriter.labels("type", "other"), errors.getOthers().getCount());
+
+		out.family("geofinder_driver_retries_total", "counter", "Requests retried by the retry policy.");
+		out.sample("geofinder_driver_retries_total", "", errors.getRetries().getCount());
+		out.family("geofinder_driver_speculative_executions_total", "counter", "Speculative executions started.");
+		out.sample("geofinder_driver_speculative_executions_total", "", errors.getSpeculativeExecutions().getCount());
+	}
+
+	private static void gauge( PrometheusWriter out, String name, String help, Integer value ) {
+		out.family(name, "gauge", help);
+		out.sample(name, "", value == null ? 0 : value);
+	}
+
+	private StatementMetrics statement( Statement statement ) {
+		String cql = statement instanceof BoundStatement ? ((BoundStatement) statement).preparedStatement().getQueryString()
+				: statement instanceof RegularStatement ? ((RegularStatement) statement).getQueryString() : "";
+		String name = LocationStatements.nameOf(cql);
+		return statements.computeIfAbsent(name, StatementMetrics::new);
+	}
+
+	private static long toMicros( long nanos ) {
+		return TimeUnit.NANOSECONDS.toMicros(Math.max(0L, nanos));
+	}
+
+
+	public static class RouteMetrics {
+
+		final String route;
+		final Map<String, LongAdder> statuses = new ConcurrentSkipListMap<>();
+		final LogLinearHistogram latency = new LogLinearHistogram();
+		final LogLinearHistogram serialization = new LogLinearHistogram();
+		final LogLinearHistogram bytes = new LogLinearHistogram();
+
+		RouteMetrics( String route ) {
+			this.route = route;
+		}
+
+		void record( int status, long elapsedNanos, long serializationNanos, long responseBytes ) {
+			statuses.computeIfAbsent((status / 100) + "xx", s -> new LongAdder()).increment();
+			latency.record(toMicros(elapsedNanos));
+			if( responseBytes >= 0 ){
+				serialization.record(toMicros(serializationNanos));
+				bytes.record(responseBytes);
+			}
+		}
+	}
+
+	public static class BackendMetrics {
+
+		final String query;
+		final String engine;
+		final LogLinearHistogram latency = new LogLinearHistogram();
+		final LongAdder errors = new LongAdder();
+
+		BackendMetrics( String query, String engine ) {
+			this.query = query;
+			this.engine = engine;
+		}
+
+		public void record( long elapsedNanos ) {
+			latency.record(toMicros(elapsedNanos));
+		}
+
+		public void error() {
+			errors.increment();
+		}
+	}
+
+	static class StatementMetrics {
+
+		final String name;
+		final LogLinearHistogram request = new LogLinearHistogram();
+		final LogLinearHistogram coordinator = new LogLinearHistogram();
+		final LogLinearHistogram client = new LogLinearHistogram();
+		final LongAdder errors = new LongAdder();
+		final LongAdder retried = new LongAdder();
+		final LongAdder warnings = new LongAdder();
+
+		StatementMetrics( String name ) {
+			this.name = name;
+		}
+	}
+
+}
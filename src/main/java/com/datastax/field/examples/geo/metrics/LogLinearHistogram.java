@@ -0,0 +1,91 @@
+package com.datastax.field.examples.geo.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of non negative long values (latencies in microseconds, sizes in bytes) with a fixed 
+ * relative precision of about 1.5%, like an HdrHistogram with 2 significant digits: values below 128 have a 
+ * bucket each, above that every power of two range is split into 64 buckets.
+ *
+ * Recording is a couple of atomic increments, so it can be done on every request. Values are kept since startup.
+ */
+public class LogLinearHistogram {
+
+	private static final int SUB_BUCKETS = 64;
+	private static final int SUB_BUCKET_BITS = 6;
+
+	private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS * 60);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Long::max, 0L);
+
+	public void record( long value ) {
+		long v = Math.max(0L, value);
+		counts.incrementAndGet(index(v));
+		count.increment();
+		sum.add(v);
+		max.accumulate(v);
+	}
+
+	public long count() {
+		return count.sum();
+	}
+
+	public long sum() {
+		return sum.sum();
+	}
+
+	public long max() {
+		return max.get();
+	}
+
+	/**
+	 * @return how many values were recorded in buckets that lie entirely at or below the value
+	 */
+	public long countAtOrBelow( long value ) {
+		long total = 0;
+		for( int i = 0; i < counts.length() && highestValue(i) <= value; i++ ){
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	/**
+	 * @param percentile 0 - 100
+	 * @return the highest value of the bucket the percentile falls in
+	 */
+	public long percentile( double percentile ) {
+		long total = count();
+		if( total == 0 ){
+			return 0L;
+		}
+		long rank = Math.max(1L, (long) Math.ceil(total * percentile / 100.0d));
+		long seen = 0;
+		for( int i = 0; i < counts.length(); i++ ){
+			seen += counts.get(i);
+			if( seen >= rank ){
+				return Math.min(max(), highestValue(i));
+			}
+		}
+		return max();
+	}
+
+	static int index( long value ) {
+		if( value < 2 * SUB_BUCKETS ){
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return SUB_BUCKETS * shift + (int) (value >> shift);
+	}
+
+	static long highestValue( int index ) {
+		if( index < 2 * SUB_BUCKETS ){
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		return ((long) (index - SUB_BUCKETS * shift) << shift) + (1L << shift) - 1;
+	}
+
+}
@@ -0,0 +1,84 @@
+package com.datastax.field.examples.geo.metrics;
+
+import java.math.BigDecimal;
+
+/**
+ * Writes metrics in the Prometheus text exposition format (version 0.0.4).
+ *
+ * Every metric family is started with family() and followed by all of its samples.
+ */
+class PrometheusWriter {
+
+	static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final StringBuilder out = new StringBuilder(8192);
+
+	void family( String name, String type, String help ) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	/**
+	 * @param labels as returned by labels(), may be empty
+	 */
+	void sample( String name, String labels, double value ) {
+		out.append(name);
+		if( !labels.isEmpty() ){
+			out.append('{').append(labels).append('}');
+		}
+		out.append(' ').append(format(value)).append('\n');
+	}
+
+	/**
+	 * Writes the cumulative _bucket, _sum and _count samples of a histogram family.
+	 *
+	 * @param bounds the upper bounds of the buckets, in the unit of the recorded values
+	 * @param scale converts a recorded value to the exposed unit (e.g. microseconds to seconds)
+	 */
+	void histogram( String name, String labels, LogLinearHistogram histogram, long[] bounds, double scale ) {
+
+		String prefix = labels.isEmpty() ? "" : labels + ",";
+		long count = histogram.count();
+		long cumulative = 0;
+		for( long bound : bounds ){
+			cumulative = histogram.countAtOrBelow(bound);
+			String le = BigDecimal.valueOf(bound).multiply(BigDecimal.valueOf(scale)).stripTrailingZeros().toPlainString();
+			sample(name + "_bucket", prefix + "le=\"" + le + "\"", cumulative);
+		}
+		// values keep being recorded while the buckets are read, +Inf must not be smaller than the last bucket
+		sample(name + "_bucket", prefix + "le=\"+Inf\"", Math.max(count, cumulative));
+		sample(name + "_sum", labels, histogram.sum() * scale);
+		sample(name + "_count", labels, Math.max(count, cumulative));
+	}
+
+	@Override
+	public String toString() {
+		return out.toString();
+	}
+
+	/**
+	 * @param namesAndValues label name, value, label name, value, ...
+	 */
+	static String labels( String... namesAndValues ) {
+		StringBuilder labels = new StringBuilder();
+		for( int i = 0; i + 1 < namesAndValues.length; i += 2 ){
+			if( labels.length() > 0 ){
+				labels.append(',');
+			}
+			labels.append(namesAndValues[i]).append("=\"").append(escape(namesAndValues[i + 1])).append('"');
+		}
+		return labels.toString();
+	}
+
+	private static String escape( String value ) {
+		return String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static String format( double value ) {
+		if( value == Math.rint(value) && Math.abs(value) < 1e15 ){
+			return Long.toString((long) value);
+		}
+		return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.datastax.field.examples.geo.metrics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.datastax.field.examples.geo.App;
+import com.datastax.field.examples.geo.service.QueryResult;
+
+/**
+ * Logs a sample (App.QUERY_LOG_SAMPLE) of the executed queries as key=value lines.
+ *
+ * Request threads only hand the QueryResult over to a single writer thread, which renders the query and
+ * writes the line. If the writer falls behind, entries are dropped (and counted) instead of blocking requests.
+ */
+@Component
+public class QueryLog {
+
+	final static Logger logger = LoggerFactory.getLogger(QueryLog.class);
+
+	private static final int QUEUE_SIZE = 1024;
+
+	private final LongAdder dropped = new LongAdder();
+
+	private ThreadPoolExecutor writer;
+
+
+	@PostConstruct
+	public void start() {
+		writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE), r -> {
+			Thread t = new Thread(r, "query-log");
+			t.setDaemon(true);
+			return t;
+		}, (r, executor) -> dropped.increment());
+	}
+
+	@PreDestroy
+	public void stop() {
+		writer.shutdown();
+	}
+
+
+	/**
+	 * @param query e.g. the QueryType
+	 * @param engine the LocationRepository that answered
+	 */
+	public void log( Object query, String engine, QueryResult<?> result, long elapsedNanos ) {
+
+		if( App.QUERY_LOG_SAMPLE <= 0.0d || ThreadLocalRandom.current().nextDouble() >= App.QUERY_LOG_SAMPLE ){
+			return;
+		}
+
+		writer.execute(() -> logger.info("query=" + String.valueOf(query).toLowerCase() 
+				+ " engine=\"" + engine + "\""
+				+ " elapsed_ms=" + String.format("%.3f", elapsedNanos / (double) TimeUnit.MILLISECONDS.toNanos(1)) 
+				+ " cql=\"" + result.getQuery().replace("\\", "\\\\").replace("\"", "\\\"") + "\""));
+	}
+
+	public long dropped() {
+		return dropped.sum();
+	}
+
+}
@@ -0,0 +1,57 @@
+package com.datastax.field.examples.geo.metrics;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.ServletRequest;
+
+/**
+ * Times one /api request, from the first filter until the response was written (for async requests: until
+ * the async context completes). Kept as a request attribute, see of().
+ */
+public class RequestTimer {
+
+	private static final String ATTRIBUTE = "geofinder.requestTimer";
+
+	private final ApiMetrics metrics;
+	private final String route;
+	private final long start = System.nanoTime();
+	private final AtomicBoolean finished = new AtomicBoolean(false);
+
+	private volatile long serializationNanos;
+	private volatile long responseBytes = -1;
+
+	private RequestTimer( ApiMetrics metrics, String route ) {
+		this.metrics = metrics;
+		this.route = route;
+	}
+
+	public static RequestTimer start( ApiMetrics metrics, ServletRequest request, String route ) {
+		RequestTimer timer = new RequestTimer(metrics, route);
+		request.setAttribute(ATTRIBUTE, timer);
+		return timer;
+	}
+
+	/**
+	 * @return the timer of the request, null if it is not timed
+	 */
+	public static RequestTimer of( ServletRequest request ) {
+		return (RequestTimer) request.getAttribute(ATTRIBUTE);
+	}
+
+	public void serialized( long nanos, long bytes ) {
+		this.serializationNanos = nanos;
+		this.responseBytes = bytes;
+	}
+
+	/**
+	 * Records the request, only the first call counts.
+	 */
+	public void finish( int status ) {
+		if( !finished.compareAndSet(false, true) ){
+			return;
+		}
+		String name = status == 404 ? ApiMetrics.UNMATCHED_ROUTE : route;
+		metrics.route(name).record(status, System.nanoTime() - start, serializationNanos, responseBytes);
+	}
+
+}
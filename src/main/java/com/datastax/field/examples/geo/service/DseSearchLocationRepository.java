@@ -0,0 +1,655 @@
+package com.datastax.field.examples.geo.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.datastax.driver.core.PagingState;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.PagingStateException;
+import com.datastax.driver.dse.DseSession;
+import com.datastax.driver.dse.geometry.Point;
+import com.datastax.field.examples.geo.cache.CachedLocations;
+import com.datastax.field.examples.geo.cache.GeoTiles;
+import com.datastax.field.examples.geo.cache.LocationResultCache;
+import com.datastax.field.examples.geo.cache.QueryCoalescer;
+import com.datastax.field.examples.geo.index.PivotFacetIndex;
+import com.datastax.field.examples.geo.metrics.ApiMetrics;
+import com.datastax.field.examples.geo.index.NearestRows;
+import com.datastax.field.examples.geo.index.RowCollector;
+import com.datastax.field.examples.geo.index.SpatialGridIndex;
+import com.datastax.field.examples.geo.util.CQLUtil;
+import com.datastax.field.examples.geo.util.FutureUtil;
+import com.datastax.field.examples.geo.util.GeoCircle;
+import com.datastax.field.examples.geo.util.GeoUtil;
+import com.datastax.field.examples.geo.util.JsonWritable;
+import com.google.common.base.Strings;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Answers the queries with solr_query statements on simplegeo.locations. When the result cache is enabled,
+ * the results are cached per map area (see LocationResultCache). Identical pivot and name suggest queries
+ * that run at the same time are sent once (see QueryCoalescer).
+ */
+@Component
+public class DseSearchLocationRepository implements LocationRepository {
+	
+	/**
+	 * how many rows are fetched for a cached area: more than the UI ever asks for, so a request within the area
+	 * can nearly always be answered from the cached rows.
+	 */
+	private static final int CACHE_FETCH_LIMIT = 1000;
+	private static final int CACHE_NAME_FETCH_LIMIT = 10 * LocationStatements.NAME_QUERY_LIMIT;
+	
+	/**
+	 * the most rows a name search fetches to keep the NAME_QUERY_LIMIT nearest of them, and the most queries it
+	 * sends to narrow its circle (see nearestNameSearch).
+	 */
+	private static final int NAME_SEARCH_FETCH_LIMIT = 10 * LocationStatements.NAME_QUERY_LIMIT;
+	private static final int MAX_NAME_SEARCH_QUERIES = 3;
+	
+	/**
+	 * the most rows a merged category query fetches (see filterLocationsOnCategoriesAsync).
+	 */
+	public static final int MERGE_FETCH_LIMIT = 1000;
+	
+	/**
+	 * a lower bound of the kilometers in a degree (see GeoUtil.kilometersToDegrees), so radiusInKm / MIN_KILOMETERS_PER_DEGREE
+	 * is never smaller than the radius in degrees at any latitude.
+	 */
+	private static final double MIN_KILOMETERS_PER_DEGREE = 110.0d;
+	
+	@Autowired
+	private DseSession dseSession;
+	
+	@Autowired
+	private LocationStatements statements;
+	
+	/**
+	 * result sets of async queries are mapped on this executor, never on the driver's I/O threads.
+	 */
+	@Autowired
+	private ExecutorService dseCallbackExecutor;
+	
+	@Autowired
+	private LocationResultCache cache;
+	
+	@Autowired
+	private QueryCoalescer coalescer;
+	
+	@Autowired
+	private ApiMetrics metrics;
+	
+	
+	@Override
+	public String name(){
+		return "dse-search";
+	}
+	
+	/**
+	 * The name suggest query is not faceting, so the names are de-duplicated here (see getNames), the query
+	 * may return fewer than NAME_QUERY_LIMIT unique names.
+	 * 
+	 * Another strategy is to use facets but facets can only sorted by count OR alpha-numerically,    
+	 */
+	private static String nameSuggestJson( String name, double lat, double lng, double radiusInKm ){
+		return LocationStatements.nameWithinRadiusJson(name, lat, lng, GeoUtil.kilometersToDegrees(radiusInKm, lat));
+	}
+	
+	@Override
+	public QueryResult<JsonArray> nameSuggest( String name, double lat, double lng, double radiusInKm ){
+		
+		if( cache.isEnabled() ){
+			return FutureUtil.join(cachedNameSuggest(name, lat, lng, radiusInKm));
+		}
+		
+		String solrQuery = nameSuggestJson(name, lat, lng, radiusInKm);
+		
+		if( coalescer.isEnabled() ){
+			return coalescer.join(() -> executeNameSuggest(solrQuery), LocationStatements.NAME_SUGGEST_CQL, solrQuery);
+		}
+		return executeNameSuggest(solrQuery);
+	}
+	
+	@Override
+	public CompletableFuture<QueryResult<JsonArray>> nameSuggestAsync( String name, double lat, double lng, double radiusInKm ){
+		
+		if( cache.isEnabled() ){
+			return cachedNameSuggest(name, lat, lng, radiusInKm);
+		}
+		
+		String solrQuery = nameSuggestJson(name, lat, lng, radiusInKm);
+		
+		if( coalescer.isEnabled() ){
+			return coalescer.get(() -> executeNameSuggestAsync(solrQuery), LocationStatements.NAME_SUGGEST_CQL, solrQuery);
+		}
+		return executeNameSuggestAsync(solrQuery);
+	}
+	
+	private QueryResult<JsonArray> executeNameSuggest( String solrQuery ){
+		return execute(statements.nameSuggest(solrQuery), DseSearchLocationRepository::getNames, 
+				LocationStatements.NAME_SUGGEST_CQL, solrQuery, LocationStatements.NAME_QUERY_LIMIT);
+	}
+	
+	private CompletableFuture<QueryResult<JsonArray>> executeNameSuggestAsync( String solrQuery ){
+		return executeAsync(statements.nameSuggest(solrQuery), DseSearchLocationRepository::getNames, 
+				LocationStatements.NAME_SUGGEST_CQL, solrQuery, LocationStatements.NAME_QUERY_LIMIT);
+	}
+	
+	@Override
+	public QueryResult<JsonWritable> nameSearch( String name, double lat, double lng, double radiusInKm ){
+		return FutureUtil.join(nameSearchAsync(name, lat, lng, radiusInKm));
+	}
+	
+	@Override
+	public CompletableFuture<QueryResult<JsonWritable>> nameSearchAsync( String name, double lat, double lng, double radiusInKm ){
+		
+		if( cache.isEnabled() ){
+			return cachedNameSearch(name, lat, lng, radiusInKm);
+		}
+		
+		return nearestNameSearch(name, GeoCircle.ofKilometers(lat, lng, radiusInKm), 1, System.nanoTime());
+	}
+	
+	/**
+	 * The name search returns the NAME_QUERY_LIMIT matches nearest to the point, nearest first, with their distance.
+	 * 
+	 * DSE Search returns the matches in no particular order (the RPT geo field cannot be sorted on from a solr_query),
+	 * so up to NAME_SEARCH_FETCH_LIMIT matches are fetched and the nearest of them kept. If that hit the limit, nearer
+	 * matches may not have been fetched: the search is repeated for the circle through the farthest match kept, which
+	 * holds at least NAME_QUERY_LIMIT matches, all of them nearer. After MAX_NAME_SEARCH_QUERIES the nearest fetched
+	 * are returned.
+	 */
+	private CompletableFuture<QueryResult<JsonWritable>> nearestNameSearch( String name, GeoCircle circle, int queries, long start ){
+		
+		String solrQuery = LocationStatements.nameWithinRadiusJson(name, circle.lat(), circle.lng(), circle.radiusInDegrees());
+		
+		return executeAsync(statements.nameSearch(solrQuery, NAME_SEARCH_FETCH_LIMIT), 
+						rs -> cacheRows(rs, NAME_SEARCH_FETCH_LIMIT, LocationJsonWriter::textColumns), 
+						LocationStatements.NAME_SEARCH_CQL, solrQuery, NAME_SEARCH_FETCH_LIMIT)
+			.thenCompose(result -> {
+				CachedLocations<String[]> locations = result.getResult();
+				int[] rows = nearest(locations, LocationStatements.NAME_QUERY_LIMIT, circle);
+				if( locations.isTruncated() && rows.length == LocationStatements.NAME_QUERY_LIMIT && queries < MAX_NAME_SEARCH_QUERIES ){
+					int farthest = rows[rows.length - 1];
+					double radiusInDegrees = Math.nextUp(circle.distanceInDegrees(locations.lat(farthest), locations.lng(farthest)));
+					if( radiusInDegrees < circle.radiusInDegrees() ){
+						return nearestNameSearch(name, new GeoCircle(circle.lat(), circle.lng(), radiusInDegrees), queries + 1, start);
+					}
+				}
+				return CompletableFuture.completedFuture(new QueryResult<>(result.getCql(), result.getValues(), 
+						writeNearestJson(locations, rows, circle), System.nanoTime() - start));
+			});
+	}
+	
+	@Override
+	public QueryResult<String> pivot( String pivot, double lllat, double lllng, double urlat, double urlng ){
+		if( isCacheable(lllng, urlng) ){
+			return FutureUtil.join(cachedPivot(pivot, lllat, lllng, urlat, urlng));
+		}
+		return executePivotQuery( pivotJson(pivot, lllat, lllng, urlat, urlng) );
+	}
+	
+	@Override
+	public CompletableFuture<QueryResult<String>> pivotAsync( String pivot, double lllat, double lllng, double urlat, double urlng ){
+		if( isCacheable(lllng, urlng) ){
+			return cachedPivot(pivot, lllat, lllng, urlat, urlng);
+		}
+		return executePivotQueryAsync( pivotJson(pivot, lllat, lllng, urlat, urlng) );
+	}
+	
+	private static String pivotJson( String pivot, double lllat, double lllng, double urlat, double urlng ){
+		return PivotFacetIndex.CATEGORY_PIVOT.equals(pivot) 
+				? LocationStatements.pivotOnCategoryJson(lllat, lllng, urlat, urlng)
+				: LocationStatements.pivotOnCategoryAndSubcategoryJson(lllat, lllng, urlat, urlng);
+	}
+	
+	/**
+	 * Identical pivot queries in flight at the same time are coalesced (see QueryCoalescer), the solr_query 
+	 * is the key.
+	 * 
+	 * @param solrQuery the pivot (facet) solr_query to execute
+	 * @return the JSON string of the pivot (Raw Solr Response)
+	 */
+	public QueryResult<String> executePivotQuery( String solrQuery ) {
+		
+		if( coalescer.isEnabled() ){
+			return coalescer.join(() -> executePivot(solrQuery), LocationStatements.PIVOT_CQL, solrQuery);
+		}
+		return executePivot(solrQuery);
+		
+	}
+	
+	public CompletableFuture<QueryResult<String>> executePivotQueryAsync( String solrQuery ) {
+		
+		if( coalescer.isEnabled() ){
+			return coalescer.get(() -> executePivotAsync(solrQuery), LocationStatements.PIVOT_CQL, solrQuery);
+		}
+		return executePivotAsync(solrQuery);
+		
+	}
+	
+	private QueryResult<String> executePivot( String solrQuery ){
+		return execute(statements.pivot(solrQuery), rs -> rs.one().getString(0), LocationStatements.PIVOT_CQL, solrQuery);
+	}
+	
+	private CompletableFuture<QueryResult<String>> executePivotAsync( String solrQuery ){
+		return executeAsync(statements.pivot(solrQuery), rs -> rs.one().getString(0), LocationStatements.PIVOT_CQL, solrQuery);
+	}
+	
+	@Override
+	public QueryResult<JsonWritable> filterLocations( String category, String subcategory, int numRows, 
+			double lllat, double lllng, double urlat, double urlng ){
+		
+		if( isCacheable(lllng, urlng) && numRows <= CACHE_FETCH_LIMIT ){
+			return FutureUtil.join(cachedFilterLocations(category, subcategory, numRows, lllat, lllng, urlat, urlng));
+		}
+		
+		String solrQuery = LocationStatements.locationsOnCategoryJson(category, subcategory, lllat, lllng, urlat, urlng);
+
+		return execute(statements.locations(solrQuery, numRows), DseSearchLocationRepository::streamLocations, 
+				LocationStatements.LOCATIONS_CQL, solrQuery, numRows);
+	}
+	
+	@Override
+	public CompletableFuture<QueryResult<JsonWritable>> filterLocationsAsync( String category, String subcategory, int numRows, 
+			double lllat, double lllng, double urlat, double urlng ){
+		
+		if( isCacheable(lllng, urlng) && numRows <= CACHE_FETCH_LIMIT ){
+			return cachedFilterLocations(category, subcategory, numRows, lllat, lllng, urlat, urlng);
+		}
+		
+		return executeFilterLocationsAsync(category, subcategory, numRows, lllat, lllng, urlat, urlng);
+	}
+	
+	private CompletableFuture<QueryResult<JsonWritable>> executeFilterLocationsAsync( String category, 
+			String subcategory, int numRows,  double lllat, double lllng, double urlat, double urlng ){
+		
+		String solrQuery = LocationStatements.locationsOnCategoryJson(category, subcategory, lllat, lllng, urlat, urlng);
+		
+		return executeAsync(statements.locations(solrQuery, numRows), DseSearchLocationRepository::streamLocations, 
+				LocationStatements.LOCATIONS_CQL, solrQuery, numRows);
+	}
+	
+	
+	/**
+	 * The locations of several categories within the same box, with one query instead of one per category: the
+	 * categories are merged into a category:(A OR B ...) filter that fetches numRows rows per category, and the
+	 * rows are split by category here. If the merged query hit its fetch limit, a category that got fewer than
+	 * numRows of its rows may have lost some to the other categories, it is queried on its own.
+	 * 
+	 * @return the locations of each category, in the order of the categories
+	 */
+	public CompletableFuture<QueryResult<List<JsonWritable>>> filterLocationsOnCategoriesAsync( List<String> categories, int numRows, 
+			double lllat, double lllng, double urlat, double urlng ){
+		
+		long start = System.nanoTime();
+		String solrQuery = LocationStatements.locationsOnCategoriesJson(categories, lllat, lllng, urlat, urlng);
+		int limit = numRows * categories.size();
+		
+		return executeAsync(statements.locations(solrQuery, limit), rs -> splitByCategory(rs, categories, numRows, limit), 
+						LocationStatements.LOCATIONS_CQL, solrQuery, limit)
+			.thenCompose(merged -> {
+				List<CompletableFuture<JsonWritable>> locations = new ArrayList<>();
+				for( int i = 0; i < categories.size(); i++ ){
+					JsonWritable split = merged.getResult().get(i);
+					locations.add(split != null ? CompletableFuture.completedFuture(split) 
+							: executeFilterLocationsAsync(categories.get(i), null, numRows, lllat, lllng, urlat, urlng).thenApply(QueryResult::getResult));
+				}
+				return CompletableFuture.allOf(locations.toArray(new CompletableFuture<?>[0])).thenApply(done -> 
+						new QueryResult<>(merged.getCql(), merged.getValues(), 
+								locations.stream().map(CompletableFuture::join).collect(Collectors.toList()), System.nanoTime() - start));
+			});
+	}
+	
+	/**
+	 * @return the first numRows locations of each category, null for a category that may be missing rows. The 
+	 * category is a StrField, DSE Search matched it exactly (on the trimmed category, see CQLUtil.appendSolrPhrase): 
+	 * a row of none of the categories is unexpected, it can not be assigned and every category is then null.
+	 */
+	static List<JsonWritable> splitByCategory( ResultSet resultSet, List<String> categories, int numRows, int limit ){
+		
+		List<List<String>> rows = new ArrayList<>();
+		categories.forEach(category -> rows.add(new ArrayList<>()));
+		
+		int fetched = 0;
+		boolean unassigned = false;
+		for( Row row : resultSet ){
+			fetched++;
+			int i = indexOfCategory(categories, row.getString("category"));
+			if( i < 0 ){
+				unassigned = true;
+			} else if( rows.get(i).size() < numRows ){
+				rows.get(i).add(LocationJsonWriter.toJson(row));
+			}
+		}
+		
+		boolean truncated = fetched >= limit;
+		List<JsonWritable> locations = new ArrayList<>();
+		for( List<String> category : rows ){
+			locations.add(unassigned || (truncated && category.size() < numRows) ? null : writeJson(category));
+		}
+		return locations;
+	}
+	
+	private static int indexOfCategory( List<String> categories, String category ){
+		for( int i = 0; category != null && i < categories.size(); i++ ){
+			if( categories.get(i).trim().equals(category) ){
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	
+	/**
+	 * Lists the locations page by page with driver paging: only one page is fetched per request, whatever the
+	 * size of the result. Paged listings are neither cached nor answered from the local index, a cursor
+	 * is a driver paging state and only valid for the query that created it.
+	 * 
+	 * @param cursor the cursor of the previous page, null or empty for the first page
+	 * @throws IllegalArgumentException if the cursor is not valid for this query
+	 */
+	public QueryResult<LocationPage> filterLocationsPage( String category, String subcategory, int pageSize, String cursor, 
+			double lllat, double lllng, double urlat, double urlng ){
+		
+		String solrQuery = LocationStatements.locationsOnCategoryPagedJson(category, subcategory, lllat, lllng, urlat, urlng);
+		
+		return execute(locationsPage(solrQuery, pageSize, cursor), DseSearchLocationRepository::page, 
+				LocationStatements.LOCATIONS_PAGE_CQL, solrQuery);
+	}
+	
+	public CompletableFuture<QueryResult<LocationPage>> filterLocationsPageAsync( String category, String subcategory, int pageSize, String cursor, 
+			double lllat, double lllng, double urlat, double urlng ){
+		
+		String solrQuery = LocationStatements.locationsOnCategoryPagedJson(category, subcategory, lllat, lllng, urlat, urlng);
+		
+		return executeAsync(locationsPage(solrQuery, pageSize, cursor), DseSearchLocationRepository::page, 
+				LocationStatements.LOCATIONS_PAGE_CQL, solrQuery);
+	}
+	
+	private Statement locationsPage( String solrQuery, int pageSize, String cursor ){
+		try {
+			PagingState pagingState = Strings.isNullOrEmpty(cursor) ? null : PagingState.fromString(cursor);
+			return statements.locationsPage(solrQuery, pageSize, pagingState);
+		} catch (PagingStateException e) {
+			throw new IllegalArgumentException("cursor is not valid for this query, start over without a cursor", e);
+		}
+	}
+	
+	/**
+	 * The paging state of the page is the cursor of the next one, the driver has none after the last page.
+	 */
+	private static LocationPage page( ResultSet resultSet ){
+		PagingState next = resultSet.getExecutionInfo().getPagingState();
+		return new LocationPage(out -> LocationJsonWriter.writePage(out, resultSet), next == null ? null : next.toString());
+	}
+	
+	
+	/**
+	 * @return the hit / miss counts of the result cache, and the counts of the coalesced queries
+	 */
+	public JsonObject getCacheStats(){
+		JsonObject stats = cache.stats();
+		stats.add("coalescing", coalescer.stats());
+		return stats;
+	}
+	
+	public boolean isCacheEnabled(){
+		return cache.isEnabled();
+	}
+	
+	/**
+	 * Bounding boxes crossing the antimeridian are not cached.
+	 */
+	private boolean isCacheable( double lllng, double urlng ){
+		return cache.isEnabled() && lllng <= urlng;
+	}
+	
+	/**
+	 * Fetches the box grown to its tile grid (see GeoTiles.snapOutward) once, and cuts the locations within the
+	 * requested box out of it. The cached rows are in DSE Search order, so the first numRows within the box are
+	 * the rows a query on the box returns. Only if the cached area hit its fetch limit before numRows were found
+	 * is the box queried directly.
+	 */
+	private CompletableFuture<QueryResult<JsonWritable>> cachedFilterLocations( String category, 
+			String subcategory, int numRows,  double lllat, double lllng, double urlat, double urlng ){
+		
+		long start = System.nanoTime();
+		double[] tile = GeoTiles.snapOutward(lllat, lllng, urlat, urlng);
+		String solrQuery = LocationStatements.locationsOnCategoryJson(category, subcategory, tile[0], tile[1], tile[2], tile[3]);
+		
+		return cache.get(() -> executeAsync(statements.locations(solrQuery, CACHE_FETCH_LIMIT), 
+						rs -> cacheRows(rs, CACHE_FETCH_LIMIT, LocationJsonWriter::toJson), 
+						LocationStatements.LOCATIONS_CQL, solrQuery, CACHE_FETCH_LIMIT), 
+				QueryType.FILTER, category.trim(), Strings.nullToEmpty(subcategory).trim(), tile[0], tile[1], tile[2], tile[3])
+			.thenCompose(cached -> {
+				CachedLocations<String> locations = cached.getResult();
+				RowCollector rows = trim(locations, numRows, 
+						i -> SpatialGridIndex.contains(lllat, lllng, urlat, urlng, locations.lat(i), locations.lng(i)));
+				if( rows == null ){
+					return executeFilterLocationsAsync(category, subcategory, numRows, lllat, lllng, urlat, urlng);
+				}
+				return CompletableFuture.completedFuture(new QueryResult<>(cached.getCql(), cached.getValues(), 
+						writeCachedJson(locations, rows), System.nanoTime() - start));
+			});
+	}
+	
+	/**
+	 * Pivot counts can not be cut down to a smaller box, so the box is only snapped to the closest pixel
+	 * (see GeoTiles.snapToPixel): the counts may include or miss locations less than a pixel from the edge of the map.
+	 */
+	private CompletableFuture<QueryResult<String>> cachedPivot( String pivot, double lllat, double lllng, double urlat, double urlng ){
+		
+		double[] box = GeoTiles.snapToPixel(lllat, lllng, urlat, urlng);
+		String solrQuery = pivotJson(pivot, box[0], box[1], box[2], box[3]);
+		
+		return cache.get(() -> executePivotQueryAsync(solrQuery), QueryType.PIVOT, pivot, box[0], box[1], box[2], box[3]);
+	}
+	
+	/**
+	 * Fetches the names within a larger circle around the center of the point's tile (see GeoTiles.snapPoint), 
+	 * so that circle contains the requested one, and cuts the requested circle out of it.
+	 */
+	private CompletableFuture<QueryResult<JsonArray>> cachedNameSuggest( String name, double lat, double lng, double radiusInKm ){
+		
+		long start = System.nanoTime();
+		String term = CQLUtil.cleanseTerm(name).toLowerCase();
+		GeoCircle circle = GeoCircle.ofKilometers(lat, lng, radiusInKm);
+		double maxRadiusInDegrees = radiusInKm / MIN_KILOMETERS_PER_DEGREE;
+		double[] point = GeoTiles.snapPoint(lat, lng, maxRadiusInDegrees);
+		String solrQuery = LocationStatements.nameWithinRadiusJson(term, point[0], point[1], maxRadiusInDegrees + point[2]);
+		
+		return cache.get(() -> executeAsync(statements.nameSuggest(solrQuery, CACHE_NAME_FETCH_LIMIT), 
+						rs -> cacheRows(rs, CACHE_NAME_FETCH_LIMIT, row -> row.getString("name")), 
+						LocationStatements.NAME_SUGGEST_CQL, solrQuery, CACHE_NAME_FETCH_LIMIT), 
+				QueryType.SUGGEST, term, point[0], point[1], radiusInKm)
+			.thenCompose(cached -> {
+				CachedLocations<String> names = cached.getResult();
+				RowCollector rows = trim(names, LocationStatements.NAME_QUERY_LIMIT, 
+						i -> circle.contains(names.lat(i), names.lng(i)));
+				if( rows == null ){
+					String directQuery = nameSuggestJson(name, lat, lng, radiusInKm);
+					return executeAsync(statements.nameSuggest(directQuery), DseSearchLocationRepository::getNames, 
+							LocationStatements.NAME_SUGGEST_CQL, directQuery, LocationStatements.NAME_QUERY_LIMIT);
+				}
+				Set<String> unique = new LinkedHashSet<>();
+				for( int i = 0; i < rows.size(); i++ ){
+					unique.add(names.value(rows.get(i)));
+				}
+				JsonArray results = new JsonArray();
+				unique.forEach(results::add);
+				return CompletableFuture.completedFuture(new QueryResult<>(cached.getCql(), cached.getValues(), results, System.nanoTime() - start));
+			});
+	}
+	
+	/**
+	 * see cachedNameSuggest, and nearestNameSearch: the nearest can only be taken from cached rows that were not
+	 * truncated.
+	 */
+	private CompletableFuture<QueryResult<JsonWritable>> cachedNameSearch( String name, double lat, double lng, double radiusInKm ){
+		
+		long start = System.nanoTime();
+		String term = CQLUtil.cleanseTerm(name).toLowerCase();
+		GeoCircle circle = GeoCircle.ofKilometers(lat, lng, radiusInKm);
+		double maxRadiusInDegrees = radiusInKm / MIN_KILOMETERS_PER_DEGREE;
+		double[] point = GeoTiles.snapPoint(lat, lng, maxRadiusInDegrees);
+		String solrQuery = LocationStatements.nameWithinRadiusJson(term, point[0], point[1], maxRadiusInDegrees + point[2]);
+		
+		return cache.get(() -> executeAsync(statements.nameSearch(solrQuery, CACHE_NAME_FETCH_LIMIT), 
+						rs -> cacheRows(rs, CACHE_NAME_FETCH_LIMIT, LocationJsonWriter::textColumns), 
+						LocationStatements.NAME_SEARCH_CQL, solrQuery, CACHE_NAME_FETCH_LIMIT), 
+				QueryType.SEARCH, term, point[0], point[1], radiusInKm)
+			.thenCompose(cached -> {
+				CachedLocations<String[]> locations = cached.getResult();
+				if( locations.isTruncated() ){
+					return nearestNameSearch(name, circle, 1, start);
+				}
+				int[] rows = nearest(locations, LocationStatements.NAME_QUERY_LIMIT, circle);
+				return CompletableFuture.completedFuture(new QueryResult<>(cached.getCql(), cached.getValues(), 
+						writeNearestJson(locations, rows, circle), System.nanoTime() - start));
+			});
+	}
+	
+	/**
+	 * @return the first limit cached rows that pass the filter, or null if the cached rows were truncated and 
+	 * fewer than limit rows passed (the rows that are missing from the cache could have passed).
+	 */
+	private static RowCollector trim( CachedLocations<?> cached, int limit, IntPredicate filter ){
+		
+		RowCollector rows = new RowCollector(limit);
+		for( int i = 0; i < cached.size() && !rows.isFull(); i++ ){
+			if( filter.test(i) ){
+				rows.visit(i);
+			}
+		}
+		return cached.isTruncated() && !rows.isFull() ? null : rows;
+	}
+	
+	/**
+	 * @return the cached rows within the circle, nearest first, at most limit
+	 */
+	private static int[] nearest( CachedLocations<?> cached, int limit, GeoCircle circle ){
+		
+		NearestRows nearest = new NearestRows(limit);
+		for( int i = 0; i < cached.size(); i++ ){
+			double haversine = circle.haversine(cached.lat(i), cached.lng(i));
+			if( haversine <= circle.maxHaversine() ){
+				nearest.visit(i, haversine);
+			}
+		}
+		return nearest.toSortedArray();
+	}
+	
+	private static JsonWritable writeJson( List<String> locations ){
+		return out -> {
+			out.beginArray();
+			for( String location : locations ){
+				out.jsonValue(location);
+			}
+			out.endArray();
+		};
+	}
+	
+	private static JsonWritable writeCachedJson( CachedLocations<String> cached, RowCollector rows ){
+		return out -> {
+			out.beginArray();
+			for( int i = 0; i < rows.size(); i++ ){
+				out.jsonValue(cached.value(rows.get(i)));
+			}
+			out.endArray();
+		};
+	}
+	
+	private static JsonWritable writeNearestJson( CachedLocations<String[]> cached, int[] rows, GeoCircle circle ){
+		return out -> {
+			out.beginArray();
+			for( int i : rows ){
+				LocationJsonWriter.writeLocation(out, cached.value(i), cached.lat(i), cached.lng(i), 
+						circle.distanceInKm(cached.lat(i), cached.lng(i)));
+			}
+			out.endArray();
+		};
+	}
+	
+	private static <T> CachedLocations<T> cacheRows( ResultSet resultSet, int limit, Function<Row, T> value ){
+		
+		List<Row> rows = resultSet.all();
+		double[] lat = new double[rows.size()];
+		double[] lng = new double[rows.size()];
+		List<T> values = new ArrayList<>(rows.size());
+		for( int i = 0; i < rows.size(); i++ ){
+			Point geo = (Point) rows.get(i).getObject("geo");
+			lat[i] = geo.Y();
+			lng[i] = geo.X();
+			values.add(value.apply(rows.get(i)));
+		}
+		return new CachedLocations<>(lat, lng, values, rows.size() >= limit);
+	}
+	
+	
+	private <T> QueryResult<T> execute( Statement statement, Function<ResultSet, T> mapper, String cql, Object... values ){
+		
+		long start = System.nanoTime();
+		ResultSet resultSet;
+		try {
+			resultSet = this.dseSession.execute(statement);
+		} catch (RuntimeException e) {
+			metrics.dseRequest(statement, System.nanoTime() - start, null);
+			throw e;
+		}
+		metrics.dseRequest(statement, System.nanoTime() - start, resultSet.getExecutionInfo());
+		T result = mapper.apply(resultSet);
+		return new QueryResult<>(cql, values, result, System.nanoTime() - start);
+	}
+	
+	/**
+	 * Iterating a result set may fetch the next page synchronously, so the rows are mapped on the
+	 * callback executor rather than on the I/O thread that completed the query.
+	 */
+	private <T> CompletableFuture<QueryResult<T>> executeAsync( Statement statement, Function<ResultSet, T> mapper, String cql, Object... values ){
+		
+		long start = System.nanoTime();
+		return FutureUtil.toCompletableFuture(this.dseSession.executeAsync(statement))
+				.whenComplete((resultSet, error) -> metrics.dseRequest(statement, System.nanoTime() - start, 
+						resultSet == null ? null : resultSet.getExecutionInfo()))
+				.thenApplyAsync(resultSet -> new QueryResult<>(cql, values, mapper.apply(resultSet), System.nanoTime() - start), dseCallbackExecutor);
+	}
+	
+	
+	/**
+	 * The locations are not read here, they are written (page by page) when the response is streamed.
+	 */
+	private static JsonWritable streamLocations(ResultSet resultSet) {
+		return out -> LocationJsonWriter.writeLocations(out, resultSet);
+	}
+	
+	/**
+	 * @return the unique names, in the order they were returned
+	 */
+	private static JsonArray getNames(ResultSet resultSet) {
+		
+		Set<String> names = new LinkedHashSet<>();
+		
+		for( Row row: resultSet ){
+			names.add( row.getString("name") );
+		}
+		
+		JsonArray results = new JsonArray();
+		names.forEach(results::add);
+		return results;
+	}
+	
+}
@@ -0,0 +1,206 @@
+package com.datastax.field.examples.geo.service;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.datastax.field.examples.geo.index.ClusterPyramid;
+import com.datastax.field.examples.geo.index.LocalLocationIndex;
+import com.datastax.field.examples.geo.index.LocationTable;
+import com.datastax.field.examples.geo.index.NameSuggestIndex;
+import com.datastax.field.examples.geo.index.PivotFacetIndex;
+import com.datastax.field.examples.geo.index.RowCollector;
+import com.datastax.field.examples.geo.index.SpatialGridIndex;
+import com.datastax.field.examples.geo.util.CQLUtil;
+import com.datastax.field.examples.geo.util.GeoCircle;
+import com.datastax.field.examples.geo.util.GeoUtil;
+import com.datastax.field.examples.geo.util.JsonWritable;
+import com.google.common.base.Strings;
+import com.google.gson.JsonArray;
+
+/**
+ * Answers the queries from the local index (see LocalLocationIndex). Nothing blocks, so the async variants
+ * return completed futures.
+ *
+ * Only usable once the local index has been loaded, see isReady().
+ */
+@Component
+public class InMemoryLocationRepository implements LocationRepository {
+	
+	private static final String LOCAL_NAME_DESCRIPTION = "LOCAL INDEX locations WHERE name_lowercase CONTAINS ? AND geo WITHIN ? DEGREES OF (?, ?) LIMIT ?";
+	private static final String LOCAL_PIVOT_DESCRIPTION = "LOCAL INDEX locations PIVOT ? WHERE geo IN [?,? TO ?,?]";
+	private static final String LOCAL_CLUSTER_DESCRIPTION = "LOCAL INDEX locations CLUSTER BY TILE(?) WHERE category = ? AND subcategory = ? AND geo IN [?,? TO ?,?]";
+	private static final String LOCAL_FILTER_DESCRIPTION = "LOCAL INDEX locations WHERE category = ? AND subcategory = ? AND geo IN [?,? TO ?,?] LIMIT ?";
+	
+	@Autowired
+	private LocalLocationIndex localIndex;
+	
+	
+	@Override
+	public String name(){
+		return "local-index";
+	}
+	
+	/**
+	 * @return true once the local index has been loaded
+	 */
+	public boolean isReady(){
+		return localIndex.isReady();
+	}
+	
+	/**
+	 * @return identifies the loaded snapshot, see LocalLocationIndex.Snapshot.version
+	 */
+	public long version(){
+		return localIndex.snapshot().version();
+	}
+	
+	/**
+	 * @return true once the cluster pyramid has been built, see App.LOCAL_INDEX
+	 */
+	public boolean hasClusters(){
+		return localIndex.snapshot().clusters() != null;
+	}
+	
+	/**
+	 * Clusters the locations of the box at a zoom derived from the size of the box, see ClusterPyramid.
+	 * 
+	 * @param category optional
+	 * @param subcategory optional
+	 */
+	public QueryResult<ClusterPyramid.Clusters> clusters( String category, String subcategory, 
+			double lllat, double lllng, double urlat, double urlng ){
+		
+		long start = System.nanoTime();
+		
+		ClusterPyramid.Clusters clusters = localIndex.snapshot().clusters().clusters(lllat, lllng, urlat, urlng, category, subcategory);
+		
+		return new QueryResult<>(LOCAL_CLUSTER_DESCRIPTION, 
+				new Object[]{ clusters.zoom(), String.valueOf(category), String.valueOf(subcategory), lllat, lllng, urlat, urlng }, 
+				clusters, System.nanoTime() - start);
+	}
+	
+	/**
+	 * Answers the type-ahead from the name index of the local index, one entry per distinct name.
+	 */
+	@Override
+	public QueryResult<JsonArray> nameSuggest( String name, double lat, double lng, double radiusInKm ){
+		
+		long start = System.nanoTime();
+		
+		String term = CQLUtil.cleanseTerm(name).toLowerCase();
+		double radiusInDegrees = GeoUtil.kilometersToDegrees(radiusInKm, lat);
+		NameSuggestIndex names = localIndex.snapshot().names();
+		LocationTable table = names.grid().table();
+		
+		JsonArray results = new JsonArray();
+		for( int row : names.search(term, lat, lng, radiusInDegrees, LocationStatements.NAME_QUERY_LIMIT, true) ){
+			results.add(table.name(row));
+		}
+		
+		return new QueryResult<>(LOCAL_NAME_DESCRIPTION, 
+				new Object[]{ term, radiusInDegrees, lat, lng, LocationStatements.NAME_QUERY_LIMIT }, results, System.nanoTime() - start);
+	}
+	
+	@Override
+	public CompletableFuture<QueryResult<JsonArray>> nameSuggestAsync( String name, double lat, double lng, double radiusInKm ){
+		return CompletableFuture.completedFuture(nameSuggest(name, lat, lng, radiusInKm));
+	}
+	
+	@Override
+	public QueryResult<JsonWritable> nameSearch( String name, double lat, double lng, double radiusInKm ){
+		
+		long start = System.nanoTime();
+		
+		String term = CQLUtil.cleanseTerm(name).toLowerCase();
+		double radiusInDegrees = GeoUtil.kilometersToDegrees(radiusInKm, lat);
+		NameSuggestIndex names = localIndex.snapshot().names();
+		LocationTable table = names.grid().table();
+		
+		GeoCircle circle = new GeoCircle(lat, lng, radiusInDegrees);
+		int[] rows = names.nearest(term, lat, lng, radiusInDegrees, LocationStatements.NAME_QUERY_LIMIT);
+		JsonWritable locations = out -> {
+			out.beginArray();
+			for( int row : rows ){
+				LocationJsonWriter.writeLocation(out, table, row, circle.distanceInKm(table.lat(row), table.lng(row)));
+			}
+			out.endArray();
+		};
+		
+		return new QueryResult<>(LOCAL_NAME_DESCRIPTION, 
+				new Object[]{ term, radiusInDegrees, lat, lng, LocationStatements.NAME_QUERY_LIMIT }, locations, System.nanoTime() - start);
+	}
+	
+	@Override
+	public CompletableFuture<QueryResult<JsonWritable>> nameSearchAsync( String name, double lat, double lng, double radiusInKm ){
+		return CompletableFuture.completedFuture(nameSearch(name, lat, lng, radiusInKm));
+	}
+	
+	/**
+	 * Answers a bbox pivot from the per cell counts of the local index, in the same JSON format as the DSE Search facet.
+	 */
+	@Override
+	public QueryResult<String> pivot( String pivot, double lllat, double lllng, double urlat, double urlng ){
+		
+		long start = System.nanoTime();
+		
+		PivotFacetIndex facets = localIndex.snapshot().facets();
+		String json = PivotFacetIndex.CATEGORY_PIVOT.equals(pivot) 
+				? facets.categoryPivot(lllat, lllng, urlat, urlng) 
+				: facets.categorySubcategoryPivot(lllat, lllng, urlat, urlng);
+		
+		return new QueryResult<>(LOCAL_PIVOT_DESCRIPTION, new Object[]{ pivot, lllat, lllng, urlat, urlng }, json, System.nanoTime() - start);
+	}
+	
+	@Override
+	public CompletableFuture<QueryResult<String>> pivotAsync( String pivot, double lllat, double lllng, double urlat, double urlng ){
+		return CompletableFuture.completedFuture(pivot(pivot, lllat, lllng, urlat, urlng));
+	}
+	
+	/**
+	 * Matching rows are collected up front (as row numbers), so the result does not change if the index is 
+	 * refreshed while the response is written. When more than numRows locations match, the ones returned are 
+	 * spread over the box (see SpatialGridIndex.searchSpread), as the matches of DSE Search are.
+	 */
+	@Override
+	public QueryResult<JsonWritable> filterLocations( String category, String subcategory, int numRows, 
+			double lllat, double lllng, double urlat, double urlng ){
+		
+		long start = System.nanoTime();
+		
+		SpatialGridIndex index = localIndex.snapshot().index();
+		LocationTable table = index.table();
+		
+		int categoryCode = table.categoryCodeOf(category.trim());
+		boolean hasSubcategory = !Strings.isNullOrEmpty(subcategory);
+		int subcategoryCode = hasSubcategory ? table.subcategoryCodeOf(subcategory.trim()) : LocationTable.NULL_CODE;
+		
+		RowCollector rows = new RowCollector(numRows);
+		
+		if( numRows > 0 && categoryCode != LocationTable.NULL_CODE && (!hasSubcategory || subcategoryCode != LocationTable.NULL_CODE) ){
+			index.searchSpread(lllat, lllng, urlat, urlng, numRows, 
+					row -> table.categoryCode(row) == categoryCode && (!hasSubcategory || table.subcategoryCode(row) == subcategoryCode),
+					rows);
+		}
+		
+		JsonWritable locations = out -> {
+			out.beginArray();
+			for( int i = 0; i < rows.size(); i++ ){
+				LocationJsonWriter.writeLocation(out, table, rows.get(i));
+			}
+			out.endArray();
+		};
+		
+		return new QueryResult<>(LOCAL_FILTER_DESCRIPTION, 
+				new Object[]{ category, String.valueOf(subcategory), lllat, lllng, urlat, urlng, numRows }, 
+				locations, System.nanoTime() - start);
+	}
+	
+	@Override
+	public CompletableFuture<QueryResult<JsonWritable>> filterLocationsAsync( String category, String subcategory, int numRows, 
+			double lllat, double lllng, double urlat, double urlng ){
+		return CompletableFuture.completedFuture(filterLocations(category, subcategory, numRows, lllat, lllng, urlat, urlng));
+	}
+	
+}
@@ -1,40 +1,77 @@
 package com.datastax.field.examples.geo.service;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import com.datastax.driver.core.ResultSet;
-import com.datastax.driver.core.Row;
-import com.datastax.driver.dse.DseCluster;
-import com.datastax.driver.dse.DseSession;
-import com.datastax.driver.dse.geometry.Point;
-import com.datastax.field.examples.geo.util.CQLUtil;
-import com.google.common.base.Strings;
+import com.datastax.field.examples.geo.App;
+import com.datastax.field.examples.geo.index.ClusterPyramid;
+import com.datastax.field.examples.geo.index.PivotFacetIndex;
+import com.datastax.field.examples.geo.metrics.ApiMetrics;
+import com.datastax.field.examples.geo.metrics.ApiMetrics.BackendMetrics;
+import com.datastax.field.examples.geo.metrics.QueryLog;
+import com.datastax.field.examples.geo.util.JsonWritable;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
+/**
+ * Sends every query to the LocationRepository configured for its QueryType: DSE Search, or the local index 
+ * for the types in App.LOCAL_INDEX. For the types in App.SHADOW, the other engine runs the query as well
+ * and the differences are logged (see ShadowLocationRepository).
+ */
 @Service
 public class LocationFinderService {
 	
-	
 	@Autowired
-	private DseCluster dseCluster;
+	private DseSearchLocationRepository dseSearch;
 	
 	@Autowired
-	private DseSession dseSession;
-	
+	private InMemoryLocationRepository inMemory;
 	
 	/**
-	 * the GEO_NAME_SUGGEST_QUERY is not faceting, so the UI takes that into consideration and only displays unique values.  
-	 * 
-	 * Another strategy is to use facets but facets can only sorted by count OR alpha-numerically,    
+	 * the shadow queries are run and compared on this executor.
 	 */
-	// %s order: name, lon, lat, radius
-	private static String GEO_NAME_SUGGEST_QUERY = "SELECT name from simplegeo.locations where solr_query = '{ \"q\":\"*:*\", \"fq\":\"name_lowercase:*%s* AND geo:\\\"IsWithin(BUFFER(POINT(%s %s), %s))\\\"\"}' LIMIT 50";
+	@Autowired
+	private ExecutorService dseCallbackExecutor;
+	
+	@Autowired
+	private ApiMetrics metrics;
+	
+	@Autowired
+	private QueryLog queryLog;
+	
+	private LocationRepository dseShadowedByLocal;
+	
+	private LocationRepository localShadowedByDse;
+	
+	
+	@PostConstruct
+	public void init(){
+		// both directions share the bound on the shadow queries in flight
+		Semaphore shadowPermits = new Semaphore(App.SHADOW_MAX_IN_FLIGHT);
+		dseShadowedByLocal = new ShadowLocationRepository(dseSearch, inMemory, dseCallbackExecutor, shadowPermits);
+		localShadowedByDse = new ShadowLocationRepository(inMemory, dseSearch, dseCallbackExecutor, shadowPermits);
+	}
+	
 	
+	public QueryResult<JsonArray> nameSuggestWithPointAndRadius(String name, double lat, double lng, double radiusInKm){
+		LocationRepository repository = repository(QueryType.SUGGEST);
+		return record(QueryType.SUGGEST, repository, () -> repository.nameSuggest(name, lat, lng, radiusInKm));
+	}
 	
+	public CompletableFuture<QueryResult<JsonArray>> nameSuggestWithPointAndRadiusAsync(String name, double lat, double lng, double radiusInKm){
+		LocationRepository repository = repository(QueryType.SUGGEST);
+		return recordAsync(QueryType.SUGGEST, repository, () -> repository.nameSuggestAsync(name, lat, lng, radiusInKm));
+	}
 	
-	/* 
+	/*
 	 * simplegeo.locations table schema: 
 	 * 
 	 *     id text PRIMARY KEY,
@@ -54,199 +91,215 @@ public class LocationFinderService {
 	 *     type text,
 	 *     website text
 	 */
-	private static String GEO_NAME_SEARCH_QUERY = "SELECT id, name, address, city, province, post_code, phone, category, subcategory,geo, website, menulink, tags from simplegeo.locations where solr_query = '{ \"q\":\"*:*\", \"fq\":\"name_lowercase:*%s* AND geo:\\\"IsWithin(BUFFER(POINT(%s %s), %s))\\\"\"}' LIMIT 50";
+	public QueryResult<JsonWritable> nameSearchWithPointAndRadius(String name, double lat, double lng, double radiusInKm){
+		LocationRepository repository = repository(QueryType.SEARCH);
+		return record(QueryType.SEARCH, repository, () -> repository.nameSearch(name, lat, lng, radiusInKm));
+	}
+	
+	public CompletableFuture<QueryResult<JsonWritable>> nameSearchWithPointAndRadiusAsync(String name, double lat, double lng, double radiusInKm){
+		LocationRepository repository = repository(QueryType.SEARCH);
+		return recordAsync(QueryType.SEARCH, repository, () -> repository.nameSearchAsync(name, lat, lng, radiusInKm));
+	}
 	
-	private static final String GEO_FILTER_PIVOT_ON_CATEGORY = "SELECT * FROM simplegeo.locations where solr_query = '{ \"q\":\"*:*\", \"fq\":\"geo:[%s,%s TO %s,%s]\", \"facet\":{ \"pivot\":\"category\",\"limit\":\"-1\",\"mincount\":1,\"sort\":\"count\"}}'";
+	public QueryResult<String> geoFilterPivotOnCateogory(double lllat, double lllng, double urlat, double urlng){
+		LocationRepository repository = repository(QueryType.PIVOT);
+		return record(QueryType.PIVOT, repository, () -> repository.pivot(PivotFacetIndex.CATEGORY_PIVOT, lllat, lllng, urlat, urlng));
+	}
 	
-	private static final String GEO_FILTER_PIVOT_ON_CATEGORY_AND_SUBCATEGORY = "SELECT * FROM simplegeo.locations where solr_query = '{ \"q\":\"*:*\", \"fq\":\"geo:[%s,%s TO %s,%s]\", \"facet\":{ \"pivot\":\"category,subcategory\",\"limit\":\"-1\",\"mincount\":1}}'";
+	public CompletableFuture<QueryResult<String>> geoFilterPivotOnCateogoryAsync(double lllat, double lllng, double urlat, double urlng){
+		LocationRepository repository = repository(QueryType.PIVOT);
+		return recordAsync(QueryType.PIVOT, repository, () -> repository.pivotAsync(PivotFacetIndex.CATEGORY_PIVOT, lllat, lllng, urlat, urlng));
+	}
 	
-	private static final String GEO_FILTER_LOCATIONS_ON_CATEGORY = "SELECT * FROM simplegeo.locations where solr_query = '{\"q\":\"*:*\", \"fq\":\"category:(\\\"%s\\\") AND geo:[%s,%s TO %s,%s]\"}' LIMIT %s";
+	public QueryResult<String> geoFilterPivotOnCateogoryAndSubCategory(double lllat, double lllng, double urlat, double urlng){
+		LocationRepository repository = repository(QueryType.PIVOT);
+		return record(QueryType.PIVOT, repository, () -> repository.pivot(PivotFacetIndex.CATEGORY_SUBCATEGORY_PIVOT, lllat, lllng, urlat, urlng));
+	}
 	
-	private static final String GEO_FILTER_LOCATIONS_ON_CATEGORY_AND_SUBCATEGORY = "SELECT * FROM simplegeo.locations where solr_query = '{\"q\":\"*:*\", \"fq\":\"category:(\\\"%s\\\") AND subcategory:(\\\"%s\\\") AND geo:[%s,%s TO %s,%s]\"}' LIMIT %s";
+	public CompletableFuture<QueryResult<String>> geoFilterPivotOnCateogoryAndSubCategoryAsync(double lllat, double lllng, double urlat, double urlng){
+		LocationRepository repository = repository(QueryType.PIVOT);
+		return recordAsync(QueryType.PIVOT, repository, () -> repository.pivotAsync(PivotFacetIndex.CATEGORY_SUBCATEGORY_PIVOT, lllat, lllng, urlat, urlng));
+	}
 	
 	
 	/**
-	 * for display in the UI
+	 * 
+	 * @param solrQuery the pivot (facet) solr_query to execute
+	 * @return the JSON string of the pivot (Raw Solr Response)
 	 */
-	public String nameSuggestWithPointAndRadiusQuery( String name, double lat, double lng, double radiusInKm ){
-		
-		double degrees = kilometersToDegrees(radiusInKm, lat);
-		
-		return String.format(GEO_NAME_SUGGEST_QUERY, 
-					CQLUtil.cleanseQueryStr(name).toLowerCase(),
-					String.valueOf(lng),
-					String.valueOf(lat),
-					String.valueOf(degrees));
-		
+	public QueryResult<String> executePivotQuery( String solrQuery ) {
+		return dseSearch.executePivotQuery(solrQuery);
 	}
 	
-	public JsonArray nameSuggestWithPointAndRadius(String name, double lat, double lng, double radiusInKm){
-		
-		JsonArray results = new JsonArray();
-		
-		
-		String query = nameSuggestWithPointAndRadiusQuery(name, lat, lng, radiusInKm);
-		System.out.println(query);
-		ResultSet resultSet = this.dseSession.execute(query);
-		for( Row row: resultSet.all() ){
-			results.add( row.getString("name") );
-		}
-		
-		return results;
+	public CompletableFuture<QueryResult<String>> executePivotQueryAsync( String solrQuery ) {
+		return dseSearch.executePivotQueryAsync(solrQuery);
 	}
 	
-public String nameSearchWithPointAndRadiusQuery( String name, double lat, double lng, double radiusInKm ){
-		
-		double degrees = kilometersToDegrees(radiusInKm, lat);
-		
-		return String.format(GEO_NAME_SEARCH_QUERY, 
-					CQLUtil.cleanseQueryStr(name).toLowerCase(),
-					String.valueOf(lng),
-					String.valueOf(lat),
-					String.valueOf(degrees));
-		
-	}
 	
-	public JsonArray nameSearchWithPointAndRadius(String name, double lat, double lng, double radiusInKm){
-		
-		JsonArray results = new JsonArray();
-		
-		String query = nameSearchWithPointAndRadiusQuery(name, lat, lng, radiusInKm);
-		return getJsonElements(results, query);
+	/**
+	 * if subcategory is NOT null, the query filters on the category AND subcateogry
+	 * else only on the category.
+	 * 
+	 * @param category
+	 * @param subcategory
+	 * @param numRows Number of locations to return
+	 * @param lllat	Lower Left Latitude
+	 * @param lllng Lower Left Longitude
+	 * @param urlat Upper Right Latitude
+	 * @param urlng Upper Right Longitude
+	 * @return the locations
+	 */
+	public QueryResult<JsonWritable> geoFilterLocationsOnCateogoryAndOrSubcategory( String category, 
+			String subcategory, int numRows,  double lllat, double lllng, double urlat, double urlng ){
+		LocationRepository repository = repository(QueryType.FILTER);
+		return record(QueryType.FILTER, repository, () -> repository.filterLocations(category, subcategory, numRows, lllat, lllng, urlat, urlng));
 	}
 	
-	public String geoFilterPivotOnCateogoryQuery(double lllat, double lllng, double urlat, double urlng){
-		return String.format(GEO_FILTER_PIVOT_ON_CATEGORY, lllat, lllng, urlat, urlng);
+	public CompletableFuture<QueryResult<JsonWritable>> geoFilterLocationsOnCateogoryAndOrSubcategoryAsync( String category, 
+			String subcategory, int numRows,  double lllat, double lllng, double urlat, double urlng ){
+		LocationRepository repository = repository(QueryType.FILTER);
+		return recordAsync(QueryType.FILTER, repository, () -> repository.filterLocationsAsync(category, subcategory, numRows, lllat, lllng, urlat, urlng));
 	}
 	
-	public String geoFilterPivotOnCateogory(double lllat, double lllng, double urlat, double urlng){
-		return executePivotQuery( geoFilterPivotOnCateogoryQuery(lllat, lllng, urlat, urlng) );
-	}
 	
-	public String geoFilterPivotOnCateogoryAndSubcategoryQuery( double lllat, double lllng, double urlat, double urlng ){
-		
-		return String.format(GEO_FILTER_PIVOT_ON_CATEGORY_AND_SUBCATEGORY, 
-				lllat, 
-				lllng, 
-				urlat, 
-				urlng);
-		
+	/**
+	 * @return true if the listings of that many categories (in the same box) are answered with one query by 
+	 * geoFilterLocationsOnCategoriesAsync: DSE Search answers them, and not from the result cache (which already 
+	 * shares its queries between the requests for an area)
+	 */
+	public boolean mergesCategories( int categories, int numRows ){
+		return categories > 1 && categories * numRows <= DseSearchLocationRepository.MERGE_FETCH_LIMIT
+				&& repository(QueryType.FILTER) == dseSearch && !dseSearch.isCacheEnabled();
 	}
 	
-	public String geoFilterPivotOnCateogoryAndSubCategory(double lllat, double lllng, double urlat, double urlng){
-		return executePivotQuery( geoFilterPivotOnCateogoryAndSubcategoryQuery(lllat, lllng, urlat, urlng) );
+	/**
+	 * The locations of each category, see DseSearchLocationRepository.filterLocationsOnCategoriesAsync. Only
+	 * call it if mergesCategories.
+	 */
+	public CompletableFuture<QueryResult<List<JsonWritable>>> geoFilterLocationsOnCategoriesAsync( List<String> categories, 
+			int numRows, double lllat, double lllng, double urlat, double urlng ){
+		return recordAsync(QueryType.FILTER, dseSearch, () -> dseSearch.filterLocationsOnCategoriesAsync(categories, numRows, lllat, lllng, urlat, urlng));
 	}
 	
 	
 	/**
+	 * One page of the locations, see DseSearchLocationRepository.filterLocationsPage. Paged listings are always
+	 * answered by DSE Search.
 	 * 
-	 * @param query the query to execute
-	 * @return the JSON string of the pivot (Raw Solr Response)
+	 * @param pageSize Number of locations per page
+	 * @param cursor the cursor of the previous page, null for the first page
 	 */
-	public String executePivotQuery( String query ) {
-		
-		ResultSet rs = this.dseSession.execute(query);
-		return rs.all().get(0).getString(0);
-		
+	public QueryResult<LocationPage> geoFilterLocationsPageOnCateogoryAndOrSubcategory( String category, 
+			String subcategory, int pageSize, String cursor, double lllat, double lllng, double urlat, double urlng ){
+		return record(QueryType.FILTER, dseSearch, () -> dseSearch.filterLocationsPage(category, subcategory, pageSize, cursor, lllat, lllng, urlat, urlng));
+	}
+	
+	public CompletableFuture<QueryResult<LocationPage>> geoFilterLocationsPageOnCateogoryAndOrSubcategoryAsync( String category, 
+			String subcategory, int pageSize, String cursor, double lllat, double lllng, double urlat, double urlng ){
+		return recordAsync(QueryType.FILTER, dseSearch, () -> dseSearch.filterLocationsPageAsync(category, subcategory, pageSize, cursor, lllat, lllng, urlat, urlng));
 	}
 	
 	
-	private String geoFilterLocationsOnCateogoryQuery( String category, int numRows, double lllat, double lllng, double urlat, double urlng ){
-		String q = String.format(GEO_FILTER_LOCATIONS_ON_CATEGORY, category.trim(), lllat, lllng, urlat, urlng, numRows);
-		System.out.println("returning query: " + q );
-		return String.format(GEO_FILTER_LOCATIONS_ON_CATEGORY, category.trim(), lllat, lllng, urlat, urlng, numRows);
+	/**
+	 * @return true if geoClusters can be answered: the clusters are enabled (App.LOCAL_INDEX) and the local index was loaded
+	 */
+	public boolean hasClusters(){
+		return inMemory.isReady() && inMemory.hasClusters();
 	}
 	
-	private String geoFilterLocationsOnCateogoryAndSubcategoryQuery( String category, String subcategory,
-			int numRows, double lllat, double lllng, double urlat, double urlng ){
-		
-		return String.format(GEO_FILTER_LOCATIONS_ON_CATEGORY_AND_SUBCATEGORY, 
-				category.trim(), 
-				subcategory.trim(),
-				lllat, 
-				lllng, 
-				urlat, 
-				urlng,
-				numRows
-		       );
+	/**
+	 * Clusters of the locations in the box (count, centroid and category breakdown per tile), at a resolution
+	 * derived from the size of the box. Only answered from the local index, see hasClusters().
+	 * 
+	 * @param category optional, when given the breakdown is by subcategory
+	 * @param subcategory optional
+	 */
+	public QueryResult<ClusterPyramid.Clusters> geoClusters( String category, String subcategory, 
+			double lllat, double lllng, double urlat, double urlng ){
+		return record(QueryType.CLUSTER, inMemory, () -> inMemory.clusters(category, subcategory, lllat, lllng, urlat, urlng));
 	}
+	
+	
 	/**
+	 * Changes whenever the answers to the query type may have changed, it is part of the ETag of the /api responses.
+	 * The local index answers from a snapshot, the version is that of the snapshot.
 	 * 
-	 * @param category
-	 * @param subcategory
-	 * @param numRows Number of locations to return
-	 * @param lllat	Lower Left Latitude
-	 * @param lllng Lower Left Longitude
-	 * @param urlat Upper Right Latitude
-	 * @param urlng Upper Right Longitude
-	 * @return query string
+	 * @param type null for the queries that are always answered by DSE Search (paged listings)
+	 * @return null if the answers have no version: DSE Search answers from the live table
 	 */
-	public String geoFilterLocationsOnCateogoryAndOrSubcategoryQuery( String category, 
-			String subcategory, int numRows,  double lllat, double lllng, double urlat, double urlng ){
-		
-		// if subcategory is NOT null, return the category AND subcateogry query
-		// else return only the category query.
+	public String dataVersion( QueryType type ){
 		
-		if( Strings.isNullOrEmpty(subcategory) ){
-			return geoFilterLocationsOnCateogoryQuery(category, numRows, lllat, lllng, urlat, urlng);
-		} else {
-			return geoFilterLocationsOnCateogoryAndSubcategoryQuery( category, subcategory, numRows, lllat, lllng, urlat, urlng);
+		LocationRepository repository = type == null ? dseSearch : repository(type);
+		if( repository == inMemory || repository == localShadowedByDse ){
+			return inMemory.name() + ":" + inMemory.version();
 		}
-		
+		return null;
 	}
 	
-	public JsonArray geoFilterLocationsOnCateogoryAndOrSubcategory( String category, 
-			String subcategory, int numRows,  double lllat, double lllng, double urlat, double urlng ){
-		
-		JsonArray results = new JsonArray();
-		String query = geoFilterLocationsOnCateogoryAndOrSubcategoryQuery(category, subcategory, numRows, lllat, lllng, urlat, urlng);
-
-		return getJsonElements(results, query);
+	/**
+	 * @return the hit / miss counts of the result cache, and the counts of the coalesced queries
+	 */
+	public JsonObject getCacheStats(){
+		return dseSearch.getCacheStats();
 	}
-
-
-	private JsonArray getJsonElements(JsonArray results, String query) {
-		System.out.println(query);
-
-		ResultSet resultSet = this.dseSession.execute(query);
-
-		for( Row row: resultSet.all() ){
-
-			JsonObject locObj = locationRowToJsonObject(row);
-			results.add(locObj);
+	
+	/**
+	 * Times the repository call (see ApiMetrics) and logs a sample of the queries (see QueryLog).
+	 */
+	private <T> QueryResult<T> record( QueryType type, LocationRepository repository, Supplier<QueryResult<T>> query ){
+		
+		long start = System.nanoTime();
+		BackendMetrics backend = metrics.backend(type, repository.name());
+		try {
+			QueryResult<T> result = query.get();
+			long elapsed = System.nanoTime() - start;
+			backend.record(elapsed);
+			queryLog.log(type, repository.name(), result, elapsed);
+			return result;
+		} catch (RuntimeException e) {
+			backend.error();
+			throw e;
 		}
-		return results;
 	}
-
-
-	private JsonObject locationRowToJsonObject( Row row ){
-		JsonObject locObj = new JsonObject();
-		
-		locObj.addProperty("id", row.getString("id"));
-		
-		locObj.addProperty("name", row.getString("name"));
-		locObj.addProperty("address", row.getString("address"));
-		locObj.addProperty("city", row.getString("city"));
-		locObj.addProperty("province", row.getString("province"));
-		
-		locObj.addProperty("phone", row.getString("phone"));
-		locObj.addProperty("post_code", row.getString("post_code"));
-		locObj.addProperty("category", row.getString("category"));
-		locObj.addProperty("subcategory", row.getString("subcategory"));
-		locObj.addProperty("website", row.getString("website"));
-		locObj.addProperty("menulink", row.getString("menulink"));
+	
+	private <T> CompletableFuture<QueryResult<T>> recordAsync( QueryType type, LocationRepository repository, 
+			Supplier<CompletableFuture<QueryResult<T>>> query ){
 		
-		Point geo = (Point)row.getObject("geo");
-		JsonObject geoObj = new JsonObject();
-		geoObj.addProperty("lng", geo.X());
-		geoObj.addProperty("lat", geo.Y());
-		locObj.add("geo", geoObj);
-		return locObj;
+		long start = System.nanoTime();
+		BackendMetrics backend = metrics.backend(type, repository.name());
+		CompletableFuture<QueryResult<T>> future;
+		try {
+			future = query.get();
+		} catch (RuntimeException e) {
+			backend.error();
+			throw e;
+		}
+		return future.whenComplete((result, error) -> {
+			if( error != null ){
+				backend.error();
+				return;
+			}
+			long elapsed = System.nanoTime() - start;
+			backend.record(elapsed);
+			queryLog.log(type, repository.name(), result, elapsed);
+		});
 	}
 	
-	private static double kilometersToDegrees( double radiusInKm, double lat ) {
-		double oneDegreeInKilometers = 111.13295 - 0.55982 * Math.cos(2 * lat) + 0.00117 * Math.cos(4 * lat); 
-		return (1 / oneDegreeInKilometers) * radiusInKm;
+	/**
+	 * The local index is only used once it has been loaded, until then DSE Search answers every query (and
+	 * nothing is shadowed).
+	 */
+	private LocationRepository repository( QueryType type ){
+		
+		if( !inMemory.isReady() ){
+			return dseSearch;
+		}
+		
+		boolean local = App.LOCAL_INDEX.contains(type);
+		if( App.SHADOW.contains(type) ){
+			return local ? localShadowedByDse : dseShadowedByLocal;
+		}
+		return local ? inMemory : dseSearch;
 	}
 	
 }
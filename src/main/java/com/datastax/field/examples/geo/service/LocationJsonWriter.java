@@ -0,0 +1,174 @@
+package com.datastax.field.examples.geo.service;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.dse.geometry.Point;
+import com.datastax.field.examples.geo.index.LocationTable;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Writes simplegeo.locations rows as JSON directly to a stream, one row at a time.
+ */
+public class LocationJsonWriter {
+
+	/**
+	 * when this many rows of the current page are left, the next page is requested in the background.
+	 */
+	private static final int PREFETCH_THRESHOLD = 100;
+
+
+	/**
+	 * Writes the rows as a JSON array, page by page. Rows are not collected, so each one is garbage
+	 * as soon as it has been written.
+	 *
+	 * Iterating may block on fetching the next page, so this must not run on a driver I/O thread.
+	 */
+	public static void writeLocations( JsonWriter out, ResultSet resultSet ) throws IOException {
+
+		out.beginArray();
+		for( Row row : resultSet ){
+
+			if( resultSet.getAvailableWithoutFetching() == PREFETCH_THRESHOLD && !resultSet.isFullyFetched() ){
+				resultSet.fetchMoreResults();
+			}
+			writeLocation(out, row);
+		}
+		out.endArray();
+	}
+
+
+	/**
+	 * Writes the rows of the page that has been fetched as a JSON array, the next page is never fetched.
+	 */
+	public static void writePage( JsonWriter out, ResultSet resultSet ) throws IOException {
+
+		out.beginArray();
+		for( int n = resultSet.getAvailableWithoutFetching(); n > 0; n-- ){
+			writeLocation(out, resultSet.one());
+		}
+		out.endArray();
+	}
+
+
+	/**
+	 * @return the row as a JSON object string, see writeLocation
+	 */
+	public static String toJson( Row row ) {
+		StringWriter json = new StringWriter();
+		try {
+			writeLocation(new JsonWriter(json), row);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return json.toString();
+	}
+
+	public static void writeLocation( JsonWriter out, Row row ) throws IOException {
+
+		out.beginObject();
+		out.name("id").value(row.getString("id"));
+
+		out.name("name").value(row.getString("name"));
+		out.name("address").value(row.getString("address"));
+		out.name("city").value(row.getString("city"));
+		out.name("province").value(row.getString("province"));
+
+		out.name("phone").value(row.getString("phone"));
+		out.name("post_code").value(row.getString("post_code"));
+		out.name("category").value(row.getString("category"));
+		out.name("subcategory").value(row.getString("subcategory"));
+		out.name("website").value(row.getString("website"));
+		out.name("menulink").value(row.getString("menulink"));
+
+		Point geo = (Point)row.getObject("geo");
+		out.name("geo").beginObject()
+				.name("lng").value(geo.X())
+				.name("lat").value(geo.Y())
+				.endObject();
+		out.endObject();
+	}
+
+	/**
+	 * the text columns of a Row, in the order writeLocation writes them
+	 */
+	private static final String[] TEXT_COLUMNS = { "id", "name", "address", "city", "province",
+			"phone", "post_code", "category", "subcategory", "website", "menulink" };
+
+	/**
+	 * @return the text columns of the row, to write it later with writeLocation( JsonWriter, String[], ... )
+	 */
+	public static String[] textColumns( Row row ) {
+		String[] values = new String[TEXT_COLUMNS.length];
+		for( int i = 0; i < values.length; i++ ){
+			values[i] = row.getString(TEXT_COLUMNS[i]);
+		}
+		return values;
+	}
+
+	/**
+	 * Writes a row kept by textColumns with the distance_km of a name search, in the same format as the Row.
+	 */
+	public static void writeLocation( JsonWriter out, String[] textColumns, double lat, double lng, double distanceInKm ) throws IOException {
+
+		out.beginObject();
+		for( int i = 0; i < TEXT_COLUMNS.length; i++ ){
+			out.name(TEXT_COLUMNS[i]).value(textColumns[i]);
+		}
+
+		out.name("geo").beginObject()
+				.name("lng").value(lng)
+				.name("lat").value(lat)
+				.endObject();
+		out.name("distance_km").value(round(distanceInKm));
+		out.endObject();
+	}
+
+	/**
+	 * Writes a row of the local index, in the same format as a simplegeo.locations Row.
+	 */
+	public static void writeLocation( JsonWriter out, LocationTable table, int row ) throws IOException {
+		writeLocation(out, table, row, Double.NaN);
+	}
+
+	/**
+	 * Writes a row of the local index with the distance_km of a name search, unless the distance is NaN.
+	 */
+	public static void writeLocation( JsonWriter out, LocationTable table, int row, double distanceInKm ) throws IOException {
+
+		out.beginObject();
+		out.name("id").value(table.id(row));
+
+		out.name("name").value(table.name(row));
+		out.name("address").value(table.address(row));
+		out.name("city").value(table.city(row));
+		out.name("province").value(table.province(row));
+
+		out.name("phone").value(table.phone(row));
+		out.name("post_code").value(table.postCode(row));
+		out.name("category").value(table.category(row));
+		out.name("subcategory").value(table.subcategory(row));
+		out.name("website").value(table.website(row));
+		out.name("menulink").value(table.menulink(row));
+
+		out.name("geo").beginObject()
+				.name("lng").value(table.lng(row))
+				.name("lat").value(table.lat(row))
+				.endObject();
+		if( !Double.isNaN(distanceInKm) ){
+			out.name("distance_km").value(round(distanceInKm));
+		}
+		out.endObject();
+	}
+
+	/**
+	 * distances are written to the meter
+	 */
+	private static double round( double distanceInKm ) {
+		return Math.round(distanceInKm * 1000.0d) / 1000.0d;
+	}
+
+}
@@ -0,0 +1,29 @@
+package com.datastax.field.examples.geo.service;
+
+import com.datastax.field.examples.geo.util.JsonWritable;
+
+/**
+ * One page of a paged location listing: the locations of the page and the cursor of the next one.
+ */
+public class LocationPage {
+
+	private final JsonWritable locations;
+	private final String cursor;
+
+	/**
+	 * @param cursor an opaque token to request the next page with, null if this is the last page
+	 */
+	public LocationPage( JsonWritable locations, String cursor ) {
+		this.locations = locations;
+		this.cursor = cursor;
+	}
+
+	public JsonWritable getLocations() {
+		return locations;
+	}
+
+	public String getCursor() {
+		return cursor;
+	}
+
+}
@@ -0,0 +1,54 @@
+package com.datastax.field.examples.geo.service;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.datastax.field.examples.geo.util.JsonWritable;
+import com.google.gson.JsonArray;
+
+/**
+ * Where the LocationFinderService gets its answers from: DSE Search (DseSearchLocationRepository) or the 
+ * in-memory local index (InMemoryLocationRepository). The engine is chosen per QueryType, see LocationFinderService.
+ *
+ * Every query has a blocking and an async variant. Results are in the JSON format of the /api routes, whatever 
+ * the engine.
+ */
+public interface LocationRepository {
+
+	/**
+	 * @return a short name of the engine, for logging
+	 */
+	String name();
+
+	/**
+	 * @return the distinct names of up to NAME_QUERY_LIMIT locations whose name contains the term, within the radius
+	 */
+	QueryResult<JsonArray> nameSuggest( String name, double lat, double lng, double radiusInKm );
+
+	CompletableFuture<QueryResult<JsonArray>> nameSuggestAsync( String name, double lat, double lng, double radiusInKm );
+
+	/**
+	 * @return up to NAME_QUERY_LIMIT locations whose name contains the term, within the radius
+	 */
+	QueryResult<JsonWritable> nameSearch( String name, double lat, double lng, double radiusInKm );
+
+	CompletableFuture<QueryResult<JsonWritable>> nameSearchAsync( String name, double lat, double lng, double radiusInKm );
+
+	/**
+	 * @param pivot PivotFacetIndex.CATEGORY_PIVOT or PivotFacetIndex.CATEGORY_SUBCATEGORY_PIVOT
+	 * @return the facet pivot JSON of the locations within the bounding box
+	 */
+	QueryResult<String> pivot( String pivot, double lllat, double lllng, double urlat, double urlng );
+
+	CompletableFuture<QueryResult<String>> pivotAsync( String pivot, double lllat, double lllng, double urlat, double urlng );
+
+	/**
+	 * @param subcategory may be null or empty, then only the category is filtered on
+	 * @return up to numRows locations of the category (and subcategory) within the bounding box
+	 */
+	QueryResult<JsonWritable> filterLocations( String category, String subcategory, int numRows, 
+			double lllat, double lllng, double urlat, double urlng );
+
+	CompletableFuture<QueryResult<JsonWritable>> filterLocationsAsync( String category, String subcategory, int numRows, 
+			double lllat, double lllng, double urlat, double urlng );
+
+}
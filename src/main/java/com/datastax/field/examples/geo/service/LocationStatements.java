@@ -0,0 +1,291 @@
+package com.datastax.field.examples.geo.service;
+
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.datastax.driver.core.PagingState;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.PagingStateException;
+import com.datastax.driver.dse.DseSession;
+import com.datastax.field.examples.geo.App;
+import com.datastax.field.examples.geo.util.CQLUtil;
+
+/**
+ * Prepares every query shape used by the LocationFinderService once at startup and binds
+ * the solr_query JSON (and the LIMIT) as parameters, instead of formatting a new CQL string per request.
+ *
+ * The facet (pivot) queries are not prepared: DSE answers them with a single facet column instead of
+ * the columns of the table, and a bound statement would decode that row with the cached (wrong) result metadata.
+ * They are still sent with the solr_query as a bound value, so nothing is inlined into the CQL.
+ */
+@Component
+public class LocationStatements {
+
+	final static Logger logger = LoggerFactory.getLogger(LocationStatements.class);
+
+	public static final int NAME_QUERY_LIMIT = 50;
+
+	static final String NAME_SUGGEST_CQL = "SELECT name, geo FROM simplegeo.locations WHERE solr_query = ? LIMIT ?";
+
+	static final String NAME_SEARCH_CQL = "SELECT id, name, address, city, province, post_code, phone, category, subcategory, geo, website, menulink, tags FROM simplegeo.locations WHERE solr_query = ? LIMIT ?";
+
+	static final String LOCATIONS_CQL = "SELECT * FROM simplegeo.locations WHERE solr_query = ? LIMIT ?";
+
+	/**
+	 * no LIMIT: the page size is the fetch size, the solr_query asks for driver paging (see locationsOnCategoryPagedJson).
+	 */
+	static final String LOCATIONS_PAGE_CQL = "SELECT id, name, address, city, province, phone, post_code, category, subcategory, website, menulink, geo FROM simplegeo.locations WHERE solr_query = ?";
+
+	static final String PIVOT_CQL = "SELECT * FROM simplegeo.locations WHERE solr_query = ?";
+
+	private static final int INITIAL_CAPACITY = 256;
+	private static final int MAX_REUSED_CAPACITY = 4096;
+
+	private static final ThreadLocal<StringBuilder> QUERY_BUILDER = ThreadLocal.withInitial(() -> new StringBuilder(INITIAL_CAPACITY));
+
+
+	@Autowired
+	private DseSession dseSession;
+
+	private PreparedStatement nameSuggest;
+	private PreparedStatement nameSearch;
+	private PreparedStatement locations;
+	private PreparedStatement locationsPage;
+
+
+	@PostConstruct
+	public void prepare() {
+		logger.info("LocationStatements : preparing statements");
+		this.nameSuggest = dseSession.prepare(NAME_SUGGEST_CQL).setIdempotent(true);
+		this.nameSearch = dseSession.prepare(NAME_SEARCH_CQL).setIdempotent(true);
+		this.locations = dseSession.prepare(LOCATIONS_CQL).setIdempotent(true);
+		this.locationsPage = dseSession.prepare(LOCATIONS_PAGE_CQL).setIdempotent(true);
+	}
+
+
+	public Statement nameSuggest( String solrQuery ){
+		return nameSuggest(solrQuery, NAME_QUERY_LIMIT);
+	}
+
+	public Statement nameSuggest( String solrQuery, int limit ){
+		return searchRead(nameSuggest.bind(solrQuery, limit));
+	}
+
+	public Statement nameSearch( String solrQuery ){
+		return nameSearch(solrQuery, NAME_QUERY_LIMIT);
+	}
+
+	public Statement nameSearch( String solrQuery, int limit ){
+		return searchRead(nameSearch.bind(solrQuery, limit));
+	}
+
+	public Statement locations( String solrQuery, int numRows ){
+		return searchRead(locations.bind(solrQuery, numRows));
+	}
+
+	/**
+	 * @param pagingState where the previous page ended, null for the first page
+	 * @throws PagingStateException if the paging state was not created by this statement (and solr_query)
+	 */
+	public Statement locationsPage( String solrQuery, int pageSize, PagingState pagingState ){
+		Statement statement = locationsPage.bind(solrQuery).setFetchSize(pageSize);
+		if( pagingState != null ){
+			statement.setPagingState(pagingState);
+		}
+		return searchRead(statement);
+	}
+
+	public Statement pivot( String solrQuery ){
+		return searchRead(new SimpleStatement(PIVOT_CQL, solrQuery).setIdempotent(true));
+	}
+
+	/**
+	 * Search reads are idempotent (they may be speculatively executed, see DseConfig) and get the
+	 * App.READ_TIMEOUT_MS read timeout, if one is configured.
+	 */
+	private static Statement searchRead( Statement statement ){
+		if( App.READ_TIMEOUT_MS > 0 ){
+			statement.setReadTimeoutMillis(App.READ_TIMEOUT_MS);
+		}
+		return statement;
+	}
+
+
+	/**
+	 * name_lowercase:*name* within a radius (in degrees) of a point.
+	 */
+	public static String nameWithinRadiusJson( String name, double lat, double lng, double radiusInDegrees ){
+
+		StringBuilder sb = queryBuilder().append("{ \"q\":\"*:*\", \"fq\":\"");
+		int fq = sb.length();
+		sb.append("name_lowercase:*");
+		CQLUtil.appendSolrTerm(sb, name.toLowerCase());
+		sb.append("* AND geo:\"IsWithin(BUFFER(POINT(").append(lng).append(' ').append(lat).append("), ").append(radiusInDegrees).append("))\"");
+		escapeJson(sb, fq);
+		return sb.append("\"}").toString();
+	}
+
+	public static String pivotOnCategoryJson( double lllat, double lllng, double urlat, double urlng ){
+		return "{ \"q\":\"*:*\", \"fq\":\"" + bboxFilter(lllat, lllng, urlat, urlng) + "\", \"facet\":{ \"pivot\":\"category\",\"limit\":\"-1\",\"mincount\":1,\"sort\":\"count\"}}";
+	}
+
+	public static String pivotOnCategoryAndSubcategoryJson( double lllat, double lllng, double urlat, double urlng ){
+		return "{ \"q\":\"*:*\", \"fq\":\"" + bboxFilter(lllat, lllng, urlat, urlng) + "\", \"facet\":{ \"pivot\":\"category,subcategory\",\"limit\":\"-1\",\"mincount\":1}}";
+	}
+
+	/**
+	 * @param subcategory optional, only the category is filtered on when null or empty
+	 */
+	public static String locationsOnCategoryJson( String category, String subcategory, double lllat, double lllng, double urlat, double urlng ){
+		return locationsOnCategoryJson(category, subcategory, lllat, lllng, urlat, urlng, "");
+	}
+
+	/**
+	 * Same query as locationsOnCategoryJson, but DSE Search pages it by the driver's fetch size and paging state.
+	 */
+	public static String locationsOnCategoryPagedJson( String category, String subcategory, double lllat, double lllng, double urlat, double urlng ){
+		return locationsOnCategoryJson(category, subcategory, lllat, lllng, urlat, urlng, ", \"paging\":\"driver\"");
+	}
+
+	/**
+	 * The locations of any of the categories, one query for what would be a locationsOnCategoryJson query per category.
+	 */
+	public static String locationsOnCategoriesJson( List<String> categories, double lllat, double lllng, double urlat, double urlng ){
+
+		StringBuilder sb = queryBuilder().append("{\"q\":\"*:*\", \"fq\":\"");
+		int fq = sb.length();
+		sb.append("category:(");
+		for( int i = 0; i < categories.size(); i++ ){
+			if( i > 0 ){
+				sb.append(" OR ");
+			}
+			CQLUtil.appendSolrPhrase(sb.append('"'), categories.get(i)).append('"');
+		}
+		sb.append(") AND ");
+		appendBboxFilter(sb, lllat, lllng, urlat, urlng);
+		escapeJson(sb, fq);
+		return sb.append("\"}").toString();
+	}
+
+	/**
+	 * @param options appended to the solr_query JSON object
+	 */
+	private static String locationsOnCategoryJson( String category, String subcategory, double lllat, double lllng, double urlat, double urlng, String options ){
+
+		StringBuilder sb = queryBuilder().append("{\"q\":\"*:*\", \"fq\":\"");
+		int fq = sb.length();
+		CQLUtil.appendSolrPhrase(sb.append("category:(\""), category).append("\")");
+		if( subcategory != null && !subcategory.isEmpty() ){
+			CQLUtil.appendSolrPhrase(sb.append(" AND subcategory:(\""), subcategory).append("\")");
+		}
+		appendBboxFilter(sb.append(" AND "), lllat, lllng, urlat, urlng);
+		escapeJson(sb, fq);
+		return sb.append('"').append(options).append('}').toString();
+	}
+
+
+	/**
+	 * @param cql the CQL of an executed statement
+	 * @return a short name of the statement, for metrics
+	 */
+	public static String nameOf( String cql ){
+		switch( cql ){
+		case NAME_SUGGEST_CQL:
+			return "name-suggest";
+		case NAME_SEARCH_CQL:
+			return "name-search";
+		case LOCATIONS_CQL:
+			return "locations";
+		case LOCATIONS_PAGE_CQL:
+			return "locations-page";
+		case PIVOT_CQL:
+			return "pivot";
+		default:
+			return "other";
+		}
+	}
+
+
+	/**
+	 * Renders the statement as a plain CQL string (bound values inlined) for display in the UI.
+	 *
+	 * @param cql the CQL with ? placeholders
+	 * @param values the bound values, in order
+	 * @return CQL string
+	 */
+	public static String describe( String cql, Object... values ){
+
+		StringBuilder sb = new StringBuilder(cql.length() + 256);
+		int v = 0;
+		for( int i = 0; i < cql.length(); i++ ){
+			char c = cql.charAt(i);
+			if( c == '?' && v < values.length ){
+				Object value = values[v++];
+				if( value instanceof String ){
+					sb.append('\'').append(((String) value).replace("'", "''")).append('\'');
+				} else {
+					sb.append(value);
+				}
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+
+	private static String bboxFilter( double lllat, double lllng, double urlat, double urlng ){
+		return "geo:[" + lllat + "," + lllng + " TO " + urlat + "," + urlng + "]";
+	}
+
+	private static StringBuilder appendBboxFilter( StringBuilder sb, double lllat, double lllng, double urlat, double urlng ){
+		return sb.append("geo:[").append(lllat).append(',').append(lllng).append(" TO ").append(urlat).append(',').append(urlng).append(']');
+	}
+
+	/**
+	 * The solr_query JSON is built in this builder, so only the final string is allocated per query. Its capacity
+	 * is kept unless a (pasted) term made it grow past MAX_REUSED_CAPACITY.
+	 */
+	private static StringBuilder queryBuilder(){
+		StringBuilder sb = QUERY_BUILDER.get();
+		if( sb.capacity() > MAX_REUSED_CAPACITY ){
+			sb = new StringBuilder(INITIAL_CAPACITY);
+			QUERY_BUILDER.set(sb);
+		}
+		sb.setLength(0);
+		return sb;
+	}
+
+	/**
+	 * Escapes the characters from the index on as a JSON string value, in place.
+	 */
+	private static void escapeJson( StringBuilder sb, int from ){
+
+		for( int i = from; i < sb.length(); i++ ){
+			char c = sb.charAt(i);
+			String escaped;
+			switch( c ){
+				case '"':  escaped = "\\\""; break;
+				case '\\': escaped = "\\\\"; break;
+				case '\n': escaped = "\\n"; break;
+				case '\r': escaped = "\\r"; break;
+				case '\t': escaped = "\\t"; break;
+				default:
+					escaped = c < 0x20 ? String.format("\\u%04x", (int) c) : null;
+			}
+			if( escaped != null ){
+				sb.replace(i, i + 1, escaped);
+				i += escaped.length() - 1;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,54 @@
+package com.datastax.field.examples.geo.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of one executed query: the statement that was sent (as a CQL template and its bound values),
+ * the mapped result and how long the query took.
+ *
+ * The displayable CQL string is only rendered when someone asks for it (see getQuery()).
+ *
+ * @param <T> the mapped result, e.g. a JsonArray of locations or the raw pivot JSON
+ */
+public class QueryResult<T> {
+
+	private final String cql;
+	private final Object[] values;
+	private final T result;
+	private final long elapsedNanos;
+
+	public QueryResult( String cql, Object[] values, T result, long elapsedNanos ) {
+		this.cql = cql;
+		this.values = values;
+		this.result = result;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	public T getResult() {
+		return result;
+	}
+
+	public String getCql() {
+		return cql;
+	}
+
+	public Object[] getValues() {
+		return values;
+	}
+
+	/**
+	 * @return the executed statement as a plain CQL string, with the bound values inlined.
+	 */
+	public String getQuery() {
+		return LocationStatements.describe(cql, values);
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	public double getElapsedMillis() {
+		return elapsedNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+}
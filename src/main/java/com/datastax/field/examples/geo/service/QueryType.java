@@ -0,0 +1,39 @@
+package com.datastax.field.examples.geo.service;
+
+import java.util.EnumSet;
+
+/**
+ * The kinds of query the LocationFinderService answers, used to choose a backend per kind of query.
+ */
+public enum QueryType {
+
+	/** /api/geo-bbox-filter-on-category */
+	FILTER,
+	
+	/** /api/geo-bbox-pivot-on-category and /api/geo-bbox-pivot-on-category-and-subcategory */
+	PIVOT,
+	
+	/** /api/geo-name-suggest */
+	SUGGEST,
+	
+	/** /api/geo-name-search */
+	SEARCH,
+	
+	/** /api/geo-bbox-clusters, only answered from the local index (see ClusterPyramid) */
+	CLUSTER;
+
+	/**
+	 * @param types comma separated list, e.g. "filter,pivot,suggest"
+	 * @return the parsed query types
+	 */
+	public static EnumSet<QueryType> parse( String types ){
+		EnumSet<QueryType> result = EnumSet.noneOf(QueryType.class);
+		for( String type : types.split(",") ){
+			if( !type.trim().isEmpty() ){
+				result.add(QueryType.valueOf(type.trim().toUpperCase()));
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,366 @@
+package com.datastax.field.examples.geo.service;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datastax.field.examples.geo.App;
+import com.datastax.field.examples.geo.util.FutureUtil;
+import com.datastax.field.examples.geo.util.JsonWritable;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Answers every query from the primary engine and runs the same query on the shadow engine in the background,
+ * to compare an engine that is being rolled out against the one in use. The caller only ever sees the primary
+ * result, and never waits for the shadow.
+ *
+ * Results that differ are logged (which locations or pivot counts are missing on either side), every 
+ * SUMMARY_INTERVAL queries a summary of the mismatches and the mean latency of both engines is logged.
+ * Locations are compared by id and names as a set: the ranking of the engines differs, so the order is not 
+ * compared. Streamed primary results are buffered so they can be compared.
+ *
+ * Only a sample of the queries (App.SHADOW_SAMPLE) is shadowed, and at most App.SHADOW_MAX_IN_FLIGHT shadow queries
+ * are in flight: a query over that bound is not shadowed but counted as dropped, so a slow shadow engine never
+ * queues up work.
+ */
+public class ShadowLocationRepository implements LocationRepository {
+
+	final static Logger logger = LoggerFactory.getLogger(ShadowLocationRepository.class);
+	
+	private static final int SUMMARY_INTERVAL = 1000;
+	
+	private static final int MAX_LOGGED_DIFFERENCES = 5;
+	
+	private final LocationRepository primary;
+	private final LocationRepository shadow;
+	private final Executor executor;
+	private final Semaphore permits;
+	
+	private final Map<QueryType, Stats> stats = new EnumMap<>(QueryType.class);
+	
+	
+	/**
+	 * @param permits one for every shadow query that may be in flight
+	 */
+	public ShadowLocationRepository( LocationRepository primary, LocationRepository shadow, Executor executor, Semaphore permits ){
+		this.primary = primary;
+		this.shadow = shadow;
+		this.executor = executor;
+		this.permits = permits;
+		for( QueryType type : QueryType.values() ){
+			stats.put(type, new Stats());
+		}
+	}
+	
+	@Override
+	public String name(){
+		return primary.name() + " (shadow: " + shadow.name() + ")";
+	}
+	
+	
+	@Override
+	public QueryResult<JsonArray> nameSuggest( String name, double lat, double lng, double radiusInKm ){
+		return suggestShadowed(primary.nameSuggest(name, lat, lng, radiusInKm), name, lat, lng, radiusInKm);
+	}
+	
+	@Override
+	public CompletableFuture<QueryResult<JsonArray>> nameSuggestAsync( String name, double lat, double lng, double radiusInKm ){
+		return primary.nameSuggestAsync(name, lat, lng, radiusInKm).thenApply(result -> suggestShadowed(result, name, lat, lng, radiusInKm));
+	}
+	
+	private QueryResult<JsonArray> suggestShadowed( QueryResult<JsonArray> result, String name, double lat, double lng, double radiusInKm ){
+		if( !startShadow(QueryType.SUGGEST) ){
+			return result;
+		}
+		compareLater(QueryType.SUGGEST, LocationStatements.NAME_QUERY_LIMIT, result, result.getResult().toString(), 
+				() -> shadow.nameSuggestAsync(name, lat, lng, radiusInKm), JsonArray::toString);
+		return result;
+	}
+	
+	@Override
+	public QueryResult<JsonWritable> nameSearch( String name, double lat, double lng, double radiusInKm ){
+		return bufferAndCompare(QueryType.SEARCH, LocationStatements.NAME_QUERY_LIMIT, primary.nameSearch(name, lat, lng, radiusInKm), 
+				() -> shadow.nameSearchAsync(name, lat, lng, radiusInKm));
+	}
+	
+	@Override
+	public CompletableFuture<QueryResult<JsonWritable>> nameSearchAsync( String name, double lat, double lng, double radiusInKm ){
+		return primary.nameSearchAsync(name, lat, lng, radiusInKm).thenApply(result -> bufferAndCompare(QueryType.SEARCH, 
+				LocationStatements.NAME_QUERY_LIMIT, result, () -> shadow.nameSearchAsync(name, lat, lng, radiusInKm)));
+	}
+	
+	@Override
+	public QueryResult<String> pivot( String pivot, double lllat, double lllng, double urlat, double urlng ){
+		return pivotShadowed(primary.pivot(pivot, lllat, lllng, urlat, urlng), pivot, lllat, lllng, urlat, urlng);
+	}
+	
+	@Override
+	public CompletableFuture<QueryResult<String>> pivotAsync( String pivot, double lllat, double lllng, double urlat, double urlng ){
+		return primary.pivotAsync(pivot, lllat, lllng, urlat, urlng).thenApply(result -> pivotShadowed(result, pivot, lllat, lllng, urlat, urlng));
+	}
+	
+	private QueryResult<String> pivotShadowed( QueryResult<String> result, String pivot, double lllat, double lllng, double urlat, double urlng ){
+		if( !startShadow(QueryType.PIVOT) ){
+			return result;
+		}
+		compareLater(QueryType.PIVOT, 0, result, result.getResult(), 
+				() -> shadow.pivotAsync(pivot, lllat, lllng, urlat, urlng), Function.identity());
+		return result;
+	}
+	
+	@Override
+	public QueryResult<JsonWritable> filterLocations( String category, String subcategory, int numRows, 
+			double lllat, double lllng, double urlat, double urlng ){
+		return bufferAndCompare(QueryType.FILTER, numRows, primary.filterLocations(category, subcategory, numRows, lllat, lllng, urlat, urlng), 
+				() -> shadow.filterLocationsAsync(category, subcategory, numRows, lllat, lllng, urlat, urlng));
+	}
+	
+	@Override
+	public CompletableFuture<QueryResult<JsonWritable>> filterLocationsAsync( String category, String subcategory, int numRows, 
+			double lllat, double lllng, double urlat, double urlng ){
+		return primary.filterLocationsAsync(category, subcategory, numRows, lllat, lllng, urlat, urlng).thenApply(result -> bufferAndCompare(QueryType.FILTER, 
+				numRows, result, () -> shadow.filterLocationsAsync(category, subcategory, numRows, lllat, lllng, urlat, urlng)));
+	}
+	
+	
+	/**
+	 * A streamed result can only be written once, so it is written to a string first: that string is
+	 * compared and returned to the caller. A result that is not shadowed is not buffered.
+	 */
+	private QueryResult<JsonWritable> bufferAndCompare( QueryType type, int limit, QueryResult<JsonWritable> result, 
+			Supplier<CompletableFuture<QueryResult<JsonWritable>>> shadowQuery ){
+		
+		if( !startShadow(type) ){
+			return result;
+		}
+		String json = render(result.getResult());
+		compareLater(type, limit, result, json, shadowQuery, ShadowLocationRepository::render);
+		return new QueryResult<>(result.getCql(), result.getValues(), out -> out.jsonValue(json), result.getElapsedNanos());
+	}
+	
+	/**
+	 * @return true if the query is sampled and a shadow permit was taken, compareLater then releases it
+	 */
+	private boolean startShadow( QueryType type ){
+		
+		if( App.SHADOW_SAMPLE <= 0.0d || ThreadLocalRandom.current().nextDouble() >= App.SHADOW_SAMPLE ){
+			return false;
+		}
+		if( !permits.tryAcquire() ){
+			long dropped = stats.get(type).dropped.incrementAndGet();
+			if( dropped == 1 || dropped % SUMMARY_INTERVAL == 0 ){
+				logger.warn("shadow " + type + ": " + dropped + " queries dropped, " + App.SHADOW_MAX_IN_FLIGHT + " shadow queries in flight");
+			}
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Runs the shadow query, which holds a permit (see startShadow) until it completes, and compares its result.
+	 */
+	private <T> void compareLater( QueryType type, int limit, QueryResult<T> primaryResult, String primaryJson, 
+			Supplier<CompletableFuture<QueryResult<T>>> shadowQuery, Function<T, String> toJson ){
+		
+		try {
+			executor.execute(() -> {
+				CompletableFuture<QueryResult<T>> shadowResult;
+				try {
+					shadowResult = shadowQuery.get();
+				} catch (RuntimeException e) {
+					shadowResult = new CompletableFuture<>();
+					shadowResult.completeExceptionally(e);
+				}
+				shadowResult.whenComplete((result, error) -> permits.release());
+				shadowResult.whenCompleteAsync((result, error) -> {
+					if( error != null ){
+						logger.warn("shadow " + type + " on " + shadow.name() + " failed for " + primaryResult.getQuery() + ": " + FutureUtil.unwrap(error));
+						return;
+					}
+					String difference = difference(primaryJson, toJson.apply(result.getResult()), limit);
+					if( difference != null ){
+						logger.info("shadow " + type + " differs, " + primary.name() + " (" + format(primaryResult.getElapsedNanos()) + " ms) vs " 
+								+ shadow.name() + " (" + format(result.getElapsedNanos()) + " ms): " + difference + ", for " + primaryResult.getQuery());
+					}
+					record(type, difference != null, primaryResult.getElapsedNanos(), result.getElapsedNanos());
+				}, executor);
+			});
+		} catch (RejectedExecutionException e) {
+			permits.release();
+			stats.get(type).dropped.incrementAndGet();
+		}
+	}
+	
+	private void record( QueryType type, boolean differs, long primaryNanos, long shadowNanos ){
+		
+		Stats s = stats.get(type);
+		s.primaryNanos.addAndGet(primaryNanos);
+		s.shadowNanos.addAndGet(shadowNanos);
+		if( differs ){
+			s.differences.incrementAndGet();
+		}
+		long compared = s.compared.incrementAndGet();
+		if( compared % SUMMARY_INTERVAL == 0 ){
+			logger.info("shadow " + type + ": " + compared + " compared, " + s.differences.get() + " differ, " + s.dropped.get() + " dropped, mean latency " 
+					+ primary.name() + " " + format(s.primaryNanos.get() / compared) + " ms, " 
+					+ shadow.name() + " " + format(s.shadowNanos.get() / compared) + " ms");
+		}
+	}
+	
+	
+	/**
+	 * @param limit the row limit of the query, 0 if it has none
+	 * @return a description of how the shadow result differs from the primary one, null if they match
+	 */
+	static String difference( String primaryJson, String shadowJson, int limit ){
+		
+		JsonElement primary = new JsonParser().parse(primaryJson);
+		JsonElement shadow = new JsonParser().parse(shadowJson);
+		
+		if( primary.isJsonArray() && shadow.isJsonArray() ){
+			return arrayDifference(primary.getAsJsonArray(), shadow.getAsJsonArray(), limit);
+		}
+		if( primary.isJsonObject() && shadow.isJsonObject() ){
+			return pivotDifference(primary.getAsJsonObject(), shadow.getAsJsonObject());
+		}
+		return primary.equals(shadow) ? null : "expected " + primaryJson + " got " + shadowJson;
+	}
+	
+	/**
+	 * locations are matched on their id, anything else (names) on its value.
+	 */
+	private static String arrayDifference( JsonArray primary, JsonArray shadow, int limit ){
+		
+		Set<String> primaryKeys = keys(primary);
+		Set<String> shadowKeys = keys(shadow);
+		if( primaryKeys.equals(shadowKeys) ){
+			return null;
+		}
+		
+		List<String> missing = new ArrayList<>();
+		for( String key : primaryKeys ){
+			if( !shadowKeys.contains(key) ){
+				missing.add(key);
+			}
+		}
+		List<String> extra = new ArrayList<>();
+		for( String key : shadowKeys ){
+			if( !primaryKeys.contains(key) ){
+				extra.add(key);
+			}
+		}
+		
+		String difference = primary.size() + " vs " + shadow.size() + " results, " + missing.size() + " missing " + head(missing) 
+				+ ", " + extra.size() + " extra " + head(extra);
+		if( limit > 0 && primary.size() >= limit && shadow.size() >= limit ){
+			difference += " (both hit the limit of " + limit + ", the engines rank differently)";
+		}
+		return difference;
+	}
+	
+	private static String pivotDifference( JsonObject primary, JsonObject shadow ){
+		
+		Map<String, Long> primaryCounts = new TreeMap<>();
+		Map<String, Long> shadowCounts = new TreeMap<>();
+		for( Map.Entry<String, JsonElement> pivot : primary.entrySet() ){
+			flatten(pivot.getValue().getAsJsonArray(), "", primaryCounts);
+		}
+		for( Map.Entry<String, JsonElement> pivot : shadow.entrySet() ){
+			flatten(pivot.getValue().getAsJsonArray(), "", shadowCounts);
+		}
+		if( primaryCounts.equals(shadowCounts) && primary.keySet().equals(shadow.keySet()) ){
+			return null;
+		}
+		
+		Set<String> values = new TreeSet<>(primaryCounts.keySet());
+		values.addAll(shadowCounts.keySet());
+		List<String> differences = new ArrayList<>();
+		for( String value : values ){
+			if( !Objects.equals(primaryCounts.get(value), shadowCounts.get(value)) ){
+				differences.add(value + " " + primaryCounts.get(value) + " vs " + shadowCounts.get(value));
+			}
+		}
+		return "pivot " + primary.keySet() + " vs " + shadow.keySet() + ", " + differences.size() + " of " + values.size() 
+				+ " counts differ " + head(differences);
+	}
+	
+	/**
+	 * the count of every pivot value, keyed by its path (e.g. "Food & Dining/Pizza")
+	 */
+	private static void flatten( JsonArray pivots, String prefix, Map<String, Long> counts ){
+		for( JsonElement element : pivots ){
+			JsonObject pivot = element.getAsJsonObject();
+			String path = prefix + (pivot.get("value").isJsonNull() ? "null" : pivot.get("value").getAsString());
+			counts.put(path, pivot.get("count").getAsLong());
+			if( pivot.has("pivot") ){
+				flatten(pivot.getAsJsonArray("pivot"), path + "/", counts);
+			}
+		}
+	}
+	
+	private static Set<String> keys( JsonArray results ){
+		Set<String> keys = new HashSet<>();
+		for( JsonElement result : results ){
+			if( result.isJsonObject() && result.getAsJsonObject().has("id") ){
+				keys.add(result.getAsJsonObject().get("id").getAsString());
+			} else {
+				keys.add(result.isJsonPrimitive() ? result.getAsString() : result.toString());
+			}
+		}
+		return keys;
+	}
+	
+	private static String head( List<String> values ){
+		return values.size() <= MAX_LOGGED_DIFFERENCES ? values.toString() 
+				: values.subList(0, MAX_LOGGED_DIFFERENCES).toString().replace("]", ", ...]");
+	}
+	
+	private static String render( JsonWritable writable ){
+		StringWriter json = new StringWriter();
+		try {
+			writable.writeTo(new JsonWriter(json));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return json.toString();
+	}
+	
+	private static String format( long nanos ){
+		return String.format("%.2f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+	}
+	
+	
+	private static class Stats {
+		final AtomicLong compared = new AtomicLong();
+		final AtomicLong differences = new AtomicLong();
+		final AtomicLong dropped = new AtomicLong();
+		final AtomicLong primaryNanos = new AtomicLong();
+		final AtomicLong shadowNanos = new AtomicLong();
+	}
+
+}
@@ -0,0 +1,153 @@
+package com.datastax.field.examples.geo.tile;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.io.CharStreams;
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A JsonWriter that adds the locations written to it as point features of a VectorTileEncoder, instead of writing JSON.
+ *
+ * It expects the JSON array of location objects written by LocationJsonWriter (or cached as JSON strings), so every
+ * engine's location results can be encoded as a tile without a second result format. The string fields of a location
+ * become the properties of its feature, its geo object the point.
+ */
+public class LocationFeatureWriter extends JsonWriter {
+
+	/**
+	 * what a map needs to draw and label a location, the other fields are only added on request.
+	 */
+	public static final Set<String> DEFAULT_PROPERTIES = new HashSet<>(Arrays.asList("id", "name", "category", "subcategory"));
+
+	private static final Gson GSON = new Gson();
+
+	private static final int LOCATION_DEPTH = 2;
+	private static final int GEO_DEPTH = 3;
+
+	private final VectorTileEncoder encoder;
+	private final Set<String> properties;
+
+	private final Map<String, String> location = new LinkedHashMap<>();
+	private int depth;
+	private String name;
+	private double lat = Double.NaN;
+	private double lng = Double.NaN;
+
+
+	/**
+	 * @param properties the fields written as feature properties, null for every field
+	 */
+	public LocationFeatureWriter( VectorTileEncoder encoder, Set<String> properties ) {
+		super(CharStreams.nullWriter());
+		this.encoder = encoder;
+		this.properties = properties;
+	}
+
+
+	@Override
+	public JsonWriter beginArray() throws IOException {
+		depth++;
+		return this;
+	}
+
+	@Override
+	public JsonWriter endArray() throws IOException {
+		depth--;
+		return this;
+	}
+
+	@Override
+	public JsonWriter beginObject() throws IOException {
+		depth++;
+		return this;
+	}
+
+	@Override
+	public JsonWriter endObject() throws IOException {
+		if( depth == LOCATION_DEPTH ){
+			if( !Double.isNaN(lat) && !Double.isNaN(lng) ){
+				encoder.addPoint(lat, lng, location);
+			}
+			location.clear();
+			lat = lng = Double.NaN;
+		}
+		depth--;
+		return this;
+	}
+
+	@Override
+	public JsonWriter name( String name ) throws IOException {
+		this.name = name;
+		return this;
+	}
+
+	@Override
+	public JsonWriter value( String value ) throws IOException {
+		if( depth == LOCATION_DEPTH && (properties == null || properties.contains(name)) ){
+			location.put(name, value);
+		}
+		return this;
+	}
+
+	@Override
+	public JsonWriter value( double value ) throws IOException {
+		if( depth == GEO_DEPTH ){
+			if( "lat".equals(name) ){
+				lat = value;
+			} else if( "lng".equals(name) ){
+				lng = value;
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public JsonWriter value( Number value ) throws IOException {
+		return value == null ? this : value(value.doubleValue());
+	}
+
+	@Override
+	public JsonWriter value( long value ) throws IOException {
+		return value((double) value);
+	}
+
+	@Override
+	public JsonWriter value( boolean value ) throws IOException {
+		return this;
+	}
+
+	@Override
+	public JsonWriter value( Boolean value ) throws IOException {
+		return this;
+	}
+
+	@Override
+	public JsonWriter nullValue() throws IOException {
+		return this;
+	}
+
+	/**
+	 * A cached location (a JSON object string) is replayed into this writer.
+	 */
+	@Override
+	public JsonWriter jsonValue( String value ) throws IOException {
+		GSON.toJson(new JsonParser().parse(value), this);
+		return this;
+	}
+
+	@Override
+	public void flush() throws IOException {
+	}
+
+	@Override
+	public void close() throws IOException {
+	}
+
+}
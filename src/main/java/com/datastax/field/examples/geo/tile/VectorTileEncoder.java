@@ -0,0 +1,170 @@
+package com.datastax.field.examples.geo.tile;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Encodes points as a Mapbox Vector Tile (version 2.1) with a single layer.
+ *
+ * The tile is a small protobuf message, it is written field by field here rather than pulling in a protobuf
+ * runtime. Property keys and values are kept once per tile in the layer's key and value tables, a feature only
+ * refers to them by index, and its point is a MoveTo command with the (zigzag encoded) position in the tile.
+ *
+ * Positions are projected in Web Mercator relative to the box the tile covers, which is usually a z/x/y tile (see
+ * WebMercator.tileBounds) but can be any box. Boxes with lllng > urlng cross the antimeridian.
+ */
+public class VectorTileEncoder {
+
+	public static final String CONTENT_TYPE = "application/vnd.mapbox-vector-tile";
+
+	public static final int EXTENT = 4096;
+
+	private static final int VERSION = 2;
+
+	private static final int GEOM_TYPE_POINT = 1;
+	private static final int MOVE_TO_ONE = 1 | (1 << 3);
+
+	// wire types
+	private static final int VARINT = 0;
+	private static final int LENGTH_DELIMITED = 2;
+
+	private final String layer;
+
+	private final double left;
+	private final double top;
+	private final double width;
+	private final double height;
+
+	private final Map<String, Integer> keys = new LinkedHashMap<>();
+	private final Map<String, Integer> values = new LinkedHashMap<>();
+	private final ByteArrayOutputStream features = new ByteArrayOutputStream();
+
+	// reused per feature
+	private final ByteArrayOutputStream tags = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream geometry = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream feature = new ByteArrayOutputStream();
+
+	private int featureCount;
+
+
+	public VectorTileEncoder( String layer, double lllat, double lllng, double urlat, double urlng ) {
+		this.layer = layer;
+		this.left = WebMercator.x(lllng);
+		this.top = WebMercator.y(urlat);
+		this.width = lllng <= urlng ? WebMercator.x(urlng) - left : WebMercator.x(urlng) + 1.0d - left;
+		this.height = WebMercator.y(lllat) - top;
+	}
+
+
+	/**
+	 * @param properties null values are left out
+	 */
+	public void addPoint( double lat, double lng, Map<String, String> properties ){
+
+		double x = WebMercator.x(lng);
+		if( x < left ){
+			x += 1.0d; // east of the antimeridian
+		}
+		int tileX = (int) Math.round((x - left) / width * EXTENT);
+		int tileY = (int) Math.round((WebMercator.y(lat) - top) / height * EXTENT);
+
+		tags.reset();
+		for( Map.Entry<String, String> property : properties.entrySet() ){
+			if( property.getValue() != null ){
+				varint(tags, index(keys, property.getKey()));
+				varint(tags, index(values, property.getValue()));
+			}
+		}
+
+		geometry.reset();
+		varint(geometry, MOVE_TO_ONE);
+		varint(geometry, zigzag(tileX));
+		varint(geometry, zigzag(tileY));
+
+		feature.reset();
+		bytes(feature, 2, tags);
+		field(feature, 3, GEOM_TYPE_POINT);
+		bytes(feature, 4, geometry);
+
+		bytes(features, 2, feature);
+		featureCount++;
+	}
+
+	public int size(){
+		return featureCount;
+	}
+
+	/**
+	 * @return the encoded tile, an empty tile has no layer (and no bytes)
+	 */
+	public byte[] encode(){
+
+		ByteArrayOutputStream tile = new ByteArrayOutputStream();
+		if( featureCount == 0 ){
+			return tile.toByteArray();
+		}
+
+		ByteArrayOutputStream layer = new ByteArrayOutputStream();
+		field(layer, 15, VERSION);
+		string(layer, 1, this.layer);
+		layer.write(features.toByteArray(), 0, features.size());
+		for( String key : keys.keySet() ){
+			string(layer, 3, key);
+		}
+		for( String value : values.keySet() ){
+			ByteArrayOutputStream stringValue = new ByteArrayOutputStream();
+			string(stringValue, 1, value);
+			bytes(layer, 4, stringValue);
+		}
+		field(layer, 5, EXTENT);
+
+		bytes(tile, 3, layer);
+		return tile.toByteArray();
+	}
+
+
+	private static int index( Map<String, Integer> table, String entry ){
+		Integer index = table.get(entry);
+		if( index == null ){
+			index = table.size();
+			table.put(entry, index);
+		}
+		return index;
+	}
+
+	private static int zigzag( int value ){
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static void field( ByteArrayOutputStream out, int field, int value ){
+		varint(out, field << 3 | VARINT);
+		varint(out, value);
+	}
+
+	private static void string( ByteArrayOutputStream out, int field, String value ){
+		byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+		varint(out, field << 3 | LENGTH_DELIMITED);
+		varint(out, utf8.length);
+		out.write(utf8, 0, utf8.length);
+	}
+
+	private static void bytes( ByteArrayOutputStream out, int field, ByteArrayOutputStream message ){
+		varint(out, field << 3 | LENGTH_DELIMITED);
+		varint(out, message.size());
+		out.write(message.toByteArray(), 0, message.size());
+	}
+
+	/**
+	 * unsigned LEB128, as protobuf encodes uint32
+	 */
+	private static void varint( ByteArrayOutputStream out, int value ){
+		while( (value & ~0x7f) != 0 ){
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+}
@@ -0,0 +1,41 @@
+package com.datastax.field.examples.geo.tile;
+
+/**
+ * Web Mercator (EPSG:3857) tile math, the z/x/y tile scheme of web maps: at zoom z the world is 2^z x 2^z tiles,
+ * x grows eastward from -180 and y grows southward from the north edge (85.0511 degrees).
+ */
+public class WebMercator {
+
+	public static final double MAX_LAT = 85.0511287798066d;
+
+	public static final int MAX_ZOOM = 22;
+
+
+	/**
+	 * @return { lllat, lllng, urlat, urlng } of the tile
+	 */
+	public static double[] tileBounds( int z, int x, int y ){
+		double tiles = 1L << z;
+		return new double[]{ lat((y + 1) / tiles), x / tiles * 360.0d - 180.0d, lat(y / tiles), (x + 1) / tiles * 360.0d - 180.0d };
+	}
+
+	/**
+	 * @return the longitude as a fraction of the world width, 0 at -180 and 1 at 180
+	 */
+	public static double x( double lng ){
+		return (lng + 180.0d) / 360.0d;
+	}
+
+	/**
+	 * @return the latitude as a fraction of the world height, 0 at the north edge and 1 at the south edge
+	 */
+	public static double y( double lat ){
+		double sin = Math.sin(Math.toRadians(Math.max(-MAX_LAT, Math.min(MAX_LAT, lat))));
+		return 0.5d - Math.log((1.0d + sin) / (1.0d - sin)) / (4.0d * Math.PI);
+	}
+
+	private static double lat( double y ){
+		return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1.0d - 2.0d * y))));
+	}
+
+}
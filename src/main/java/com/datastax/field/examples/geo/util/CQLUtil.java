@@ -7,6 +7,15 @@ public class CQLUtil {
 	
 	private static final List<String> VALID_SORT_FIELDS = Arrays.asList("population","date");
 	private static final List<String> VALID_SORT_DIRECTIONS = Arrays.asList("desc","asc");
+	private static final String SOLR_SPECIAL_CHARS = " \\+-!():^[]{}~*?|&/";
+	
+	/**
+	 * what appendCleansed writes, see the cleanse methods.
+	 */
+	private static final int CQL = 0;
+	private static final int CQL_QUERY = 1;
+	private static final int TERM = 2;
+	private static final int SOLR_TERM = 3;
 	
 	
 	
@@ -15,15 +24,14 @@ public class CQLUtil {
 	 * Then it escapes single quotes ' -> '' as described: 
 	 * http://docs.datastax.com/en/cql/3.3/cql/cql_reference/escape_char_r.html
 	 * 
+	 * The removed characters become spaces, runs of whitespace are collapsed down to one space and the result
+	 * is trimmed. This is done in a single pass over the input, see appendCleansed.
+	 * 
 	 * @param input String
 	 * @return cleansed String
 	 */
 	public static String cleanseInput( String input ){
-		return input
-				.replaceAll("[;><\"]", " ")  // replace non-allowed characters, then
-				.replaceAll("'", "''")       // escape single quotes
-				.replaceAll("\\s+", " ")     // collapse all of the additional spaces down to one space.
-				.trim();  
+		return appendCleansed(new StringBuilder(input.length() + 8), input, CQL).toString();
 	}
 	
 	
@@ -35,8 +43,7 @@ public class CQLUtil {
 	 * @return cleansed String
 	 */
 	public static String cleanseQueryStrField( String input ){
-		return cleanseInput(input)
-				.replace(" ", "\\\\ ");
+		return cleanseQueryStr(input);
 	}
 	
 	/**
@@ -46,7 +53,146 @@ public class CQLUtil {
 	 * @return cleansed String
 	 */
 	public static String cleanseQueryStr( String input ){
-		return cleanseInput(input).replace(" ", "\\\\ ");
+		return appendCleansed(new StringBuilder(input.length() + 16), input, CQL_QUERY).toString();
+	}
+
+	/**
+	 * Removes the same ( ;, ", <, > ) characters as cleanseInput and collapses whitespace, single quotes are left alone.
+	 * This is the literal text a cleanseSolrTerm term matches.
+	 *
+	 * @param input String
+	 * @return cleansed String
+	 */
+	public static String cleanseTerm( String input ){
+		return appendCleansed(new StringBuilder(input.length()), input, TERM).toString();
+	}
+
+	/**
+	 * Cleanses a term that is bound (not inlined) into a solr_query, so single quotes are left alone.
+	 * Cleanses the term as cleanseTerm does and then backslash escapes the Solr query syntax characters
+	 * (including spaces) so the term is matched literally.
+	 *
+	 * @param input String
+	 * @return escaped Solr term
+	 */
+	public static String cleanseSolrTerm( String input ){
+		return appendSolrTerm(new StringBuilder(input.length() + 8), input).toString();
+	}
+
+	/**
+	 * Appends the cleanseSolrTerm of the input, so a query can be built in one (reused) StringBuilder.
+	 *
+	 * @return sb
+	 */
+	public static StringBuilder appendSolrTerm( StringBuilder sb, String input ){
+		return appendCleansed(sb, input, SOLR_TERM);
+	}
+
+	/**
+	 * Escapes a value used inside a quoted Solr phrase, e.g. category:("value")
+	 *
+	 * @param input String
+	 * @return escaped phrase value
+	 */
+	public static String escapeSolrPhrase( String input ){
+		return appendSolrPhrase(new StringBuilder(input.length() + 8), input).toString();
+	}
+
+	/**
+	 * Appends the escapeSolrPhrase of the input.
+	 *
+	 * @return sb
+	 */
+	public static StringBuilder appendSolrPhrase( StringBuilder sb, String input ){
+		
+		int start = 0;
+		int end = input.length();
+		while( start < end && input.charAt(start) <= ' ' ){
+			start++;
+		}
+		while( end > start && input.charAt(end - 1) <= ' ' ){
+			end--;
+		}
+		
+		for( int i = start; i < end; i++ ){
+			char c = input.charAt(i);
+			if( c == '\\' || c == '"' ){
+				sb.append('\\');
+			}
+			sb.append(c);
+		}
+		return sb;
+	}
+	
+	
+	/**
+	 * The cleansing of all the cleanse methods in one pass: ( ;, ", <, > ) become spaces, runs of whitespace 
+	 * (\s, i.e. [ \t\n\x0B\f\r]) one space, and leading and trailing characters up to ' ' are trimmed
+	 * (as String.trim does). Then, depending on the mode, single quotes are doubled (CQL, CQL_QUERY), spaces are 
+	 * written as "\\\\ " (CQL_QUERY) or the Solr syntax characters are backslash escaped (SOLR_TERM).
+	 */
+	private static StringBuilder appendCleansed( StringBuilder sb, String input, int mode ){
+		
+		int start = 0;
+		int end = input.length();
+		while( start < end && cleansed(input.charAt(start)) <= ' ' ){
+			start++;
+		}
+		while( end > start && cleansed(input.charAt(end - 1)) <= ' ' ){
+			end--;
+		}
+		
+		boolean whitespace = false;
+		for( int i = start; i < end; i++ ){
+			
+			char c = cleansed(input.charAt(i));
+			if( isWhitespace(c) ){
+				if( whitespace ){
+					continue;
+				}
+				whitespace = true;
+				c = ' ';
+			} else {
+				whitespace = false;
+			}
+			
+			switch( mode ){
+				case CQL:
+					if( c == '\'' ){
+						sb.append('\'');
+					}
+					break;
+				case CQL_QUERY:
+					if( c == '\'' ){
+						sb.append('\'');
+					} else if( c == ' ' ){
+						sb.append("\\\\");
+					}
+					break;
+				case SOLR_TERM:
+					if( SOLR_SPECIAL_CHARS.indexOf(c) >= 0 ){
+						sb.append('\\');
+					}
+					break;
+				default:
+			}
+			sb.append(c);
+		}
+		return sb;
+	}
+	
+	/**
+	 * @return a space for the characters that are removed
+	 */
+	private static char cleansed( char c ){
+		return c == ';' || c == '>' || c == '<' || c == '"' ? ' ' : c;
+	}
+	
+	/**
+	 * the regex \s
+	 */
+	private static boolean isWhitespace( char c ){
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
 	}
 
 	/**
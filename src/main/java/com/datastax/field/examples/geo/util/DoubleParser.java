@@ -0,0 +1,112 @@
+package com.datastax.field.examples.geo.util;
+
+/**
+ * Parses a request parameter as a double without throwing: an invalid number is NaN.
+ *
+ * The syntax is the decimal syntax of Double.parseDouble (surrounding whitespace, a sign, digits with an optional
+ * point, an exponent and a d or f suffix), NaN, Infinity and hexadecimal numbers are not accepted. A number with
+ * at most 15 significant digits and a small power of ten, which is what coordinates and radiuses are, is computed
+ * with a single multiplication or division of two exact doubles, so it is the correctly rounded double that
+ * Double.parseDouble returns. Other valid numbers are passed on to Double.parseDouble.
+ */
+public class DoubleParser {
+
+	private static final int MAX_EXACT_DIGITS = 15;
+
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+
+	/**
+	 * @param value may be null
+	 * @return the double, or NaN if the value is null or not a number
+	 */
+	public static double parse( String value ){
+
+		if( value == null ){
+			return Double.NaN;
+		}
+
+		int i = 0;
+		int end = value.length();
+		while( i < end && value.charAt(i) <= ' ' ){
+			i++;
+		}
+		while( end > i && value.charAt(end - 1) <= ' ' ){
+			end--;
+		}
+
+		boolean negative = false;
+		if( i < end && (value.charAt(i) == '-' || value.charAt(i) == '+') ){
+			negative = value.charAt(i) == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int significantDigits = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean point = false;
+		for( ; i < end; i++ ){
+			char c = value.charAt(i);
+			if( c >= '0' && c <= '9' ){
+				digits++;
+				if( point ){
+					scale++;
+				}
+				if( mantissa != 0 || c != '0' ){
+					significantDigits++;
+					if( significantDigits <= MAX_EXACT_DIGITS ){
+						mantissa = mantissa * 10 + (c - '0');
+					}
+				}
+			} else if( c == '.' && !point ){
+				point = true;
+			} else {
+				break;
+			}
+		}
+		if( digits == 0 ){
+			return Double.NaN;
+		}
+
+		int exponent = 0;
+		if( i < end && (value.charAt(i) == 'e' || value.charAt(i) == 'E') ){
+			i++;
+			boolean negativeExponent = false;
+			if( i < end && (value.charAt(i) == '-' || value.charAt(i) == '+') ){
+				negativeExponent = value.charAt(i) == '-';
+				i++;
+			}
+			int exponentDigits = 0;
+			for( ; i < end && value.charAt(i) >= '0' && value.charAt(i) <= '9'; i++ ){
+				exponentDigits++;
+				// large enough to be out of the exact range, small enough not to overflow
+				exponent = Math.min(exponent * 10 + (value.charAt(i) - '0'), 100000);
+			}
+			if( exponentDigits == 0 ){
+				return Double.NaN;
+			}
+			exponent = negativeExponent ? -exponent : exponent;
+		}
+
+		if( i < end && "dDfF".indexOf(value.charAt(i)) >= 0 ){
+			i++;
+		}
+		if( i != end ){
+			return Double.NaN;
+		}
+
+		int powerOfTen = exponent - scale;
+		if( significantDigits > MAX_EXACT_DIGITS || powerOfTen < -22 || powerOfTen > 22 ){
+			// valid, but not exact in a single operation
+			return mantissa == 0 && significantDigits == 0 ? (negative ? -0.0d : 0.0d) : Double.parseDouble(value);
+		}
+
+		double result = powerOfTen < 0 ? mantissa / POWERS_OF_TEN[-powerOfTen] : mantissa * POWERS_OF_TEN[powerOfTen];
+		return negative ? -result : result;
+	}
+
+}
@@ -0,0 +1,70 @@
+package com.datastax.field.examples.geo.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class FutureUtil {
+
+	/**
+	 * Adapts the driver's (Guava) ListenableFuture to a CompletableFuture.
+	 *
+	 * The returned future is completed on the driver's I/O thread, so callers must not block in
+	 * dependent stages unless they hop to another executor first (e.g. thenApplyAsync).
+	 *
+	 * @param future ListenableFuture
+	 * @return CompletableFuture
+	 */
+	public static <T> CompletableFuture<T> toCompletableFuture( ListenableFuture<T> future ){
+
+		CompletableFuture<T> result = new CompletableFuture<>();
+
+		Futures.addCallback(future, new FutureCallback<T>() {
+			@Override
+			public void onSuccess(T value) {
+				result.complete(value);
+			}
+			@Override
+			public void onFailure(Throwable t) {
+				result.completeExceptionally(t);
+			}
+		}, MoreExecutors.directExecutor());
+
+		return result;
+	}
+
+	/**
+	 * Waits for the future, like join() but rethrowing the underlying exception instead of a CompletionException.
+	 */
+	public static <T> T join( CompletableFuture<T> future ){
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			Throwable cause = unwrap(e);
+			if( cause instanceof RuntimeException ){
+				throw (RuntimeException) cause;
+			}
+			if( cause instanceof Error ){
+				throw (Error) cause;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * @param t a Throwable thrown or returned by a CompletableFuture stage
+	 * @return the underlying cause
+	 */
+	public static Throwable unwrap( Throwable t ){
+		while( (t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null ){
+			t = t.getCause();
+		}
+		return t;
+	}
+
+}
@@ -0,0 +1,94 @@
+package com.datastax.field.examples.geo.util;
+
+/**
+ * The points within a radius of a center, at the distance of GeoUtil.distanceInDegrees.
+ *
+ * The trigonometry of the center and of the radius is computed once, so the test of a point (contains) compares
+ * haversines, it takes no inverse trigonometry. The bounding box is the pre-filter, contains the exact post-filter.
+ */
+public final class GeoCircle {
+
+	private final double lat;
+	private final double lng;
+	private final double radiusInDegrees;
+
+	private final double cosLat;
+	private final double maxHaversine;
+
+
+	public GeoCircle( double lat, double lng, double radiusInDegrees ) {
+		this.lat = lat;
+		this.lng = lng;
+		this.radiusInDegrees = radiusInDegrees;
+		this.cosLat = Math.cos(Math.toRadians(lat));
+		double sin = Math.sin(Math.toRadians(Math.min(radiusInDegrees, 180.0d)) / 2);
+		this.maxHaversine = sin * sin;
+	}
+
+	/**
+	 * @param radiusInKm see GeoUtil.kilometersToDegrees
+	 */
+	public static GeoCircle ofKilometers( double lat, double lng, double radiusInKm ) {
+		return new GeoCircle(lat, lng, GeoUtil.kilometersToDegrees(radiusInKm, lat));
+	}
+
+	/**
+	 * @return true if the point is within the radius (edge included)
+	 */
+	public boolean contains( double pointLat, double pointLng ) {
+		return haversine(pointLat, pointLng) <= maxHaversine;
+	}
+
+	/**
+	 * @return the haversine of the radius, a point is within it if its haversine is not larger
+	 */
+	public double maxHaversine() {
+		return maxHaversine;
+	}
+
+	/**
+	 * @return the haversine of the distance to the point, to rank points by distance (see GeoUtil.haversine)
+	 */
+	public double haversine( double pointLat, double pointLng ) {
+		return GeoUtil.haversine(pointLat - lat, pointLng - lng, cosLat, Math.cos(Math.toRadians(pointLat)));
+	}
+
+	/**
+	 * @return the distance to the point in degrees
+	 */
+	public double distanceInDegrees( double pointLat, double pointLng ) {
+		return GeoUtil.haversineToDegrees(haversine(pointLat, pointLng));
+	}
+
+	/**
+	 * @return the distance to the point in kilometers, at the scale of ofKilometers (the degrees at the center's latitude)
+	 */
+	public double distanceInKm( double pointLat, double pointLng ) {
+		return distanceInDegrees(pointLat, pointLng) * GeoUtil.kilometersPerDegree(lat);
+	}
+
+	/**
+	 * see GeoUtil.boundingBox
+	 */
+	public double[] boundingBox() {
+		return GeoUtil.boundingBox(lat, lng, radiusInDegrees);
+	}
+
+	public double lat() {
+		return lat;
+	}
+
+	public double lng() {
+		return lng;
+	}
+
+	public double radiusInDegrees() {
+		return radiusInDegrees;
+	}
+
+	@Override
+	public String toString() {
+		return "CIRCLE(" + lng + " " + lat + ", " + radiusInDegrees + ")";
+	}
+
+}
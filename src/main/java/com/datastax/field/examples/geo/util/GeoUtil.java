@@ -0,0 +1,82 @@
+package com.datastax.field.examples.geo.util;
+
+public class GeoUtil {
+
+	/**
+	 * the kilometers in a degree of latitude at every whole degree of latitude, from the equator (110.574) to the
+	 * pole (111.694), see kilometersPerDegree.
+	 */
+	private static final double[] KILOMETERS_PER_DEGREE = new double[91];
+	static {
+		for( int lat = 0; lat <= 90; lat++ ){
+			double radians = Math.toRadians(lat);
+			KILOMETERS_PER_DEGREE[lat] = 111.13295 - 0.55982 * Math.cos(2 * radians) + 0.00117 * Math.cos(4 * radians);
+		}
+	}
+
+	/**
+	 * The great circle distance between two points, as an angle (haversine formula).
+	 *
+	 * This is the distance DSE Search uses for geo:"IsWithin(BUFFER(POINT(lng lat), d))" on a geo=true field.
+	 *
+	 * @return the distance in degrees
+	 */
+	public static double distanceInDegrees( double lat1, double lng1, double lat2, double lng2 ){
+		return haversineToDegrees(haversine(lat2 - lat1, lng2 - lng1, Math.cos(Math.toRadians(lat1)), Math.cos(Math.toRadians(lat2))));
+	}
+
+	/**
+	 * @return the radius as degrees of latitude at the given latitude
+	 */
+	public static double kilometersToDegrees( double radiusInKm, double lat ) {
+		return radiusInKm / kilometersPerDegree(lat);
+	}
+
+	/**
+	 * The length of a degree of latitude on the WGS84 ellipsoid, interpolated between the whole degrees of the
+	 * table (off by less than a millionth).
+	 */
+	public static double kilometersPerDegree( double lat ) {
+		double abs = Math.min(Math.abs(lat), 90.0d);
+		int degree = Math.min((int) abs, 89);
+		return KILOMETERS_PER_DEGREE[degree] + (abs - degree) * (KILOMETERS_PER_DEGREE[degree + 1] - KILOMETERS_PER_DEGREE[degree]);
+	}
+
+	/**
+	 * The smallest box that contains the circle, as { lllat, lllng, urlat, urlng }.
+	 *
+	 * A box that crosses the antimeridian has lllng > urlng (see SpatialGridIndex.search), the box of a circle
+	 * that reaches a pole spans every longitude.
+	 */
+	public static double[] boundingBox( double lat, double lng, double radiusInDegrees ){
+
+		double lllat = lat - radiusInDegrees;
+		double urlat = lat + radiusInDegrees;
+
+		if( lllat <= -90.0d || urlat >= 90.0d ){
+			return new double[]{ Math.max(-90.0d, lllat), -180.0d, Math.min(90.0d, urlat), 180.0d };
+		}
+
+		// the circle is widest where a meridian is tangent to it, north of the center in the northern hemisphere,
+		// so this is wider than radiusInDegrees / cos(lat)
+		double dLng = Math.toDegrees(Math.asin(Math.sin(Math.toRadians(radiusInDegrees)) / Math.cos(Math.toRadians(lat))));
+		double lllng = lng - dLng;
+		double urlng = lng + dLng;
+
+		return new double[]{ lllat, lllng < -180.0d ? lllng + 360.0d : lllng, urlat, urlng > 180.0d ? urlng - 360.0d : urlng };
+	}
+
+	/**
+	 * @return the haversine of the angle between two points, it grows with the distance (see haversineToDegrees)
+	 */
+	static double haversine( double dLat, double dLng, double cosLat1, double cosLat2 ){
+		double sinLat = Math.sin(Math.toRadians(dLat) / 2);
+		double sinLng = Math.sin(Math.toRadians(dLng) / 2);
+		return sinLat * sinLat + cosLat1 * cosLat2 * sinLng * sinLng;
+	}
+
+	static double haversineToDegrees( double haversine ){
+		return Math.toDegrees(2 * Math.atan2(Math.sqrt(haversine), Math.sqrt(1 - haversine)));
+	}
+
+}
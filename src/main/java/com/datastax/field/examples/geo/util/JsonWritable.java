@@ -0,0 +1,16 @@
+package com.datastax.field.examples.geo.util;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A response (or part of one) that writes itself straight to a JsonWriter, so it can be streamed
+ * to the client without building a JsonElement tree first.
+ */
+@FunctionalInterface
+public interface JsonWritable {
+
+	void writeTo( JsonWriter out ) throws IOException;
+
+}
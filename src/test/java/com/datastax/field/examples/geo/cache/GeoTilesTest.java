@@ -0,0 +1,63 @@
+package com.datastax.field.examples.geo.cache;
+
+import java.util.Arrays;
+
+import com.datastax.field.examples.geo.util.GeoUtil;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class GeoTilesTest extends TestCase {
+
+	/**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public GeoTilesTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( GeoTilesTest.class );
+    }
+
+    /**
+     * Nearly the same view snaps to the same box, and the snapped box contains the view.
+     */
+    public void testSnapOutward()
+    {
+    	double[] a = GeoTiles.snapOutward(44.9712, -93.2811, 45.0133, -93.2101);
+    	double[] b = GeoTiles.snapOutward(44.9714, -93.2809, 45.0135, -93.2099);
+
+    	assertTrue( Arrays.equals(a, b) );
+    	assertTrue( a[0] <= 44.9712 && a[1] <= -93.2811 && a[2] >= 45.0133 && a[3] >= -93.2101 );
+
+    	// grown by less than a tile on every side, a tile is at most a quarter of the view
+    	double tile = GeoTiles.tileSize(GeoTiles.zoomFor(-93.2101 + 93.2811));
+    	assertTrue( tile <= (-93.2101 + 93.2811) / GeoTiles.TILES_PER_SPAN );
+    	assertTrue( a[2] - a[0] < (45.0133 - 44.9712) + 2 * tile );
+    	assertTrue( a[3] - a[1] < (-93.2101 + 93.2811) + 2 * tile );
+    }
+
+    /**
+     * The snapped point is close enough that the fetched circle (radius + tile) holds the requested circle.
+     */
+    public void testSnapPoint()
+    {
+    	double radius = 5.0 / 110.0;
+    	double[] point = GeoTiles.snapPoint(44.9712, -93.2811, radius);
+
+    	assertTrue( Arrays.equals(point, GeoTiles.snapPoint(44.9713, -93.2810, radius)) );
+    	assertTrue( point[2] <= radius / 2 );
+    	assertTrue( GeoUtil.distanceInDegrees(44.9712, -93.2811, point[0], point[1]) < point[2] );
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.datastax.field.examples.geo.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class QueryCoalescerTest extends TestCase {
+
+	private ExecutorService executor;
+
+	/**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public QueryCoalescerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( QueryCoalescerTest.class );
+    }
+
+    @Override
+    protected void setUp()
+    {
+    	executor = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+    	executor.shutdownNow();
+    }
+
+    /**
+     * Identical queries in flight at the same time are sent once, a different key or a later query is sent again.
+     */
+    public void testSharesQueryInFlight() throws Exception
+    {
+    	QueryCoalescer coalescer = new QueryCoalescer(10000, executor);
+    	AtomicInteger sent = new AtomicInteger();
+    	CompletableFuture<String> dse = new CompletableFuture<>();
+
+    	List<CompletableFuture<String>> results = new ArrayList<>();
+    	for( int i = 0; i < 5; i++ ){
+    		results.add(coalescer.get(() -> { sent.incrementAndGet(); return dse; }, "pivot", "q1"));
+    	}
+    	CompletableFuture<String> other = coalescer.get(() -> { sent.incrementAndGet(); return CompletableFuture.completedFuture("other"); }, "pivot", "q2");
+
+    	assertEquals( 2, sent.get() );
+    	assertEquals( "other", other.get(1, TimeUnit.SECONDS) );
+
+    	dse.complete("counts");
+    	for( CompletableFuture<String> result : results ){
+    		assertEquals( "counts", result.get(1, TimeUnit.SECONDS) );
+    	}
+
+    	assertEquals( "again", coalescer.get(() -> { sent.incrementAndGet(); return CompletableFuture.completedFuture("again"); }, "pivot", "q1").get(1, TimeUnit.SECONDS) );
+    	assertEquals( 3, sent.get() );
+    	assertEquals( 4, coalescer.stats().get("coalesced").getAsInt() );
+    }
+
+    /**
+     * The waiting queries retry a failed query once, together.
+     */
+    public void testRetriesOnFailure() throws Exception
+    {
+    	QueryCoalescer coalescer = new QueryCoalescer(10000, executor);
+    	AtomicInteger sent = new AtomicInteger();
+    	CompletableFuture<String> failing = new CompletableFuture<>();
+    	CompletableFuture<String> retried = new CompletableFuture<>();
+
+    	CompletableFuture<String> first = coalescer.get(() -> { sent.incrementAndGet(); return failing; }, "q");
+    	List<CompletableFuture<String>> waiting = new ArrayList<>();
+    	for( int i = 0; i < 3; i++ ){
+    		waiting.add(coalescer.get(() -> { sent.incrementAndGet(); return retried; }, "q"));
+    	}
+
+    	failing.completeExceptionally(new IllegalStateException("read timeout"));
+    	try {
+    		first.get(1, TimeUnit.SECONDS);
+    		fail();
+    	} catch (java.util.concurrent.ExecutionException e) {
+    		assertEquals( "read timeout", e.getCause().getMessage() );
+    	}
+
+    	// the retries are sent from the executor, one of them is sent and the other two wait for it
+    	for( int i = 0; i < 100 && coalescer.stats().get("coalesced").getAsInt() < 5; i++ ){
+    		Thread.sleep(10);
+    	}
+    	assertEquals( 2, sent.get() );
+    	retried.complete("counts");
+    	for( CompletableFuture<String> result : waiting ){
+    		assertEquals( "counts", result.get(1, TimeUnit.SECONDS) );
+    	}
+    	assertEquals( 2, sent.get() );
+    }
+
+    /**
+     * A query does not wait longer than the wait for an identical one, it is sent on its own.
+     */
+    public void testBoundedWait() throws Exception
+    {
+    	QueryCoalescer coalescer = new QueryCoalescer(50, executor);
+    	CompletableFuture<String> slow = coalescer.get(() -> new CompletableFuture<String>(), "q");
+    	CompletableFuture<String> waiting = coalescer.get(() -> CompletableFuture.completedFuture("own"), "q");
+
+    	assertEquals( "own", waiting.get(1, TimeUnit.SECONDS) );
+    	assertFalse( slow.isDone() );
+    	assertEquals( 1, coalescer.stats().get("timeouts").getAsInt() );
+    }
+
+    /**
+     * Blocking queries wait on their own thread, the query runs on the thread that sent it first.
+     */
+    public void testJoin() throws Exception
+    {
+    	QueryCoalescer coalescer = new QueryCoalescer(10000, executor);
+    	AtomicInteger sent = new AtomicInteger();
+    	CountDownLatch running = new CountDownLatch(1);
+    	CountDownLatch release = new CountDownLatch(1);
+
+    	Future<String> first = executor.submit(() -> coalescer.join(() -> {
+    		sent.incrementAndGet();
+    		running.countDown();
+    		try {
+    			release.await();
+    		} catch (InterruptedException e) {
+    			throw new IllegalStateException(e);
+    		}
+    		return "names";
+    	}, "q"));
+    	assertTrue( running.await(1, TimeUnit.SECONDS) );
+
+    	List<Future<String>> waiting = new ArrayList<>();
+    	for( int i = 0; i < 4; i++ ){
+    		waiting.add(executor.submit(() -> coalescer.join(() -> { sent.incrementAndGet(); return "own"; }, "q")));
+    	}
+    	for( int i = 0; i < 100 && coalescer.stats().get("coalesced").getAsInt() < 4; i++ ){
+    		Thread.sleep(10);
+    	}
+    	release.countDown();
+
+    	assertEquals( "names", first.get(1, TimeUnit.SECONDS) );
+    	for( Future<String> result : waiting ){
+    		assertEquals( "names", result.get(1, TimeUnit.SECONDS) );
+    	}
+    	assertEquals( 1, sent.get() );
+    }
+
+}
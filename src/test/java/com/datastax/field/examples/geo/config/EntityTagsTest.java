@@ -0,0 +1,82 @@
+package com.datastax.field.examples.geo.config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class EntityTagsTest extends TestCase {
+
+	private static final String PATH = "/api/geo-bbox-filter-on-category";
+
+	/**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public EntityTagsTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( EntityTagsTest.class );
+    }
+
+    /**
+     * The same query gets the same tag, whatever the order of its parameters and the formatting of its coordinates.
+     */
+    public void testNormalizedQuery()
+    {
+    	EntityTags tags = new EntityTags();
+    	String etag = tags.of("local-index:1", PATH, params("category", "Food", "lllat", "45.10", "lllng", "-93"), null, true);
+
+    	assertTrue( etag.startsWith("\"") && etag.endsWith("\"") );
+    	assertEquals( etag, tags.of("local-index:1", PATH, params("lllng", "-93.0", "lllat", " 45.1", "category", "Food"), null, true) );
+
+    	assertFalse( etag.equals(tags.of("local-index:1", PATH, params("category", "Food ", "lllat", "45.1", "lllng", "-93"), null, true)) );
+    	assertFalse( etag.equals(tags.of("local-index:1", PATH, params("category", "Food", "lllat", "45.1", "lllng", "-93", "num_results", "10"), null, true)) );
+    	assertFalse( etag.equals(tags.of("local-index:2", PATH, params("category", "Food", "lllat", "45.1", "lllng", "-93"), null, true)) );
+    	assertFalse( etag.equals(tags.of("local-index:1", PATH, params("category", "Food", "lllat", "45.1", "lllng", "-93"), null, false)) );
+    	assertFalse( etag.equals(tags.of("local-index:1", PATH, params("category", "Food", "lllat", "45.1", "lllng", "-93"), "application/json", true)) );
+    	assertFalse( etag.equals(tags.of("local-index:1", "/api/tiles/1/0/0", params("category", "Food", "lllat", "45.1", "lllng", "-93"), null, true)) );
+    }
+
+    /**
+     * A tag only depends on the request and the data version, not on what other requests did.
+     */
+    public void testStable()
+    {
+    	String etag = new EntityTags().of("local-index:1", PATH, params("category", "Food"), null, false);
+    	assertEquals( etag, new EntityTags().of("local-index:1", PATH, params("category", "Food"), null, false) );
+    }
+
+    public void testIfNoneMatch()
+    {
+    	String etag = "\"0123abcd\"";
+    	assertTrue( EntityTags.matches("\"0123abcd\"", etag) );
+    	assertTrue( EntityTags.matches("\"ffff\", W/\"0123abcd\"", etag) );
+    	assertTrue( EntityTags.matches("*", etag) );
+
+    	assertFalse( EntityTags.matches(null, etag) );
+    	assertFalse( EntityTags.matches("\"ffff\"", etag) );
+    	assertFalse( EntityTags.matches("0123abcd", etag) );
+    }
+
+    private static Map<String, String[]> params( String... namesAndValues )
+    {
+    	Map<String, String[]> params = new LinkedHashMap<>();
+    	for( int i = 0; i < namesAndValues.length; i += 2 ){
+    		params.put(namesAndValues[i], new String[]{ namesAndValues[i + 1] });
+    	}
+    	return params;
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.datastax.field.examples.geo.config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class ResponseCompressionTest extends TestCase {
+
+	/**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ResponseCompressionTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ResponseCompressionTest.class );
+    }
+
+    public void testAcceptEncoding()
+    {
+    	assertTrue( ResponseCompression.acceptsGzip("gzip, deflate, br") );
+    	assertTrue( ResponseCompression.acceptsGzip("br;q=1.0, GZIP;q=0.5") );
+    	assertTrue( ResponseCompression.acceptsGzip("x-gzip") );
+    	assertTrue( ResponseCompression.acceptsGzip("*") );
+
+    	assertFalse( ResponseCompression.acceptsGzip(null) );
+    	assertFalse( ResponseCompression.acceptsGzip("") );
+    	assertFalse( ResponseCompression.acceptsGzip("deflate, br") );
+    	assertFalse( ResponseCompression.acceptsGzip("gzip;q=0, *") );
+    	assertFalse( ResponseCompression.acceptsGzip("*;q=0") );
+    	assertFalse( ResponseCompression.acceptsGzip("gzip;q=zero") );
+    }
+
+    /**
+     * A body shorter than minBytes is written as is, a longer one is gzipped, whatever the sizes of the writes.
+     */
+    public void testThreshold() throws IOException
+    {
+    	String small = Strings.repeat("{\"id\":1}", 10);
+    	String large = Strings.repeat("{\"id\":1}", 1000);
+
+    	ByteArrayOutputStream out = new ByteArrayOutputStream();
+    	AtomicBoolean gzipped = new AtomicBoolean();
+    	write(out, 100, gzipped, small);
+    	assertFalse( gzipped.get() );
+    	assertEquals( small, new String(out.toByteArray(), StandardCharsets.UTF_8) );
+
+    	out = new ByteArrayOutputStream();
+    	write(out, 100, gzipped, large);
+    	assertTrue( gzipped.get() );
+    	assertTrue( out.size() < large.length() / 10 );
+    	byte[] body = ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())));
+    	assertEquals( large, new String(body, StandardCharsets.UTF_8) );
+    }
+
+    /**
+     * Without a Content-Encoding to set, nothing is buffered.
+     */
+    public void testIdentity() throws IOException
+    {
+    	ByteArrayOutputStream out = new ByteArrayOutputStream();
+    	ResponseCompression.BodyOutputStream body = new ResponseCompression.BodyOutputStream(out, Integer.MAX_VALUE, null);
+    	body.write('{');
+    	assertEquals( 1, out.size() );
+    	body.write('}');
+    	body.finish();
+    	assertEquals( "{}", new String(out.toByteArray(), StandardCharsets.UTF_8) );
+    }
+
+    private static void write( ByteArrayOutputStream out, int minBytes, AtomicBoolean gzipped, String json ) throws IOException
+    {
+    	gzipped.set(false);
+    	ResponseCompression.BodyOutputStream body = new ResponseCompression.BodyOutputStream(out, minBytes, () -> gzipped.set(true));
+    	byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+    	for( int i = 0; i < bytes.length; i += 7 ){
+    		body.write(bytes, i, Math.min(7, bytes.length - i));
+    		body.flush();
+    	}
+    	body.finish();
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.datastax.field.examples.geo.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class BatchControllerTest extends TestCase {
+
+	/**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public BatchControllerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( BatchControllerTest.class );
+    }
+
+    /**
+     * At most concurrency queries of a batch run at a time, the next one starts when one completes.
+     */
+    public void testRunAllBoundsConcurrency()
+    {
+    	List<CompletableFuture<Void>> started = new ArrayList<>();
+    	List<Supplier<CompletableFuture<Void>>> work = new ArrayList<>();
+    	for( int i = 0; i < 5; i++ ){
+    		work.add(() -> {
+    			CompletableFuture<Void> query = new CompletableFuture<>();
+    			started.add(query);
+    			return query;
+    		});
+    	}
+
+    	CompletableFuture<Void> done = BatchController.runAll(work, 2);
+    	assertEquals( 2, started.size() );
+
+    	started.get(1).complete(null);
+    	assertEquals( 3, started.size() );
+
+    	started.get(0).complete(null);
+    	started.get(2).complete(null);
+    	assertEquals( 5, started.size() );
+    	assertFalse( done.isDone() );
+
+    	started.get(4).complete(null);
+    	started.get(3).complete(null);
+    	assertTrue( done.isDone() );
+    }
+
+    /**
+     * Work that completes right away does not hold up the rest.
+     */
+    public void testRunAllCompleted()
+    {
+    	List<Supplier<CompletableFuture<Void>>> work = new ArrayList<>();
+    	for( int i = 0; i < 100; i++ ){
+    		work.add(() -> CompletableFuture.completedFuture(null));
+    	}
+
+    	assertTrue( BatchController.runAll(work, 4).isDone() );
+    	assertTrue( BatchController.runAll(new ArrayList<>(), 4).isDone() );
+    }
+
+}
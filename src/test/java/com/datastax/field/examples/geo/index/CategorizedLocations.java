@@ -0,0 +1,36 @@
+package com.datastax.field.examples.geo.index;
+
+import java.util.Random;
+
+/**
+ * Locations that only have a point and a category / subcategory, for the tests of the indexes that count them.
+ */
+final class CategorizedLocations {
+
+	static final String[] CATEGORIES = { "Food", "Services", "Retail", "Health" };
+	static final String[] SUBCATEGORIES = { "Pizza", "Bakery", "", null };
+
+	private CategorizedLocations()
+	{
+	}
+
+	/**
+	 * @return size locations within 44,-94 and 46,-92, one in ten without a category
+	 */
+	static LocationTable randomTable( Random random, int size )
+	{
+		LocationTable.Builder builder = new LocationTable.Builder();
+		for( int i = 0; i < size; i++ ){
+			add(builder, 44.0 + random.nextDouble() * 2.0, -94.0 + random.nextDouble() * 2.0,
+					random.nextInt(10) == 0 ? null : CATEGORIES[random.nextInt(CATEGORIES.length)],
+					SUBCATEGORIES[random.nextInt(SUBCATEGORIES.length)]);
+		}
+		return builder.build();
+	}
+
+	static void add( LocationTable.Builder builder, double lat, double lng, String category, String subcategory )
+	{
+		builder.add("id", "name", null, null, null, null, null, null, category, subcategory, null, null, lat, lng);
+	}
+
+}
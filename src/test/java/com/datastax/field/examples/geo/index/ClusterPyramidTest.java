@@ -0,0 +1,115 @@
+package com.datastax.field.examples.geo.index;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class ClusterPyramidTest extends TestCase {
+
+	/**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ClusterPyramidTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ClusterPyramidTest.class );
+    }
+
+    /**
+     * Precomputed (large boxes) and point based (small boxes) clusters must count every location of the
+     * tiles that overlap the box, as a full scan does.
+     */
+    public void testCountsMatchScan()
+    {
+    	Random random = new Random(11);
+    	LocationTable table = CategorizedLocations.randomTable(random, 20000);
+    	ClusterPyramid pyramid = new ClusterPyramid(new SpatialGridIndex(table));
+
+    	for( int q = 0; q < 60; q++ ){
+    		double size = q % 2 == 0 ? random.nextDouble() * 2.0 : random.nextDouble() * 0.02;
+    		double lllat = 44.0 + random.nextDouble() * 2.0;
+    		double lllng = -94.0 + random.nextDouble() * 2.0;
+    		double urlat = lllat + size;
+    		double urlng = lllng + size;
+    		String category = q % 3 == 0 ? CategorizedLocations.CATEGORIES[random.nextInt(CategorizedLocations.CATEGORIES.length)] : null;
+
+    		int zoom = ClusterPyramid.zoomFor(lllat, lllng, urlat, urlng);
+    		long columns = 1L << zoom;
+    		long ll = ClusterPyramid.tile(zoom, lllat, lllng);
+    		long ur = ClusterPyramid.tile(zoom, urlat, urlng);
+
+    		TreeMap<Long, Integer> expected = new TreeMap<>();
+    		for( int row = 0; row < table.size(); row++ ){
+    			long tile = ClusterPyramid.tile(zoom, table.lat(row), table.lng(row));
+    			boolean overlaps = tile / columns >= ll / columns && tile / columns <= ur / columns
+    					&& tile % columns >= ll % columns && tile % columns <= ur % columns;
+    			if( overlaps && (category == null || category.equals(table.category(row))) ){
+    				expected.merge(tile, 1, Integer::sum);
+    			}
+    		}
+
+    		ClusterPyramid.Clusters clusters = pyramid.clusters(lllat, lllng, urlat, urlng, category, null);
+    		assertEquals( expected.size(), clusters.list().size() );
+    		int i = 0;
+    		for( int count : expected.values() ){
+    			assertEquals( count, clusters.list().get(i++).count() );
+    		}
+    	}
+    }
+
+    /**
+     * The centroid is the mean of the locations, the breakdown is by category (or by subcategory within a category).
+     */
+    public void testClusterJson() throws IOException
+    {
+    	LocationTable.Builder builder = new LocationTable.Builder();
+    	CategorizedLocations.add(builder, 45.1, -93.1, "Food", "Pizza");
+    	CategorizedLocations.add(builder, 45.3, -93.3, "Food", "Bakery");
+    	CategorizedLocations.add(builder, 45.2, -93.2, "Food", "Pizza");
+    	CategorizedLocations.add(builder, 45.4, -93.4, "Retail", null);
+    	CategorizedLocations.add(builder, 45.0, -93.0, null, null);
+    	ClusterPyramid pyramid = new ClusterPyramid(new SpatialGridIndex(builder.build()));
+
+    	JsonArray all = json(pyramid.clusters(-90.0, -180.0, 90.0, 180.0, null, null));
+    	assertEquals( 1, all.size() );
+    	JsonObject cluster = all.get(0).getAsJsonObject();
+    	assertEquals( 5, cluster.get("count").getAsInt() );
+    	assertEquals( 45.2, cluster.get("lat").getAsDouble(), 1e-9 );
+    	assertEquals( -93.2, cluster.get("lng").getAsDouble(), 1e-9 );
+    	assertEquals( "{\"Food\":3,\"Retail\":1}", cluster.get("categories").toString() );
+
+    	JsonObject food = json(pyramid.clusters(-90.0, -180.0, 90.0, 180.0, " Food ", null)).get(0).getAsJsonObject();
+    	assertEquals( 3, food.get("count").getAsInt() );
+    	assertEquals( "{\"Pizza\":2,\"Bakery\":1}", food.get("subcategories").toString() );
+
+    	assertEquals( 0, json(pyramid.clusters(-90.0, -180.0, 90.0, 180.0, "Health", null)).size() );
+    }
+
+    private static JsonArray json( ClusterPyramid.Clusters clusters ) throws IOException
+    {
+    	StringWriter json = new StringWriter();
+    	clusters.writeTo(new JsonWriter(json));
+    	return new JsonParser().parse(json.toString()).getAsJsonArray();
+    }
+
+}
@@ -0,0 +1,195 @@
+package com.datastax.field.examples.geo.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import com.datastax.field.examples.geo.util.GeoUtil;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class NameSuggestIndexTest extends TestCase {
+
+	private static final String[] WORDS = { "joe's", "pizza", "bar", "grill", "caf\u00e9", "subway", "tea", "house", "a" };
+
+	/**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public NameSuggestIndexTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( NameSuggestIndexTest.class );
+    }
+
+    /**
+     * Whether the trigrams or the grid are used, the rows found must be those of a full scan.
+     */
+    public void testSearchMatchesScan()
+    {
+    	Random random = new Random(3);
+    	LocationTable.Builder builder = new LocationTable.Builder();
+    	for( int i = 0; i < 20000; i++ ){
+    		String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+    		add(builder, name, 44.0 + random.nextDouble() * 2.0, -94.0 + random.nextDouble() * 2.0);
+    	}
+    	LocationTable table = builder.build();
+    	NameSuggestIndex index = new NameSuggestIndex(new SpatialGridIndex(table));
+
+    	for( String term : new String[]{ "", "a", "pi", "pizza", "s ba", "joe's pizza", "caf\u00e9", "xyz" } ){
+    		for( double radius : new double[]{ 0.01, 0.1, 1.0 } ){
+    			int[] expected = scan(table, term, 45.0, -93.0, radius);
+    			int[] rows = index.search(term, 45.0, -93.0, radius, Integer.MAX_VALUE, false);
+    			Arrays.sort(rows);
+    			assertTrue( term + " " + radius, Arrays.equals(expected, rows) );
+    		}
+    	}
+    }
+
+    /**
+     * The name search keeps the nearest matches of a full scan, nearest first.
+     */
+    public void testNearest()
+    {
+    	Random random = new Random(4);
+    	LocationTable.Builder builder = new LocationTable.Builder();
+    	for( int i = 0; i < 20000; i++ ){
+    		String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+    		add(builder, name, 44.0 + random.nextDouble() * 2.0, -94.0 + random.nextDouble() * 2.0);
+    	}
+    	LocationTable table = builder.build();
+    	NameSuggestIndex index = new NameSuggestIndex(new SpatialGridIndex(table));
+
+    	for( String term : new String[]{ "", "pizza", "caf\u00e9", "xyz" } ){
+    		for( double radius : new double[]{ 0.01, 0.1, 1.0 } ){
+    			double[] expected = IntStream.of(scan(table, term, 45.0, -93.0, radius))
+    					.mapToDouble(row -> GeoUtil.distanceInDegrees(45.0, -93.0, table.lat(row), table.lng(row)))
+    					.sorted().limit(50).toArray();
+    			double[] distances = IntStream.of(index.nearest(term, 45.0, -93.0, radius, 50))
+    					.mapToDouble(row -> GeoUtil.distanceInDegrees(45.0, -93.0, table.lat(row), table.lng(row)))
+    					.toArray();
+    			assertTrue( term + " " + radius, Arrays.equals(expected, distances) );
+    		}
+    	}
+    }
+
+    /**
+     * A circle around a pole or across the antimeridian finds the rows of a full scan too.
+     */
+    public void testSearchAroundPoleAndAntimeridian()
+    {
+    	Random random = new Random(5);
+    	LocationTable.Builder builder = new LocationTable.Builder();
+    	for( int i = 0; i < 20000; i++ ){
+    		String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+    		if( i % 2 == 0 ){
+    			add(builder, name, 85.0 + random.nextDouble() * 5.0, -180.0 + random.nextDouble() * 360.0);
+    		} else {
+    			add(builder, name, -10.0 + random.nextDouble() * 20.0, random.nextBoolean() ? 178.0 + random.nextDouble() * 2.0 : -180.0 + random.nextDouble() * 2.0);
+    		}
+    	}
+    	LocationTable table = builder.build();
+    	NameSuggestIndex index = new NameSuggestIndex(new SpatialGridIndex(table));
+
+    	double[][] circles = { {89.0, 0.0, 2.0}, {87.0, 100.0, 1.5}, {80.0, -170.0, 6.0}, {0.0, 179.9, 0.5}, {5.0, -179.5, 1.0} };
+    	for( String term : new String[]{ "", "pizza" } ){
+    		for( double[] circle : circles ){
+    			int[] expected = scan(table, term, circle[0], circle[1], circle[2]);
+    			int[] rows = index.search(term, circle[0], circle[1], circle[2], Integer.MAX_VALUE, false);
+    			Arrays.sort(rows);
+    			assertTrue( term + " " + Arrays.toString(circle), expected.length > 0 && Arrays.equals(expected, rows) );
+    		}
+    	}
+    }
+
+    /**
+     * Prefix matches rank first, then the closest, and names are returned once.
+     */
+    public void testRankingAndDistinctNames()
+    {
+    	LocationTable.Builder builder = new LocationTable.Builder();
+    	add(builder, "Joe's Pizza", 45.001, -93.0);
+    	add(builder, "Joe's Pizza", 45.002, -93.0);
+    	add(builder, "Pizza Hut", 45.003, -93.0);
+    	add(builder, "Best Pizza", 45.0001, -93.0);
+    	add(builder, "Far Pizza", 46.0, -93.0);
+    	LocationTable table = builder.build();
+    	NameSuggestIndex index = new NameSuggestIndex(new SpatialGridIndex(table));
+
+    	assertEquals( "[Pizza Hut, Best Pizza, Joe's Pizza]", names(table, index.search("pizza", 45.0, -93.0, 0.1, 50, true)) );
+    	assertEquals( "[Pizza Hut, Best Pizza]", names(table, index.search("pizza", 45.0, -93.0, 0.1, 2, true)) );
+    	assertEquals( 4, index.search("pizza", 45.0, -93.0, 0.1, 50, false).length );
+    }
+
+    /**
+     * With many matches around the point, the type-ahead keeps the best ranked row of the best ranked names of a
+     * full scan, up to the limit.
+     */
+    public void testRankingOfManyMatches()
+    {
+    	Random random = new Random(6);
+    	LocationTable.Builder builder = new LocationTable.Builder();
+    	for( int i = 0; i < 20000; i++ ){
+    		String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+    		add(builder, name, 44.9 + random.nextDouble() * 0.2, -93.1 + random.nextDouble() * 0.2);
+    	}
+    	LocationTable table = builder.build();
+    	NameSuggestIndex index = new NameSuggestIndex(new SpatialGridIndex(table));
+
+    	for( String term : new String[]{ "", "p", "pi", "a" } ){
+    		for( boolean distinctNames : new boolean[]{ true, false } ){
+    			List<Integer> matches = new ArrayList<>();
+    			for( int row : scan(table, term, 45.0, -93.0, 0.1) ){
+    				matches.add(row);
+    			}
+    			matches.sort(Comparator.<Integer, Boolean>comparing(row -> !table.nameLowercase(row).startsWith(term))
+    					.thenComparingDouble(row -> GeoUtil.distanceInDegrees(45.0, -93.0, table.lat(row), table.lng(row))));
+    			Set<String> names = new HashSet<>();
+    			int[] expected = matches.stream().filter(row -> !distinctNames || names.add(table.name(row)))
+    					.limit(10).mapToInt(Integer::intValue).toArray();
+
+    			int[] rows = index.search(term, 45.0, -93.0, 0.1, 10, distinctNames);
+    			assertTrue( term + " " + distinctNames, Arrays.equals(expected, rows) );
+    		}
+    	}
+    }
+
+    private static void add( LocationTable.Builder builder, String name, double lat, double lng )
+    {
+    	builder.add("id", name, null, null, null, null, null, null, null, null, null, null, lat, lng);
+    }
+
+    private static int[] scan( LocationTable table, String term, double lat, double lng, double radius )
+    {
+    	return IntStream.range(0, table.size())
+    			.filter(row -> table.nameLowercase(row).contains(term))
+    			.filter(row -> GeoUtil.distanceInDegrees(lat, lng, table.lat(row), table.lng(row)) <= radius)
+    			.toArray();
+    }
+
+    private static String names( LocationTable table, int[] rows )
+    {
+    	String[] names = new String[rows.length];
+    	for( int i = 0; i < rows.length; i++ ){
+    		names[i] = table.name(rows[i]);
+    	}
+    	return Arrays.toString(names);
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.datastax.field.examples.geo.index;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class NearestRowsTest extends TestCase {
+
+	/**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public NearestRowsTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( NearestRowsTest.class );
+    }
+
+    /**
+     * The rows kept are the first limit rows of a full sort by distance.
+     */
+    public void testSameAsSort()
+    {
+    	Random random = new Random(13);
+
+    	for( int n = 0; n < 500; n++ ){
+    		int size = random.nextInt(300);
+    		int limit = random.nextInt(80);
+    		// few distinct values, so ties are tested too
+    		double[] distances = random.doubles(size).map(d -> Math.floor(d * 50)).toArray();
+
+    		NearestRows nearest = new NearestRows(limit);
+    		for( int row = 0; row < size; row++ ){
+    			nearest.visit(row, distances[row]);
+    		}
+    		assertEquals( Math.min(size, limit), nearest.size() );
+
+    		double[] expected = Arrays.stream(distances).sorted().limit(limit).toArray();
+    		int[] rows = nearest.toSortedArray();
+    		assertTrue( Arrays.equals(expected, IntStream.of(rows).mapToDouble(row -> distances[row]).toArray()) );
+    		assertEquals( rows.length, IntStream.of(rows).distinct().count() );
+    		assertEquals( 0, nearest.size() );
+    	}
+    }
+
+}
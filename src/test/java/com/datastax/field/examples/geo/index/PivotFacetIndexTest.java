@@ -0,0 +1,104 @@
+package com.datastax.field.examples.geo.index;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class PivotFacetIndexTest extends TestCase {
+
+	/**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public PivotFacetIndexTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( PivotFacetIndexTest.class );
+    }
+
+    /**
+     * Summing the cell counts plus scanning the edge cells must give the counts of a full scan.
+     */
+    public void testCountsMatchScan()
+    {
+    	Random random = new Random(7);
+    	LocationTable table = CategorizedLocations.randomTable(random, 20000);
+    	PivotFacetIndex facets = new PivotFacetIndex(new SpatialGridIndex(table));
+
+    	for( int q = 0; q < 50; q++ ){
+    		double lllat = 44.0 + random.nextDouble() * 2.0;
+    		double lllng = -94.0 + random.nextDouble() * 2.0;
+    		double urlat = lllat + random.nextDouble();
+    		double urlng = lllng + random.nextDouble();
+
+    		int[] expected = new int[table.categories().length];
+    		for( int row = 0; row < table.size(); row++ ){
+    			if( table.categoryCode(row) != LocationTable.NULL_CODE
+    					&& SpatialGridIndex.contains(lllat, lllng, urlat, urlng, table.lat(row), table.lng(row)) ){
+    				expected[table.categoryCode(row)]++;
+    			}
+    		}
+    		assertTrue( Arrays.equals(expected, facets.countCategories(lllat, lllng, urlat, urlng)) );
+    	}
+    }
+
+    /**
+     * The category pivot is sorted by count, the category,subcategory pivot by value.
+     */
+    public void testPivotJson()
+    {
+    	LocationTable.Builder builder = new LocationTable.Builder();
+    	CategorizedLocations.add(builder, 45.1, -93.1, "Food", "Pizza");
+    	CategorizedLocations.add(builder, 45.2, -93.2, "Food", "Bakery");
+    	CategorizedLocations.add(builder, 45.3, -93.3, "Food", null);
+    	CategorizedLocations.add(builder, 45.4, -93.4, "Services", "");
+    	CategorizedLocations.add(builder, 45.5, -93.5, "Retail", "Shoes");
+    	CategorizedLocations.add(builder, 45.6, -93.6, "Retail", "Shoes");
+    	CategorizedLocations.add(builder, 47.0, -93.0, "Health", "Dental");
+    	CategorizedLocations.add(builder, 45.7, -93.7, null, "Pizza");
+    	PivotFacetIndex facets = new PivotFacetIndex(new SpatialGridIndex(builder.build()));
+
+    	JsonArray category = parse(facets.categoryPivot(45.0, -94.0, 46.0, -93.0)).getAsJsonArray("category");
+    	assertEquals( "Food:3 Retail:2 Services:1", entries(category) );
+
+    	JsonArray pivot = parse(facets.categorySubcategoryPivot(45.0, -94.0, 46.0, -93.0)).getAsJsonArray("category,subcategory");
+    	assertEquals( "Food:3 Retail:2 Services:1", entries(pivot) );
+    	assertEquals( "Bakery:1 Pizza:1", entries(pivot.get(0).getAsJsonObject().getAsJsonArray("pivot")) );
+    	assertEquals( "Shoes:2", entries(pivot.get(1).getAsJsonObject().getAsJsonArray("pivot")) );
+    	assertEquals( ":1", entries(pivot.get(2).getAsJsonObject().getAsJsonArray("pivot")) );
+    	assertEquals( "subcategory", pivot.get(0).getAsJsonObject().getAsJsonArray("pivot").get(0).getAsJsonObject().get("field").getAsString() );
+    }
+
+    private static JsonObject parse( String json )
+    {
+    	return new JsonParser().parse(json).getAsJsonObject();
+    }
+
+    private static String entries( JsonArray array )
+    {
+    	StringBuilder result = new StringBuilder();
+    	for( JsonElement e : array ){
+    		JsonObject entry = e.getAsJsonObject();
+    		result.append(result.length() == 0 ? "" : " ").append(entry.get("value").getAsString()).append(':').append(entry.get("count").getAsInt());
+    	}
+    	return result.toString();
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.datastax.field.examples.geo.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class SpatialGridIndexTest extends TestCase {
+
+	/**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SpatialGridIndexTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SpatialGridIndexTest.class );
+    }
+
+    /**
+     * The grid must find exactly the points a full scan finds, edges included.
+     */
+    public void testSearchMatchesScan()
+    {
+    	Random random = new Random(42);
+    	LocationTable.Builder builder = new LocationTable.Builder();
+    	for( int i = 0; i < 5000; i++ ){
+    		add(builder, "l" + i, 44.0 + random.nextDouble() * 2.0, -94.0 + random.nextDouble() * 2.0);
+    	}
+    	add(builder, "edge", 45.0, -93.0);
+    	LocationTable table = builder.build();
+    	SpatialGridIndex index = new SpatialGridIndex(table);
+
+    	for( int q = 0; q < 50; q++ ){
+    		double lllat = 44.0 + random.nextDouble() * 2.0;
+    		double lllng = -94.0 + random.nextDouble() * 2.0;
+    		double urlat = lllat + random.nextDouble();
+    		double urlng = lllng + random.nextDouble();
+    		assertEquals( scan(table, lllat, lllng, urlat, urlng), search(index, lllat, lllng, urlat, urlng) );
+    	}
+    	assertEquals( Collections.singletonList(table.size() - 1), search(index, 45.0, -93.0, 45.0, -93.0) );
+    }
+
+    /**
+     * A box with lllng > urlng wraps around the antimeridian.
+     */
+    public void testAntimeridian()
+    {
+    	LocationTable.Builder builder = new LocationTable.Builder();
+    	add(builder, "fiji", -17.7, 178.0);
+    	add(builder, "samoa", -13.8, -172.0);
+    	add(builder, "sydney", -33.8, 151.2);
+    	SpatialGridIndex index = new SpatialGridIndex(builder.build());
+
+    	List<Integer> rows = search(index, -20.0, 170.0, -10.0, -170.0);
+    	assertEquals( 2, rows.size() );
+    	assertEquals( Integer.valueOf(0), rows.get(0) );
+    	assertEquals( Integer.valueOf(1), rows.get(1) );
+    }
+
+    /**
+     * A truncated search returns rows from all over the box, not from its southern edge, and every row at most once.
+     */
+    public void testSearchSpread()
+    {
+    	Random random = new Random(7);
+    	LocationTable.Builder builder = new LocationTable.Builder();
+    	for( int i = 0; i < 20000; i++ ){
+    		add(builder, "l" + i, 44.0 + random.nextDouble() * 2.0, -94.0 + random.nextDouble() * 2.0);
+    	}
+    	LocationTable table = builder.build();
+    	SpatialGridIndex index = new SpatialGridIndex(table);
+
+    	// every quarter of the box, in both directions, holds some of the rows
+    	RowCollector rows = new RowCollector(64);
+    	index.searchSpread(44.5, -93.5, 45.5, -92.5, 64, null, rows);
+    	assertEquals( 64, rows.size() );
+    	int[][] quarters = new int[4][4];
+    	for( int i = 0; i < rows.size(); i++ ){
+    		int row = rows.get(i);
+    		assertTrue( SpatialGridIndex.contains(44.5, -93.5, 45.5, -92.5, table.lat(row), table.lng(row)) );
+    		quarters[(int) ((table.lat(row) - 44.5) * 4)][(int) ((table.lng(row) + 93.5) * 4)]++;
+    	}
+    	for( int[] quarter : quarters ){
+    		for( int count : quarter ){
+    			assertTrue( count > 0 );
+    		}
+    	}
+
+    	// not truncated, or truncated by the filter: the same rows as a search
+    	for( int limit : new int[]{ 100000, 10 } ){
+    		List<Integer> spread = new ArrayList<>();
+    		index.searchSpread(44.5, 179.0, 45.5, -92.5, limit, row -> row % 100 == 0, row -> spread.add(row));
+    		List<Integer> all = new ArrayList<>();
+    		index.search(44.5, 179.0, 45.5, -92.5, row -> row % 100 == 0, row -> all.add(row));
+    		assertEquals( Math.min(limit, all.size()), spread.size() );
+    		assertEquals( spread.size(), new HashSet<>(spread).size() );
+    		assertTrue( all.containsAll(spread) );
+    	}
+    }
+
+    private static void add( LocationTable.Builder builder, String id, double lat, double lng )
+    {
+    	builder.add(id, id, null, null, null, null, null, null, "Food", null, null, null, lat, lng);
+    }
+
+    private static List<Integer> search( SpatialGridIndex index, double lllat, double lllng, double urlat, double urlng )
+    {
+    	List<Integer> rows = new ArrayList<>();
+    	index.search(lllat, lllng, urlat, urlng, null, row -> rows.add(row));
+    	Collections.sort(rows);
+    	return rows;
+    }
+
+    private static List<Integer> scan( LocationTable table, double lllat, double lllng, double urlat, double urlng )
+    {
+    	List<Integer> rows = new ArrayList<>();
+    	for( int row = 0; row < table.size(); row++ ){
+    		if( SpatialGridIndex.contains(lllat, lllng, urlat, urlng, table.lat(row), table.lng(row)) ){
+    			rows.add(row);
+    		}
+    	}
+    	return rows;
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.datastax.field.examples.geo.ingest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class LocationLoaderTest extends TestCase {
+
+	private Path dir;
+
+	/**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public LocationLoaderTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( LocationLoaderTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+    	dir = Files.createTempDirectory("location-loader");
+    }
+
+    @Override
+    protected void tearDown() throws IOException
+    {
+    	for( Path file : Files.newDirectoryStream(dir) ){
+    		Files.delete(file);
+    	}
+    	Files.delete(dir);
+    }
+
+    /**
+     * The checkpoint is the line before the first write in flight, or the last line read.
+     */
+    public void testCheckpoint()
+    {
+    	LocationLoader.Progress progress = new LocationLoader.Progress(dir.resolve("locations.jsonl"));
+    	assertEquals( 0, progress.checkpoint() );
+
+    	progress.writing(3);
+    	progress.read(3);
+    	progress.read(4);
+    	progress.writing(5);
+    	progress.read(5);
+    	progress.read(6);
+    	assertEquals( 2, progress.checkpoint() );
+
+    	progress.written(5);
+    	assertEquals( 2, progress.checkpoint() );
+    	progress.written(3);
+    	assertEquals( 6, progress.checkpoint() );
+    }
+
+    /**
+     * A run that fails keeps its checkpoint before the failed line, the next run resumes there and removes it.
+     */
+    public void testResume() throws IOException
+    {
+    	Path file = dir.resolve("locations.jsonl");
+    	Files.write(file, Arrays.asList(location("a"), location("b"), "not json", location("c"), location("d"), ""), StandardCharsets.UTF_8);
+    	Path checkpoint = dir.resolve("locations.jsonl.checkpoint");
+
+    	List<String> written = Collections.synchronizedList(new ArrayList<>());
+    	assertFalse( new LocationLoader().load(file, new LocationLoader.Progress(file), values -> {
+    		if( "c".equals(values[0]) ){
+    			CompletableFuture<Void> failed = new CompletableFuture<>();
+    			failed.completeExceptionally(new IllegalStateException("write timeout"));
+    			return failed;
+    		}
+    		written.add((String) values[0]);
+    		return CompletableFuture.completedFuture(null);
+    	}) );
+    	assertEquals( Arrays.asList("a", "b"), written );
+    	assertEquals( "3", new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8) );
+
+    	written.clear();
+    	LocationLoader.Progress progress = new LocationLoader.Progress(file);
+    	assertTrue( new LocationLoader().load(file, progress, values -> CompletableFuture.runAsync(() -> written.add((String) values[0]))) );
+    	Collections.sort(written);
+    	assertEquals( Arrays.asList("c", "d"), written );
+    	assertEquals( 2, progress.written.sum() );
+    	assertFalse( Files.exists(checkpoint) );
+    }
+
+
+    private static String location( String id )
+    {
+    	return "{\"id\":\"" + id + "\",\"name\":\"Cafe " + id + "\",\"lat\":45.0,\"lng\":-93.2}";
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.datastax.field.examples.geo.ingest;
+
+import java.util.Arrays;
+
+import com.datastax.driver.dse.geometry.Point;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class LocationParserTest extends TestCase {
+
+	/**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public LocationParserTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( LocationParserTest.class );
+    }
+
+    /**
+     * The columns are mapped by the header, quoted fields keep their commas and quotes.
+     */
+    public void testCsv()
+    {
+    	LocationParser parser = LocationParser.forFile("locations.CSV");
+    	assertTrue( parser.needsHeader() );
+    	parser.header("ID,Name,lat,lng,tags,category,unknown");
+    	assertFalse( parser.needsHeader() );
+
+    	Object[] values = parser.parse("SG_1, \"Joe's \"\"Pizza\"\", Downtown\" ,44.98,-93.265,pizza| late night||,,x");
+    	assertEquals( "SG_1", value(values, "id") );
+    	assertEquals( "Joe's \"Pizza\", Downtown", value(values, "name") );
+    	assertEquals( "joe's \"pizza\", downtown", value(values, "name_lowercase") );
+    	assertEquals( Arrays.asList("pizza", "late night"), value(values, "tags") );
+    	assertNull( value(values, "category") );
+    	assertNull( value(values, "city") );
+    	assertEquals( new Point(-93.265, 44.98), value(values, "geo") );
+
+    	assertNull( parser.parse("  ") );
+    	assertEquals( Arrays.asList("a", "", "b,c"), LocationParser.splitCsv("a,,\"b,c\"") );
+    }
+
+    /**
+     * The point is a geo object or lat and lng fields.
+     */
+    public void testJsonLines()
+    {
+    	LocationParser parser = LocationParser.forFile("locations.jsonl");
+    	assertFalse( parser.needsHeader() );
+
+    	Object[] values = parser.parse("{\"id\":\"SG_2\",\"name\":\" Cafe \",\"city\":\"\",\"tags\":[\"coffee\",\" \"],\"geo\":{\"lat\":45.1,\"lng\":\"-93.2\"}}");
+    	assertEquals( "SG_2", value(values, "id") );
+    	assertEquals( "Cafe", value(values, "name") );
+    	assertEquals( "cafe", value(values, "name_lowercase") );
+    	assertNull( value(values, "city") );
+    	assertEquals( Arrays.asList("coffee"), value(values, "tags") );
+    	assertEquals( new Point(-93.2, 45.1), value(values, "geo") );
+
+    	values = parser.parse("{\"id\":3,\"lat\":-90,\"lng\":180,\"tags\":\"a, b\"}");
+    	assertEquals( "3", value(values, "id") );
+    	assertNull( value(values, "name_lowercase") );
+    	assertEquals( Arrays.asList("a", "b"), value(values, "tags") );
+    	assertEquals( new Point(180, -90), value(values, "geo") );
+    }
+
+    /**
+     * Test
+     */
+    public void testInvalid()
+    {
+    	LocationParser json = LocationParser.forFile("locations.json");
+    	String[] invalid = { "{\"name\":\"no id\",\"lat\":1,\"lng\":2}", "{\"id\":\" \",\"lat\":1,\"lng\":2}", "{\"id\":\"a\",\"lat\":91,\"lng\":2}",
+    			"{\"id\":\"a\",\"lat\":1}", "{\"id\":\"a\",\"lat\":\"1 N\",\"lng\":2}", "{\"id\":\"a\"", "[1,2]" };
+    	for( String line : invalid ){
+    		try {
+    			json.parse(line);
+    			fail( line );
+    		} catch (IllegalArgumentException expected) {
+    		}
+    	}
+
+    	LocationParser csv = LocationParser.forFile("locations.csv");
+    	csv.header("id,lat,lng");
+    	for( String line : new String[]{ "a,1", "a,1,2,3", "\"a,1,2" } ){
+    		try {
+    			csv.parse(line);
+    			fail( line );
+    		} catch (IllegalArgumentException expected) {
+    		}
+    	}
+    }
+
+
+    private static Object value( Object[] values, String column )
+    {
+    	return values[LocationParser.COLUMNS.indexOf(column)];
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.datastax.field.examples.geo.loadtest;
+
+/**
+ * A log-linear histogram of latencies in microseconds, with about 1.5% precision (64 sub-buckets per power of two).
+ *
+ * Not thread safe, every load generator thread records into its own and they are merged at the end.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKETS = 64;
+
+	private final long[] counts = new long[SUB_BUCKETS * 64];
+	private long total;
+	private long max;
+
+	public void record( long micros ) {
+		long value = Math.max(0L, micros);
+		counts[index(value)]++;
+		total++;
+		max = Math.max(max, value);
+	}
+
+	public void add( LatencyHistogram other ) {
+		for( int i = 0; i < counts.length; i++ ){
+			counts[i] += other.counts[i];
+		}
+		total += other.total;
+		max = Math.max(max, other.max);
+	}
+
+	public long count() {
+		return total;
+	}
+
+	public long max() {
+		return max;
+	}
+
+	/**
+	 * @param percentile 0 - 100
+	 * @return the highest value of the bucket the percentile falls in, in microseconds
+	 */
+	public long percentile( double percentile ) {
+		if( total == 0 ){
+			return 0L;
+		}
+		long rank = Math.max(1L, (long) Math.ceil(total * percentile / 100.0d));
+		long seen = 0;
+		for( int i = 0; i < counts.length; i++ ){
+			seen += counts[i];
+			if( seen >= rank ){
+				return Math.min(max, highestValue(i));
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * values below 2 * SUB_BUCKETS have a bucket each, above that a power of two range [2^n, 2^(n+1)) is split in
+	 * SUB_BUCKETS buckets.
+	 */
+	static int index( long value ) {
+		if( value < 2 * SUB_BUCKETS ){
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+		return SUB_BUCKETS * shift + (int) (value >> shift);
+	}
+
+	static long highestValue( int index ) {
+		if( index < 2 * SUB_BUCKETS ){
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		return ((long) (index - SUB_BUCKETS * shift) << shift) + (1L << shift) - 1;
+	}
+
+}
@@ -0,0 +1,123 @@
+package com.datastax.field.examples.geo.loadtest;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.field.examples.geo.service.LocationFinderService;
+import com.datastax.field.examples.geo.service.QueryResult;
+import com.datastax.field.examples.geo.util.JsonWritable;
+import com.google.gson.JsonArray;
+
+/**
+ * The LocationFinderService with a simulated backend round trip added to every query: a fixed latency plus an
+ * exponentially distributed jitter, so the load test sees a latency tail like a remote search cluster has.
+ *
+ * Blocking calls sleep (holding the request thread, like dseSession.execute does), async calls complete
+ * their future later on a scheduler (like executeAsync does).
+ */
+public class LatencyInjectingLocationFinderService extends LocationFinderService {
+
+	private final double latencyMs;
+	private final double jitterMs;
+	private final ScheduledExecutorService scheduler;
+
+	public LatencyInjectingLocationFinderService( double latencyMs, double jitterMs, ScheduledExecutorService scheduler ) {
+		this.latencyMs = latencyMs;
+		this.jitterMs = jitterMs;
+		this.scheduler = scheduler;
+	}
+
+
+	@Override
+	public QueryResult<JsonArray> nameSuggestWithPointAndRadius( String name, double lat, double lng, double radiusInKm ) {
+		pause();
+		return super.nameSuggestWithPointAndRadius(name, lat, lng, radiusInKm);
+	}
+
+	@Override
+	public CompletableFuture<QueryResult<JsonArray>> nameSuggestWithPointAndRadiusAsync( String name, double lat, double lng, double radiusInKm ) {
+		return delay(super.nameSuggestWithPointAndRadiusAsync(name, lat, lng, radiusInKm));
+	}
+
+	@Override
+	public QueryResult<JsonWritable> nameSearchWithPointAndRadius( String name, double lat, double lng, double radiusInKm ) {
+		pause();
+		return super.nameSearchWithPointAndRadius(name, lat, lng, radiusInKm);
+	}
+
+	@Override
+	public CompletableFuture<QueryResult<JsonWritable>> nameSearchWithPointAndRadiusAsync( String name, double lat, double lng, double radiusInKm ) {
+		return delay(super.nameSearchWithPointAndRadiusAsync(name, lat, lng, radiusInKm));
+	}
+
+	@Override
+	public QueryResult<String> geoFilterPivotOnCateogory( double lllat, double lllng, double urlat, double urlng ) {
+		pause();
+		return super.geoFilterPivotOnCateogory(lllat, lllng, urlat, urlng);
+	}
+
+	@Override
+	public CompletableFuture<QueryResult<String>> geoFilterPivotOnCateogoryAsync( double lllat, double lllng, double urlat, double urlng ) {
+		return delay(super.geoFilterPivotOnCateogoryAsync(lllat, lllng, urlat, urlng));
+	}
+
+	@Override
+	public QueryResult<String> geoFilterPivotOnCateogoryAndSubCategory( double lllat, double lllng, double urlat, double urlng ) {
+		pause();
+		return super.geoFilterPivotOnCateogoryAndSubCategory(lllat, lllng, urlat, urlng);
+	}
+
+	@Override
+	public CompletableFuture<QueryResult<String>> geoFilterPivotOnCateogoryAndSubCategoryAsync( double lllat, double lllng, double urlat, double urlng ) {
+		return delay(super.geoFilterPivotOnCateogoryAndSubCategoryAsync(lllat, lllng, urlat, urlng));
+	}
+
+	@Override
+	public QueryResult<JsonWritable> geoFilterLocationsOnCateogoryAndOrSubcategory( String category, String subcategory, int numRows,
+			double lllat, double lllng, double urlat, double urlng ) {
+		pause();
+		return super.geoFilterLocationsOnCateogoryAndOrSubcategory(category, subcategory, numRows, lllat, lllng, urlat, urlng);
+	}
+
+	@Override
+	public CompletableFuture<QueryResult<JsonWritable>> geoFilterLocationsOnCateogoryAndOrSubcategoryAsync( String category, String subcategory, int numRows,
+			double lllat, double lllng, double urlat, double urlng ) {
+		return delay(super.geoFilterLocationsOnCateogoryAndOrSubcategoryAsync(category, subcategory, numRows, lllat, lllng, urlat, urlng));
+	}
+
+
+	private long sampleMicros() {
+		double jitter = jitterMs > 0 ? -jitterMs * Math.log(1.0d - ThreadLocalRandom.current().nextDouble()) : 0.0d;
+		return (long) ((latencyMs + jitter) * 1000.0d);
+	}
+
+	private void pause() {
+		long micros = sampleMicros();
+		if( micros > 0 ){
+			try {
+				TimeUnit.MICROSECONDS.sleep(micros);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private <T> CompletableFuture<T> delay( CompletableFuture<T> future ) {
+		long micros = sampleMicros();
+		if( micros <= 0 ){
+			return future;
+		}
+		CompletableFuture<T> delayed = new CompletableFuture<>();
+		scheduler.schedule(() -> future.whenComplete((result, t) -> {
+			if( t != null ){
+				delayed.completeExceptionally(t);
+			} else {
+				delayed.complete(result);
+			}
+		}), micros, TimeUnit.MICROSECONDS);
+		return delayed;
+	}
+
+}
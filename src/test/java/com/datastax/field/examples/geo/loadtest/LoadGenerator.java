@@ -0,0 +1,406 @@
+package com.datastax.field.examples.geo.loadtest;
+
+import static spark.Spark.afterAfter;
+import static spark.Spark.before;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import com.datastax.field.examples.geo.App;
+import com.datastax.field.examples.geo.config.WebConfig;
+import com.datastax.field.examples.geo.index.LocalLocationIndex;
+import com.datastax.field.examples.geo.index.LocationTable;
+import com.datastax.field.examples.geo.metrics.ApiMetrics;
+import com.datastax.field.examples.geo.service.LocationFinderService;
+import com.datastax.field.examples.geo.service.QueryType;
+
+import spark.Spark;
+
+/**
+ * End-to-end load test: starts the real web tier (WebConfig on port 9000) on top of a synthetic backend (see
+ * SyntheticBackendConfig) and drives it with closed-loop virtual users that replay what the map UI does:
+ * type-ahead bursts on the name suggest followed by a name search, and pan / zoom sequences that pivot the
+ * visible area and sometimes list its locations.
+ *
+ * Reports throughput, p50 / p99 / p99.9 / max latency and allocation per endpoint. Run it with
+ *
+ * 		mvn -Ploadtest verify -Dloadtest.args="--users 64 --duration 60"
+ */
+public class LoadGenerator {
+
+	private static final String BASE_URL = "http://localhost:9000/api/";
+
+	private static final String SUGGEST = "geo-name-suggest";
+	private static final String SEARCH = "geo-name-search";
+	private static final String PIVOT = "geo-bbox-pivot-on-category";
+	private static final String SUBCATEGORY_PIVOT = "geo-bbox-pivot-on-category-and-subcategory";
+	private static final String FILTER = "geo-bbox-filter-on-category";
+
+	private static final String[] ENDPOINTS = { SUGGEST, SEARCH, PIVOT, SUBCATEGORY_PIVOT, FILTER };
+
+	/** allocated bytes per endpoint, measured on the request thread */
+	private static final Map<String, LongAdder> allocatedBytes = new ConcurrentHashMap<>();
+	private static final Map<String, LongAdder> measuredRequests = new ConcurrentHashMap<>();
+
+	private static final String ALLOCATION_START = "loadtest.allocationStart";
+
+	private final LocationTable table;
+	private final long thinkMs;
+	private final long typingMs;
+
+	private volatile boolean recording;
+	private volatile boolean running = true;
+
+
+	LoadGenerator( LocationTable table, long thinkMs, long typingMs ) {
+		this.table = table;
+		this.thinkMs = thinkMs;
+		this.typingMs = typingMs;
+	}
+
+	public static void main( String[] args ) throws Exception {
+
+		Options options = new Options();
+		options.addOption(Option.builder("u").longOpt("users").hasArg().desc("concurrent virtual users (default 32)").build());
+		options.addOption(Option.builder("w").longOpt("warmup").hasArg().desc("warmup seconds, not recorded (default 10)").build());
+		options.addOption(Option.builder("d").longOpt("duration").hasArg().desc("recorded seconds (default 30)").build());
+		options.addOption(Option.builder("n").longOpt("rows").hasArg().desc("synthetic locations (default 500000)").build());
+		options.addOption(Option.builder("l").longOpt("latency-ms").hasArg().desc("simulated backend latency (default 2)").build());
+		options.addOption(Option.builder("j").longOpt("jitter-ms").hasArg().desc("mean of the exponential backend jitter (default 1)").build());
+		options.addOption(Option.builder("t").longOpt("think-ms").hasArg().desc("pause between user actions (default 0)").build());
+		options.addOption(Option.builder("k").longOpt("typing-ms").hasArg().desc("pause between keystrokes (default 0)").build());
+		options.addOption(Option.builder("a").longOpt("async").desc("handle requests asynchronously").build());
+		options.addOption(Option.builder("h").longOpt("help").build());
+
+		CommandLine cmd;
+		try {
+			CommandLineParser parser = new DefaultParser();
+			cmd = parser.parse(options, args);
+		} catch (ParseException e) {
+			System.err.println(e.getMessage());
+			new HelpFormatter().printHelp("LoadGenerator", options);
+			System.exit(1);
+			return;
+		}
+		if( cmd.hasOption("h") ){
+			new HelpFormatter().printHelp("LoadGenerator", options);
+			return;
+		}
+
+		int users = Integer.parseInt(cmd.getOptionValue("u", "32"));
+		int warmup = Integer.parseInt(cmd.getOptionValue("w", "10"));
+		int duration = Integer.parseInt(cmd.getOptionValue("d", "30"));
+		int rows = Integer.parseInt(cmd.getOptionValue("n", "500000"));
+
+		SyntheticBackendConfig.LATENCY_MS = Double.parseDouble(cmd.getOptionValue("l", "2"));
+		SyntheticBackendConfig.JITTER_MS = Double.parseDouble(cmd.getOptionValue("j", "1"));
+		App.ASYNC = cmd.hasOption("a");
+		App.MAX_IN_FLIGHT = Math.max(App.MAX_IN_FLIGHT, users);
+		System.setProperty("http.maxConnections", String.valueOf(users));
+
+		long start = System.currentTimeMillis();
+		LocationTable table = SyntheticLocations.generate(rows, 42L);
+		System.out.println("Generated " + table.size() + " locations in " + (System.currentTimeMillis() - start) + " ms");
+
+		// the context starts with App.LOCAL_INDEX empty, so nothing tries to scan a cluster. The index is installed
+		// once every query type is local, so it builds all of its indexes.
+		AnnotationConfigApplicationContext ctx = new AnnotationConfigApplicationContext(SyntheticBackendConfig.class);
+		App.LOCAL_INDEX = EnumSet.allOf(QueryType.class);
+		ctx.getBean(LocalLocationIndex.class).install(table);
+
+		new WebConfig(ctx.getBean(LocationFinderService.class), ctx.getBean(ApiMetrics.class));
+		measureAllocation();
+		Spark.awaitInitialization();
+
+		LoadGenerator generator = new LoadGenerator(table, Long.parseLong(cmd.getOptionValue("t", "0")), Long.parseLong(cmd.getOptionValue("k", "0")));
+		Map<String, LatencyHistogram> latencies = new TreeMap<>();
+		Map<String, Long> errors = new TreeMap<>();
+		generator.run(users, warmup, duration, latencies, errors);
+
+		report(users, duration, latencies, errors);
+
+		Spark.stop();
+		ctx.close();
+		System.exit(0);
+	}
+
+
+	private void run( int users, int warmup, int duration, Map<String, LatencyHistogram> latencies, Map<String, Long> errors ) throws InterruptedException {
+
+		List<VirtualUser> virtualUsers = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		for( int i = 0; i < users; i++ ){
+			VirtualUser user = new VirtualUser();
+			Thread thread = new Thread(user, "virtual-user-" + i);
+			thread.setDaemon(true);
+			virtualUsers.add(user);
+			threads.add(thread);
+			thread.start();
+		}
+
+		System.out.println("Warming up " + users + " users for " + warmup + " s");
+		TimeUnit.SECONDS.sleep(warmup);
+		resetAllocation();
+		recording = true;
+		System.out.println("Recording for " + duration + " s");
+		TimeUnit.SECONDS.sleep(duration);
+		recording = false;
+		running = false;
+
+		for( Thread thread : threads ){
+			thread.join(TimeUnit.SECONDS.toMillis(30));
+		}
+
+		for( VirtualUser user : virtualUsers ){
+			for( Map.Entry<String, LatencyHistogram> e : user.latencies.entrySet() ){
+				latencies.computeIfAbsent(e.getKey(), k -> new LatencyHistogram()).add(e.getValue());
+			}
+			for( Map.Entry<String, long[]> e : user.errors.entrySet() ){
+				errors.merge(e.getKey(), e.getValue()[0], Long::sum);
+			}
+		}
+	}
+
+
+	/**
+	 * One user, sending its next request as soon as the previous one was answered (plus the think time).
+	 */
+	private class VirtualUser implements Runnable {
+
+		final Map<String, LatencyHistogram> latencies = new TreeMap<>();
+		final Map<String, long[]> errors = new TreeMap<>();
+
+		@Override
+		public void run() {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			while( running ){
+				if( random.nextInt(3) == 0 ){
+					typeAhead(random);
+				} else {
+					panAndZoom(random);
+				}
+			}
+		}
+
+		/**
+		 * types the start of a name near a location, suggesting on every keystroke, then usually searches it.
+		 */
+		private void typeAhead( ThreadLocalRandom random ) {
+
+			int row = random.nextInt(table.size());
+			String name = table.nameLowercase(row);
+			String lat = String.valueOf(table.lat(row) + random.nextGaussian() * 0.02);
+			String lng = String.valueOf(table.lng(row) + random.nextGaussian() * 0.02);
+			String radius = String.valueOf(1 + random.nextInt(20));
+
+			int typed = Math.min(name.length(), 3 + random.nextInt(6));
+			for( int i = 1; i <= typed && running; i++ ){
+				call(SUGGEST, "name=" + encode(name.substring(0, i)) + "&lat=" + lat + "&lng=" + lng + "&r=" + radius);
+				pause(typingMs);
+			}
+			if( random.nextInt(4) != 0 ){
+				call(SEARCH, "name=" + encode(name.substring(0, typed)) + "&lat=" + lat + "&lng=" + lng + "&r=" + radius);
+			}
+			pause(thinkMs);
+		}
+
+		/**
+		 * starts at a city sized view around a location, then pans and zooms a few times.
+		 */
+		private void panAndZoom( ThreadLocalRandom random ) {
+
+			int row = random.nextInt(table.size());
+			double lat = table.lat(row);
+			double lng = table.lng(row);
+			double span = 0.05 * Math.pow(2, random.nextInt(8));
+
+			for( int step = 0, steps = 3 + random.nextInt(6); step < steps && running; step++ ){
+
+				double lllat = Math.max(-90.0, lat - span / 2), urlat = Math.min(90.0, lat + span / 2);
+				double lllng = Math.max(-180.0, lng - span * 0.65), urlng = Math.min(180.0, lng + span * 0.65);
+				String bbox = "lllat=" + lllat + "&lllng=" + lllng + "&urlat=" + urlat + "&urlng=" + urlng;
+
+				// the UI shows the categories when zoomed out, categories and subcategories when zoomed in
+				call(span > 1.0 ? PIVOT : SUBCATEGORY_PIVOT, bbox);
+
+				if( random.nextInt(3) == 0 ){
+					String[] category = SyntheticLocations.CATEGORIES[SyntheticLocations.skewed(random, SyntheticLocations.CATEGORIES.length)];
+					String filter = "&category=" + encode(category[0]);
+					if( random.nextBoolean() ){
+						filter += "&subcategory=" + encode(category[1 + random.nextInt(category.length - 1)]);
+					}
+					call(FILTER, bbox + filter + "&num_results=" + (100 + random.nextInt(401)));
+				}
+
+				switch( random.nextInt(3) ){
+				case 0:
+					span = Math.max(0.01, span / 2);
+					break;
+				case 1:
+					span = Math.min(40.0, span * 2);
+					break;
+				default:
+					lat += (random.nextDouble() - 0.5) * span;
+					lng += (random.nextDouble() - 0.5) * span;
+				}
+				pause(thinkMs);
+			}
+		}
+
+		private void call( String endpoint, String query ) {
+
+			long start = System.nanoTime();
+			boolean ok;
+			try {
+				HttpURLConnection connection = (HttpURLConnection) new URL(BASE_URL + endpoint + "?" + query).openConnection();
+				ok = connection.getResponseCode() == 200;
+				try (InputStream in = ok ? connection.getInputStream() : connection.getErrorStream()) {
+					drain(in);
+				}
+			} catch (IOException e) {
+				ok = false;
+			}
+			long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+
+			if( recording ){
+				if( ok ){
+					latencies.computeIfAbsent(endpoint, k -> new LatencyHistogram()).record(micros);
+				} else {
+					errors.computeIfAbsent(endpoint, k -> new long[1])[0]++;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Measures what every blocking request allocates, using the per thread allocation counter of the request
+	 * thread. Async requests complete on other threads, for them nothing is reported.
+	 */
+	private static void measureAllocation() {
+
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if( App.ASYNC || !(threads instanceof com.sun.management.ThreadMXBean) ){
+			return;
+		}
+		com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+		if( !allocation.isThreadAllocatedMemorySupported() || !allocation.isThreadAllocatedMemoryEnabled() ){
+			return;
+		}
+
+		before("/api/*", (req,res) -> {
+			req.attribute(ALLOCATION_START, allocation.getThreadAllocatedBytes(Thread.currentThread().getId()));
+		});
+
+		afterAfter("/api/*", (req,res) -> {
+			Long start = req.attribute(ALLOCATION_START);
+			long end = allocation.getThreadAllocatedBytes(Thread.currentThread().getId());
+			if( start == null || start < 0 || end < 0 ){
+				return;
+			}
+			String endpoint = req.pathInfo().substring("/api/".length());
+			allocatedBytes.computeIfAbsent(endpoint, k -> new LongAdder()).add(end - start);
+			measuredRequests.computeIfAbsent(endpoint, k -> new LongAdder()).increment();
+		});
+	}
+
+	private static void resetAllocation() {
+		allocatedBytes.values().forEach(LongAdder::reset);
+		measuredRequests.values().forEach(LongAdder::reset);
+	}
+
+	private static void report( int users, int duration, Map<String, LatencyHistogram> latencies, Map<String, Long> errors ) {
+
+		System.out.println();
+		System.out.println(String.format("%d users, %d s, %s, backend latency %.1f ms + %.1f ms jitter", users, duration,
+				App.ASYNC ? "async" : "blocking", SyntheticBackendConfig.LATENCY_MS, SyntheticBackendConfig.JITTER_MS));
+		System.out.println(String.format("%-45s %9s %9s %7s %9s %9s %9s %9s %12s %9s", "endpoint", "requests", "req/s", "errors",
+				"p50 ms", "p99 ms", "p99.9 ms", "max ms", "alloc KB/req", "alloc MB/s"));
+
+		LatencyHistogram all = new LatencyHistogram();
+		for( String endpoint : ENDPOINTS ){
+			LatencyHistogram histogram = latencies.getOrDefault(endpoint, new LatencyHistogram());
+			all.add(histogram);
+			printRow(endpoint, histogram, errors.getOrDefault(endpoint, 0L), duration);
+		}
+		printRow("all", all, errors.values().stream().mapToLong(Long::longValue).sum(), duration);
+	}
+
+	private static void printRow( String endpoint, LatencyHistogram histogram, long errors, int duration ) {
+
+		String allocPerRequest = "-", allocPerSecond = "-";
+		LongAdder bytes = allocatedBytes.get(endpoint);
+		LongAdder requests = measuredRequests.get(endpoint);
+		if( "all".equals(endpoint) ){
+			long allBytes = allocatedBytes.values().stream().mapToLong(LongAdder::sum).sum();
+			long allRequests = measuredRequests.values().stream().mapToLong(LongAdder::sum).sum();
+			bytes = new LongAdder();
+			bytes.add(allBytes);
+			requests = new LongAdder();
+			requests.add(allRequests);
+		}
+		if( bytes != null && requests != null && requests.sum() > 0 ){
+			allocPerRequest = String.format("%.1f", bytes.sum() / 1024.0d / requests.sum());
+			allocPerSecond = String.format("%.1f", bytes.sum() / (1024.0d * 1024.0d) / duration);
+		}
+
+		System.out.println(String.format("%-45s %9d %9.1f %7d %9.2f %9.2f %9.2f %9.2f %12s %9s", endpoint, histogram.count(),
+				histogram.count() / (double) duration, errors, millis(histogram.percentile(50)), millis(histogram.percentile(99)),
+				millis(histogram.percentile(99.9)), millis(histogram.max()), allocPerRequest, allocPerSecond));
+	}
+
+	private static double millis( long micros ) {
+		return micros / 1000.0d;
+	}
+
+	private static void drain( InputStream in ) throws IOException {
+		if( in == null ){
+			return;
+		}
+		byte[] buffer = new byte[8192];
+		while( in.read(buffer) != -1 ){
+		}
+	}
+
+	private static String encode( String value ) {
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void pause( long millis ) {
+		if( millis <= 0 ){
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.datastax.field.examples.geo.loadtest;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.FilterType;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.dse.DseCluster;
+import com.datastax.driver.dse.DseSession;
+import com.datastax.field.examples.geo.App;
+import com.datastax.field.examples.geo.config.DseConfig;
+import com.datastax.field.examples.geo.service.LocationFinderService;
+
+/**
+ * Wires the application without a cluster: DseConfig is replaced by a session that refuses every query, and every
+ * query type is answered by the local index (loaded with a synthetic dataset by the LoadGenerator), behind a
+ * LatencyInjectingLocationFinderService.
+ */
+@Configuration
+@ComponentScan(basePackages = "com.datastax.field.examples.geo", 
+		excludeFilters = @ComponentScan.Filter(type = FilterType.ASSIGNABLE_TYPE, 
+				classes = { App.class, DseConfig.class, LocationFinderService.class }))
+public class SyntheticBackendConfig {
+
+	static double LATENCY_MS = 0.0d;
+	static double JITTER_MS = 0.0d;
+
+	@Bean
+	public DseSession dseSession() {
+		return (DseSession) Proxy.newProxyInstance(DseSession.class.getClassLoader(), new Class<?>[]{ DseSession.class }, (proxy, method, args) -> {
+			switch( method.getName() ){
+			case "prepare":
+				return preparedStatement();
+			case "close":
+				return null;
+			case "toString":
+				return "SyntheticBackend";
+			}
+			throw new UnsupportedOperationException("The load test has no DSE cluster: DseSession." + method.getName());
+		});
+	}
+
+	/**
+	 * LocationStatements prepares (and configures) its statements at startup, they are never bound.
+	 */
+	private static PreparedStatement preparedStatement() {
+		return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{ PreparedStatement.class }, (proxy, method, args) -> {
+			if( method.getReturnType() == PreparedStatement.class ){
+				return proxy;
+			}
+			if( method.getName().equals("toString") ){
+				return "SyntheticPreparedStatement";
+			}
+			throw new UnsupportedOperationException("The load test has no DSE cluster: PreparedStatement." + method.getName());
+		});
+	}
+
+	/**
+	 * built but never initialized, so it does not connect anywhere.
+	 */
+	@Bean
+	public DseCluster dseCluster() {
+		return DseCluster.builder().addContactPoint("127.0.0.1").build();
+	}
+
+	@Bean(destroyMethod = "shutdown")
+	public ExecutorService dseCallbackExecutor() {
+		return Executors.newFixedThreadPool(2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	@Bean(destroyMethod = "shutdown")
+	public ScheduledExecutorService latencyScheduler() {
+		return Executors.newScheduledThreadPool(2);
+	}
+
+	@Bean
+	public LocationFinderService locationFinderService() {
+		return new LatencyInjectingLocationFinderService(LATENCY_MS, JITTER_MS, latencyScheduler());
+	}
+
+}
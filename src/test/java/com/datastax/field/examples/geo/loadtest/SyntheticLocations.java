@@ -0,0 +1,100 @@
+package com.datastax.field.examples.geo.loadtest;
+
+import java.util.Random;
+
+import com.datastax.field.examples.geo.index.LocationTable;
+
+/**
+ * Generates a simplegeo.locations like dataset: locations clustered around (weighted) city centers, skewed
+ * category / subcategory frequencies and chain names that repeat across cities.
+ */
+public class SyntheticLocations {
+
+	/** name, lat, lng, weight */
+	static final Object[][] CITIES = {
+			{ "New York", 40.7128, -74.0060, 20 }, { "Los Angeles", 34.0522, -118.2437, 12 }, { "Chicago", 41.8781, -87.6298, 9 },
+			{ "Houston", 29.7604, -95.3698, 7 }, { "Phoenix", 33.4484, -112.0740, 5 }, { "Philadelphia", 39.9526, -75.1652, 5 },
+			{ "San Antonio", 29.4241, -98.4936, 4 }, { "San Diego", 32.7157, -117.1611, 4 }, { "Dallas", 32.7767, -96.7970, 4 },
+			{ "Minneapolis", 44.9778, -93.2650, 3 }, { "Seattle", 47.6062, -122.3321, 3 }, { "Denver", 39.7392, -104.9903, 3 },
+			{ "Boston", 42.3601, -71.0589, 3 }, { "Miami", 25.7617, -80.1918, 3 }, { "Atlanta", 33.7490, -84.3880, 3 },
+			{ "Honolulu", 21.3069, -157.8583, 1 }, { "Anchorage", 61.2181, -149.9003, 1 } };
+
+	/** category, then its subcategories */
+	static final String[][] CATEGORIES = {
+			{ "Food & Dining", "Restaurants", "Pizza", "Coffee & Tea", "Bakeries", "Fast Food", "Bars" },
+			{ "Shopping", "Clothing", "Grocery", "Electronics", "Books", "" },
+			{ "Services", "Auto Repair", "Banks", "Hair Salons", "Dry Cleaning" },
+			{ "Health & Medicine", "Dentists", "Pharmacies", "Physicians" },
+			{ "Entertainment", "Movie Theaters", "Museums", "Parks" },
+			{ "Travel", "Hotels", "Car Rental" } };
+
+	static final String[] NAME_WORDS = { "joe's", "golden", "city", "blue", "north", "main street", "corner", "family",
+			"royal", "lucky", "green", "sunrise", "downtown", "star", "village", "urban", "happy", "little", "grand", "pizza",
+			"cafe", "market", "grill", "house", "express", "center", "shop", "studio", "garden", "bistro" };
+
+	static final String[] CHAINS = { "Starbucks", "Subway", "McDonald's", "Walgreens", "CVS Pharmacy", "Pizza Hut", "Shell",
+			"Wells Fargo", "Chase Bank", "Target" };
+
+
+	public static LocationTable generate( int size, long seed ) {
+
+		Random random = new Random(seed);
+		int totalWeight = 0;
+		for( Object[] city : CITIES ){
+			totalWeight += (Integer) city[3];
+		}
+
+		LocationTable.Builder builder = new LocationTable.Builder();
+		for( int i = 0; i < size; i++ ){
+
+			Object[] city = pickCity(random, totalWeight);
+			// most locations are downtown, some in the suburbs
+			double spread = random.nextDouble() < 0.7 ? 0.05 : 0.25;
+			double lat = (Double) city[1] + random.nextGaussian() * spread;
+			double lng = (Double) city[2] + random.nextGaussian() * spread * 1.3;
+
+			String[] category = CATEGORIES[skewed(random, CATEGORIES.length)];
+			String subcategory = random.nextInt(20) == 0 ? null : category[1 + skewed(random, category.length - 1)];
+
+			String name = random.nextInt(8) == 0 ? CHAINS[skewed(random, CHAINS.length)] 
+					: capitalize(NAME_WORDS[random.nextInt(NAME_WORDS.length)] + " " + NAME_WORDS[random.nextInt(NAME_WORDS.length)]);
+
+			builder.add("SG_" + Long.toHexString(random.nextLong()) + "_" + i, name, name.toLowerCase(),
+					(1 + random.nextInt(9999)) + " " + capitalize(NAME_WORDS[random.nextInt(NAME_WORDS.length)]) + " St",
+					(String) city[0], "US", String.format("+1 %03d 555 %04d", 200 + random.nextInt(800), random.nextInt(10000)),
+					String.format("%05d", random.nextInt(100000)), category[0], subcategory,
+					random.nextInt(3) == 0 ? "http://www.example.com/" + i : null, null,
+					Math.max(-90.0, Math.min(90.0, lat)), Math.max(-180.0, Math.min(180.0, lng)));
+		}
+		return builder.build();
+	}
+
+	static Object[] pickCity( Random random, int totalWeight ) {
+		int pick = random.nextInt(totalWeight);
+		for( Object[] city : CITIES ){
+			pick -= (Integer) city[3];
+			if( pick < 0 ){
+				return city;
+			}
+		}
+		return CITIES[0];
+	}
+
+	/**
+	 * @return 0 .. n-1, lower values more likely (roughly zipfian)
+	 */
+	static int skewed( Random random, int n ) {
+		return Math.min(n - 1, (int) (n * Math.pow(random.nextDouble(), 2.0)));
+	}
+
+	private static String capitalize( String words ) {
+		StringBuilder sb = new StringBuilder(words.length());
+		boolean start = true;
+		for( char c : words.toCharArray() ){
+			sb.append(start ? Character.toUpperCase(c) : c);
+			start = c == ' ';
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,68 @@
+package com.datastax.field.examples.geo.metrics;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class LogLinearHistogramTest extends TestCase {
+
+	/**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public LogLinearHistogramTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( LogLinearHistogramTest.class );
+    }
+
+    /**
+     * Percentiles are within the 1.5% precision of the buckets.
+     */
+    public void testPercentiles()
+    {
+    	LogLinearHistogram histogram = new LogLinearHistogram();
+    	for( long micros = 1; micros <= 100000; micros++ ){
+    		histogram.record(micros);
+    	}
+    	
+    	assertEquals( 100000, histogram.count() );
+    	assertEquals( 100000, histogram.max() );
+    	assertEquals( 5000050000L, histogram.sum() );
+    	assertEquals( 50000, histogram.percentile(50), 50000 * 0.016 );
+    	assertEquals( 99000, histogram.percentile(99), 99000 * 0.016 );
+    	assertEquals( 100000, histogram.percentile(100) );
+    }
+
+    /**
+     * Every value falls in a bucket whose range contains it.
+     */
+    public void testBuckets()
+    {
+    	long previous = -1;
+    	for( long value = 0; value < 1L << 40; value = value * 3 / 2 + 1 ){
+    		int index = LogLinearHistogram.index(value);
+    		assertTrue( LogLinearHistogram.highestValue(index) >= value );
+    		assertTrue( index == 0 || LogLinearHistogram.highestValue(index - 1) < value );
+    		assertTrue( index >= previous );
+    		previous = index;
+    	}
+    	
+    	LogLinearHistogram histogram = new LogLinearHistogram();
+    	histogram.record(100);
+    	histogram.record(1000);
+    	histogram.record(10000);
+    	assertEquals( 1, histogram.countAtOrBelow(500) );
+    	assertEquals( 3, histogram.countAtOrBelow(20000) );
+    }
+
+}
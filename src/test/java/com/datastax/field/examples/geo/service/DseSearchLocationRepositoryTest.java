@@ -0,0 +1,99 @@
+package com.datastax.field.examples.geo.service;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.dse.geometry.Point;
+import com.datastax.field.examples.geo.util.JsonWritable;
+import com.google.gson.stream.JsonWriter;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class DseSearchLocationRepositoryTest extends TestCase {
+
+	/**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public DseSearchLocationRepositoryTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( DseSearchLocationRepositoryTest.class );
+    }
+
+    /**
+     * The category is a StrField: food and Food are different categories, as they are for the GET route.
+     */
+    public void testSplitByCategory() throws IOException
+    {
+    	List<String> categories = Arrays.asList("food", "Food", " Shopping ");
+    	List<JsonWritable> split = DseSearchLocationRepository.splitByCategory(resultSet(row("a", "Food"), row("b", "Shopping"), row("c", "Food")), categories, 10, 30);
+
+    	assertEquals( "[]", json(split.get(0)) );
+    	assertEquals( Arrays.asList("a", "c"), ids(json(split.get(1))) );
+    	assertEquals( Arrays.asList("b"), ids(json(split.get(2))) );
+
+    	// matched on neither category, e.g. the schema changed: every category is queried on its own
+    	split = DseSearchLocationRepository.splitByCategory(resultSet(row("a", "Food"), row("b", "FOOD")), categories, 10, 30);
+    	assertEquals( Arrays.asList(null, null, null), split );
+    }
+
+
+    private static String json( JsonWritable body ) throws IOException
+    {
+    	StringWriter json = new StringWriter();
+    	body.writeTo(new JsonWriter(json));
+    	return json.toString();
+    }
+
+    private static List<String> ids( String json )
+    {
+    	List<String> ids = new ArrayList<>();
+    	for( int i = json.indexOf("\"id\":\""); i >= 0; i = json.indexOf("\"id\":\"", i + 1) ){
+    		ids.add(json.substring(i + 6, json.indexOf('"', i + 6)));
+    	}
+    	return ids;
+    }
+
+    private static ResultSet resultSet( Row... rows )
+    {
+    	return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ ResultSet.class }, (proxy, method, args) -> {
+    		if( method.getName().equals("iterator") ){
+    			return Arrays.asList(rows).iterator();
+    		}
+    		throw new UnsupportedOperationException(method.getName());
+    	});
+    }
+
+    private static Row row( String id, String category )
+    {
+    	return (Row) Proxy.newProxyInstance(Row.class.getClassLoader(), new Class<?>[]{ Row.class }, (proxy, method, args) -> {
+    		switch( method.getName() ){
+    			case "getString":
+    				return "id".equals(args[0]) ? id : "category".equals(args[0]) ? category : null;
+    			case "getObject":
+    				return new Point(-93.2, 45.0);
+    			default:
+    				throw new UnsupportedOperationException(method.getName());
+    		}
+    	});
+    }
+
+}
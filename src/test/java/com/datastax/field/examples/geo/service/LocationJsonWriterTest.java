@@ -0,0 +1,64 @@
+package com.datastax.field.examples.geo.service;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+
+import com.datastax.driver.core.Row;
+import com.datastax.driver.dse.geometry.Point;
+import com.google.gson.stream.JsonWriter;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class LocationJsonWriterTest extends TestCase {
+
+	/**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public LocationJsonWriterTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( LocationJsonWriterTest.class );
+    }
+
+    /**
+     * A row kept by textColumns is written as the Row is, with its distance after geo.
+     */
+    public void testTextColumns() throws IOException
+    {
+    	Row row = row();
+    	StringWriter json = new StringWriter();
+    	LocationJsonWriter.writeLocation(new JsonWriter(json), LocationJsonWriter.textColumns(row), 45.0, -93.2, 1.23456);
+
+    	String location = LocationJsonWriter.toJson(row);
+    	assertEquals( location.substring(0, location.length() - 1) + ",\"distance_km\":1.235}", json.toString() );
+    }
+
+
+    private static Row row()
+    {
+    	return (Row) Proxy.newProxyInstance(Row.class.getClassLoader(), new Class<?>[]{ Row.class }, (proxy, method, args) -> {
+    		switch( method.getName() ){
+    			case "getString":
+    				return "phone".equals(args[0]) ? null : args[0] + " \"" + args[0] + "\"";
+    			case "getObject":
+    				return new Point(-93.2, 45.0);
+    			default:
+    				throw new UnsupportedOperationException(method.getName());
+    		}
+    	});
+    }
+
+}
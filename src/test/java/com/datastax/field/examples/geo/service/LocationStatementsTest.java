@@ -0,0 +1,132 @@
+package com.datastax.field.examples.geo.service;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.datastax.field.examples.geo.util.CQLUtil;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class LocationStatementsTest extends TestCase {
+
+	/**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public LocationStatementsTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( LocationStatementsTest.class );
+    }
+
+    /**
+     * The bound solr_query must stay valid JSON whatever the user typed.
+     */
+    public void testNameWithinRadiusJson()
+    {
+    	String json = LocationStatements.nameWithinRadiusJson("Joe's \"Pizza\" Bar", 45.0, -93.5, 0.05);
+    	JsonObject obj = new JsonParser().parse(json).getAsJsonObject();
+
+    	assertEquals( "*:*", obj.get("q").getAsString() );
+    	assertEquals( "name_lowercase:*joe's\\ pizza\\ bar* AND geo:\"IsWithin(BUFFER(POINT(-93.5 45.0), 0.05))\"", obj.get("fq").getAsString() );
+    }
+
+    /**
+     * Test
+     */
+    public void testLocationsOnCategoryJson()
+    {
+    	String json = LocationStatements.locationsOnCategoryJson(" Food\" OR *:* ", null, 45.0, -94.0, 46.0, -93.0);
+    	JsonObject obj = new JsonParser().parse(json).getAsJsonObject();
+
+    	assertEquals( "category:(\"Food\\\" OR *:*\") AND geo:[45.0,-94.0 TO 46.0,-93.0]", obj.get("fq").getAsString() );
+    }
+
+    /**
+     * The categories of a batch are merged into one filter query.
+     */
+    public void testLocationsOnCategoriesJson()
+    {
+    	String json = LocationStatements.locationsOnCategoriesJson(Arrays.asList("Food & Dining", "Shopping\" OR *:*"), 45.0, -94.0, 46.0, -93.0);
+    	JsonObject obj = new JsonParser().parse(json).getAsJsonObject();
+
+    	assertEquals( "category:(\"Food & Dining\" OR \"Shopping\\\" OR *:*\") AND geo:[45.0,-94.0 TO 46.0,-93.0]", obj.get("fq").getAsString() );
+    }
+
+    /**
+     * The paged listing is the same query, with driver paging turned on.
+     */
+    public void testLocationsOnCategoryPagedJson()
+    {
+    	String json = LocationStatements.locationsOnCategoryPagedJson("Food", "Pizza", 45.0, -94.0, 46.0, -93.0);
+    	JsonObject obj = new JsonParser().parse(json).getAsJsonObject();
+
+    	assertEquals( "category:(\"Food\") AND subcategory:(\"Pizza\") AND geo:[45.0,-94.0 TO 46.0,-93.0]", obj.get("fq").getAsString() );
+    	assertEquals( "driver", obj.get("paging").getAsString() );
+    }
+
+    /**
+     * Test
+     */
+    public void testDescribe()
+    {
+    	String cql = LocationStatements.describe(LocationStatements.NAME_SUGGEST_CQL, "{\"fq\":\"name_lowercase:*joe's*\"}", 50);
+
+    	assertEquals( "SELECT name, geo FROM simplegeo.locations WHERE solr_query = '{\"fq\":\"name_lowercase:*joe''s*\"}' LIMIT 50", cql );
+    }
+
+    /**
+     * Building the solr_query in one reused builder gives the JSON the string concatenation it replaced gave.
+     */
+    public void testBuilderEquivalence()
+    {
+    	String alphabet = "aZ '\u00c9;<>\"\\\t\n\u0001*(&";
+    	Random random = new Random(7);
+
+    	for( int n = 0; n < 5000; n++ ){
+    		StringBuilder input = new StringBuilder();
+    		for( int length = random.nextInt(12); length > 0; length-- ){
+    			input.append(alphabet.charAt(random.nextInt(alphabet.length())));
+    		}
+    		String s = input.toString();
+
+    		String fq = "name_lowercase:*" + CQLUtil.cleanseSolrTerm(s).toLowerCase() + "*" + " AND geo:\"IsWithin(BUFFER(POINT(-93.5 45.0), 0.05))\"";
+    		assertEquals( "{ \"q\":\"*:*\", \"fq\":\"" + escapeJson(fq) + "\"}", LocationStatements.nameWithinRadiusJson(s, 45.0, -93.5, 0.05) );
+
+    		fq = "category:(\"" + CQLUtil.escapeSolrPhrase(s) + "\")" + (s.isEmpty() ? "" : " AND subcategory:(\"" + CQLUtil.escapeSolrPhrase(s) + "\")") + " AND geo:[45.0,-94.0 TO 46.0,-93.0]";
+    		assertEquals( "{\"q\":\"*:*\", \"fq\":\"" + escapeJson(fq) + "\", \"paging\":\"driver\"}", LocationStatements.locationsOnCategoryPagedJson(s, s, 45.0, -94.0, 46.0, -93.0) );
+    	}
+    }
+
+
+    private static String escapeJson( String value )
+    {
+    	StringBuilder sb = new StringBuilder();
+    	for( char c : value.toCharArray() ){
+    		switch( c ){
+    			case '"':  sb.append("\\\""); break;
+    			case '\\': sb.append("\\\\"); break;
+    			case '\n': sb.append("\\n"); break;
+    			case '\r': sb.append("\\r"); break;
+    			case '\t': sb.append("\\t"); break;
+    			default:
+    				sb.append(c < 0x20 ? String.format("\\u%04x", (int) c) : String.valueOf(c));
+    		}
+    	}
+    	return sb.toString();
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.datastax.field.examples.geo.service;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class ShadowLocationRepositoryTest extends TestCase {
+
+	/**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ShadowLocationRepositoryTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ShadowLocationRepositoryTest.class );
+    }
+
+    /**
+     * Locations are matched on their id, in any order.
+     */
+    public void testLocationDifference()
+    {
+    	String primary = "[{\"id\":\"a\",\"name\":\"Cafe\"},{\"id\":\"b\",\"name\":\"Bar\"}]";
+    	
+    	assertNull( ShadowLocationRepository.difference(primary, "[{\"id\":\"b\",\"name\":\"Bar\"},{\"id\":\"a\",\"name\":\"Cafe\"}]", 10) );
+    	
+    	String difference = ShadowLocationRepository.difference(primary, "[{\"id\":\"a\"},{\"id\":\"c\"}]", 10);
+    	assertTrue( difference, difference.contains("1 missing [b]") );
+    	assertTrue( difference, difference.contains("1 extra [c]") );
+    	
+    	assertNull( ShadowLocationRepository.difference("[\"Cafe\",\"Bar\"]", "[\"Bar\",\"Cafe\"]", 50) );
+    }
+
+    /**
+     * Pivot counts are compared per value, whatever the order of the values.
+     */
+    public void testPivotDifference()
+    {
+    	String primary = "{\"category,subcategory\":[{\"field\":\"category\",\"value\":\"Food\",\"count\":3,\"pivot\":["
+    			+ "{\"field\":\"subcategory\",\"value\":\"Bars\",\"count\":1},{\"field\":\"subcategory\",\"value\":\"Pizza\",\"count\":2}]}]}";
+    	String reordered = "{\"category,subcategory\":[{\"field\":\"category\",\"value\":\"Food\",\"count\":3,\"pivot\":["
+    			+ "{\"field\":\"subcategory\",\"value\":\"Pizza\",\"count\":2},{\"field\":\"subcategory\",\"value\":\"Bars\",\"count\":1}]}]}";
+    	String different = "{\"category,subcategory\":[{\"field\":\"category\",\"value\":\"Food\",\"count\":3,\"pivot\":["
+    			+ "{\"field\":\"subcategory\",\"value\":\"Pizza\",\"count\":3}]}]}";
+    	
+    	assertNull( ShadowLocationRepository.difference(primary, reordered, 0) );
+    	
+    	String difference = ShadowLocationRepository.difference(primary, different, 0);
+    	assertTrue( difference, difference.contains("Food/Bars 1 vs null") );
+    	assertTrue( difference, difference.contains("Food/Pizza 2 vs 3") );
+    }
+
+    /**
+     * Shadow queries over the bound are not run, a permit is returned when its shadow query completes.
+     */
+    public void testMaxInFlight()
+    {
+    	String pivot = "{\"category\":[]}";
+    	List<CompletableFuture<QueryResult<String>>> shadowQueries = new CopyOnWriteArrayList<>();
+    	LocationRepository primary = repository(() -> CompletableFuture.completedFuture(new QueryResult<>("primary", new Object[0], pivot, 0)));
+    	LocationRepository shadow = repository(() -> {
+    		CompletableFuture<QueryResult<String>> query = new CompletableFuture<>();
+    		shadowQueries.add(query);
+    		return query;
+    	});
+    	Semaphore permits = new Semaphore(1);
+    	ShadowLocationRepository repository = new ShadowLocationRepository(primary, shadow, Runnable::run, permits);
+    	
+    	assertEquals( pivot, repository.pivot("category", 44.9, -93.3, 45.0, -93.2).getResult() );
+    	assertEquals( pivot, repository.pivot("category", 44.9, -93.3, 45.0, -93.2).getResult() );
+    	assertEquals( 1, shadowQueries.size() );
+    	assertEquals( 0, permits.availablePermits() );
+    	
+    	shadowQueries.get(0).complete(new QueryResult<>("shadow", new Object[0], pivot, 0));
+    	assertEquals( 1, permits.availablePermits() );
+    	repository.pivot("category", 44.9, -93.3, 45.0, -93.2);
+    	assertEquals( 2, shadowQueries.size() );
+    }
+
+
+    /**
+     * @return a repository whose pivot queries return the given results, blocking or not
+     */
+    private static LocationRepository repository( Supplier<CompletableFuture<QueryResult<String>>> pivots )
+    {
+    	return (LocationRepository) Proxy.newProxyInstance(LocationRepository.class.getClassLoader(), new Class<?>[]{ LocationRepository.class }, (proxy, method, args) -> {
+    		switch( method.getName() ){
+    			case "name":
+    				return "test";
+    			case "pivotAsync":
+    				return pivots.get();
+    			case "pivot":
+    				return pivots.get().join();
+    			default:
+    				throw new UnsupportedOperationException(method.getName());
+    		}
+    	});
+    }
+
+}
@@ -0,0 +1,181 @@
+package com.datastax.field.examples.geo.tile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class VectorTileEncoderTest extends TestCase {
+
+	/**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public VectorTileEncoderTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( VectorTileEncoderTest.class );
+    }
+
+    /**
+     * Tile 1/0/0 is the north west quarter of the world.
+     */
+    public void testTileBounds()
+    {
+    	double[] box = WebMercator.tileBounds(1, 0, 0);
+
+    	assertEquals( 0.0, box[0], 1e-9 );
+    	assertEquals( -180.0, box[1], 1e-9 );
+    	assertEquals( WebMercator.MAX_LAT, box[2], 1e-9 );
+    	assertEquals( 0.0, box[3], 1e-9 );
+    }
+
+    /**
+     * Locations written by LocationJsonWriter (or replayed from the cache) become point features, the key and value
+     * tables hold every string once.
+     */
+    public void testEncodeLocations() throws IOException
+    {
+    	double[] box = WebMercator.tileBounds(1, 0, 0);
+    	VectorTileEncoder encoder = new VectorTileEncoder("locations", box[0], box[1], box[2], box[3]);
+    	LocationFeatureWriter out = new LocationFeatureWriter(encoder, LocationFeatureWriter.DEFAULT_PROPERTIES);
+
+    	out.beginArray();
+    	out.beginObject();
+    	out.name("id").value("a");
+    	out.name("name").value("Joe's");
+    	out.name("address").value("1 Main St");
+    	out.name("category").value("Food");
+    	out.name("subcategory").nullValue();
+    	out.name("geo").beginObject().name("lng").value(-90.0).name("lat").value(0.0).endObject();
+    	out.endObject();
+    	out.jsonValue("{\"id\":\"b\",\"name\":\"Bob's\",\"category\":\"Food\",\"geo\":{\"lng\":-180.0,\"lat\":0.0}}");
+    	out.endArray();
+
+    	assertEquals( 2, encoder.size() );
+
+    	List<byte[]> layers = fields(encoder.encode(), 3);
+    	assertEquals( 1, layers.size() );
+    	byte[] layer = layers.get(0);
+
+    	assertEquals( "locations", string(fields(layer, 1).get(0)) );
+    	assertEquals( 2L, varints(layer, 15).get(0).longValue() );
+    	assertEquals( 4096L, varints(layer, 5).get(0).longValue() );
+    	assertEquals( "[id, name, category]", strings(fields(layer, 3)).toString() );
+
+    	List<String> values = new ArrayList<>();
+    	for( byte[] value : fields(layer, 4) ){
+    		values.add(string(fields(value, 1).get(0)));
+    	}
+    	assertEquals( "[a, Joe's, Food, b, Bob's]", values.toString() );
+
+    	List<byte[]> features = fields(layer, 2);
+    	assertEquals( 2, features.size() );
+    	assertEquals( 1L, varints(features.get(0), 3).get(0).longValue() );
+    	assertEquals( "[0, 0, 1, 1, 2, 2]", packed(fields(features.get(0), 2).get(0)).toString() );
+    	assertEquals( "[0, 3, 1, 4, 2, 2]", packed(fields(features.get(1), 2).get(0)).toString() );
+
+    	// MoveTo(1), then the zigzag encoded x, y: lng -90 is half way across, lat 0 is the bottom edge
+    	assertEquals( "[9, " + 2048 * 2 + ", " + 4096 * 2 + "]", packed(fields(features.get(0), 4).get(0)).toString() );
+    	assertEquals( "[9, 0, " + 4096 * 2 + "]", packed(fields(features.get(1), 4).get(0)).toString() );
+    }
+
+    public void testEmptyTile()
+    {
+    	assertEquals( 0, new VectorTileEncoder("locations", 0.0, 0.0, 1.0, 1.0).encode().length );
+    }
+
+
+    /**
+     * @return the length delimited values of the field, in order
+     */
+    private static List<byte[]> fields( byte[] message, int field )
+    {
+    	List<byte[]> result = new ArrayList<>();
+    	int[] pos = { 0 };
+    	while( pos[0] < message.length ){
+    		long key = varint(message, pos);
+    		if( (key & 7) == 0 ){
+    			varint(message, pos);
+    			continue;
+    		}
+    		int length = (int) varint(message, pos);
+    		if( key >>> 3 == field ){
+    			byte[] value = new byte[length];
+    			System.arraycopy(message, pos[0], value, 0, length);
+    			result.add(value);
+    		}
+    		pos[0] += length;
+    	}
+    	return result;
+    }
+
+    private static List<Long> varints( byte[] message, int field )
+    {
+    	List<Long> result = new ArrayList<>();
+    	int[] pos = { 0 };
+    	while( pos[0] < message.length ){
+    		long key = varint(message, pos);
+    		if( (key & 7) == 0 ){
+    			long value = varint(message, pos);
+    			if( key >>> 3 == field ){
+    				result.add(value);
+    			}
+    			continue;
+    		}
+    		int length = (int) varint(message, pos);
+    		pos[0] += length;
+    	}
+    	return result;
+    }
+
+    private static List<Long> packed( byte[] values )
+    {
+    	List<Long> result = new ArrayList<>();
+    	int[] pos = { 0 };
+    	while( pos[0] < values.length ){
+    		result.add(varint(values, pos));
+    	}
+    	return result;
+    }
+
+    private static long varint( byte[] bytes, int[] pos )
+    {
+    	long value = 0;
+    	for( int shift = 0; ; shift += 7 ){
+    		byte b = bytes[pos[0]++];
+    		value |= (long) (b & 0x7f) << shift;
+    		if( (b & 0x80) == 0 ){
+    			return value;
+    		}
+    	}
+    }
+
+    private static List<String> strings( List<byte[]> values )
+    {
+    	List<String> result = new ArrayList<>();
+    	for( byte[] value : values ){
+    		result.add(string(value));
+    	}
+    	return result;
+    }
+
+    private static String string( byte[] value )
+    {
+    	return new String(value, StandardCharsets.UTF_8);
+    }
+
+}
@@ -1,5 +1,7 @@
 package com.datastax.field.examples.geo.util;
 
+import java.util.Random;
+
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -59,4 +61,77 @@ public class CQLUtilTest extends TestCase {
     	assertTrue( result.equals( expected ) );
     }
 
+    /**
+     * Test 
+     */
+    public void testCleanseSolrTerm()
+    {
+    	String input = " \"Joe's Pizza\"; (2nd)* ";
+    	String expected = "Joe's\\ Pizza\\ \\(2nd\\)\\*";
+    	String result = CQLUtil.cleanseSolrTerm(input);
+    	
+    	assertEquals( expected, result );
+    }
+
+    /**
+     * The single pass cleansing returns what the regex based cleansing it replaced returned, for random input
+     * made of the characters that matter (the removed ones, quotes, whitespace, control and Solr syntax characters).
+     */
+    public void testSinglePassEquivalence()
+    {
+    	String alphabet = "ab Z9';<>\"\t\n\u000B\f\r\u0000\u0001\u001f\u00a0\u2003\u00e9\\+-!():^[]{}~*?|&/";
+    	Random random = new Random(42);
+
+    	for( int n = 0; n < 20000; n++ ){
+    		StringBuilder input = new StringBuilder();
+    		for( int length = random.nextInt(16); length > 0; length-- ){
+    			input.append(alphabet.charAt(random.nextInt(alphabet.length())));
+    		}
+    		String s = input.toString();
+
+    		assertEquals( s, regexCleanseInput(s), CQLUtil.cleanseInput(s) );
+    		assertEquals( s, regexCleanseInput(s).replace(" ", "\\\\ "), CQLUtil.cleanseQueryStr(s) );
+    		assertEquals( s, regexCleanseInput(s).replace(" ", "\\\\ "), CQLUtil.cleanseQueryStrField(s) );
+    		assertEquals( s, regexCleanseTerm(s), CQLUtil.cleanseTerm(s) );
+    		assertEquals( s, regexCleanseSolrTerm(s), CQLUtil.cleanseSolrTerm(s) );
+    		assertEquals( s, s.trim().replace("\\", "\\\\").replace("\"", "\\\""), CQLUtil.escapeSolrPhrase(s) );
+    	}
+    }
+
+    /**
+     * The appending variants append to what the builder has.
+     */
+    public void testAppend()
+    {
+    	StringBuilder sb = new StringBuilder("fq:");
+    	CQLUtil.appendSolrTerm(sb, " Joe's  pizza; ");
+    	CQLUtil.appendSolrPhrase(sb.append(" \""), " Food \"& Dining\" ").append('"');
+
+    	assertEquals( "fq:Joe's\\ pizza \"Food \\\"& Dining\\\"\"", sb.toString() );
+    }
+
+
+    private static String regexCleanseInput( String input )
+    {
+    	return input.replaceAll("[;><\"]", " ").replaceAll("'", "''").replaceAll("\\s+", " ").trim();
+    }
+
+    private static String regexCleanseTerm( String input )
+    {
+    	return input.replaceAll("[;><\"]", " ").replaceAll("\\s+", " ").trim();
+    }
+
+    private static String regexCleanseSolrTerm( String input )
+    {
+    	String cleansed = regexCleanseTerm(input);
+    	StringBuilder sb = new StringBuilder();
+    	for( char c : cleansed.toCharArray() ){
+    		if( " \\+-!():^[]{}~*?|&/".indexOf(c) >= 0 ){
+    			sb.append('\\');
+    		}
+    		sb.append(c);
+    	}
+    	return sb.toString();
+    }
+
 }
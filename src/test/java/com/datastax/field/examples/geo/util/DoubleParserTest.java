@@ -0,0 +1,69 @@
+package com.datastax.field.examples.geo.util;
+
+import java.util.Locale;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class DoubleParserTest extends TestCase {
+
+	/**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public DoubleParserTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( DoubleParserTest.class );
+    }
+
+    /**
+     * A valid number is the double Double.parseDouble returns, bit for bit.
+     */
+    public void testSameAsParseDouble()
+    {
+    	String[] fixed = { "0", "-0", "0.0", "-0.000", "+1", "45.1", " -93.2650 ", "180", "-180.0", ".5", "5.", "1e3", "1.5E-7",
+    			"0.1f", "2d", "00012.340", "123456789012345678", "0.30000000000000004", "1e22", "1e23", "1e-22", "1e-23", "4.9e-324", "1e400", "-1e-400" };
+    	for( String value : fixed ){
+    		assertSame( value, Double.parseDouble(value), DoubleParser.parse(value) );
+    	}
+
+    	Random random = new Random(11);
+    	for( int n = 0; n < 100000; n++ ){
+    		double d = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12) - 4);
+    		String[] values = { Double.toString(d), String.format(Locale.ROOT, "%." + random.nextInt(17) + "f", d), String.format(Locale.ROOT, "%.6e", d) };
+    		for( String value : values ){
+    			assertSame( value, Double.parseDouble(value), DoubleParser.parse(value) );
+    		}
+    	}
+    }
+
+    /**
+     * Test
+     */
+    public void testInvalid()
+    {
+    	String[] invalid = { null, "", " ", "-", ".", "e5", "1e", "1e+", "1.2.3", "1,5", "45 N", "0x1p3", "NaN", "Infinity", "-Infinity", "1ff", "--1" };
+    	for( String value : invalid ){
+    		assertTrue( String.valueOf(value), Double.isNaN(DoubleParser.parse(value)) );
+    	}
+    }
+
+
+    private static void assertSame( String value, double expected, double actual )
+    {
+    	assertEquals( value, Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(actual) );
+    }
+
+}
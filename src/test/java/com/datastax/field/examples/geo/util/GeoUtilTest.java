@@ -0,0 +1,105 @@
+package com.datastax.field.examples.geo.util;
+
+import java.util.Random;
+
+import com.datastax.field.examples.geo.index.SpatialGridIndex;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class GeoUtilTest extends TestCase {
+
+	/**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public GeoUtilTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( GeoUtilTest.class );
+    }
+
+    /**
+     * A degree of latitude is 110.574 km at the equator, 111.132 km at 45 degrees and 111.694 km at the poles.
+     */
+    public void testKilometersToDegrees()
+    {
+    	assertEquals( 10.0 / 110.574, GeoUtil.kilometersToDegrees(10.0, 0.0), 1e-6 );
+    	assertEquals( 10.0 / 111.132, GeoUtil.kilometersToDegrees(10.0, 45.0), 1e-6 );
+    	assertEquals( 10.0 / 111.132, GeoUtil.kilometersToDegrees(10.0, -45.0), 1e-6 );
+    	assertEquals( 10.0 / 111.694, GeoUtil.kilometersToDegrees(10.0, 90.0), 1e-6 );
+
+    	for( double lat = -90.0; lat <= 90.0; lat += 0.37 ){
+    		double radians = Math.toRadians(lat);
+    		double exact = 111.13295 - 0.55982 * Math.cos(2 * radians) + 0.00117 * Math.cos(4 * radians);
+    		assertEquals( exact, GeoUtil.kilometersPerDegree(lat), 1e-4 );
+    		assertTrue( GeoUtil.kilometersPerDegree(lat) > 110.0 );
+    	}
+    }
+
+    /**
+     * Every point of a circle is in its bounding box and within the circle, wherever the circle is.
+     */
+    public void testCircle()
+    {
+    	Random random = new Random(9);
+
+    	for( int n = 0; n < 2000; n++ ){
+    		double lat = n % 4 == 0 ? Math.copySign(80.0 + random.nextDouble() * 10.0, random.nextDouble() - 0.5) : random.nextDouble() * 180.0 - 90.0;
+    		double lng = n % 3 == 0 ? Math.copySign(175.0 + random.nextDouble() * 5.0, random.nextDouble() - 0.5) : random.nextDouble() * 360.0 - 180.0;
+    		double radius = random.nextDouble() * 10.0;
+    		GeoCircle circle = new GeoCircle(lat, lng, radius);
+    		double[] box = circle.boundingBox();
+
+    		for( int i = 0; i < 50; i++ ){
+    			// a point at a random bearing, within the radius
+    			double[] point = destination(lat, lng, random.nextDouble() * 2 * Math.PI, random.nextDouble() * radius);
+    			assertTrue( circle + " " + point[0] + "," + point[1], SpatialGridIndex.contains(box[0], box[1], box[2], box[3], point[0], point[1]) );
+    			assertTrue( circle.contains(point[0], point[1]) );
+    			assertEquals( GeoUtil.distanceInDegrees(lat, lng, point[0], point[1]), circle.distanceInDegrees(point[0], point[1]), 1e-9 );
+    		}
+    	}
+    }
+
+    /**
+     * The box of a circle near a pole is wider than radius / cos(lat), it spans every longitude if the circle reaches the pole.
+     */
+    public void testBoundingBox()
+    {
+    	double[] box = GeoUtil.boundingBox(80.0, 0.0, 5.0);
+    	assertTrue( box[3] > 5.0 / Math.cos(Math.toRadians(80.0)) );
+    	assertEquals( -box[1], box[3], 1e-12 );
+
+    	box = GeoUtil.boundingBox(88.0, 30.0, 5.0);
+    	assertEquals( 83.0, box[0], 1e-12 );
+    	assertEquals( -180.0, box[1] );
+    	assertEquals( 90.0, box[2] );
+    	assertEquals( 180.0, box[3] );
+
+    	box = GeoUtil.boundingBox(0.0, 179.0, 2.0);
+    	assertEquals( 177.0, box[1], 1e-9 );
+    	assertEquals( -179.0, box[3], 1e-9 );
+    }
+
+
+    private static double[] destination( double lat, double lng, double bearing, double distanceInDegrees )
+    {
+    	double phi = Math.toRadians(lat), delta = Math.toRadians(distanceInDegrees);
+    	double phi2 = Math.asin(Math.sin(phi) * Math.cos(delta) + Math.cos(phi) * Math.sin(delta) * Math.cos(bearing));
+    	double lambda = Math.toRadians(lng) + Math.atan2(Math.sin(bearing) * Math.sin(delta) * Math.cos(phi), Math.cos(delta) - Math.sin(phi) * Math.sin(phi2));
+    	double lng2 = Math.toDegrees(lambda);
+    	lng2 = lng2 > 180.0 ? lng2 - 360.0 : (lng2 < -180.0 ? lng2 + 360.0 : lng2);
+    	return new double[]{ Math.toDegrees(phi2), lng2 };
+    }
+
+}